@@ -41,6 +41,14 @@ trait AllScadaServicesTest extends BenchmarkTest {
   def runTest(client: AllScadaService, stream: Option[PrintStream]): List[BenchmarkReading]
 }
 
+/**
+ * benchmarks of a single component that run in process and don't need a reef node
+ */
+trait LocalBenchmarkTest extends BenchmarkTest {
+  def runTest(client: Client, stream: Option[PrintStream]) = runTest(stream)
+  def runTest(stream: Option[PrintStream]): List[BenchmarkReading]
+}
+
 /**
  * each run from a benchmark test will certain fields that can be handled generically for
  * output and simple analysis.
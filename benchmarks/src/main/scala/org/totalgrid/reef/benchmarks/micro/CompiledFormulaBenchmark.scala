@@ -0,0 +1,77 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.benchmarks.micro
+
+import java.io.PrintStream
+import org.totalgrid.reef.benchmarks._
+import org.totalgrid.reef.calc.lib.eval._
+
+case class CompiledFormulaReading(formula: String, interpretedNanos: Long, compiledNanos: Long) extends BenchmarkReading {
+  def csvName = "compiledFormulas"
+
+  def testParameterNames = List("formula")
+  def testParameters = List(formula)
+
+  def testOutputNames = List("interpretedNsPerEval", "compiledNsPerEval", "speedup")
+  def testOutputs = List(interpretedNanos, compiledNanos, interpretedNanos.toDouble / math.max(compiledNanos, 1))
+}
+
+/**
+ * Compares the per evaluation cost of the compiled formulas against the OperationValue interpreter
+ * for a few typical calculation formulas. Inputs are built once up front so we are only timing the
+ * formula itself.
+ */
+class CompiledFormulaBenchmark(formulas: List[String], evaluations: Int) extends LocalBenchmarkTest {
+
+  private val inputs = new VariableSource {
+    private val values = Map(
+      "A" -> NumericMeas(12.5, 0),
+      "B" -> LongMeas(7, 0),
+      "C" -> NumericConst(-3.0),
+      "R" -> ValueRange((1 to 60).map { i => NumericMeas(i * 1.5, i) }.toList))
+
+    def forName(name: String): OperationValue = values(name)
+  }
+
+  private def nanosPerEvaluation(formula: Formula): Long = {
+    val start = System.nanoTime
+    var i = 0
+    while (i < evaluations) {
+      formula.evaluate(inputs)
+      i += 1
+    }
+    (System.nanoTime - start) / evaluations
+  }
+
+  def runTest(stream: Option[PrintStream]) = {
+    formulas.map { f =>
+      val expr = OperationParser.parseFormula(f)
+      val interpreted = new Formula.BasicFormulaEvaluator(expr, BasicOperations.getSource)
+      val compiled = Formula(expr, BasicOperations.getSource)
+
+      // warm up both paths once so we aren't just timing the JIT
+      nanosPerEvaluation(interpreted)
+      nanosPerEvaluation(compiled)
+
+      val reading = CompiledFormulaReading(f, nanosPerEvaluation(interpreted), nanosPerEvaluation(compiled))
+      stream.foreach { _.println("Evaluating " + f + ": " + reading.testOutputs.mkString(", ")) }
+      reading
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.benchmarks.micro
+
+import java.io.PrintStream
+import java.lang.management.ManagementFactory
+import scala.collection.JavaConversions._
+
+import org.totalgrid.reef.benchmarks._
+import org.totalgrid.reef.client.service.proto.Measurements.{ DetailQual, Quality, MeasurementBatch, Measurement }
+import org.totalgrid.reef.client.service.proto.Model.{ ReefUUID, Point }
+import org.totalgrid.reef.client.service.proto.Processing.{ Action => ActionProto, ActivationType, AnalogLimit, LinearTransform, MeasOverride, Trigger => TriggerProto, TriggerSet }
+import org.totalgrid.reef.persistence.ObjectCache
+import org.totalgrid.reef.measproc.MeasProcObjectCaches
+import org.totalgrid.reef.measproc.pipeline.{ ProcessedMeasBatchOutputCache, MeasProcessingPipeline }
+import org.totalgrid.reef.measproc.processing.{ Trigger, TriggerProcessingFactory, WorkingMeasurement }
+
+/**
+ * bytes are -1 when the jvm can't report how much each thread allocates
+ */
+case class MeasProcessingAllocationReading(batch: String, rebuiltBytes: Long, workingBytes: Long, rebuiltNanos: Long, workingNanos: Long)
+    extends BenchmarkReading {
+  def csvName = "measProcAllocation"
+
+  def testParameterNames = List("batch")
+  def testParameters = List(batch)
+
+  def testOutputNames = List("rebuiltBytesPerMeas", "workingBytesPerMeas", "allocationRatio", "rebuiltNsPerMeas", "workingNsPerMeas")
+  def testOutputs = List(rebuiltBytes, workingBytes, allocationRatio, rebuiltNanos, workingNanos)
+
+  /**
+   * how many times more the rebuild at every stage path allocated per measurement
+   */
+  def allocationRatio: Double = if (rebuiltBytes < 0 || workingBytes <= 0) -1 else rebuiltBytes.toDouble / workingBytes
+}
+
+/**
+ * Measures the bytes allocated per measurement processed by the pipeline, comparing carrying a
+ * WorkingMeasurement through every stage against rebuilding the measurement at each stage that edits
+ * it, the way the pipeline used to. Every tenth point is overridden, the rest have a trigger set that
+ * scales the value, changes the unit and annotates the quality when it is out of limits, so each of
+ * those measurements is edited by five stages on its way through.
+ */
+class MeasProcessingAllocationBenchmark(pointCount: Int, batches: Int) extends LocalBenchmarkTest {
+
+  private class NullCache[A] extends ObjectCache[A] {
+    def put(key: String, value: A) {}
+    def get(name: String): Option[A] = None
+    def delete(name: String) {}
+  }
+
+  private def pointName(i: Int) = "Substation" + (i % 50) + ".Device" + i + ".Value"
+  private def makePoint(name: String) = Point.newBuilder.setName(name).setUuid(ReefUUID.newBuilder.setValue(name)).build
+
+  private val points = (0 until pointCount).map(i => makePoint(pointName(i))).toList
+  private val overridden = points.zipWithIndex.filter(_._2 % 10 == 0).map(_._1)
+  private val triggered = points.filterNot(overridden.contains)
+
+  private def makeAnalog(p: Point) = Measurement.newBuilder.setName(p.getName).setType(Measurement.Type.DOUBLE)
+    .setDoubleVal(5.3).setTime(0).setQuality(Quality.newBuilder.setDetailQual(DetailQual.newBuilder)).setUnit("raw")
+
+  private def overrideOf(p: Point) = MeasOverride.newBuilder.setPoint(p).setMeas(makeAnalog(p).setDoubleVal(0)).build
+
+  private def action(name: String) = ActionProto.newBuilder.setActionName(name).setType(ActivationType.HIGH)
+
+  private def triggers(p: Point): List[TriggerProto] = List(
+    TriggerProto.newBuilder.setTriggerName("scale")
+      .addActions(action("scale").setLinearTransform(LinearTransform.newBuilder.setScale(2).setOffset(1)))
+      .addActions(action("unit").setSetUnit("kW")).build,
+    TriggerProto.newBuilder.setTriggerName("limit")
+      .setAnalogLimit(AnalogLimit.newBuilder.setUpperLimit(10).setLowerLimit(0))
+      .addActions(action("annotate").setQualityAnnotation(Quality.newBuilder.setValidity(Quality.Validity.QUESTIONABLE))).build)
+
+  private def triggerSet(p: Point) = TriggerSet.newBuilder.setPoint(p).addAllTriggers(triggers(p)).build
+
+  // what a protocol adapter sends: no system time or point uuid
+  private val fepBatch = {
+    val b = MeasurementBatch.newBuilder.setWallTime(0)
+    points.foreach { p => b.addMeas(makeAnalog(p)) }
+    b.build
+  }
+  // a measurement that already has everything we'd fill in
+  private val completeBatch = {
+    val b = MeasurementBatch.newBuilder.setWallTime(0)
+    points.foreach { p => b.addMeas(makeAnalog(p).setSystemTime(0).setPointUuid(p.getUuid)) }
+    b.build
+  }
+
+  private def pipeline() = {
+    val proc = new MeasProcessingPipeline(
+      MeasProcObjectCaches(new NullCache[Measurement], new NullCache[Measurement], new NullCache[Boolean]),
+      { ms => }, { e => }, points, "benchmark")
+    triggered.foreach { p => proc.triggerProc.add(triggerSet(p)) }
+    overridden.foreach { p => proc.overProc.add(overrideOf(p)) }
+    proc.batchOutput.flushCache()
+    proc
+  }
+
+  // the stages as they were: the pump and whitelist rebuild the measurement, the triggers are evaluated
+  // through the Measurement api so each action that fires builds its own copy
+  private def rebuildingPipeline() = {
+    val lookup = points.map { p => p.getName -> p }.toMap
+    val skip = overridden.map(_.getName).toSet
+    val factory = new TriggerProcessingFactory({ e => }, new NullCache[Measurement])
+    val pointTriggers = triggered.map { p => p.getName -> triggers(p).map(factory.buildTrigger(_, p.getName)) }.toMap
+    val stateCache = new NullCache[Boolean]
+    val output = new ProcessedMeasBatchOutputCache({ ms => }, { e => }, new NullCache[Measurement])
+    val working = new WorkingMeasurement
+    (batch: MeasurementBatch) => {
+      val now = System.currentTimeMillis()
+      batch.getMeasList.toList.foreach { m =>
+        val b = m.toBuilder
+        if (!m.hasSystemTime) b.setSystemTime(now)
+        if (!m.hasTime) b.setTime(batch.getWallTime)
+        val timed = b.build
+        lookup.get(timed.getName).foreach { p =>
+          val meas = timed.toBuilder.setPointUuid(p.getUuid).build
+          if (!skip.contains(meas.getName)) {
+            Trigger.processAll(meas, stateCache, pointTriggers(meas.getName)).foreach { r => output.pubMeas(working.reset(r)) }
+          }
+        }
+      }
+      output.flushCache()
+    }
+  }
+
+  private def allocatedBytes: Option[Long] = ManagementFactory.getThreadMXBean match {
+    case t: com.sun.management.ThreadMXBean if t.isThreadAllocatedMemorySupported =>
+      Some(t.getThreadAllocatedBytes(Thread.currentThread.getId))
+    case _ => None
+  }
+
+  private def perMeasurement(batch: MeasurementBatch, fun: MeasurementBatch => Any): (Long, Long) = {
+    // warm up so we aren't measuring the JIT
+    (0 until batches).foreach { i => fun(batch) }
+
+    val startBytes = allocatedBytes
+    val start = System.nanoTime
+    (0 until batches).foreach { i => fun(batch) }
+    val nanos = System.nanoTime - start
+    val bytes = for (s <- startBytes; e <- allocatedBytes) yield (e - s) / (batches * pointCount)
+    (bytes.getOrElse(-1), nanos / (batches * pointCount))
+  }
+
+  def runTest(stream: Option[PrintStream]) = {
+    List("fep" -> fepBatch, "complete" -> completeBatch).map {
+      case (name, batch) =>
+        val (rebuiltBytes, rebuiltNanos) = perMeasurement(batch, rebuildingPipeline())
+        val proc = pipeline()
+        val (workingBytes, workingNanos) = perMeasurement(batch, proc.process _)
+
+        val reading = MeasProcessingAllocationReading(name, rebuiltBytes, workingBytes, rebuiltNanos, workingNanos)
+        stream.foreach { _.println("Processing " + name + " batches: " + reading.outputsWithLabels.mkString(", ")) }
+        reading
+    }
+  }
+}
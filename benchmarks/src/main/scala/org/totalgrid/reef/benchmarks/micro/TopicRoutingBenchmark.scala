@@ -0,0 +1,74 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.benchmarks.micro
+
+import java.io.PrintStream
+import org.totalgrid.reef.benchmarks._
+import org.totalgrid.reef.broker.memory.{ TopicTrie, MemoryBrokerState }
+
+case class TopicRoutingReading(bindings: Int, linearNanos: Long, trieNanos: Long) extends BenchmarkReading {
+  def csvName = "topicRouting"
+
+  def testParameterNames = List("bindings")
+  def testParameters = List(bindings)
+
+  def testOutputNames = List("linearNsPerPublish", "trieNsPerPublish", "speedup")
+  def testOutputs = List(linearNanos, trieNanos, linearNanos.toDouble / math.max(trieNanos, 1))
+}
+
+/**
+ * Compares the per publish routing cost of the memory broker's topic trie against testing every
+ * binding with the reference matcher as the number of bindings grows. Bindings look like
+ * measurement subscriptions: mostly exact point names plus a few wildcard subscribers.
+ */
+class TopicRoutingBenchmark(bindingCounts: List[Int], publishes: Int) extends LocalBenchmarkTest {
+
+  private def pointName(i: Int) = "Substation" + (i % 50) + ".Device" + i + ".Value"
+
+  private def bindingKeys(count: Int) = (0 until count).map { i =>
+    if (i % 100 == 0) "Substation" + (i % 50) + ".*.Value"
+    else if (i % 250 == 1) "#"
+    else pointName(i)
+  }.toList
+
+  private def nanosPerPublish(fun: String => Int): Long = {
+    val start = System.nanoTime
+    var hits = 0
+    (0 until publishes).foreach { i => hits += fun(pointName(i * 7)) }
+    if (hits == 0) throw new FailedBenchmarkException("No publishes were routed")
+    (System.nanoTime - start) / publishes
+  }
+
+  def runTest(stream: Option[PrintStream]) = {
+    bindingCounts.map { count =>
+      val keys = bindingKeys(count)
+      val trie = keys.zipWithIndex.foldLeft(TopicTrie.empty) { case (t, (key, i)) => t.bind("q" + i, key) }
+      val linear = (r: String) => keys.count(MemoryBrokerState.matches(r, _))
+      val routed = (r: String) => trie.matches(r).size
+
+      // warm up both paths once so we aren't just timing the JIT
+      nanosPerPublish(linear)
+      nanosPerPublish(routed)
+
+      val reading = TopicRoutingReading(count, nanosPerPublish(linear), nanosPerPublish(routed))
+      stream.foreach { _.println("Routing with " + count + " bindings: " + reading.testOutputs.mkString(", ")) }
+      reading
+    }
+  }
+}
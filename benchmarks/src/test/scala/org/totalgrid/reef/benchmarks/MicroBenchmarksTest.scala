@@ -0,0 +1,58 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.benchmarks
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{ BeforeAndAfterAll, FunSuite }
+import org.totalgrid.reef.benchmarks.micro._
+
+/**
+ * in process benchmarks of single components, they don't need a running node
+ */
+@RunWith(classOf[JUnitRunner])
+class MicroBenchmarksTest extends FunSuite with BeforeAndAfterAll {
+
+  var readings = List.empty[BenchmarkReading]
+
+  override def afterAll() {
+    BenchmarksRunner.outputResults(readings, "target/benchmarkrun/micro-")
+  }
+
+  def runBenchmark(test: LocalBenchmarkTest) = test.runTest(Some(Console.out))
+
+  test("Topic Routing") {
+    readings :::= runBenchmark(new TopicRoutingBenchmark(List(10, 100, 1000, 5000), 2000))
+  }
+
+  test("Compiled Formulas") {
+    val formulas = List("A + B", "SQRT(A * A + B * B) / 2.5", "AVERAGE(R)", "MAX(R) - MIN(R) + SUM(A, B, C) * 0.5")
+    readings :::= runBenchmark(new CompiledFormulaBenchmark(formulas, 200000))
+  }
+
+  test("Measurement Processing Allocation") {
+    val results = runBenchmark(new MeasProcessingAllocationBenchmark(1000, 200))
+    readings :::= results
+
+    // carrying the working measurement through the triggers has to beat rebuilding it at every stage
+    results.collect { case r: MeasProcessingAllocationReading if r.allocationRatio > 0 => r }.foreach { r =>
+      assert(r.allocationRatio > 1, r.batch + " allocation ratio was " + r.allocationRatio)
+    }
+  }
+}
@@ -50,6 +50,37 @@ trait BrokerConnection {
 
   def publish(exchange: String, key: String, bytes: Array[Byte], replyTo: Option[BrokerDestination] = None): Unit
 
+  /**
+   * Publish a group of (routingKey, bytes) messages to a single exchange. Each message is still routed by its own
+   * key, but implementations are free to send the whole group as a single broker operation (one sync).
+   */
+  def publishBatch(exchange: String, messages: Seq[(String, Array[Byte])]): Unit =
+    messages.foreach { case (key, bytes) => publish(exchange, key, bytes, None) }
+
+  /**
+   * Publish without waiting on a broker round trip for each message. Connections that support pipelining
+   * keep up to a configured window of messages in flight and only sync with the broker when the window fills
+   * or flushPublishes is called. Failures are reported through the returned completion rather than thrown.
+   *
+   * The default implementation publishes synchronously and returns an already completed handle.
+   */
+  def publishAsync(exchange: String, key: String, bytes: Array[Byte], replyTo: Option[BrokerDestination] = None): PublishCompletion = {
+    val completion = new PublishCompletion
+    try {
+      publish(exchange, key, bytes, replyTo)
+      completion.success()
+    } catch {
+      case ex: Exception => completion.failure(ex)
+    }
+    completion
+  }
+
+  /**
+   * Explicit sync point, blocks until all outstanding publishAsync messages have been acknowledged
+   * (successfully or not) by the broker.
+   */
+  def flushPublishes(): Unit = {}
+
   /**
    * Listen to a named, non-exclusive system queue (competing consumer)
    */
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.broker
+
+/**
+ * Handle returned by BrokerConnection.publishAsync. It is completed once the broker has acknowledged
+ * the sync point covering the message, or failed with the exception that sync produced.
+ */
+final class PublishCompletion {
+
+  private var result = Option.empty[Option[Exception]]
+  private var listeners = List.empty[Option[Exception] => Unit]
+
+  def isComplete: Boolean = synchronized(result.isDefined)
+
+  /**
+   * blocks until the publish has been acknowledged, rethrowing the failure if it wasn't
+   */
+  def await(): Unit = {
+    val error = synchronized {
+      while (result.isEmpty) wait()
+      result.get
+    }
+    error.foreach(ex => throw ex)
+  }
+
+  /**
+   * callback is called with None on success or Some(exception) on failure, immediately if we
+   * are already complete
+   */
+  def listen(fun: Option[Exception] => Unit): Unit = {
+    val completed = synchronized {
+      if (result.isEmpty) listeners ::= fun
+      result
+    }
+    completed.foreach(fun)
+  }
+
+  def success(): Unit = complete(None)
+  def failure(ex: Exception): Unit = complete(Some(ex))
+
+  private def complete(error: Option[Exception]) {
+    val toNotify = synchronized {
+      if (result.isDefined) throw new IllegalStateException("Publish already completed")
+      result = Some(error)
+      notifyAll()
+      val l = listeners
+      listeners = Nil
+      l
+    }
+    toNotify.reverse.foreach(_(error))
+  }
+}
@@ -172,6 +172,73 @@ abstract class BrokerConnectionTestBase extends FunSuite with ShouldMatchers {
     }
   }
 
+  test("Batched publishes are routed per message") {
+    testConnection { broker =>
+
+      val list1 = new SynchronizedList[String]
+      val consumer1 = new BrokerMessageConsumer {
+        def onMessage(msg: BrokerMessage) = list1.append(new String(msg.bytes))
+      }
+      val list2 = new SynchronizedList[String]
+      val consumer2 = new BrokerMessageConsumer {
+        def onMessage(msg: BrokerMessage) = list2.append(new String(msg.bytes))
+      }
+      val sub1 = broker.listen().start(consumer1)
+      val sub2 = broker.listen().start(consumer2)
+
+      broker.declareExchange("test4")
+      broker.bindQueue(sub1.getQueue, "test4", "key1", false)
+      broker.bindQueue(sub2.getQueue, "test4", "key2", false)
+
+      val messages = List("badKey" -> "bad", "key1" -> "a", "key2" -> "b", "key1" -> "c")
+      broker.publishBatch("test4", messages.map { case (k, m) => (k, m.getBytes) })
+
+      list1 shouldBecome (List("a", "c")) within (defaultTimeout)
+      list2 shouldBecome (List("b")) within (defaultTimeout)
+    }
+  }
+
+  test("Async publishes complete and arrive in order") {
+    testConnection { broker =>
+
+      val list = new SynchronizedList[Int]
+      val consumer = new BrokerMessageConsumer {
+        def onMessage(msg: BrokerMessage) = list.append(new String(msg.bytes).toInt)
+      }
+      val sub = broker.listen().start(consumer)
+
+      broker.declareExchange("test5")
+      broker.bindQueue(sub.getQueue, "test5", "hi", false)
+
+      val range = 0 to 1000
+
+      val completions = range.map { i => broker.publishAsync("test5", "hi", i.toString.getBytes) }
+      broker.flushPublishes()
+
+      completions.foreach { c =>
+        c.isComplete should equal(true)
+        c.await()
+      }
+      list shouldBecome range.toList within (defaultTimeout)
+    }
+  }
+
+  test("Async publish failures are reported through the completion") {
+    testConnection { broker =>
+
+      val completion = broker.publishAsync("unknownExchange", "hi", "hello".getBytes)
+      broker.flushPublishes()
+
+      var reported = Option.empty[Exception]
+      completion.listen { result => reported = result }
+      reported.isDefined should equal(true)
+
+      intercept[Exception] {
+        completion.await()
+      }
+    }
+  }
+
   class MockConsumer extends BrokerMessageConsumer {
     val messages = new SynchronizedList[List[Byte]]
     def onMessage(msg: BrokerMessage) = messages.append(msg.bytes.toList)
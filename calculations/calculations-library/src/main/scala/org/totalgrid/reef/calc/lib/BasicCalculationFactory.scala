@@ -37,10 +37,18 @@ class BasicCalculationFactory(
     operations: OperationSource,
     metricsSource: CalculationMetricsSource,
     output: OutputPublisher,
-    timeSource: TimeSource) extends CalculationFactory with Logging {
+    timeSource: TimeSource) extends CalculationFactory with Cancelable with Logging {
 
   import BasicCalculationFactory._
 
+  // one subscription per input point shared by all of the calculations, on its own client (strand)
+  private val multiplexer = new MeasurementMultiplexer(rootClient.spawn().getService(classOf[AllScadaService]))
+
+  /**
+   * cancels the shared input subscriptions, the calculations should already have been canceled
+   */
+  def cancel() = multiplexer.cancel()
+
   def build(config: Calculation): Cancelable = {
     try {
       setupCalculation(config)
@@ -78,7 +86,7 @@ class BasicCalculationFactory(
       settings = settings.copy(components = settings.components.copy(formula = accumulatedFormula))
     }
 
-    val inputDataManager = new MeasInputManager(services, timeSource)
+    val inputDataManager = new SharedMeasInputManager(multiplexer, services, timeSource, client.getInternal.getExecutor)
 
     val evaluator = new CalculationEvaluator(inputDataManager, output, settings.components, metrics)
 
@@ -21,6 +21,7 @@ package org.totalgrid.reef.calc.lib
 import org.totalgrid.reef.client.service.proto.Measurements.Measurement
 import net.agileautomata.executor4s._
 import org.totalgrid.reef.client.service.proto.Calculations.{ TriggerStrategy, Calculation }
+import com.typesafe.scalalogging.slf4j.Logging
 
 sealed trait CalculationTriggerStrategy {
   private var handler = Option.empty[() => Unit]
@@ -36,13 +37,41 @@ trait EventedTriggerStrategy extends CalculationTriggerStrategy {
   def handle(m: Measurement)
 }
 
-class IntervalTrigger(interval: Long) extends InitiatingTriggerStrategy {
+/**
+ * evaluates on wall clock multiples of the interval so all of the calculations with the same period
+ * tick together and their outputs can be published in the same batch
+ */
+class IntervalTrigger(interval: Long, timeSource: TimeSource = SystemTimeSource) extends InitiatingTriggerStrategy with Logging {
   var timer: Option[Timer] = None
+  private var canceled = false
+
   def start(exe: Executor) {
-    timer = Some(exe.scheduleWithFixedOffset(interval.milliseconds)(attemptCalculation))
+    scheduleNext(exe)
+  }
+
+  private def scheduleNext(exe: Executor): Unit = synchronized {
+    if (!canceled) {
+      val delay = interval - (timeSource.now % interval)
+      timer = Some(exe.schedule(delay.milliseconds) {
+        // a failed evaluation mustn't stop the calculation from ticking
+        try {
+          attemptCalculation
+        } catch {
+          case ex: Exception => logger.error("Interval calculation failed: " + ex.getMessage, ex)
+        } finally {
+          scheduleNext(exe)
+        }
+      })
+    }
   }
+
   def cancel() {
-    timer.foreach(_.cancel())
+    // cancel outside the lock, the timer may be waiting on it to schedule the next tick
+    val current = synchronized {
+      canceled = true
+      timer
+    }
+    current.foreach(_.cancel())
   }
 }
 
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.calc.lib
+
+import org.totalgrid.reef.client.sapi.rpc.MeasurementService
+import org.totalgrid.reef.client.{ Subscription, SubscriptionEvent, SubscriptionEventAcceptor }
+import org.totalgrid.reef.client.service.proto.Measurements.Measurement
+import net.agileautomata.executor4s.Cancelable
+import com.typesafe.scalalogging.slf4j.Logging
+
+/**
+ * Shares a single measurement subscription per point between all of the calculations that use that
+ * point as an input. The subscription is made when the first listener for a point is added and
+ * canceled when the last one is removed.
+ *
+ * Listeners are called on the subscription's strand while the point is locked, so they should only
+ * hand the measurement off to their own calculation's strand.
+ */
+class MeasurementMultiplexer(service: MeasurementService) extends Cancelable with Logging {
+
+  private class Listener(val onMeasurement: Measurement => Unit)
+
+  private class PointFeed(val point: String) {
+    var latest = Option.empty[Measurement]
+    var listeners = List.empty[Listener]
+    var subscription = Option.empty[Subscription[Measurement]]
+
+    def publish(m: Measurement) = synchronized {
+      latest = Some(m)
+      listeners.foreach(_.onMeasurement(m))
+    }
+  }
+
+  private var feeds = Map.empty[String, PointFeed]
+  private var canceled = false
+
+  private val mutex = new Object
+
+  /**
+   * add a listener for a point, subscribing to the point if this is its first listener. If
+   * replayLatest is set the listener is immediately passed the current value of the point (if we
+   * have one) before any updates.
+   */
+  def subscribe(point: String, replayLatest: Boolean, onMeasurement: Measurement => Unit): Cancelable = {
+    val listener = new Listener(onMeasurement)
+    val feed = mutex.synchronized { feeds.get(point).map(addListener(_, listener, replayLatest)) }.getOrElse {
+      // subscribing waits on the broker, we don't make every other calculation's setup wait with us
+      val started = startFeed(point)
+      mutex.synchronized {
+        feeds.get(point) match {
+          case Some(existing) =>
+            // another calculation subscribed to the point while we were waiting, share theirs
+            started.subscription.foreach(_.cancel())
+            addListener(existing, listener, replayLatest)
+          case None =>
+            if (canceled) started.subscription.foreach(_.cancel())
+            else feeds += point -> started
+            addListener(started, listener, replayLatest)
+        }
+      }
+    }
+    new Cancelable {
+      def cancel() = removeListener(feed, listener)
+    }
+  }
+
+  private def addListener(feed: PointFeed, listener: Listener, replayLatest: Boolean): PointFeed = {
+    feed.synchronized {
+      if (replayLatest) feed.latest.foreach(listener.onMeasurement)
+      feed.listeners ::= listener
+    }
+    feed
+  }
+
+  /**
+   * number of points we currently hold subscriptions for
+   */
+  def subscribedPoints: Int = mutex.synchronized {
+    feeds.size
+  }
+
+  def cancel() = mutex.synchronized {
+    canceled = true
+    feeds.values.foreach(_.subscription.foreach(_.cancel()))
+    feeds = Map.empty[String, PointFeed]
+  }
+
+  private def startFeed(point: String): PointFeed = {
+    logger.debug("Subscribing to shared calculation input: " + point)
+    val feed = new PointFeed(point)
+    val result = service.subscribeToMeasurementsByNames(List(point)).await
+    feed.latest = result.getResult.lastOption
+    val sub = result.getSubscription
+    sub.start(new SubscriptionEventAcceptor[Measurement] {
+      def onEvent(event: SubscriptionEvent[Measurement]) = feed.publish(event.getValue)
+    })
+    feed.subscription = Some(sub)
+    feed
+  }
+
+  private def removeListener(feed: PointFeed, listener: Listener) = mutex.synchronized {
+    val remaining = feed.synchronized {
+      feed.listeners = feed.listeners.filterNot(_ eq listener)
+      feed.listeners
+    }
+    // check we are still the current feed for the point so a late cancel doesn't remove a new one
+    if (remaining.isEmpty && feeds.get(feed.point).exists(_ eq feed)) {
+      logger.debug("Unsubscribing from shared calculation input: " + feed.point)
+      feed.subscription.foreach(_.cancel())
+      feeds -= feed.point
+    }
+  }
+}
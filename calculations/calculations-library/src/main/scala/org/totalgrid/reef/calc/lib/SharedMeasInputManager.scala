@@ -0,0 +1,112 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.calc.lib
+
+import org.totalgrid.reef.client.sapi.rpc.MeasurementService
+import org.totalgrid.reef.client.service.proto.Measurements.Measurement
+import net.agileautomata.executor4s.{ Cancelable, Executor }
+
+object SharedMeasInputManager {
+
+  /**
+   * holds the live updates for a range input until its history has been loaded so we can drop the
+   * updates the history query already returned
+   */
+  class HistoryFeed(deliver: Measurement => Unit) {
+    private var buffered = List.empty[Measurement]
+    private var started = false
+
+    def onLive(m: Measurement) = synchronized {
+      if (started) deliver(m)
+      else buffered ::= m
+    }
+
+    def start(history: List[Measurement]) = synchronized {
+      history.foreach(deliver)
+      val newest = history.map(_.getTime).reduceOption(math.max)
+      buffered.reverse.filter(m => newest.forall(m.getTime > _)).foreach(deliver)
+      buffered = Nil
+      started = true
+    }
+  }
+}
+
+/**
+ * InputManager that gets its live measurements from a MeasurementMultiplexer shared by all of the
+ * calculations instead of making its own subscription for every input. Range inputs load their
+ * history with a one-off query. Measurements are handed to the buckets and trigger on the
+ * calculation's own executor.
+ */
+class SharedMeasInputManager(multiplexer: MeasurementMultiplexer, service: MeasurementService, timeSource: TimeSource, exe: Executor)
+    extends InputManager {
+
+  import SharedMeasInputManager._
+
+  private var buckets: List[InputBucket] = Nil
+  private var subscriptions: List[Cancelable] = Nil
+
+  private val mutex = this
+
+  def initialize(outputMeasurement: Measurement, inputConfigs: List[InputConfig], trigger: Option[EventedTriggerStrategy]) {
+
+    def deliver(bucket: InputBucket)(m: Measurement) = exe.execute {
+      mutex.synchronized {
+        bucket.onReceived(m)
+        trigger.foreach(_.handle(m))
+      }
+    }
+
+    def withHistory(point: String, bucket: InputBucket)(history: => List[Measurement]): Cancelable = {
+      val feed = new HistoryFeed(deliver(bucket))
+      val sub = multiplexer.subscribe(point, false, feed.onLive)
+      try {
+        feed.start(history)
+      } catch {
+        case e: Exception =>
+          sub.cancel()
+          throw e
+      }
+      sub
+    }
+
+    this.buckets = inputConfigs.map(_.bucket)
+
+    this.subscriptions = inputConfigs.map {
+      case InputConfig(point, bucket) =>
+        bucket.getMeasRequest match {
+          case SingleLatest =>
+            multiplexer.subscribe(point, true, deliver(bucket))
+          case MultiSince(from, limit) =>
+            withHistory(point, bucket)(service.getMeasurementHistoryByName(point, timeSource.now + from, limit).await)
+          case MultiLimit(count) =>
+            withHistory(point, bucket)(service.getMeasurementHistoryByName(point, count).await)
+          case SincePublishing(count) =>
+            withHistory(point, bucket)(service.getMeasurementHistoryByName(point, outputMeasurement.getTime, count).await)
+        }
+    }
+  }
+
+  def getSnapshot: Option[Map[String, List[Measurement]]] = mutex.synchronized {
+    MeasInputManager.getSnapshot(buckets)
+  }
+
+  def cancel() {
+    subscriptions.foreach(_.cancel())
+  }
+}
@@ -22,8 +22,9 @@ import org.totalgrid.reef.calc.lib.eval.OperationPatterns._
 
 object BasicOperations {
 
-  def getSource = {
-    new BasicOperationSource(List(
+  def getSource = new Source
+
+  class Source extends BasicOperationSource(List(
       (List("SUM", "+"), () => new Sum),
       (List("SUBTRACT", "-"), () => new Subtract),
       (List("PRODUCT", "*"), () => new Product),
@@ -40,7 +41,6 @@ object BasicOperations {
       (List("OR"), () => new Or),
       (List("NOT"), () => new Not),
       (List("INTEGRATE"), () => new Integrate)))
-  }
 
   class Sum extends MultiNumericOperation {
     def eval(args: List[Double]): Double = {
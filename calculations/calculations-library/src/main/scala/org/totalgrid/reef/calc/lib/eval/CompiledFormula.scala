@@ -0,0 +1,397 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.calc.lib.eval
+
+import scala.collection.mutable
+import org.totalgrid.reef.calc.lib.eval.OperationInterpreter._
+
+/**
+ * Evaluates a formula made only of BasicOperations without building OperationValues for every
+ * intermediate result. The expression is compiled into a flat array of steps that read and write a
+ * double register file (booleans are stored as 1.0/0.0). On each evaluation, single inputs are
+ * copied into registers and ranges into reused buffers, so the numeric path doesn't allocate until
+ * the final result is wrapped.
+ *
+ * Plans are specialized on the shape of the inputs (numeric or boolean, single value or range), so
+ * type checking happens once per shape. Inputs we can't represent (missing variables, mixed or
+ * empty ranges) and shapes that fail the type checks go to the interpreter, so values and error
+ * messages stay the same as the interpreter's.
+ */
+final class CompiledFormula private (expr: Expression, names: Array[String], interpreter: Formula) extends Formula {
+
+  import CompiledFormula._
+
+  private val slots = names.zipWithIndex.toMap
+
+  private val singles = new Array[Double](names.length)
+  private val ranges = Array.fill(names.length)(new Array[Double](8))
+  private val lengths = new Array[Int](names.length)
+  private val shape = new Array[Int](names.length)
+
+  private val plans = mutable.Map.empty[List[Int], Option[Plan]]
+  private var planShape: Array[Int] = null
+  private var plan: Option[Plan] = None
+
+  def evaluate(inputs: VariableSource): OperationValue = synchronized {
+    if (!load(inputs)) interpreter.evaluate(inputs)
+    else {
+      if (planShape == null || !java.util.Arrays.equals(planShape, shape)) {
+        planShape = shape.clone
+        plan = plans.getOrElseUpdate(planShape.toList, new PlanBuilder(expr, slots, planShape).build())
+      }
+      plan match {
+        case Some(p) => p.run(singles, ranges, lengths)
+        case None => interpreter.evaluate(inputs)
+      }
+    }
+  }
+
+  private def load(inputs: VariableSource): Boolean = {
+    var i = 0
+    while (i < names.length) {
+      val value = try {
+        inputs.forName(names(i))
+      } catch {
+        // let the interpreter produce the error at the point it looks the variable up
+        case e: Exception => return false
+      }
+      shape(i) = value match {
+        case n: NumericValue =>
+          singles(i) = n.doubleValue
+          NumericSingle
+        case b: BooleanValue =>
+          singles(i) = if (b.value) 1.0 else 0.0
+          BooleanSingle
+        case r: ValueRange => loadRange(i, r.list)
+        case _ => Unsupported
+      }
+      if (shape(i) == Unsupported) return false
+      i += 1
+    }
+    true
+  }
+
+  private def loadRange(slot: Int, list: List[OperationValue]): Int = {
+    var kind = Unsupported
+    var count = 0
+    var rest = list
+    while (!rest.isEmpty) {
+      val elementKind = rest.head match {
+        case n: NumericValue =>
+          store(slot, count, n.doubleValue)
+          NumericRange
+        case b: BooleanValue =>
+          store(slot, count, if (b.value) 1.0 else 0.0)
+          BooleanRange
+        case _ => Unsupported
+      }
+      if (count == 0) kind = elementKind
+      else if (kind != elementKind) return Unsupported
+      count += 1
+      rest = rest.tail
+    }
+    lengths(slot) = count
+    kind
+  }
+
+  private def store(slot: Int, index: Int, v: Double) {
+    if (index == ranges(slot).length) {
+      ranges(slot) = java.util.Arrays.copyOf(ranges(slot), index * 2)
+    }
+    ranges(slot)(index) = v
+  }
+}
+
+object CompiledFormula {
+
+  /**
+   * compiles formulas whose operations are all stock BasicOperations, the interpreter is used for
+   * anything the compiled plan can't reproduce exactly. INTEGRATE keeps state between evaluations
+   * and needs measurement times so formulas using it are never compiled.
+   */
+  def compile(expr: Expression, interpreter: Formula): Option[CompiledFormula] = {
+    expr match {
+      case Fun(_, _) | Infix(_, _, _) if compilable(expr) =>
+        Some(new CompiledFormula(expr, variableNames(expr).toArray, interpreter))
+      case _ => None
+    }
+  }
+
+  private def compilable(expr: Expression): Boolean = expr match {
+    case Fun(name, args) => opcodes.contains(name) && args.forall(compilable)
+    case Infix(op, left, right) => opcodes.contains(op) && compilable(left) && compilable(right)
+    case ConstDouble(_) | ConstLong(_) | ConstBoolean(_) | Var(_) => true
+    case _ => false
+  }
+
+  private def variableNames(expr: Expression): List[String] = expr match {
+    case Fun(_, args) => args.flatMap(variableNames).distinct
+    case Infix(_, left, right) => (variableNames(left) ::: variableNames(right)).distinct
+    case Var(name) => List(name)
+    case _ => Nil
+  }
+
+  // input shapes
+  private final val Unsupported = -1
+  private final val NumericSingle = 0
+  private final val BooleanSingle = 1
+  private final val NumericRange = 2
+  private final val BooleanRange = 3
+
+  // register kinds, longs only come from COUNT and long constants and are exact as doubles
+  private final val DoubleKind = 0
+  private final val LongKind = 1
+  private final val BooleanKind = 2
+
+  private final val SumOp = 0
+  private final val ProductOp = 1
+  private final val AverageOp = 2
+  private final val MaxOp = 3
+  private final val MinOp = 4
+  private final val AndOp = 5
+  private final val OrOp = 6
+  private final val CountOp = 7
+  private final val SubtractOp = 8
+  private final val DivideOp = 9
+  private final val PowerOp = 10
+  private final val GreaterOp = 11
+  private final val LessOp = 12
+  private final val SquareRootOp = 13
+  private final val NotOp = 14
+
+  private val opcodes = Map(
+    "SUM" -> SumOp, "+" -> SumOp,
+    "SUBTRACT" -> SubtractOp, "-" -> SubtractOp,
+    "PRODUCT" -> ProductOp, "*" -> ProductOp,
+    "DIVIDE" -> DivideOp, "/" -> DivideOp,
+    "POWER" -> PowerOp, "^" -> PowerOp,
+    "AVERAGE" -> AverageOp,
+    "MAX" -> MaxOp,
+    "MIN" -> MinOp,
+    "GREATER" -> GreaterOp,
+    "LESS" -> LessOp,
+    "SQRT" -> SquareRootOp,
+    "COUNT" -> CountOp,
+    "AND" -> AndOp,
+    "OR" -> OrOp,
+    "NOT" -> NotOp)
+
+  // class names of the matching BasicOperations, used in the error messages
+  private val opNames = Array("Sum", "Product", "Average", "Max", "Min", "And", "Or", "Count",
+    "Subtract", "Divide", "Power", "Greater", "Less", "SquareRoot", "Not")
+
+  private final class Plan(steps: Array[Step], registers: Array[Double], inputCount: Int, result: Int, resultKind: Int) {
+    def run(singles: Array[Double], ranges: Array[Array[Double]], lengths: Array[Int]): OperationValue = {
+      System.arraycopy(singles, 0, registers, 0, inputCount)
+      var i = 0
+      while (i < steps.length) {
+        steps(i).run(registers, ranges, lengths)
+        i += 1
+      }
+      val v = registers(result)
+      resultKind match {
+        case DoubleKind => NumericConst(v)
+        case LongKind => LongConst(v.toLong)
+        case _ => BooleanConst(v != 0.0)
+      }
+    }
+  }
+
+  /**
+   * operands are register indexes when positive, ranges are encoded as (-1 - slot) and visited
+   * element by element in the same order the interpreter flattens them
+   */
+  private abstract class Step(target: Int, operands: Array[Int]) {
+    final def run(registers: Array[Double], ranges: Array[Array[Double]], lengths: Array[Int]) {
+      begin()
+      var count = 0
+      var i = 0
+      while (i < operands.length) {
+        val o = operands(i)
+        if (o >= 0) {
+          visit(registers(o), count)
+          count += 1
+        } else {
+          val values = ranges(-1 - o)
+          val n = lengths(-1 - o)
+          var j = 0
+          while (j < n) {
+            visit(values(j), count)
+            count += 1
+            j += 1
+          }
+        }
+        i += 1
+      }
+      registers(target) = finish(count)
+    }
+
+    protected def begin()
+    protected def visit(v: Double, index: Int)
+    protected def finish(count: Int): Double
+  }
+
+  /**
+   * the multi value operations, folded in the same order and with the same starting values
+   * (and the same tie and NaN handling for MAX and MIN) as BasicOperations
+   */
+  private final class FoldStep(op: Int, target: Int, operands: Array[Int]) extends Step(target, operands) {
+    private var acc = 0.0
+
+    protected def begin() {
+      acc = if (op == AndOp) 1.0 else 0.0
+    }
+
+    protected def visit(v: Double, index: Int) {
+      acc = op match {
+        case SumOp | AverageOp => acc + v
+        case ProductOp => if (index == 0) v else acc * v
+        case MaxOp => if (index == 0) v else if (acc > v) acc else v
+        case MinOp => if (index == 0) v else if (acc < v) acc else v
+        case AndOp => if (acc != 0.0 && v != 0.0) 1.0 else 0.0
+        case OrOp => if (acc != 0.0 || v != 0.0) 1.0 else 0.0
+        case _ => if (v != 0.0) acc + 1 else acc
+      }
+    }
+
+    protected def finish(count: Int) = if (op == AverageOp) acc / count else acc
+  }
+
+  /**
+   * operations that take exactly one or two values, the count can only be checked at runtime when
+   * a range is involved
+   */
+  private final class FixedStep(op: Int, arity: Int, target: Int, operands: Array[Int]) extends Step(target, operands) {
+    private val error = "Operation " + opNames(op) + (op match {
+      case SquareRootOp => " requires one numeric value"
+      case NotOp => " requires one boolean value"
+      case _ => " requires exactly two numeric values"
+    })
+
+    private var first = 0.0
+    private var second = 0.0
+
+    protected def begin() {}
+
+    protected def visit(v: Double, index: Int) {
+      if (index == 0) first = v
+      else if (index == 1) second = v
+    }
+
+    protected def finish(count: Int) = {
+      if (count != arity) throw new EvalException(error)
+      op match {
+        case SubtractOp => first - second
+        case DivideOp => first / second
+        case PowerOp => math.pow(first, second)
+        case GreaterOp => if (first > second) 1.0 else 0.0
+        case LessOp => if (first < second) 1.0 else 0.0
+        case SquareRootOp => math.sqrt(first)
+        case _ => if (first != 0.0) 0.0 else 1.0
+      }
+    }
+  }
+
+  private class ShapeMismatch extends Exception
+
+  /**
+   * lays out the registers as [inputs, constants, step results] and emits the steps in the order
+   * the interpreter would evaluate them, so a runtime error is raised at the same point
+   */
+  private final class PlanBuilder(expr: Expression, slots: Map[String, Int], shape: Array[Int]) {
+    private val steps = mutable.ListBuffer.empty[Step]
+    private val constants = mutable.ListBuffer.empty[(Int, Double)]
+    private var registerCount = shape.length
+
+    def build(): Option[Plan] = {
+      try {
+        val (result, kind) = operand(expr)
+        val registers = new Array[Double](registerCount)
+        constants.foreach { case (index, v) => registers(index) = v }
+        Some(new Plan(steps.toArray, registers, shape.length, result, kind))
+      } catch {
+        case e: ShapeMismatch => None
+      }
+    }
+
+    private def register() = {
+      registerCount += 1
+      registerCount - 1
+    }
+
+    private def constant(v: Double) = {
+      val index = register()
+      constants.append((index, v))
+      index
+    }
+
+    private def operand(e: Expression): (Int, Int) = e match {
+      case ConstDouble(v) => (constant(v), DoubleKind)
+      case ConstLong(v) => (constant(v.toDouble), LongKind)
+      case ConstBoolean(v) => (constant(if (v) 1.0 else 0.0), BooleanKind)
+      case Var(name) =>
+        val slot = slots(name)
+        shape(slot) match {
+          case NumericSingle => (slot, DoubleKind)
+          case BooleanSingle => (slot, BooleanKind)
+          case NumericRange => (-1 - slot, DoubleKind)
+          case _ => (-1 - slot, BooleanKind)
+        }
+      case Fun(name, args) => operation(opcodes(name), args)
+      case Infix(op, left, right) => operation(opcodes(op), List(left, right))
+      case _ => throw new ShapeMismatch
+    }
+
+    private def operation(op: Int, args: List[Expression]): (Int, Int) = {
+      val evaluated = args.map(operand)
+      val operands = evaluated.map(_._1).toArray
+      val numeric = evaluated.forall(_._2 != BooleanKind)
+      val boolean = evaluated.forall(_._2 == BooleanKind)
+      val hasRange = operands.exists(_ < 0)
+
+      def check(ok: Boolean) = if (!ok) throw new ShapeMismatch
+      def fixedArity(arity: Int) = hasRange || operands.length == arity
+
+      val target = register()
+      val kind = op match {
+        case SumOp | ProductOp | AverageOp | MaxOp | MinOp =>
+          check(operands.nonEmpty && numeric)
+          steps.append(new FoldStep(op, target, operands))
+          DoubleKind
+        case AndOp | OrOp | CountOp =>
+          check(operands.nonEmpty && boolean)
+          steps.append(new FoldStep(op, target, operands))
+          if (op == CountOp) LongKind else BooleanKind
+        case SubtractOp | DivideOp | PowerOp | GreaterOp | LessOp =>
+          check(numeric && fixedArity(2))
+          steps.append(new FixedStep(op, 2, target, operands))
+          if (op == GreaterOp || op == LessOp) BooleanKind else DoubleKind
+        case SquareRootOp =>
+          check(numeric && fixedArity(1))
+          steps.append(new FixedStep(op, 1, target, operands))
+          DoubleKind
+        case _ =>
+          check(boolean && fixedArity(1))
+          steps.append(new FixedStep(op, 1, target, operands))
+          BooleanKind
+      }
+      (target, kind)
+    }
+  }
+}
@@ -33,8 +33,16 @@ class AccumulatedFormula(var lastValue: OperationValue, formula: Formula) extend
 }
 
 object Formula {
-  def apply(expr: Expression, opSource: OperationSource) = {
-    new BasicFormulaEvaluator(expr, opSource)
+  /**
+   * formulas using only the stock BasicOperations are compiled, others (and formulas the compiler
+   * doesn't handle) are interpreted
+   */
+  def apply(expr: Expression, opSource: OperationSource): Formula = {
+    val interpreted = new BasicFormulaEvaluator(expr, opSource)
+    opSource match {
+      case _: BasicOperations.Source => CompiledFormula.compile(expr, interpreted).getOrElse(interpreted)
+      case _ => interpreted
+    }
   }
 
   class BasicFormulaEvaluator(expr: Expression, opSource: OperationSource) extends Formula {
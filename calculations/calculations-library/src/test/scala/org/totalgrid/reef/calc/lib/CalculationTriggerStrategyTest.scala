@@ -0,0 +1,80 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.calc.lib
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import net.agileautomata.executor4s._
+import net.agileautomata.executor4s.testing.MockExecutor
+
+@RunWith(classOf[JUnitRunner])
+class CalculationTriggerStrategyTest extends FunSuite with ShouldMatchers {
+
+  import CalcLibTestHelpers._
+
+  test("Interval trigger ticks on period boundaries") {
+    val exe = new MockExecutor
+    val timeSource = new MockTimeSource(1250)
+    var evaluations = 0
+
+    val trigger = new IntervalTrigger(1000, timeSource)
+    trigger.setEvaluationFunction(() => evaluations += 1)
+    trigger.start(exe)
+
+    // first tick lines up with the next whole second
+    exe.tick(749.milliseconds)
+    evaluations should equal(0)
+    timeSource.time = 2000
+    exe.tick(1.milliseconds)
+    evaluations should equal(1)
+
+    timeSource.time = 2010
+    exe.tick(990.milliseconds)
+    evaluations should equal(2)
+
+    trigger.cancel()
+    exe.tick(5000.milliseconds)
+    evaluations should equal(2)
+  }
+
+  test("Interval trigger keeps ticking after a failed evaluation") {
+    val exe = new MockExecutor
+    val timeSource = new MockTimeSource(0)
+    var evaluations = 0
+
+    val trigger = new IntervalTrigger(1000, timeSource)
+    trigger.setEvaluationFunction { () =>
+      evaluations += 1
+      if (evaluations == 1) throw new IllegalStateException("bad inputs")
+    }
+    trigger.start(exe)
+
+    timeSource.time = 1000
+    exe.tick(1000.milliseconds)
+    evaluations should equal(1)
+
+    timeSource.time = 2000
+    exe.tick(1000.milliseconds)
+    evaluations should equal(2)
+
+    trigger.cancel()
+  }
+}
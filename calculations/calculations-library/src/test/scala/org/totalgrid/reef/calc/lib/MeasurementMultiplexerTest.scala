@@ -0,0 +1,155 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.calc.lib
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import org.totalgrid.reef.client.service.proto.Measurements.Measurement
+import org.mockito.Mockito
+import org.totalgrid.reef.client.sapi.rpc.MeasurementService
+import org.totalgrid.reef.test.MockitoStubbedOnly
+import org.totalgrid.reef.client.sapi.client.ServiceTestHelpers._
+import org.totalgrid.reef.client.operations.scl.Event
+import org.totalgrid.reef.client.proto.Envelope.SubscriptionEventType
+import org.totalgrid.reef.calc.lib.InputBucket.{ LimitRangeBucket, SingleLatestBucket }
+import net.agileautomata.executor4s.testing.InstantExecutor
+
+@RunWith(classOf[JUnitRunner])
+class MeasurementMultiplexerTest extends FunSuite with ShouldMatchers {
+
+  import CalcLibTestHelpers._
+
+  class MockEventedTrigger extends EventedTriggerStrategy {
+
+    var lastMeas = Option.empty[Measurement]
+
+    def handle(m: Measurement) = lastMeas = Some(m)
+  }
+
+  class Recorder {
+    var received = List.empty[Measurement]
+    def onMeasurement(m: Measurement) = received ::= m
+  }
+
+  test("One subscription per point shared by all listeners") {
+    val service = Mockito.mock(classOf[MeasurementService], new MockitoStubbedOnly)
+    val multiplexer = new MeasurementMultiplexer(service)
+
+    val subResultA = subSuccess(makeTraceMeas(0))
+    val subResultB = subSuccess(makeTraceMeas(5))
+    Mockito.doReturn(subResultA).doReturn(subResultB).when(service).subscribeToMeasurementsByNames(List("PointA"))
+
+    val first = new Recorder
+    val second = new Recorder
+    val firstSub = multiplexer.subscribe("PointA", true, first.onMeasurement)
+    val secondSub = multiplexer.subscribe("PointA", false, second.onMeasurement)
+
+    multiplexer.subscribedPoints should equal(1)
+    subResultB.await.mockSub.acceptor should equal(None)
+
+    // only the listener asking for it gets the current value
+    first.received should equal(List(makeTraceMeas(0)))
+    second.received should equal(Nil)
+
+    subResultA.await.mockSub.acceptor.get.onEvent(Event(SubscriptionEventType.MODIFIED, makeTraceMeas(1)))
+    first.received should equal(List(makeTraceMeas(1), makeTraceMeas(0)))
+    second.received should equal(List(makeTraceMeas(1)))
+
+    firstSub.cancel()
+    subResultA.await.mockSub.canceled should equal(false)
+
+    secondSub.cancel()
+    subResultA.await.mockSub.canceled should equal(true)
+    multiplexer.subscribedPoints should equal(0)
+
+    // canceling again doesn't touch the next subscription to the point
+    val third = new Recorder
+    multiplexer.subscribe("PointA", true, third.onMeasurement)
+    secondSub.cancel()
+    subResultB.await.mockSub.canceled should equal(false)
+    third.received should equal(List(makeTraceMeas(5)))
+  }
+
+  test("Canceling the multiplexer cancels every point's subscription") {
+    val service = Mockito.mock(classOf[MeasurementService], new MockitoStubbedOnly)
+    val multiplexer = new MeasurementMultiplexer(service)
+
+    val subResultA = subSuccess(makeTraceMeas(0))
+    val subResultB = subSuccess(makeTraceMeas(1))
+    Mockito.doReturn(subResultA).when(service).subscribeToMeasurementsByNames(List("PointA"))
+    Mockito.doReturn(subResultB).when(service).subscribeToMeasurementsByNames(List("PointB"))
+
+    multiplexer.subscribe("PointA", false, new Recorder().onMeasurement)
+    multiplexer.subscribe("PointB", false, new Recorder().onMeasurement)
+    multiplexer.subscribedPoints should equal(2)
+
+    multiplexer.cancel()
+    subResultA.await.mockSub.canceled should equal(true)
+    subResultB.await.mockSub.canceled should equal(true)
+    multiplexer.subscribedPoints should equal(0)
+  }
+
+  test("History feed drops updates already in the history") {
+    var delivered = List.empty[Measurement]
+    val feed = new SharedMeasInputManager.HistoryFeed(m => delivered ::= m)
+
+    feed.onLive(makeTraceMeas(1, 1))
+    feed.onLive(makeTraceMeas(2, 2))
+    delivered should equal(Nil)
+
+    feed.start(List(makeTraceMeas(0, 0), makeTraceMeas(1, 1)))
+    delivered.reverse should equal(List(makeTraceMeas(0, 0), makeTraceMeas(1, 1), makeTraceMeas(2, 2)))
+
+    feed.onLive(makeTraceMeas(3, 3))
+    delivered.head should equal(makeTraceMeas(3, 3))
+  }
+
+  test("Shared input manager feeds single and range buckets") {
+    val service = Mockito.mock(classOf[MeasurementService], new MockitoStubbedOnly)
+    val multiplexer = new MeasurementMultiplexer(service)
+    val trigger = new MockEventedTrigger
+
+    val subResultA = subSuccess(makeTraceMeas(0))
+    Mockito.doReturn(subResultA).when(service).subscribeToMeasurementsByNames(List("PointA"))
+
+    val history = List(makeTraceMeas(0), makeTraceMeas(1))
+    Mockito.doReturn(success(history)).when(service).getMeasurementHistoryByName("PointA", 10)
+
+    val manager = new SharedMeasInputManager(multiplexer, service, new MockTimeSource(0), new InstantExecutor)
+
+    manager.initialize(makeTraceMeas(0), List(
+      InputConfig("PointA", new SingleLatestBucket("A")),
+      InputConfig("PointA", new LimitRangeBucket("B", 10))), Some(trigger))
+
+    multiplexer.subscribedPoints should equal(1)
+    manager.getSnapshot should equal(Some(Map("A" -> List(makeTraceMeas(0)), "B" -> history)))
+
+    val lastMeas = makeTraceMeas(2, 5)
+    subResultA.await.mockSub.acceptor.get.onEvent(Event(SubscriptionEventType.MODIFIED, lastMeas))
+
+    trigger.lastMeas should equal(Some(lastMeas))
+    manager.getSnapshot should equal(Some(Map("A" -> List(lastMeas), "B" -> (history ::: List(lastMeas)))))
+
+    manager.cancel()
+    subResultA.await.mockSub.canceled should equal(true)
+    multiplexer.subscribedPoints should equal(0)
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.calc.lib.eval
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import scala.util.Random
+
+@RunWith(classOf[JUnitRunner])
+class CompiledFormulaTest extends FunSuite with ShouldMatchers {
+
+  def interpreted(f: String) = new Formula.BasicFormulaEvaluator(OperationParser.parseFormula(f), BasicOperations.getSource)
+
+  def compiled(f: String) = Formula(OperationParser.parseFormula(f), BasicOperations.getSource)
+
+  // doubles are compared bit for bit so NaN and -0.0 have to match exactly
+  def outcome(formula: Formula, inputs: VariableSource): Either[String, Any] = {
+    try {
+      formula.evaluate(inputs) match {
+        case NumericConst(v) => Right(java.lang.Double.doubleToRawLongBits(v))
+        case other => Right(other)
+      }
+    } catch {
+      case e: Exception => Left(e.getClass.getName + ": " + e.getMessage)
+    }
+  }
+
+  val numericFormulas = List(
+    "SUM(A, B)", "A + B", "SUBTRACT(A, B)", "A - B", "PRODUCT(A, B, C)", "A * B", "DIVIDE(A, B)", "A / B",
+    "POWER(A, B)", "A ^ B", "AVERAGE(A, B, C)", "MAX(A, B, C)", "MIN(A, B, C)", "SQRT(A)",
+    "SUM(R)", "PRODUCT(R)", "AVERAGE(R)", "MAX(R)", "MIN(R)", "SUM(R, A, 2)", "AVERAGE(R, B, 0.1)",
+    "A * (B + C) / 2.5", "SQRT(A * A + B * B)", "A - B - C + 3", "MAX(R, MIN(A, B))",
+    "SUBTRACT(R)", "DIVIDE(A, R)", "SQRT(R)", "GREATER(A, B)", "LESS(A, B)", "GREATER(MAX(R), C)")
+
+  val booleanFormulas = List(
+    "AND(X, Y)", "OR(X, Y)", "NOT(X)", "COUNT(X, Y, true)", "AND(BR)", "OR(BR, X)", "COUNT(BR)",
+    "NOT(LESS(A, B))", "AND(GREATER(A, B), X)", "COUNT(BR) + A", "NOT(BR)")
+
+  val mismatchedFormulas = List(
+    "SUM(X)", "A + X", "NOT(A)", "AND(A, X)", "SUBTRACT(A)", "SQRT(A, B)", "COUNT(R)", "MAX(BR)",
+    "A + Missing", "SUM(Missing, X)")
+
+  val specialValues = List(0.0, -0.0, 1.5, -3.25, 0.1, 0.2, 0.3, 1e308, -1e-308, Double.NaN,
+    Double.PositiveInfinity, Double.NegativeInfinity, 7.0, 1e16, 3.0)
+
+  def numeric(r: Random): OperationValue = {
+    val v = specialValues(r.nextInt(specialValues.size))
+    r.nextInt(3) match {
+      case 0 => NumericConst(v)
+      case 1 => NumericMeas(v, r.nextLong)
+      case _ => LongConst(r.nextInt(200) - 100)
+    }
+  }
+
+  def inputs(r: Random) = Map[String, Any](
+    "A" -> numeric(r),
+    "B" -> numeric(r),
+    "C" -> numeric(r),
+    "R" -> ValueRange((0 to r.nextInt(4)).map { i => numeric(r) }.toList),
+    "X" -> r.nextBoolean,
+    "Y" -> BooleanMeas(r.nextBoolean, 0),
+    "BR" -> ValueRange((0 to r.nextInt(4)).map { i => BooleanConst(r.nextBoolean) }.toList))
+
+  test("Basic operation formulas are compiled") {
+    (numericFormulas ::: booleanFormulas).foreach { f =>
+      compiled(f).getClass should equal(classOf[CompiledFormula])
+    }
+    // INTEGRATE keeps state between evaluations and bare values are returned as is
+    compiled("INTEGRATE(A)").getClass should equal(classOf[Formula.BasicFormulaEvaluator])
+    compiled("A").getClass should equal(classOf[Formula.BasicFormulaEvaluator])
+    compiled("5").getClass should equal(classOf[Formula.BasicFormulaEvaluator])
+  }
+
+  test("Compiled formulas match the interpreter") {
+    val r = new Random(42)
+    val formulas = numericFormulas ::: booleanFormulas ::: mismatchedFormulas
+    val pairs = formulas.map { f => (f, interpreted(f), compiled(f)) }
+
+    (0 until 500).foreach { i =>
+      val raw = inputs(r)
+      val values = new ValueMap(raw)
+      pairs.foreach {
+        case (f, slow, fast) =>
+          val expected = outcome(slow, values)
+          val result = outcome(fast, values)
+          if (result != expected) fail(f + " with " + raw + ": expected " + expected + " got " + result)
+      }
+    }
+  }
+
+  test("Typical calculations match the interpreter") {
+    val values = new ValueMap(Map(
+      "A" -> NumericMeas(12.5, 0),
+      "B" -> LongMeas(7, 0),
+      "C" -> NumericConst(-3.0),
+      "R" -> ValueRange((1 to 60).map { i => NumericMeas(i * 1.5, i) }.toList)))
+
+    List("A + B", "SQRT(A * A + B * B) / 2.5", "AVERAGE(R)", "MAX(R) - MIN(R) + SUM(A, B, C) * 0.5").foreach { f =>
+      (f, outcome(compiled(f), values)) should equal((f, outcome(interpreted(f), values)))
+    }
+  }
+
+  test("Input shape changes switch plans") {
+    val f = "SUM(A, 1)"
+    val fast = compiled(f)
+    val slow = interpreted(f)
+
+    val shapes = List[Any](2.5, ValueRange(List(NumericConst(1.0), LongConst(2))), true,
+      ValueRange(List(NumericConst(1.0), BooleanConst(true))), ValueRange(Nil), 2.5)
+
+    shapes.foreach { a =>
+      val values = new ValueMap(Map("A" -> a))
+      outcome(fast, values) should equal(outcome(slow, values))
+    }
+  }
+}
@@ -22,14 +22,34 @@ import org.totalgrid.reef.client.Client
 import org.totalgrid.reef.client.service.proto.Model.ConfigFile
 import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement, MeasurementBatch }
 import org.totalgrid.reef.client.service.proto.FEP.{ EndpointConnection }
-import net.agileautomata.executor4s.Cancelable
+import net.agileautomata.executor4s.{ Cancelable, Strand }
 import org.totalgrid.reef.client.sapi.rpc.AllScadaService
 import org.totalgrid.reef.protocol.api.{ NullCommandHandler, ChannelIgnoringProtocol, Publisher }
+import org.totalgrid.reef.protocol.api.util.PackTimer
 import org.totalgrid.reef.calc.lib.eval.BasicOperations
 import org.totalgrid.reef.calc.lib._
+import org.totalgrid.reef.calc.lib.BasicCalculationFactory.MultiCancelable
+import org.totalgrid.reef.client.settings.util.PropertyLoading
 import org.totalgrid.reef.jmx.MetricsManager
+import scala.collection.JavaConversions._
 
-class CalculatorProtocol extends ChannelIgnoringProtocol {
+object CalculatorProtocol {
+
+  /**
+   * reads the output batching settings, publishWindowMs of 0 publishes every output on its own
+   */
+  def apply(props: java.util.Dictionary[AnyRef, AnyRef]): CalculatorProtocol = {
+    val windowMs = PropertyLoading.getLong("org.totalgrid.reef.calc.publishWindowMs", props, 50)
+    val maxBatchSize = PropertyLoading.getInt("org.totalgrid.reef.calc.maxBatchSize", props, 1000)
+    new CalculatorProtocol(windowMs, maxBatchSize)
+  }
+}
+
+/**
+ * outputs from all of the calculations on an endpoint are collected for up to publishWindowMs (or
+ * maxBatchSize outputs) and published to the endpoint's measurement processor as one batch
+ */
+class CalculatorProtocol(publishWindowMs: Long = 50, maxBatchSize: Int = 1000) extends ChannelIgnoringProtocol {
   def name = "calculator"
 
   var managers = Map.empty[String, (Cancelable, Publisher[EndpointConnection.State], MetricsManager)]
@@ -46,10 +66,19 @@ class CalculatorProtocol extends ChannelIgnoringProtocol {
 
     val metricsPublisher = new CalculationMetricsSource(metricsMgr, true)
 
+    def publishBatch(meases: List[Measurement]) {
+      val batch = MeasurementBatch.newBuilder.setWallTime(System.currentTimeMillis).addAllMeas(meases).build
+      batchPublisher.publish(batch)
+    }
+
+    val batcher = if (publishWindowMs > 0) {
+      Some(new PackTimer[Measurement](publishWindowMs, maxBatchSize, publishBatch _, Strand(client.getInternal.getExecutor), Some(metricsMgr.metrics("batcher"))))
+    } else None
+
     val measPublisher = new OutputPublisher {
-      def publish(m: Measurement) = {
-        val batch = MeasurementBatch.newBuilder.setWallTime(System.currentTimeMillis).addMeas(m).build
-        batchPublisher.publish(batch)
+      def publish(m: Measurement) = batcher match {
+        case Some(b) => b.addEntry(m)
+        case None => publishBatch(List(m))
       }
     }
 
@@ -61,7 +90,9 @@ class CalculatorProtocol extends ChannelIgnoringProtocol {
 
     val manager = new CalculationManager(factory)
 
-    managers += endpointName -> (manager, endpointPublisher, metricsMgr)
+    // stop the calculations before their shared inputs and the batcher they publish through
+    val batcherCancel = batcher.map { b => new Cancelable { def cancel() = b.cancel() } }
+    managers += endpointName -> (new MultiCancelable(manager :: factory :: batcherCancel.toList), endpointPublisher, metricsMgr)
 
     val endpoint = service.getEndpointByName(endpointName).await
 
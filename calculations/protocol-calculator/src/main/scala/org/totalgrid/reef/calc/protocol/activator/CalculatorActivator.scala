@@ -18,7 +18,7 @@
  */
 package org.totalgrid.reef.calc.protocol.activator
 
-import org.totalgrid.reef.osgi.ExecutorBundleActivator
+import org.totalgrid.reef.osgi.{ ExecutorBundleActivator, OsgiConfigReader }
 import com.typesafe.scalalogging.slf4j.Logging
 import org.osgi.framework.BundleContext
 import net.agileautomata.executor4s.Executor
@@ -31,7 +31,8 @@ class CalculatorActivator extends ExecutorBundleActivator with Logging {
 
   def start(context: BundleContext, exe: Executor) {
 
-    val protocol = new CalculatorProtocol()
+    // same file the fep reads for protocol specific user settings
+    val protocol = CalculatorProtocol(OsgiConfigReader.load(context, "org.totalgrid.reef.protocol.calculator"))
 
     context.createService(protocol, Map("protocol" -> protocol.name), classOf[Protocol])
   }
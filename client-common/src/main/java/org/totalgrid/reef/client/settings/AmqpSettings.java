@@ -40,6 +40,8 @@ public class AmqpSettings
     private final int TTL_DEFAULT = 5000;
     private final int ttlMilliseconds;
 
+    private final int publishWindow;
+
     private final boolean ssl;
     private final String trustStore;
     private final String trustStorePassword;
@@ -86,6 +88,7 @@ public class AmqpSettings
         this.virtualHost = virtualHost;
         this.heartbeatTimeSeconds = heartbeatTimeSeconds;
         this.ttlMilliseconds = TTL_DEFAULT;
+        this.publishWindow = 0;
         this.ssl = ssl;
         this.trustStore = trustStore;
         this.trustStorePassword = trustStorePassword;
@@ -117,6 +120,7 @@ public class AmqpSettings
         this.virtualHost = virtualHost;
         this.heartbeatTimeSeconds = heartbeatTimeSeconds;
         this.ttlMilliseconds = ttlMilliseconds;
+        this.publishWindow = 0;
         this.ssl = ssl;
         this.trustStore = trustStore;
         this.trustStorePassword = trustStorePassword;
@@ -155,6 +159,7 @@ public class AmqpSettings
         virtualHost = PropertyLoading.getString( "org.totalgrid.reef.amqp.virtualHost", props );
         heartbeatTimeSeconds = PropertyLoading.getInt( "org.totalgrid.reef.amqp.heartbeatTimeSeconds", props );
         ttlMilliseconds = PropertyLoading.getInt( "org.totalgrid.reef.amqp.ttl", props, TTL_DEFAULT );
+        publishWindow = PropertyLoading.getInt( "org.totalgrid.reef.amqp.publishWindow", props, 0 );
         ssl = PropertyLoading.getBoolean( "org.totalgrid.reef.amqp.ssl", props, false );
         trustStore = PropertyLoading.getString( "org.totalgrid.reef.amqp.trustStore", props, "" );
         trustStorePassword = PropertyLoading.getString( "org.totalgrid.reef.amqp.trustStorePassword", props, "" );
@@ -241,6 +246,15 @@ public class AmqpSettings
         return ttlMilliseconds;
     }
 
+    /**
+     * @return number of published messages each connection may have in flight before syncing with the broker,
+     *         0 keeps every publish synchronous
+     */
+    public int getPublishWindow()
+    {
+        return publishWindow;
+    }
+
     /**
      * @return whether connection is using ssl
      */
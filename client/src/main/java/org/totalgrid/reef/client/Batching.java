@@ -74,4 +74,14 @@ public interface Batching
      * @return a promise indicating how many requests were sent in total
      */
     Promise<Integer> flush( int chunkSize );
+
+    /**
+     * flush the queued requests in a number of batches with upto a max chunkSize. Non-atomic batches tell the server
+     * the requests are independent of each other, it may run them concurrently each in its own transaction so a
+     * failure only fails that request (the returned promise still succeeds, check each request's promise).
+     * @param chunkSize max number of requests to put in a single batch query, 0 or less for a single batch
+     * @param atomic whether each batch should succeed or fail as a whole
+     * @return a promise indicating how many requests were sent in total
+     */
+    Promise<Integer> flush( int chunkSize, boolean atomic );
 }
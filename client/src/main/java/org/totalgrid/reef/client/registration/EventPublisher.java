@@ -20,6 +20,8 @@ package org.totalgrid.reef.client.registration;
 
 import org.totalgrid.reef.client.proto.Envelope;
 
+import java.util.List;
+
 /**
  * Allows implementers of services to publish subscription events when service objects are added/modified/removed.
  */
@@ -45,4 +47,16 @@ public interface EventPublisher
      * @param <T>
      */
     <T> void publishEvent( Envelope.SubscriptionEventType eventType, T eventMessage, String routingKey );
+
+    /**
+     * Publishes a group of service subscription events of the same type. Each event is routed by its own
+     * key so subscribers see the same events they would if each was published with publishEvent, but the
+     * group is handed to the broker as a single operation.
+     *
+     * @param eventType Event type (added/modified/removed)
+     * @param eventMessages Payload messages for the events, all of the same class
+     * @param routingKeys AMQP routing keys, one per message and in the same order
+     * @param <T>
+     */
+    <T> void publishEvents( Envelope.SubscriptionEventType eventType, List<T> eventMessages, List<String> routingKeys );
 }
@@ -50,4 +50,11 @@ class BatchingImpl(ops: OperationsBuilders) extends Batching {
       case Some(batched) => batched.batchedFlush(chunkSize)
     }
   }
+
+  def flush(chunkSize: Int, atomic: scala.Boolean) = {
+    currentOpsMode.batched match {
+      case None => throw new BadRequestException("No batch requests configured")
+      case Some(batched) => batched.batchedFlush(chunkSize, atomic)
+    }
+  }
 }
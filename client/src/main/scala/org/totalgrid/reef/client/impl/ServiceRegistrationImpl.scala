@@ -38,6 +38,19 @@ class EventPublisherImpl(broker: BrokerConnection, registry: ServiceRegistry) ex
     val event = RestHelpers.getEvent(eventType, eventMessage, desc)
     broker.publish(info.getEventExchange, routingKey, event.toByteArray)
   }
+
+  def publishEvents[A](eventType: SubscriptionEventType, eventMessages: java.util.List[A], routingKeys: java.util.List[String]) {
+    if (eventMessages.size != routingKeys.size) throw new IllegalArgumentException("Need one routing key per event message")
+    if (!eventMessages.isEmpty) {
+      import scala.collection.JavaConversions._
+      val info = registry.getServiceTypeInformation(ClassLookup.get(eventMessages.get(0)))
+      val desc = info.getSubscriptionDescriptor.asInstanceOf[TypeDescriptor[A]]
+      val messages = routingKeys.zip(eventMessages).map {
+        case (key, msg) => (key, RestHelpers.getEvent(eventType, msg, desc).toByteArray)
+      }
+      broker.publishBatch(info.getEventExchange, messages)
+    }
+  }
 }
 
 class ServiceRegistrationImpl(broker: BrokerConnection, registry: ServiceRegistry, exe: Executor) extends ServiceRegistration {
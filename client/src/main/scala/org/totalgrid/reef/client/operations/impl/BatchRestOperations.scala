@@ -36,6 +36,13 @@ trait BatchRestOperations extends RestOperations with OptionallyBatchedRestOpera
   def batched: Option[BatchRestOperations] = Some(this)
   def flush(): Promise[java.lang.Integer]
   def batchedFlush(batchSize: Int): Promise[java.lang.Integer]
+
+  /**
+   * non-atomic batches tell the server the requests are independent, they may be run concurrently
+   * each in its own transaction and a failure only fails that request
+   */
+  def flush(atomic: Boolean): Promise[java.lang.Integer]
+  def batchedFlush(batchSize: Int, atomic: Boolean): Promise[java.lang.Integer]
 }
 
 /*class DefaultBatchRestOperations(protected val ops: RestOperations, client: DefaultClient) extends BatchRestOperationsImpl {
@@ -101,6 +108,14 @@ trait BatchRestOperationsImpl extends BatchRestOperations with DerivedRestOperat
   }
 
   def batchedFlush(batchSize: Int): Promise[java.lang.Integer] = {
+    batchedFlush(batchSize, true)
+  }
+
+  def flush(atomic: Boolean): Promise[java.lang.Integer] = {
+    batchedFlush(-1, atomic)
+  }
+
+  def batchedFlush(batchSize: Int, atomic: Boolean): Promise[java.lang.Integer] = {
 
     def nextBatch(prevFailed: Option[ReefServiceException], pending: List[QueuedRequest[_]], totalSize: Int, promise: OpenPromise[java.lang.Integer]) {
       prevFailed match {
@@ -116,7 +131,7 @@ trait BatchRestOperationsImpl extends BatchRestOperations with DerivedRestOperat
             } else {
               (remains, Nil)
             }
-            sendBatch(now, Some(nextBatch(_, later, totalSize, promise)))
+            sendBatch(now, atomic, Some(nextBatch(_, later, totalSize, promise)))
         }
       }
     }
@@ -129,7 +144,7 @@ trait BatchRestOperationsImpl extends BatchRestOperations with DerivedRestOperat
     promise
   }
 
-  private def sendBatch(requests: List[QueuedRequest[_]], chain: Option[(Option[ReefServiceException]) => Unit]) {
+  private def sendBatch(requests: List[QueuedRequest[_]], atomic: Boolean, chain: Option[(Option[ReefServiceException]) => Unit]) {
 
     def applyResponseToPromise[A](response: ServiceResponse, desc: TypeDescriptor[A], promise: OpenPromise[Response[A]]) {
       StatusCodes.isSuccess(response.getStatus) match {
@@ -143,6 +158,7 @@ trait BatchRestOperationsImpl extends BatchRestOperations with DerivedRestOperat
 
     val batch = {
       val b = BatchServiceRequest.newBuilder
+      if (!atomic) b.setAtomic(false)
       requests.foreach(r => b.addRequests(r.request))
       b.build
     }
@@ -23,13 +23,14 @@ import org.totalgrid.reef.client.Promise
 object ScalaBatchOperations {
   /**
    * setup a batch operation, do some work, start a batch flush and then exit batch mode. It is the callers responsibility to call
-   * await on the overall batch promise
+   * await on the overall batch promise. Non-atomic batches only fail the requests that failed, the caller needs to await
+   * each request's promise to see those failures.
    */
-  def batchOperations[A, ClientType <: HasBatching](client: ClientType, batchSize: Int)(fun: => Unit): Promise[java.lang.Integer] = {
+  def batchOperations[A, ClientType <: HasBatching](client: ClientType, batchSize: Int, atomic: Boolean = true)(fun: => Unit): Promise[java.lang.Integer] = {
     try {
       client.batching.start()
       fun
-      client.batching.flush(batchSize)
+      client.batching.flush(batchSize, atomic)
     } finally {
       client.batching.exit()
     }
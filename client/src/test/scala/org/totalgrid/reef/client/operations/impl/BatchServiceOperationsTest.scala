@@ -189,6 +189,19 @@ class BatchServiceOperationsTest extends FunSuite with ShouldMatchers {
     requestCounter.requests should equal(3 + 1)
   }
 
+  test("Non-atomic flush marks each batch") {
+    var atomicFlags = List.empty[Boolean]
+    val ops = new MockBatch({ req => atomicFlags ::= req.getAtomic; duplicatePayload(() => {}, req) })
+
+    (1 to 5).map { i => ops.request(Envelope.Verb.PUT, SomeInteger(i)) }
+    ops.batchedFlush(2, false).await should equal(5)
+
+    ops.request(Envelope.Verb.PUT, SomeInteger(6))
+    ops.flush().await
+
+    atomicFlags.reverse should equal(List(false, false, false, true))
+  }
+
   test("Calling await on queued but not flushed promise throws") {
 
     val requestCounter = new RealRequestCounter()
@@ -29,6 +29,7 @@ import org.totalgrid.reef.loader.commons.LoaderServices
 import org.totalgrid.reef.loader.commons.ui.RequestViewer
 
 import java.io.PrintStream
+import com.google.protobuf.GeneratedMessage
 import org.totalgrid.reef.client.service.proto.Calculations.Calculation
 import org.totalgrid.reef.client.service.proto.Auth.{ Agent, PermissionSet }
 import org.totalgrid.reef.client.Promise
@@ -129,9 +130,16 @@ class CachingModelLoader(client: Option[LoaderServices], batchSize: Int = 25) ex
 
     try {
       withRequestListener(client, viewer) {
-        batchOperations(client, batchSize) {
-          uploadOrder.foreach { client.put(_) }
-        }.await
+        // each run only holds requests that don't depend on each other so the server can load them
+        // concurrently, runs are still uploaded one after another in model order
+        independentRuns(uploadOrder).foreach { run =>
+          var results = List.empty[Promise[_]]
+          batchOperations(client, batchSize, false) {
+            results = run.map { client.put(_) }
+          }.await
+          // non-atomic batches only fail the requests that failed
+          results.foreach { _.await }
+        }
       }
     } finally {
       viewer.foreach { _.finish }
@@ -140,6 +148,25 @@ class CachingModelLoader(client: Option[LoaderServices], batchSize: Int = 25) ex
     reset()
   }
 
+  /**
+   * splits the uploads into runs of the same type of object, a run is cut short when an object is
+   * put twice (by name) since the second put may depend on the first
+   */
+  private def independentRuns(uploads: List[AnyRef]): List[List[AnyRef]] = {
+    def key(obj: AnyRef): AnyRef = obj match {
+      case msg: GeneratedMessage =>
+        val field = msg.getDescriptorForType.findFieldByName("name")
+        if (field != null && msg.hasField(field)) msg.getField(field) else msg
+      case other => other
+    }
+
+    uploads.foldLeft(List.empty[(List[AnyRef], Set[AnyRef])]) {
+      case ((run, seen) :: done, obj) if run.head.getClass == obj.getClass && !seen.contains(key(obj)) =>
+        (obj :: run, seen + key(obj)) :: done
+      case (done, obj) => (List(obj), Set(key(obj))) :: done
+    }.map { _._1.reverse }.reverse
+  }
+
   def getModelContainer: ModelContainer = {
     modelContainer
   }
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore
+
+import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Meas }
+import com.google.protobuf.CodedInputStream
+import scala.collection.mutable
+
+/**
+ * downsamples history by splitting [begin, end] into equal width buckets and keeping only the smallest and
+ * largest value seen in each bucket. Entries are added one at a time so the whole range never has to be held
+ * in memory. Entries without a numeric value (strings or no value) keep the oldest and newest entries of the
+ * bucket instead.
+ *
+ * @param begin time of the oldest entry that will be added
+ * @param end time of the newest entry that will be added
+ * @param buckets number of buckets, result returns at most twice this many entries
+ */
+class ExtremesSampler[A <: AnyRef](begin: Long, end: Long, buckets: Int) {
+
+  private class Bucket(time: Long, value: Double, item: A) {
+    var lowTime = time
+    var low = value
+    var lowItem = item
+    var highTime = time
+    var high = value
+    var highItem = item
+
+    def add(time: Long, value: Double, item: A) {
+      if (value.isNaN || low.isNaN) {
+        // numeric values always win over non numeric ones, otherwise keep the oldest and newest entries
+        if (low.isNaN && !value.isNaN) replaceBoth(time, value, item)
+        else if (value.isNaN && low.isNaN) {
+          if (time < lowTime) { lowTime = time; lowItem = item }
+          if (time >= highTime) { highTime = time; highItem = item }
+        }
+      } else {
+        if (value < low || (value == low && time < lowTime)) { lowTime = time; low = value; lowItem = item }
+        if (value > high || (value == high && time < highTime)) { highTime = time; high = value; highItem = item }
+      }
+    }
+
+    private def replaceBoth(time: Long, value: Double, item: A) {
+      lowTime = time; low = value; lowItem = item
+      highTime = time; high = value; highItem = item
+    }
+
+    def entries: List[A] = {
+      if (lowItem eq highItem) List(lowItem)
+      else if (lowTime <= highTime) List(lowItem, highItem)
+      else List(highItem, lowItem)
+    }
+  }
+
+  private val filled = mutable.Map.empty[Int, Bucket]
+  private val span = (end - begin).toDouble
+
+  def add(time: Long, value: Double, item: A) {
+    val index = bucketFor(time)
+    filled.get(index) match {
+      case Some(b) => b.add(time, value, item)
+      case None => filled.put(index, new Bucket(time, value, item))
+    }
+  }
+
+  /**
+   * kept entries in ascending time order
+   */
+  def result: Seq[A] = filled.toList.sortBy { _._1 }.flatMap { _._2.entries }
+
+  private def bucketFor(time: Long): Int = {
+    if (span <= 0) 0
+    else ((time - begin) / span * buckets).toInt.max(0).min(buckets - 1)
+  }
+}
+
+object ExtremesSampler {
+
+  /**
+   * numeric value of a measurement used for sampling, NaN if it has none
+   */
+  def value(m: Meas): Double = m.getType match {
+    case Meas.Type.INT => m.getIntVal.toDouble
+    case Meas.Type.DOUBLE => m.getDoubleVal
+    case Meas.Type.BOOL => if (m.getBoolVal) 1.0 else 0.0
+    case _ => Double.NaN
+  }
+
+  /**
+   * reads the numeric value straight out of a serialized measurement, skipping everything else, so stores
+   * that hold serialized history can sample it without building a proto for every entry
+   */
+  def value(serialized: Array[Byte]): Double = {
+    val in = CodedInputStream.newInstance(serialized)
+    var kind = -1
+    var intVal = 0L
+    var doubleVal = 0.0
+    var boolVal = false
+    var tag = in.readTag()
+    while (tag != 0) {
+      // low 3 bits of the tag are the wire type
+      (tag >>> 3) match {
+        case Meas.TYPE_FIELD_NUMBER => kind = in.readEnum()
+        case Meas.INT_VAL_FIELD_NUMBER => intVal = in.readSInt64()
+        case Meas.DOUBLE_VAL_FIELD_NUMBER => doubleVal = in.readDouble()
+        case Meas.BOOL_VAL_FIELD_NUMBER => boolVal = in.readBool()
+        case _ => in.skipField(tag)
+      }
+      tag = in.readTag()
+    }
+    Meas.Type.valueOf(kind) match {
+      case Meas.Type.INT => intVal.toDouble
+      case Meas.Type.DOUBLE => doubleVal
+      case Meas.Type.BOOL => if (boolVal) 1.0 else 0.0
+      case _ => Double.NaN
+    }
+  }
+
+  /**
+   * samples an already loaded history, used by historians that have no cheaper way to do it
+   */
+  def sample(meases: Seq[Meas], buckets: Int): Seq[Meas] = {
+    if (meases.isEmpty) Nil
+    else {
+      val times = meases.map { _.getTime }
+      val sampler = new ExtremesSampler[Meas](times.min, times.max, buckets)
+      meases.foreach { m => sampler.add(m.getTime, value(m), m) }
+      sampler.result
+    }
+  }
+}
@@ -48,6 +48,67 @@ trait Historian {
 
   /* -----  composed helper functions ------- */
 
+  /**
+   *   Returns the next page of values within a range, continuing after [cursor] if it is set. Pages seek
+   *   to the cursor time so reading page n costs the same as reading the first page. The page has a next
+   *   cursor whenever it is full.
+   *     @param name The name of measurement
+   *     @param begin Beginning of the time range (inclusive)
+   *     @param end End of the time range (inclusive)
+   *     @param max Maximum number of records in the page
+   *     @param ascending
+   *     @param cursor The next cursor of the previous page
+   */
+  def getPage(name: String, begin: Long, end: Long, max: Int, ascending: Boolean, cursor: Option[HistoryCursor]): HistoryPage = {
+    val (from, to, skip) = cursor match {
+      case Some(c) if ascending => (c.time.max(begin), end, c.skip)
+      case Some(c) => (begin, c.time.min(end), c.skip)
+      case None => (begin, end, 0)
+    }
+    val fetched = getInRange(name, from, to, max + skip, ascending)
+    val repeated = cursor.map { c => fetched.take(skip).takeWhile { _.getTime == c.time }.size }.getOrElse(0)
+    val page = fetched.drop(repeated).take(max)
+
+    // a full page may be followed by more, the last page of an exact multiple is empty
+    val next = if (page.size == max && page.nonEmpty) {
+      val last = page.last.getTime
+      val atLast = page.reverse.takeWhile { _.getTime == last }.size
+      // if the whole page had the cursor time we also have to skip everything the earlier pages returned
+      val carried = cursor.filter { _.time == last }.map { _ => repeated }.getOrElse(0)
+      Some(HistoryCursor(last, atLast + carried))
+    } else None
+
+    HistoryPage(page, next)
+  }
+
+  /**
+   *   Returns the rollups of every [interval] wide bucket overlapping a range in ascending order, buckets
+   *   are aligned to the epoch and always cover their whole interval. This implementation reads the raw
+   *   history, stores that keep rollup tiers override it.
+   *     @param name The name of measurement
+   *     @param begin Beginning of the time range (inclusive)
+   *     @param end End of the time range (inclusive)
+   *     @param interval Width of each bucket in milliseconds
+   */
+  def getRollups(name: String, begin: Long, end: Long, interval: Long): Seq[Rollup] = {
+    val (from, to) = Rollups.coveredRange(begin, end, interval)
+    val entries = getInRange(name, from, to, Int.MaxValue, true).iterator.map { m => (m.getTime, ExtremesSampler.value(m)) }
+    Rollups.accumulate(entries, interval)
+  }
+
+  /**
+   *   Splits the stored values within a range into [buckets] equal slices of time and returns the smallest
+   *   and largest value of each slice in ascending order. This implementation loads the whole range,
+   *   historians should override it with one that doesn't.
+   *     @param name The name of measurement
+   *     @param begin Beginning of the time range (inclusive)
+   *     @param end End of the time range (inclusive)
+   *     @param buckets Number of slices, at most twice this many records are returned
+   */
+  def getExtremesInRange(name: String, begin: Long, end: Long, buckets: Int): Seq[Meas] = {
+    ExtremesSampler.sample(getInRange(name, begin, end, Int.MaxValue, true), buckets)
+  }
+
   /**
    *   Returns the most recent values within a range up to [max]
    *     @param name The name of measurement
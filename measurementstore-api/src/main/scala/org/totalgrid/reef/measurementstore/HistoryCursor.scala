@@ -0,0 +1,47 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore
+
+import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Meas }
+
+/**
+ * position in a history range: the time of the last measurement returned and how many measurements with
+ * that time have been returned so far. It only depends on measurement times so any historian can continue
+ * from it by seeking to the time instead of counting through everything before it.
+ */
+case class HistoryCursor(time: Long, skip: Int) {
+  def token: String = time + ":" + skip
+}
+
+object HistoryCursor {
+  def parse(token: String): Option[HistoryCursor] = token.split(":") match {
+    case Array(time, skip) =>
+      try {
+        Some(HistoryCursor(time.toLong, skip.toInt)).filter { _.skip >= 0 }
+      } catch {
+        case ex: NumberFormatException => None
+      }
+    case _ => None
+  }
+}
+
+/**
+ * a page of history, next is set if there may be more measurements in the range after this page
+ */
+case class HistoryPage(meases: Seq[Meas], next: Option[HistoryCursor])
@@ -22,82 +22,165 @@ import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Mea
 
 import scala.collection.mutable.ListBuffer
 import scala.collection.immutable.TreeMap
-import scala.collection.mutable
+import scala.collection.JavaConversions._
+import java.util.concurrent.ConcurrentHashMap
 
-class MeasStorage(var startingValue: Meas, currentValueOnly: Boolean) {
-  var historicValues = TreeMap.empty[Long, ListBuffer[Meas]]
-  var lastWrittenValue = startingValue
+/**
+ * history for a single point, all access to the history is synchronized on this object so operations
+ * on different points never contend. The current value is volatile so it can be read without locking.
+ * A rollup for each tier is kept up to date as measurements are added.
+ */
+class MeasStorage(startingValue: Meas, currentValueOnly: Boolean, tiers: Seq[RollupTier] = RollupTier.defaults) {
+  private var historicValues = TreeMap.empty[Long, ListBuffer[Meas]]
+  private var rollups = tiers.map { t => t -> TreeMap.empty[Long, Rollup] }.toMap
+  @volatile var lastWrittenValue = startingValue
 
   addMeas(startingValue)
 
-  def addMeas(meas: Meas) {
-    if (currentValueOnly) historicValues = TreeMap.empty[Long, ListBuffer[Meas]]
-    historicValues.get(meas.getTime) match {
-      case Some(l) => l += meas
-      case None => historicValues += (meas.getTime -> ListBuffer(meas))
+  def addMeas(meas: Meas): Unit = synchronized {
+    if (!currentValueOnly) {
+      historicValues.get(meas.getTime) match {
+        case Some(l) => l += meas
+        case None => historicValues += (meas.getTime -> ListBuffer(meas))
+      }
+      addRollup(meas.getTime, ExtremesSampler.value(meas))
     }
     lastWrittenValue = meas
   }
 
-  def getInRange(begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Meas] = {
+  private def addRollup(time: Long, value: Double, from: Map[RollupTier, Long] = Map.empty) {
+    if (!value.isNaN) {
+      rollups = rollups.map {
+        case (tier, buckets) if time >= from.getOrElse(tier, Long.MinValue) =>
+          val start = Rollups.bucketStart(time, tier.millis)
+          val updated = buckets.get(start).map { _.add(time, value) }.getOrElse(Rollup(start, time, value))
+          tier -> (buckets + (start -> updated))
+        case unchanged => unchanged
+      }
+    }
+  }
+
+  def getRollups(begin: Long, end: Long, interval: Long): Seq[Rollup] = synchronized {
+    val (from, to) = Rollups.coveredRange(begin, end, interval)
+    val rend = if (to == Long.MaxValue) to else to + 1
+    Rollups.tierFor(tiers, interval) match {
+      case Some(tier) => Rollups.combine(rollups(tier).range(from, rend).valuesIterator, interval)
+      case None =>
+        val entries = historicValues.range(from, rend).iterator.flatMap { case (time, l) => l.map { m => (time, ExtremesSampler.value(m)) } }
+        Rollups.accumulate(entries, interval)
+    }
+  }
+
+  /**
+   * only the buckets that start at or after the oldest history we have are recalculated, older ones may
+   * cover history that is gone
+   */
+  def rebuildRollups(): Unit = synchronized {
+    if (historicValues.nonEmpty) {
+      val from = tiers.map { t => t -> Rollups.firstBucketFrom(historicValues.firstKey, t.millis) }.toMap
+      rollups = rollups.map { case (tier, buckets) => tier -> buckets.until(from(tier)) }
+      historicValues.foreach { case (time, l) => l.foreach { m => addRollup(time, ExtremesSampler.value(m), from) } }
+    }
+  }
+
+  def getInRange(begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Meas] = synchronized {
     val rend = if (end == Long.MaxValue) end else end + 1
-    val entries = historicValues.range(begin, rend).map { _._2 }.flatten
-    val rentries = if (!ascending) entries.toList.reverse else entries.toList
-    rentries.slice(0, max)
+    val entries = historicValues.range(begin, rend)
+    if (ascending) entries.iterator.flatMap { _._2 }.take(max).toList
+    else {
+      // walk back from the newest time so we only touch the entries we return
+      val result = ListBuffer.empty[Meas]
+      var remaining = entries
+      while (result.size < max && remaining.nonEmpty) {
+        val last = remaining.lastKey
+        result ++= remaining(last).reverse.take(max - result.size)
+        remaining = remaining.until(last)
+      }
+      result.toList
+    }
   }
 
-  def numValues(): Int = {
+  def getExtremes(begin: Long, end: Long, buckets: Int): Seq[Meas] = synchronized {
+    val rend = if (end == Long.MaxValue) end else end + 1
+    val entries = historicValues.range(begin, rend)
+    if (entries.isEmpty) Nil
+    else {
+      // sample the stored measurements in place rather than copying the range out
+      val sampler = new ExtremesSampler[Meas](entries.firstKey, entries.lastKey, buckets)
+      entries.foreach { case (time, l) => l.foreach { m => sampler.add(time, ExtremesSampler.value(m), m) } }
+      sampler.result
+    }
+  }
+
+  def numValues(): Int = synchronized {
     historicValues.foldLeft(0) { (sum, x) => sum + x._2.size }
   }
 }
 
-class InMemoryMeasurementStore(currentValueOnly: Boolean = false) extends MeasurementStore {
+/**
+ * points are kept in a concurrent map and each point has its own lock so readers and writers only block
+ * each other when they touch the same point. Lookups by name cost O(names requested), not O(points stored).
+ */
+class InMemoryMeasurementStore(currentValueOnly: Boolean = false, tiers: Seq[RollupTier] = RollupTier.defaults) extends MeasurementStore {
 
-  var values = mutable.Map.empty[String, MeasStorage]
+  private val values = new ConcurrentHashMap[String, MeasStorage]()
 
-  def get(names: Seq[String]): Map[String, Meas] = this.synchronized {
-    values.filterKeys(names.contains).map { x => x._1 -> x._2.lastWrittenValue }.toMap
+  def get(names: Seq[String]): Map[String, Meas] = {
+    names.foldLeft(Map.empty[String, Meas]) { (map, name) =>
+      val storage = values.get(name)
+      if (storage == null) map else map + (name -> storage.lastWrittenValue)
+    }
   }
+
   def set(meas: Seq[Meas]): Unit = {
     meas.foreach { m =>
-      val storage = this.synchronized {
-        values.get(m.getName) match {
-          case Some(hist) => Some(hist)
-          case None =>
-            values.put(m.getName, new MeasStorage(m, currentValueOnly))
-            None
-        }
+      val existing = values.get(m.getName) match {
+        case null => values.putIfAbsent(m.getName, new MeasStorage(m, currentValueOnly, tiers))
+        case storage => storage
       }
-      storage.foreach { _.addMeas(m) }
+      // null means our new storage was inserted and already contains the measurement
+      if (existing != null) existing.addMeas(m)
     }
   }
 
-  def getInRange(name: String, begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Meas] = this.synchronized {
+  def getInRange(name: String, begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Meas] = {
     checkHistorian
-    values.get(name).map { _.getInRange(begin, end, max, ascending) }.getOrElse(Nil)
+    Option(values.get(name)).map { _.getInRange(begin, end, max, ascending) }.getOrElse(Nil)
   }
 
-  def numValues(name: String): Int = this.synchronized {
+  override def getExtremesInRange(name: String, begin: Long, end: Long, buckets: Int): Seq[Meas] = {
     checkHistorian
-    values.get(name).map { _.numValues }.getOrElse(0)
+    Option(values.get(name)).map { _.getExtremes(begin, end, buckets) }.getOrElse(Nil)
   }
 
-  def remove(names: Seq[String]): Unit = this.synchronized {
+  override def getRollups(name: String, begin: Long, end: Long, interval: Long): Seq[Rollup] = {
+    checkHistorian
+    Option(values.get(name)).map { _.getRollups(begin, end, interval) }.getOrElse(Nil)
+  }
+
+  override def rebuildRollups(name: String): Boolean = {
+    checkHistorian
+    Option(values.get(name)).foreach { _.rebuildRollups() }
+    true
+  }
+
+  def numValues(name: String): Int = {
+    checkHistorian
+    Option(values.get(name)).map { _.numValues }.getOrElse(0)
+  }
+
+  def remove(names: Seq[String]): Unit = {
     names.foreach { name =>
       values.remove(name)
     }
   }
 
-  def numPoints(): Int = this.synchronized {
-    values.size
-  }
+  def numPoints(): Int = values.size
 
-  def allCurrent(): Seq[Meas] = this.synchronized {
-    values.map { x => x._2.lastWrittenValue }.toList
-  }
+  def allCurrent(): Seq[Meas] = values.values.map { _.lastWrittenValue }.toList
 
   def connect() = {}
   def disconnect() = {}
 
   private def checkHistorian = if (currentValueOnly) throw new Exception("Using currentValue store as historian!")
-}
\ No newline at end of file
+}
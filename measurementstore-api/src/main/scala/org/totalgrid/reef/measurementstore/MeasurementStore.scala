@@ -57,6 +57,13 @@ trait MeasurementStore extends Historian with RTDatabase with MeasSink {
    */
   def archive(name: String, end: Long): Boolean = false
 
+  /**
+   * recalculates the rollup tiers of a point from its raw history. Only buckets that start at or after
+   * the oldest history still stored are recalculated, rollups of trimmed history are left as they are.
+   * @return whether rollups are supported
+   */
+  def rebuildRollups(name: String): Boolean = false
+
   /**
    * if available returns size of database, otherwise None
    */
@@ -64,7 +64,22 @@ object MeasurementStoreFinder extends Logging {
       // don't actually make the executor unless connect is called
       val executorSource = { Executors.newResizingThreadPool(5.minutes) }
 
-      new MixedMeasurementStore(executorSource, historianStore.get, currentStore.get)
+      new MixedMeasurementStore(executorSource, historianStore.get, currentStore.get, loadWriteBehind(config))
+    }
+  }
+
+  /**
+   * if org.totalgrid.reef.mstore.writeBehind is set the historian writes of a mixed store are queued
+   */
+  private def loadWriteBehind(config: java.util.Dictionary[AnyRef, AnyRef]): Option[WriteBehindSettings] = {
+    if (PropertyLoading.getBoolean("org.totalgrid.reef.mstore.writeBehind", config, false)) {
+      val defaults = WriteBehindSettings()
+      Some(WriteBehindSettings(
+        PropertyLoading.getInt("org.totalgrid.reef.mstore.writeBehind.maxQueued", config, defaults.maxQueued),
+        PropertyLoading.getInt("org.totalgrid.reef.mstore.writeBehind.maxWriteSize", config, defaults.maxWriteSize),
+        WriteBehindSettings.policy(PropertyLoading.getString("org.totalgrid.reef.mstore.writeBehind.policy", config, "block"))))
+    } else {
+      None
     }
   }
 
@@ -26,9 +26,22 @@ class MeasSinkMetrics(sink: MeasSink, metrics: Metrics) extends MeasSink {
   val sets = metrics.counter("setOps")
   val setTime = metrics.timer("setTime")
 
+  // sinks that write behind also report how far behind they are
+  private val queueMetrics = sink match {
+    case queued: QueuedMeasSink =>
+      Some((queued, metrics.gauge("queueDepth"), metrics.gauge("queueLag"), metrics.gauge("droppedMeas")))
+    case _ => None
+  }
+
   def set(meas: Seq[Meas]): Unit = {
     sets(1)
     setTime(sink.set(meas))
+    queueMetrics.foreach {
+      case (queued, depth, lag, dropped) =>
+        depth(queued.queueDepth)
+        lag(queued.queueLag.toInt)
+        dropped(queued.droppedCount.toInt)
+    }
   }
 }
 
@@ -51,6 +64,12 @@ class HistorianMetrics(db: Historian, metrics: Metrics) extends Historian {
   val entriesRetrieved = metrics.counter("entriesRetrieved")
   val getTime = metrics.timer("getTime")
 
+  val extremes = metrics.counter("extremesOps")
+  val extremesTime = metrics.timer("extremesTime")
+
+  val rollups = metrics.counter("rollupOps")
+  val rollupTime = metrics.timer("rollupTime")
+
   val counts = metrics.counter("countOps")
   val countTime = metrics.timer("countTime")
   val removes = metrics.counter("removeOps")
@@ -63,6 +82,18 @@ class HistorianMetrics(db: Historian, metrics: Metrics) extends Historian {
     result
   }
 
+  override def getExtremesInRange(name: String, begin: Long, end: Long, buckets: Int): Seq[Meas] = {
+    extremes(1)
+    val result = extremesTime(db.getExtremesInRange(name, begin, end, buckets))
+    entriesRetrieved(result.size)
+    result
+  }
+
+  override def getRollups(name: String, begin: Long, end: Long, interval: Long): Seq[Rollup] = {
+    rollups(1)
+    rollupTime(db.getRollups(name, begin, end, interval))
+  }
+
   def numValues(name: String): Int = {
     counts(1)
     countTime(db.numValues(name))
@@ -24,13 +24,15 @@ import org.totalgrid.reef.persistence.{ ObjectCache, KeyValue }
 
 /**
  * wraps a MeasurementStore implementation to conform to the ObjectCache interface so we dont have to implement
- * the same logic in two places
+ * the same logic in two places. Writes can be routed through a wrapping sink (usually for metrics).
  */
-class MeasurementStoreToMeasurementCacheAdapter(measStore: MeasurementStore) extends ObjectCache[Measurement] {
+class MeasurementStoreToMeasurementCacheAdapter(measStore: MeasurementStore, sink: MeasSink) extends ObjectCache[Measurement] {
 
-  override def put(values: List[KeyValue[Measurement]]): Unit = measStore.set(values.map { kv => kv.value })
+  def this(measStore: MeasurementStore) = this(measStore, measStore)
 
-  def put(name: String, obj: Measurement) = measStore.set(obj :: Nil)
+  override def put(values: List[KeyValue[Measurement]]): Unit = sink.set(values.map { kv => kv.value })
+
+  def put(name: String, obj: Measurement) = sink.set(obj :: Nil)
 
   def get(name: String): Option[Measurement] = measStore.get(name :: Nil).get(name)
 
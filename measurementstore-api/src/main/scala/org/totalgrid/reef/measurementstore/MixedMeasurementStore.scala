@@ -29,8 +29,16 @@ import net.agileautomata.executor4s._
  * Calls get only on realtime store
  *
  * Calls rest on historian only
+ *
+ * If writeBehind settings are provided set only waits for the realtime store, the historian writes are
+ * queued and coalesced on the executor. History queries may not include measurements still in the queue,
+ * remove, reset, trim, archive and rebuildRollups wait for the queue to drain so they see every earlier write.
  */
-class MixedMeasurementStore(exeSource: => ExecutorService, historian: MeasurementStore, realtime: MeasurementStore) extends MeasurementStore {
+class MixedMeasurementStore(
+    exeSource: => ExecutorService,
+    historian: MeasurementStore,
+    realtime: MeasurementStore,
+    writeBehind: Option[WriteBehindSettings] = None) extends MeasurementStore with QueuedMeasSink {
 
   // calls both historian and realtime
 
@@ -39,13 +47,19 @@ class MixedMeasurementStore(exeSource: => ExecutorService, historian: Measuremen
   var executor = Option.empty[ExecutorService]
   def exe: Executor = executor.getOrElse(throw new RuntimeException("Not connected to mixed measurment store"))
 
+  private var historianQueue = Option.empty[WriteBehindQueue]
+
   def connect() {
     historian.connect()
     realtime.connect()
-    executor = Some(exeSource)
+    val e = exeSource
+    executor = Some(e)
+    historianQueue = writeBehind.map { new WriteBehindQueue(historian, e, _) }
   }
 
   def disconnect() {
+    flushHistorian()
+    historianQueue = None
     executor.foreach { _.terminate() }
     executor = None
     historian.disconnect()
@@ -53,12 +67,14 @@ class MixedMeasurementStore(exeSource: => ExecutorService, historian: Measuremen
   }
 
   override def reset() = {
+    flushHistorian()
     val f = exe.attempt { historian.reset() }
     realtime.reset()
     f.await.get
   }
 
   def remove(names: Seq[String]) {
+    flushHistorian()
     val f = exe.attempt { historian.remove(names) }
     realtime.remove(names)
     f.await.get
@@ -66,11 +82,23 @@ class MixedMeasurementStore(exeSource: => ExecutorService, historian: Measuremen
 
   // both stores need to be given new values
   def set(meas: Seq[Measurement]) {
-    val f = exe.attempt { historian.set(meas) }
-    realtime.set(meas)
-    f.await.get
+    historianQueue match {
+      case Some(queue) =>
+        queue.set(meas)
+        realtime.set(meas)
+      case None =>
+        val f = exe.attempt { historian.set(meas) }
+        realtime.set(meas)
+        f.await.get
+    }
   }
 
+  private def flushHistorian() = historianQueue.foreach { _.flush() }
+
+  def queueDepth = historianQueue.map { _.queueDepth }.getOrElse(0)
+  def queueLag = historianQueue.map { _.queueLag }.getOrElse(0L)
+  def droppedCount = historianQueue.map { _.droppedCount }.getOrElse(0L)
+
   // realtime only functionality
 
   def get(names: Seq[String]) = {
@@ -89,6 +117,7 @@ class MixedMeasurementStore(exeSource: => ExecutorService, historian: Measuremen
   override val supportsTrim = historian.supportsTrim
 
   override def trim(numPoints: Long) = {
+    flushHistorian()
     historian.trim(numPoints)
   }
 
@@ -96,9 +125,25 @@ class MixedMeasurementStore(exeSource: => ExecutorService, historian: Measuremen
     historian.getInRange(name, begin, end, max, ascending)
   }
 
+  override def getExtremesInRange(name: String, begin: Long, end: Long, buckets: Int) = {
+    historian.getExtremesInRange(name, begin, end, buckets)
+  }
+
+  override def getRollups(name: String, begin: Long, end: Long, interval: Long) = {
+    historian.getRollups(name, begin, end, interval)
+  }
+
   def numValues(name: String) = historian.numValues(name)
 
-  override def archive(name: String, end: Long) = historian.archive(name, end)
+  override def rebuildRollups(name: String) = {
+    flushHistorian()
+    historian.rebuildRollups(name)
+  }
+
+  override def archive(name: String, end: Long) = {
+    flushHistorian()
+    historian.archive(name, end)
+  }
 
   override def dbSize() = historian.dbSize()
 }
\ No newline at end of file
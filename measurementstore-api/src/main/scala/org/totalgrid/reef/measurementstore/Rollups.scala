@@ -0,0 +1,134 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore
+
+/**
+ * aggregate of the numeric measurements of a point whose time falls in [start, start + interval). Ties on
+ * first and last are broken by insertion order so merging rollups in order gives the same answer as
+ * reading the raw history.
+ */
+case class Rollup(
+    start: Long,
+    count: Long,
+    min: Double,
+    max: Double,
+    sum: Double,
+    firstTime: Long,
+    first: Double,
+    lastTime: Long,
+    last: Double) {
+
+  def mean: Double = sum / count
+
+  def add(time: Long, value: Double): Rollup = merge(Rollup(start, time, value))
+
+  /**
+   * combines with a rollup of measurements written after this one's
+   */
+  def merge(o: Rollup): Rollup = {
+    val (ft, f) = if (o.firstTime < firstTime) (o.firstTime, o.first) else (firstTime, first)
+    val (lt, l) = if (o.lastTime >= lastTime) (o.lastTime, o.last) else (lastTime, last)
+    Rollup(start.min(o.start), count + o.count, min.min(o.min), max.max(o.max), sum + o.sum, ft, f, lt, l)
+  }
+}
+
+object Rollup {
+  def apply(start: Long, time: Long, value: Double): Rollup = Rollup(start, 1, value, value, value, time, value, time, value)
+}
+
+/**
+ * a bucket width measurement stores keep rollups for, tiers are expected to nest (each width a multiple
+ * of the next smaller one)
+ * @param retentionMillis how far behind the newest bucket of the tier rollups are kept when the store is
+ *                        trimmed, 0 keeps them forever
+ */
+case class RollupTier(name: String, millis: Long, retentionMillis: Long = 0)
+
+object RollupTier {
+  private val dayMillis = 24L * 60 * 60 * 1000
+
+  val minute = RollupTier("1m", 60L * 1000, 7 * dayMillis)
+  val hour = RollupTier("1h", 60L * 60 * 1000, 400 * dayMillis)
+  val day = RollupTier("1d", dayMillis)
+
+  val defaults = List(minute, hour, day)
+}
+
+object Rollups {
+
+  /**
+   * start of the bucket of width interval containing time, buckets are aligned to the epoch
+   */
+  def bucketStart(time: Long, interval: Long): Long = {
+    val r = time % interval
+    if (r < 0) time - r - interval else time - r
+  }
+
+  /**
+   * start of the first bucket that begins at or after time, the buckets before it may also hold history
+   * from before time
+   */
+  def firstBucketFrom(time: Long, interval: Long): Long = {
+    val start = bucketStart(time, interval)
+    if (start == time) start else start + interval
+  }
+
+  /**
+   * the time range covered by the whole interval buckets overlapping [begin, end]
+   */
+  def coveredRange(begin: Long, end: Long, interval: Long): (Long, Long) = {
+    val lastStart = bucketStart(end, interval)
+    val lastEnd = if (lastStart > Long.MaxValue - interval) Long.MaxValue else lastStart + interval - 1
+    (bucketStart(begin, interval), lastEnd)
+  }
+
+  /**
+   * the coarsest tier that can be combined into buckets of width interval
+   */
+  def tierFor(tiers: Seq[RollupTier], interval: Long): Option[RollupTier] = {
+    tiers.filter { t => interval % t.millis == 0 }.sortBy { -_.millis }.headOption
+  }
+
+  /**
+   * merges tier rollups (in start order) into interval wide buckets
+   */
+  def combine(rollups: Iterator[Rollup], interval: Long): Seq[Rollup] = {
+    val result = new scala.collection.mutable.ListBuffer[Rollup]
+    rollups.foreach { r =>
+      val start = bucketStart(r.start, interval)
+      if (result.nonEmpty && result.last.start == start) result.update(result.size - 1, result.last.merge(r.copy(start = start)))
+      else result += r.copy(start = start)
+    }
+    result.toList
+  }
+
+  /**
+   * accumulates (time, value) entries into interval wide buckets (in start order), entries with NaN
+   * values are skipped
+   */
+  def accumulate(entries: Iterator[(Long, Double)], interval: Long): Seq[Rollup] = {
+    val buckets = scala.collection.mutable.Map.empty[Long, Rollup]
+    entries.filter { !_._2.isNaN }.foreach {
+      case (time, value) =>
+        val start = bucketStart(time, interval)
+        buckets.put(start, buckets.get(start).map { _.add(time, value) }.getOrElse(Rollup(start, time, value)))
+    }
+    buckets.values.toList.sortBy { _.start }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore
+
+import org.totalgrid.reef.client.service.proto.Measurements.Measurement
+import net.agileautomata.executor4s._
+import com.typesafe.scalalogging.slf4j.Logging
+import scala.collection.mutable
+
+/**
+ * a MeasSink that queues its writes and reports how far behind it is running
+ */
+trait QueuedMeasSink extends MeasSink {
+
+  /**
+   * number of measurements queued or being written
+   */
+  def queueDepth: Int
+
+  /**
+   * age in milliseconds of the oldest measurement that hasn't been written yet, 0 if caught up
+   */
+  def queueLag: Long
+
+  /**
+   * total number of measurements that were dropped rather than written
+   */
+  def droppedCount: Long
+}
+
+object WriteBehindSettings {
+
+  sealed trait QueueFullPolicy
+
+  /// callers wait until there is room in the queue
+  case object Block extends QueueFullPolicy
+  /// the oldest queued batches are thrown away to make room
+  case object DropOldest extends QueueFullPolicy
+  /// the incoming batch is thrown away
+  case object DropNewest extends QueueFullPolicy
+
+  def policy(name: String): QueueFullPolicy = name.toLowerCase match {
+    case "block" => Block
+    case "dropoldest" => DropOldest
+    case "dropnewest" => DropNewest
+    case _ => throw new IllegalArgumentException("Unknown write behind queue policy: " + name + " expected block, dropOldest or dropNewest")
+  }
+}
+
+/**
+ * @param maxQueued number of measurements that can be waiting to be written
+ * @param maxWriteSize adjacent batches are combined into writes of up to this many measurements
+ */
+case class WriteBehindSettings(
+  maxQueued: Int = 100000,
+  maxWriteSize: Int = 5000,
+  policy: WriteBehindSettings.QueueFullPolicy = WriteBehindSettings.Block)
+
+/**
+ * Writes measurements to the sink asynchronously on the executor. Adjacent batches that are
+ * waiting in the queue are coalesced into a single set call. At most one write is outstanding
+ * at a time so measurements reach the sink in the order they were set.
+ *
+ * Write failures can't be reported back to the caller so they are logged and counted as dropped.
+ */
+class WriteBehindQueue(sink: MeasSink, exe: Executor, settings: WriteBehindSettings) extends QueuedMeasSink with Logging {
+
+  import WriteBehindSettings._
+
+  private case class Pending(meas: Seq[Measurement], queuedAt: Long)
+
+  // all state is guarded by this
+  private val queue = mutable.Queue.empty[Pending]
+  private var queued = 0
+  private var inFlight = 0
+  private var inFlightSince = 0L
+  private var draining = false
+  private var dropped = 0L
+
+  def set(meas: Seq[Measurement]) {
+    if (meas.nonEmpty) {
+      val startDrain = this.synchronized {
+        if (!makeRoom(meas.size)) false
+        else {
+          queue.enqueue(Pending(meas, System.currentTimeMillis))
+          queued += meas.size
+          val start = !draining
+          draining = true
+          start
+        }
+      }
+      if (startDrain) exe.execute(drain())
+    }
+  }
+
+  /**
+   * blocks until every measurement set before this call has been written (or dropped)
+   */
+  def flush(): Unit = this.synchronized {
+    while (draining) this.wait()
+  }
+
+  def queueDepth: Int = this.synchronized(queued + inFlight)
+
+  def queueLag: Long = this.synchronized {
+    val oldest = if (inFlight > 0) Some(inFlightSince) else queue.headOption.map { _.queuedAt }
+    oldest.map { System.currentTimeMillis - _ }.getOrElse(0L)
+  }
+
+  def droppedCount: Long = this.synchronized(dropped)
+
+  /**
+   * applies the queue full policy, must be called while holding the lock
+   * @return whether the new batch should be queued
+   */
+  private def makeRoom(size: Int): Boolean = {
+    // a batch is always accepted into an empty queue, even if it is larger than the limit
+    def full = queue.nonEmpty && queued + size > settings.maxQueued
+    settings.policy match {
+      case Block =>
+        while (full) this.wait()
+        true
+      case DropOldest =>
+        while (full) {
+          val oldest = queue.dequeue()
+          queued -= oldest.meas.size
+          dropped += oldest.meas.size
+        }
+        true
+      case DropNewest =>
+        if (full) dropped += size
+        !full
+    }
+  }
+
+  private def drain() {
+    var next = takeWrite()
+    while (next.isDefined) {
+      val meas = next.get
+      try {
+        sink.set(meas)
+      } catch {
+        case ex: Exception =>
+          logger.error("Couldn't write " + meas.size + " measurements to historian: " + ex.getMessage, ex)
+          this.synchronized { dropped += meas.size }
+      }
+      next = takeWrite()
+    }
+  }
+
+  /**
+   * pulls as many adjacent batches off the queue as fit in one write, marks the
+   * queue idle when there is nothing left
+   */
+  private def takeWrite(): Option[Seq[Measurement]] = this.synchronized {
+    inFlight = 0
+    val ret = if (queue.isEmpty) {
+      draining = false
+      None
+    } else {
+      inFlightSince = queue.head.queuedAt
+      val write = mutable.ArrayBuffer.empty[Measurement]
+      do {
+        write ++= queue.dequeue().meas
+      } while (queue.nonEmpty && write.size + queue.head.meas.size <= settings.maxWriteSize)
+      queued -= write.size
+      inFlight = write.size
+      Some(write)
+    }
+    this.notifyAll()
+    ret
+  }
+}
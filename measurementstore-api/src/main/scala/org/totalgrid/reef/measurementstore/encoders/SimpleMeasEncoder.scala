@@ -22,11 +22,27 @@ import java.lang.{ Double => JDouble }
 
 import scala.collection.JavaConversions._
 import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Meas, Quality, MeasArchive, MeasArchiveUnit }
+import org.totalgrid.reef.client.service.proto.Model.ReefUUID
 
 object SimpleMeasEncoder {
 
   case class DblEnc(mant: Long, exp: Int, neg: Boolean)
-  case class Last(time: Long, quality: Quality, intVal: Long, dblVal: Long)
+  case class Last(time: Long, quality: Quality, intVal: Long, dblVal: Long, fields: Fields = noFields)
+
+  /**
+   * the non-value measurement fields, these rarely change so they are only archived when they differ
+   * from the previous measurement. absent is a bitmask of which optional fields weren't set.
+   */
+  case class Fields(absent: Int, name: String, pointUuid: ReefUUID, unit: String, isDeviceTime: Boolean, systemTime: Long)
+
+  val NAME = 0x01
+  val POINT_UUID = 0x02
+  val UNIT = 0x04
+  val IS_DEVICE_TIME = 0x08
+  val SYSTEM_TIME = 0x10
+  val TIME = 0x20
+
+  val noFields = Fields(NAME | POINT_UUID | UNIT | IS_DEVICE_TIME | SYSTEM_TIME | TIME, "", ReefUUID.getDefaultInstance, "raw", false, 0)
 
   // encode against t=0, default quality, 0 values
   val start = Last(0, Quality.newBuilder.build, 0, JDouble.doubleToLongBits(0.0))
@@ -67,8 +83,18 @@ class SimpleMeasEncoder extends MeasEncoder {
     val intVal = if (ei.meas.hasIntVal) ei.last.intVal + ei.meas.getIntVal else ei.last.intVal
     val dblVal = if (ei.meas.hasDoubleVal) ei.last.dblVal + ei.meas.getDoubleVal else ei.last.dblVal
 
-    val ret = Meas.newBuilder.setTime(time).setQuality(quality)
-    ret.setType(getType(ei.meas).get) // blow up here if it isn't set
+    val fields = decodeFields(ei.meas, ei.last.fields)
+
+    val ret = Meas.newBuilder.setQuality(quality)
+    if ((fields.absent & TIME) == 0) ret.setTime(time)
+    if ((fields.absent & NAME) == 0) ret.setName(fields.name)
+    if ((fields.absent & POINT_UUID) == 0) ret.setPointUuid(fields.pointUuid)
+    if ((fields.absent & UNIT) == 0) ret.setUnit(fields.unit)
+    if ((fields.absent & IS_DEVICE_TIME) == 0) ret.setIsDeviceTime(fields.isDeviceTime)
+    if ((fields.absent & SYSTEM_TIME) == 0) ret.setSystemTime(fields.systemTime)
+
+    // a unit without a value is a NONE measurement
+    ret.setType(getType(ei.meas).getOrElse(Meas.Type.NONE))
 
     ret.getType match {
       case Meas.Type.INT => ret.setIntVal(intVal)
@@ -77,7 +103,17 @@ class SimpleMeasEncoder extends MeasEncoder {
       case Meas.Type.STRING => ret.setStringVal(ei.meas.getStringVal)
       case Meas.Type.NONE =>
     }
-    EncInfo(ret.build, Last(time, quality, intVal, dblVal))
+    EncInfo(ret.build, Last(time, quality, intVal, dblVal, fields))
+  }
+
+  private def decodeFields(u: MeasArchiveUnit, last: Fields): Fields = {
+    Fields(
+      if (u.hasAbsentFields) u.getAbsentFields else last.absent,
+      if (u.hasName) u.getName else last.name,
+      if (u.hasPointUuid) u.getPointUuid else last.pointUuid,
+      if (u.hasUnit) u.getUnit else last.unit,
+      if (u.hasIsDeviceTime) u.getIsDeviceTime else last.isDeviceTime,
+      if (u.hasSystemTime) last.systemTime + u.getSystemTime else last.systemTime)
   }
 
   def getEncoding(ei: EncInfo[Meas]): EncInfo[MeasArchiveUnit] = {
@@ -99,7 +135,28 @@ class SimpleMeasEncoder extends MeasEncoder {
       case Meas.Type.NONE =>
     }
 
-    EncInfo(ret.build, Last(ei.meas.getTime, ei.meas.getQuality, intVal, dblVal))
+    val fields = encodeFields(ei.meas, ei.last.fields, ret)
+
+    EncInfo(ret.build, Last(ei.meas.getTime, ei.meas.getQuality, intVal, dblVal, fields))
+  }
+
+  private def encodeFields(m: Meas, last: Fields, ret: MeasArchiveUnit.Builder): Fields = {
+    val absent = (if (m.hasName) 0 else NAME) | (if (m.hasPointUuid) 0 else POINT_UUID) | (if (m.hasUnit) 0 else UNIT) |
+      (if (m.hasIsDeviceTime) 0 else IS_DEVICE_TIME) | (if (m.hasSystemTime) 0 else SYSTEM_TIME) | (if (m.hasTime) 0 else TIME)
+
+    if (absent != last.absent) ret.setAbsentFields(absent)
+    if (m.hasName && m.getName != last.name) ret.setName(m.getName)
+    if (m.hasPointUuid && m.getPointUuid != last.pointUuid) ret.setPointUuid(m.getPointUuid)
+    if (m.hasUnit && m.getUnit != last.unit) ret.setUnit(m.getUnit)
+    if (m.hasIsDeviceTime && m.getIsDeviceTime != last.isDeviceTime) ret.setIsDeviceTime(m.getIsDeviceTime)
+    if (m.hasSystemTime && m.getSystemTime != last.systemTime) ret.setSystemTime(m.getSystemTime - last.systemTime)
+
+    Fields(absent,
+      if (m.hasName) m.getName else last.name,
+      if (m.hasPointUuid) m.getPointUuid else last.pointUuid,
+      if (m.hasUnit) m.getUnit else last.unit,
+      if (m.hasIsDeviceTime) m.getIsDeviceTime else last.isDeviceTime,
+      if (m.hasSystemTime) m.getSystemTime else last.systemTime)
   }
 
 }
\ No newline at end of file
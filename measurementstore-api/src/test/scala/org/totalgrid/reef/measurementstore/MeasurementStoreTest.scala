@@ -29,6 +29,36 @@ import net.agileautomata.executor4s.testing._
 @RunWith(classOf[JUnitRunner])
 class InMemoryMeasurementStoreTest extends MeasurementStoreTest {
   val cm = new InMemoryMeasurementStore()
+
+  test("Concurrent writers and readers") {
+    val threads = 8
+    val perThread = 500
+
+    val failures = new java.util.concurrent.ConcurrentLinkedQueue[Throwable]
+    val workers = (1 to threads).map { t =>
+      new Thread {
+        override def run() {
+          try {
+            val name = "ConcurrentMeas" + t
+            (1 to perThread).foreach { i =>
+              cm.set(List(getMeas(name, i), getMeas("SharedMeas", i)))
+              cm.get(List(name)).get(name).map { _.getTime.toInt } should equal(Some(i))
+            }
+          } catch {
+            case ex: Throwable => failures.add(ex)
+          }
+        }
+      }
+    }
+    workers.foreach(_.start())
+    workers.foreach(_.join())
+
+    failures.isEmpty should equal(true)
+
+    (1 to threads).foreach { t => cm.numValues("ConcurrentMeas" + t) should equal(perThread) }
+    cm.numValues("SharedMeas") should equal(threads * perThread)
+    cm.get((1 to threads).map { "ConcurrentMeas" + _ } :+ "Unknown").size should equal(threads)
+  }
 }
 
 @RunWith(classOf[JUnitRunner])
@@ -42,6 +72,17 @@ class MixedMemoryMeasStoreTest extends MeasurementStoreTest {
   }
 }
 
+@RunWith(classOf[JUnitRunner])
+class MixedWriteBehindMeasStoreTest extends MeasurementStoreTest {
+  val currentMeas = new InMemoryMeasurementStore(true)
+  val historian = new InMemoryMeasurementStore(false)
+  val cm = {
+    val c = new MixedMeasurementStore(new MockExecutorService(new InstantExecutor()), historian, currentMeas, Some(WriteBehindSettings()))
+    c.connect
+    c
+  }
+}
+
 abstract class MeasurementStoreTest extends FunSuite with ShouldMatchers with BeforeAndAfterEach {
 
   val cm: MeasurementStore
@@ -274,6 +315,96 @@ abstract class MeasurementStoreTest extends FunSuite with ShouldMatchers with Be
     result.size should equal(0)
   }
 
+  test("History Paging") {
+    val name = "PagedPoint"
+
+    // three measurements per time slot so pages split slots
+    val meas = for (i <- 0 to 29) yield getMeas(name, i / 3, i)
+    cm.remove(List(name))
+    cm.set(meas)
+    cm.archive(name, 4)
+
+    def readAll(ascending: Boolean, pageSize: Int) = {
+      var page = cm.getPage(name, 0, Long.MaxValue, pageSize, ascending, None)
+      var read = page.meases.toList
+      while (page.next.isDefined) {
+        page = cm.getPage(name, 0, Long.MaxValue, pageSize, ascending, page.next)
+        page.meases.size should be <= (pageSize)
+        read = read ::: page.meases.toList
+      }
+      read
+    }
+
+    if (cm.supportsMultipleMeasurementsPerMillisecond) {
+      List(1, 2, 4, 7, 10).foreach { pageSize =>
+        readAll(true, pageSize) should equal(meas.toList)
+        readAll(false, pageSize) should equal(meas.toList.reverse)
+      }
+    }
+
+    val limited = cm.getPage(name, 2, 5, 4, true, None)
+    limited.meases.map { _.getIntVal } should equal(List(6, 7, 8, 9))
+    limited.next should equal(Some(HistoryCursor(3, 1)))
+    cm.getPage(name, 2, 5, 100, true, limited.next).meases.map { _.getIntVal } should equal((10 to 17).toList)
+  }
+
+  test("Extremes Sampling") {
+    val name = "SampledPoint"
+
+    // a ramp with one spike in each direction
+    val meas = for (i <- 0 to 99) yield getMeas(name, i, if (i == 37) 1000 else if (i == 62) -1000 else i)
+    cm.remove(List(name))
+    cm.set(meas)
+    cm.archive(name, 50)
+
+    val sampled = cm.getExtremesInRange(name, 0, Long.MaxValue, 5)
+    sampled.map { _.getTime } should equal(List(0, 19, 20, 37, 40, 59, 62, 79, 80, 99))
+    sampled.map { _.getIntVal } should equal(List(0, 19, 20, 1000, 40, 59, -1000, 79, 80, 99))
+    sampled should equal(ExtremesSampler.sample(cm.getOldest(name, 1000), 5))
+
+    cm.getExtremesInRange(name, 30, 49, 1).map { _.getTime } should equal(List(30, 37))
+    cm.getExtremesInRange(name, 200, 300, 5) should equal(Nil)
+    cm.getExtremesInRange("UnknownSampledPoint", 0, Long.MaxValue, 5) should equal(Nil)
+  }
+
+  test("Rollups") {
+    val name = "RolledUpPoint"
+
+    // three measurements a minute for ten minutes
+    val meas = for (i <- 0 to 29) yield getMeas(name, i * 20000, i)
+    cm.remove(List(name))
+    cm.set(meas)
+    cm.archive(name, 0)
+
+    def fromRaw(interval: Long) = {
+      Rollups.accumulate(cm.getOldest(name, 1000).iterator.map { m => (m.getTime, m.getIntVal.toDouble) }, interval)
+    }
+
+    val minutes = cm.getRollups(name, 0, Long.MaxValue, 60000)
+    minutes.size should equal(10)
+    minutes.head should equal(Rollup(0, 3, 0, 2, 3, 0, 0, 40000, 2))
+    minutes.last.mean should equal(28.0)
+    minutes should equal(fromRaw(60000))
+
+    cm.getRollups(name, 0, Long.MaxValue, 120000) should equal(fromRaw(120000))
+    // no tier divides 90 seconds so it has to come from the raw history
+    cm.getRollups(name, 0, Long.MaxValue, 90000) should equal(fromRaw(90000))
+    // partial buckets at the edges of the range are returned whole
+    cm.getRollups(name, 70000, 130000, 60000).map { _.start } should equal(List(60000, 120000))
+    cm.getRollups("UnknownRolledUpPoint", 0, Long.MaxValue, 60000) should equal(Nil)
+
+    if (cm.supportsTrim) {
+      cm.trim(5)
+      cm.getRollups(name, 0, Long.MaxValue, 60000) should equal(minutes)
+
+      // only the buckets after the oldest remaining measurement are rebuilt, the trimmed ones are kept
+      if (cm.rebuildRollups(name)) {
+        cm.getRollups(name, 0, Long.MaxValue, 60000) should equal(minutes)
+        cm.getRollups(name, 540000, Long.MaxValue, 60000) should equal(fromRaw(60000).filter { _.start >= 540000 })
+      }
+    }
+  }
+
   test("Trim Points") {
 
     if (cm.supportsTrim) {
@@ -295,4 +426,22 @@ abstract class MeasurementStoreTest extends FunSuite with ShouldMatchers with Be
     }
   }
 
+  test("Trim Oldest Across Points") {
+
+    if (cm.supportsTrim) {
+
+      // the slow point is written (and possibly sealed) first but all of its history is newer
+      val slow = for (i <- 1 to 6) yield getMeas("TrimSlowPoint", 1000 + i)
+      val busy = for (i <- 1 to 9) yield getMeas("TrimBusyPoint", i)
+      cm.set(slow)
+      cm.set(busy)
+
+      cm.trim(9)
+
+      cm.numValues("TrimSlowPoint") should equal(6)
+      cm.numValues("TrimBusyPoint") should equal(3)
+      cm.getOldest("TrimBusyPoint").get.getTime should equal(7)
+    }
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore
+
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import org.scalatest.junit.JUnitRunner
+import org.junit.runner.RunWith
+
+import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement, Quality }
+import net.agileautomata.executor4s.testing.MockExecutor
+import scala.collection.mutable
+
+@RunWith(classOf[JUnitRunner])
+class WriteBehindQueueTest extends FunSuite with ShouldMatchers {
+
+  class RecordingSink extends MeasSink {
+    val writes = mutable.Queue.empty[Seq[Measurement]]
+    def set(meas: Seq[Measurement]) = writes.enqueue(meas)
+  }
+
+  def batch(name: String, count: Int) = (1 to count).map { i =>
+    Measurement.newBuilder.setName(name).setType(Measurement.Type.INT).setIntVal(i)
+      .setQuality(Quality.newBuilder).setTime(i).build
+  }
+
+  def fixture(settings: WriteBehindSettings)(test: (WriteBehindQueue, RecordingSink, MockExecutor) => Unit) = {
+    val exe = new MockExecutor
+    val sink = new RecordingSink
+    test(new WriteBehindQueue(sink, exe, settings), sink, exe)
+  }
+
+  test("Adjacent batches are coalesced") {
+    fixture(WriteBehindSettings(maxWriteSize = 10)) { (queue, sink, exe) =>
+      queue.set(batch("a", 4))
+      queue.set(batch("b", 4))
+      queue.set(batch("c", 4))
+
+      // only one drain is scheduled no matter how many batches are queued
+      exe.numQueuedActions should equal(1)
+      queue.queueDepth should equal(12)
+      sink.writes.size should equal(0)
+
+      exe.runUntilIdle()
+
+      sink.writes.map { _.size }.toList should equal(List(8, 4))
+      sink.writes.flatten.toList should equal(batch("a", 4) ++ batch("b", 4) ++ batch("c", 4))
+      queue.queueDepth should equal(0)
+      queue.queueLag should equal(0)
+    }
+  }
+
+  test("Drop newest when full") {
+    fixture(WriteBehindSettings(maxQueued = 10, policy = WriteBehindSettings.DropNewest)) { (queue, sink, exe) =>
+      queue.set(batch("a", 6))
+      queue.set(batch("b", 6))
+      queue.set(batch("c", 4))
+
+      queue.droppedCount should equal(6)
+      exe.runUntilIdle()
+      sink.writes.flatten.toList should equal(batch("a", 6) ++ batch("c", 4))
+    }
+  }
+
+  test("Drop oldest when full") {
+    fixture(WriteBehindSettings(maxQueued = 10, policy = WriteBehindSettings.DropOldest)) { (queue, sink, exe) =>
+      queue.set(batch("a", 6))
+      queue.set(batch("b", 6))
+
+      queue.droppedCount should equal(6)
+      queue.queueDepth should equal(6)
+      exe.runUntilIdle()
+      sink.writes.flatten.toList should equal(batch("b", 6))
+    }
+  }
+
+  test("Oversized batch is accepted into an empty queue") {
+    fixture(WriteBehindSettings(maxQueued = 5, maxWriteSize = 5, policy = WriteBehindSettings.DropNewest)) { (queue, sink, exe) =>
+      queue.set(batch("a", 8))
+      queue.droppedCount should equal(0)
+      exe.runUntilIdle()
+      sink.writes.map { _.size }.toList should equal(List(8))
+    }
+  }
+
+  test("Failed writes are counted as dropped") {
+    val exe = new MockExecutor
+    val queue = new WriteBehindQueue(new MeasSink {
+      def set(meas: Seq[Measurement]) = throw new RuntimeException("historian down")
+    }, exe, WriteBehindSettings())
+
+    queue.set(batch("a", 3))
+    exe.runUntilIdle()
+    queue.droppedCount should equal(3)
+    queue.queueDepth should equal(0)
+  }
+}
@@ -28,6 +28,7 @@ import java.util.Random
 
 import org.totalgrid.reef.util.Timing
 import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Meas, Quality }
+import org.totalgrid.reef.client.service.proto.Model.ReefUUID
 
 @RunWith(classOf[JUnitRunner])
 class CompressionTest extends FunSuite with ShouldMatchers {
@@ -129,4 +130,19 @@ class CompressionTest extends FunSuite with ShouldMatchers {
     testEncodings("RandomIntegers", randlist)
   }
 
-}
\ No newline at end of file
+  test("OptionalFieldsRoundTrip") {
+    def get(name: String, time: Long) = {
+      Meas.newBuilder.setName(name).setPointUuid(ReefUUID.newBuilder.setValue(name + "-uuid"))
+        .setType(Meas.Type.DOUBLE).setDoubleVal(time * 1.5).setUnit("V")
+        .setTime(time).setIsDeviceTime(time % 2 == 0).setSystemTime(time + 5)
+        .setQuality(Quality.newBuilder.build).build
+    }
+
+    val bare = Meas.newBuilder.setType(Meas.Type.NONE).setQuality(Quality.newBuilder.build).build
+    val values = List(get("a", 10), get("a", 12), bare, get("b", 5), get("b", 5).toBuilder.clearUnit.build, bare)
+    // only the simple encoder preserves the non-value fields
+    testAndBenchmark(new SimpleMeasEncoder, "OptionalFields w/ Simple", values)
+    testAndBenchmark(new SimpleMeasEncoder with JavaZipping, "OptionalFields w/ SimpleWithZipping", values)
+  }
+
+}
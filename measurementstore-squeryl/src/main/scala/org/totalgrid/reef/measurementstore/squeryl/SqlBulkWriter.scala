@@ -0,0 +1,169 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore.squeryl
+
+import java.io.StringReader
+import java.sql.Connection
+import org.squeryl.Session
+import org.squeryl.adapters.PostgreSqlAdapter
+import org.postgresql.PGConnection
+
+/**
+ * writes history rows and current values for a batch of measurements in as few database round
+ * trips as possible. All operations assume they are being run from inside a database transaction.
+ */
+trait SqlBulkWriter {
+
+  def insertHistory(rows: Seq[Measurement])
+
+  def updateCurrentValues(values: Seq[CurrentValue])
+}
+
+object SqlBulkWriter {
+
+  /**
+   * picks the best writer for the database the current session is talking to
+   */
+  def forCurrentSession(partitions: Option[SqlHistoryPartitions] = None): SqlBulkWriter = Session.currentSession.databaseAdapter match {
+    case _: PostgreSqlAdapter => partitions.map { new PostgresBulkWriter(_) }.getOrElse(PostgresBulkWriter)
+    case _ => JdbcBatchWriter
+  }
+
+  private[squeryl] def connection: Connection = Session.currentSession.connection
+
+  private[squeryl] def usingStatement[A](sql: String)(f: java.sql.PreparedStatement => A): A = {
+    val stmt = connection.prepareStatement(sql)
+    try {
+      f(stmt)
+    } finally {
+      stmt.close()
+    }
+  }
+}
+
+/**
+ * portable writer, history goes through squeryl's batched insert and the current values are
+ * updated with a single reused prepared statement sent as one JDBC batch
+ */
+object JdbcBatchWriter extends SqlBulkWriter {
+
+  import SqlBulkWriter._
+
+  def insertHistory(rows: Seq[Measurement]) {
+    SqlMeasurementStoreSchema.updates.insert(rows)
+  }
+
+  def updateCurrentValues(values: Seq[CurrentValue]) {
+    if (values.nonEmpty) {
+      usingStatement("UPDATE " + SqlMeasurementStoreSchema.currentValues.name + " SET proto = ? WHERE id = ?") { stmt =>
+        values.foreach { cv =>
+          stmt.setBytes(1, cv.proto)
+          stmt.setLong(2, cv.id)
+          stmt.addBatch()
+        }
+        stmt.executeBatch()
+      }
+    }
+  }
+}
+
+object PostgresBulkWriter extends PostgresBulkWriter(None) {
+  // keeps the number of bind parameters in a single statement well under the protocol limit
+  val maxRowsPerStatement = 1000
+}
+
+/**
+ * postgres writer, history rows are streamed in with COPY (ids are reserved from the table's
+ * sequence in one query) and the current values are replaced with a single UPDATE ... FROM VALUES.
+ * If the pooled connection can't be unwrapped to the postgres driver connection we fall back to
+ * the JDBC batch writer.
+ *
+ * If history partitions are given the rows are copied straight into the partition for their time.
+ */
+class PostgresBulkWriter(partitions: Option[SqlHistoryPartitions]) extends SqlBulkWriter {
+
+  import SqlBulkWriter._
+  import PostgresBulkWriter.maxRowsPerStatement
+
+  def this(partitions: SqlHistoryPartitions) = this(Some(partitions))
+
+  def insertHistory(rows: Seq[Measurement]) {
+    if (rows.nonEmpty) {
+      if (!connection.isWrapperFor(classOf[PGConnection])) JdbcBatchWriter.insertHistory(rows)
+      else partitions match {
+        case Some(p) =>
+          rows.groupBy { r => p.partitionFor(r.measTime) }.foreach { case (partition, inPartition) => copy(partition.name, inPartition) }
+        case None =>
+          copy(SqlMeasurementStoreSchema.updates.name, rows)
+      }
+    }
+  }
+
+  private def copy(table: String, rows: Seq[Measurement]) {
+    // ids always come from the parent table's sequence so they stay unique and ordered across partitions
+    val ids = reserveIds("s_" + SqlMeasurementStoreSchema.updates.name + "_id", rows.size)
+
+    val data = new StringBuilder(rows.size * 64)
+    rows.zip(ids).foreach {
+      case (row, id) =>
+        data.append(row.pointId).append('\t').append(row.measTime).append('\t')
+        // bytea in hex format, the backslash itself is escaped for the COPY text format
+        data.append("\\\\x")
+        appendHex(data, row.proto)
+        data.append('\t').append(id).append('\n')
+    }
+
+    val copy = connection.unwrap(classOf[PGConnection]).getCopyAPI
+    copy.copyIn("COPY " + table + " (pointId, measTime, proto, id) FROM STDIN", new StringReader(data.toString))
+  }
+
+  def updateCurrentValues(values: Seq[CurrentValue]) {
+    val table = SqlMeasurementStoreSchema.currentValues.name
+    values.grouped(maxRowsPerStatement).foreach { group =>
+      val rows = List.fill(group.size)("(?, ?)").mkString(", ")
+      usingStatement("UPDATE " + table + " SET proto = v.proto FROM (VALUES " + rows + ") AS v(id, proto) WHERE " + table + ".id = v.id") { stmt =>
+        group.zipWithIndex.foreach {
+          case (cv, i) =>
+            stmt.setLong(i * 2 + 1, cv.id)
+            stmt.setBytes(i * 2 + 2, cv.proto)
+        }
+        stmt.executeUpdate()
+      }
+    }
+  }
+
+  private def reserveIds(sequence: String, count: Int): List[Long] = {
+    usingStatement("SELECT nextval('" + sequence + "') FROM generate_series(1, ?)") { stmt =>
+      stmt.setInt(1, count)
+      val rs = stmt.executeQuery()
+      var ids = List.empty[Long]
+      while (rs.next()) ids ::= rs.getLong(1)
+      rs.close()
+      ids.reverse
+    }
+  }
+
+  private val hexDigits = "0123456789abcdef".toCharArray
+
+  private def appendHex(sb: StringBuilder, bytes: Array[Byte]) {
+    bytes.foreach { b =>
+      sb.append(hexDigits((b >> 4) & 0xF)).append(hexDigits(b & 0xF))
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measurementstore.squeryl
+
+import java.sql.{ PreparedStatement, ResultSet }
+import com.typesafe.scalalogging.slf4j.Logging
+import org.squeryl.Session
+import org.squeryl.adapters.PostgreSqlAdapter
+
+import SqlBulkWriter.{ connection, usingStatement }
+
+/**
+ * @param partitionMillis width of each history partition
+ */
+case class PartitionSettings(partitionMillis: Long) {
+  if (partitionMillis <= 0) throw new IllegalArgumentException("Partition size must be positive, not: " + partitionMillis)
+}
+
+/**
+ * a child table of the history table holding the measurements with startTime <= measTime < endTime
+ */
+case class HistoryPartition(name: String, startTime: Long, endTime: Long)
+
+/**
+ * Splits the history table into time bucketed partitions using postgres table inheritance. Each
+ * partition is a child table with a CHECK constraint on measTime, so all of the existing queries against
+ * the history table still see every row. Writes go directly to the partition for their time, range
+ * queries only visit the partitions that overlap the range and retention drops whole partitions instead
+ * of deleting rows.
+ *
+ * Partitions are only supported on postgres, on other databases every operation falls back to using the
+ * plain history table.
+ *
+ * The partition list is read from the catalog once and then kept up to date as we create and drop
+ * partitions. It is re-read when a write needs a partition we don't know about, before trimming and after
+ * invalidate (which the store calls whenever a transaction fails, in case it rolled back a partition we
+ * created).
+ *
+ * Only reads and updates of the cached list hold this object's lock. The catalog reads, DDL and counts all
+ * run without it, they take database locks (DDL locks the parent table) and would otherwise be able to
+ * deadlock against a transaction waiting on the lock. Creating or dropping a partition someone else is
+ * creating or dropping is rolled back to a savepoint and resolved by re-reading the catalog.
+ *
+ * All operations assume they are being run from inside a database transaction.
+ */
+class SqlHistoryPartitions(val settings: PartitionSettings) extends Logging {
+
+  import SqlHistoryPartitions._
+
+  // partitions in ascending time order, None until read from the catalog, guarded by this
+  private var cached = Option.empty[List[HistoryPartition]]
+
+  private def cachedList = synchronized { cached }
+  private def updateCached(f: List[HistoryPartition] => List[HistoryPartition]) = synchronized { cached = cached.map(f) }
+
+  def supported = SqlHistoryPartitions.supported
+
+  def bucketStart(time: Long): Long = {
+    val r = time % settings.partitionMillis
+    if (r < 0) time - r - settings.partitionMillis else time - r
+  }
+
+  /**
+   * all of the partitions in ascending time order
+   */
+  def partitions(): List[HistoryPartition] = cachedList.getOrElse(refresh())
+
+  /**
+   * forget the partition list, the next operation re-reads it from the catalog
+   */
+  def invalidate(): Unit = synchronized { cached = None }
+
+  private def refresh(): List[HistoryPartition] = {
+    val found = existing()
+    synchronized { cached = Some(found) }
+    found
+  }
+
+  /**
+   * the partition containing time, created if it doesn't exist yet
+   */
+  def partitionFor(time: Long): HistoryPartition = {
+    def containing(ps: List[HistoryPartition]) = ps.find { p => p.startTime <= time && time < p.endTime }
+    // another node may have created it since we last looked
+    containing(partitions()).orElse(containing(refresh())).getOrElse(create(time))
+  }
+
+  /**
+   * the partitions overlapping [begin, end] in the order a query of that direction should visit them
+   */
+  def overlapping(begin: Long, end: Long, ascending: Boolean): List[HistoryPartition] = {
+    val matching = partitions().filter { p => p.startTime <= end && p.endTime > begin }
+    if (ascending) matching else matching.reverse
+  }
+
+  /**
+   * reads history for a point, rows in the parent table itself (written before partitioning was enabled
+   * or through a connection that couldn't use COPY) are merged in with the partitions. Partitions don't
+   * overlap so we stop as soon as the next partition can't contain anything that would make the cut.
+   */
+  def history(pointId: Long, begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Measurement] = {
+    val order = if (ascending) "ASC" else "DESC"
+    def query(table: String) = usingStatement("SELECT pointId, measTime, proto, id FROM " + table +
+      " WHERE pointId = ? AND measTime >= ? AND measTime <= ? ORDER BY measTime " + order + ", id " + order + " LIMIT ?") { stmt =>
+      stmt.setLong(1, pointId)
+      stmt.setLong(2, begin)
+      stmt.setLong(3, end)
+      stmt.setInt(4, max)
+      readAll(stmt) { rs =>
+        val m = new Measurement(rs.getLong(1), rs.getLong(2), rs.getBytes(3))
+        m.id = rs.getLong(4)
+        m
+      }
+    }
+
+    val rowOrdering = Ordering.by { m: Measurement => (m.measTime, m.id) }
+    val ordering = if (ascending) rowOrdering else rowOrdering.reverse
+
+    def beyondCut(rows: Seq[Measurement], p: HistoryPartition) = {
+      rows.size >= max && {
+        val cut = rows(max - 1).measTime
+        if (ascending) cut < p.startTime else cut >= p.endTime
+      }
+    }
+
+    var rows = query("ONLY " + parent)
+    val remaining = overlapping(begin, end, ascending).iterator
+    var done = false
+    while (!done && remaining.hasNext) {
+      val p = remaining.next()
+      if (beyondCut(rows, p)) done = true
+      else rows = (rows ++ query(p.name)).sorted(ordering).take(max)
+    }
+    rows
+  }
+
+  /**
+   * drops the partitions that ended at or before cutoff
+   * @return number of measurements dropped
+   */
+  def dropBefore(cutoff: Long): Long = {
+    var dropped = 0L
+    var remaining = refresh()
+    while (remaining.nonEmpty && remaining.head.endTime <= cutoff) {
+      val p = remaining.head
+      // None if another trimmer got to it first
+      savepointed(countRows(p)).foreach { count => if (drop(p, count)) dropped += count }
+      remaining = remaining.tail
+    }
+    dropped
+  }
+
+  /**
+   * drops the oldest partitions that fit entirely inside the amount we are over numPoints. Anything left over
+   * is up to the caller to trim by row.
+   * @return number of measurements dropped
+   */
+  def dropPartitions(numPoints: Long, totalValues: Long): Long = {
+    var total = totalValues
+    var dropped = 0L
+    var remaining = refresh()
+
+    var fits = true
+    while (fits && total > numPoints && remaining.nonEmpty) {
+      val p = remaining.head
+      savepointed(countRows(p)) match {
+        // another trimmer dropped it, its rows are already gone
+        case None => remaining = remaining.tail
+        case Some(count) =>
+          fits = total - count >= numPoints
+          if (fits) {
+            if (drop(p, count)) dropped += count
+            remaining = remaining.tail
+            total -= count
+          }
+      }
+    }
+    dropped
+  }
+
+  private def countRows(p: HistoryPartition): Long = usingStatement("SELECT count(*) FROM " + p.name) { stmt => readAll(stmt) { _.getLong(1) }.head }
+
+  /**
+   * @return false if the partition had already been dropped by someone else
+   */
+  private def drop(p: HistoryPartition, count: Long): Boolean = {
+    val done = savepointed(usingStatement("DROP TABLE " + p.name) { _.execute() }).isDefined
+    if (done) logger.info("Dropped history partition: " + p.name + " with " + count + " measurements")
+    updateCached { _.filterNot { _ == p } }
+    done
+  }
+
+  /**
+   * runs f, rolling the transaction back to before it if it fails so the rest of the transaction can continue
+   */
+  private def savepointed[A](f: => A): Option[A] = {
+    val savepoint = connection.setSavepoint()
+    try {
+      val result = f
+      connection.releaseSavepoint(savepoint)
+      Some(result)
+    } catch {
+      case ex: java.sql.SQLException =>
+        connection.rollback(savepoint)
+        logger.info("Partition maintenance lost a race, rolled back: " + ex.getMessage)
+        None
+    }
+  }
+
+  private def create(time: Long): HistoryPartition = {
+    // if the partition size was changed the bucket may overlap existing partitions, clip it so they stay disjoint
+    val current = partitions()
+    val start = (bucketStart(time) :: current.map { _.endTime }.filter { _ <= time }.toList).max
+    val end = ((bucketStart(time) + settings.partitionMillis) :: current.map { _.startTime }.filter { _ > time }.toList).min
+    val p = HistoryPartition(makeName(start, end), start, end)
+    // another writer may be creating the same partition, if so we roll back to before our attempt and use theirs
+    val created = savepointed {
+      usingStatement("CREATE TABLE " + p.name + " (CHECK (measTime >= " + p.startTime + " AND measTime < " + p.endTime + ")) " +
+        "INHERITS (" + parent + ")") { _.execute() }
+      usingStatement("ALTER TABLE " + p.name + " ADD PRIMARY KEY (id)") { _.execute() }
+      usingStatement("CREATE INDEX " + p.name + "_time ON " + p.name + " (pointId, measTime)") { _.execute() }
+    }
+    if (created.isEmpty) {
+      refresh().find { p => p.startTime <= time && time < p.endTime }.getOrElse {
+        throw new java.sql.SQLException("Couldn't create or find history partition: " + p.name)
+      }
+    } else {
+      logger.info("Created history partition: " + p.name)
+      synchronized { cached = Some((p :: cached.getOrElse(current).filterNot { _ == p }).sortBy { _.startTime }) }
+      p
+    }
+  }
+}
+
+object SqlHistoryPartitions {
+
+  private val parent = SqlMeasurementStoreSchema.updates.name
+  private val prefix = parent.toLowerCase + "_p"
+
+  def supported = Session.currentSession.databaseAdapter.isInstanceOf[PostgreSqlAdapter]
+
+  /**
+   * all of the partitions of the history table in ascending time order
+   */
+  def existing(): List[HistoryPartition] = {
+    val children = usingStatement("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+      "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?") { stmt =>
+      stmt.setString(1, parent.toLowerCase)
+      readAll(stmt) { _.getString(1) }
+    }
+    children.flatMap { parseName(_) }.sortBy { _.startTime }
+  }
+
+  /**
+   * drops every partition, needed before the history table itself can be dropped
+   */
+  def dropAll() {
+    if (supported) existing().foreach { p => usingStatement("DROP TABLE " + p.name) { _.execute() } }
+  }
+
+  // table names can't contain '-' so negative times are written with an 'n'
+  private def encode(time: Long) = if (time < 0) "n" + (-time) else time.toString
+  private def decode(s: String) = if (s.startsWith("n")) -s.drop(1).toLong else s.toLong
+
+  private[squeryl] def makeName(start: Long, end: Long) = prefix + encode(start) + "_" + encode(end)
+
+  private def parseName(name: String): Option[HistoryPartition] = {
+    if (!name.startsWith(prefix)) None
+    else name.drop(prefix.length).split("_") match {
+      case Array(start, end) => Some(HistoryPartition(name, decode(start), decode(end)))
+      case _ => None
+    }
+  }
+
+  private[squeryl] def readAll[A](stmt: PreparedStatement)(f: ResultSet => A): List[A] = {
+    val rs = stmt.executeQuery()
+    try {
+      var ret = List.empty[A]
+      while (rs.next()) ret ::= f(rs)
+      ret.reverse
+    } finally {
+      rs.close()
+    }
+  }
+}
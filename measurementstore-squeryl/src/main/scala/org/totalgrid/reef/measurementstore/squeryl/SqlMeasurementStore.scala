@@ -20,16 +20,65 @@ package org.totalgrid.reef.measurementstore.squeryl
 
 import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Meas }
 
-import org.totalgrid.reef.measurementstore.MeasurementStore
+import org.totalgrid.reef.measurementstore.{ MeasurementStore, Rollup, RollupTier }
 
 import org.totalgrid.reef.client.exception.InternalServiceException
 import org.totalgrid.reef.persistence.squeryl.DbConnection
+import org.totalgrid.reef.client.settings.util.PropertyLoading
+
+object SqlMeasurementStore {
+  /// number of measurements per sealed chunk when archiving without a configured chunk size
+  val defaultChunkSize = 1000
+
+  /**
+   * reads the history partitioning options from the org.totalgrid.reef.mstore properties, partitioning is
+   * off unless partitionHours is set
+   */
+  def loadPartitioning(props: java.util.Dictionary[AnyRef, AnyRef]): Option[PartitionSettings] = {
+    val hours = PropertyLoading.getInt("org.totalgrid.reef.mstore.partitionHours", props, 0)
+    if (hours > 0) Some(PartitionSettings(hours * 60L * 60 * 1000))
+    else None
+  }
+
+  /**
+   * reads org.totalgrid.reef.mstore.retentionDays, history older than that is dropped when trimming (0 keeps it)
+   */
+  def loadRetention(props: java.util.Dictionary[AnyRef, AnyRef]): Long = {
+    PropertyLoading.getInt("org.totalgrid.reef.mstore.retentionDays", props, 0) * 24L * 60 * 60 * 1000
+  }
+
+  /**
+   * reads whether the historian keeps rollup tiers from org.totalgrid.reef.mstore.rollups, on by default
+   */
+  def loadRollupTiers(props: java.util.Dictionary[AnyRef, AnyRef]): Seq[RollupTier] = {
+    if (PropertyLoading.getBoolean("org.totalgrid.reef.mstore.rollups", props, true)) RollupTier.defaults
+    else Nil
+  }
+}
 
 /**
  * implementation of measurement store that uses SqlMeasurementStoreOperations functions,
  * handles sync/async, opening/closing database transaction and error message generation
+ *
+ * @param chunkSize if greater than 0 each point's history is sealed into compressed chunks of this many
+ *                  measurements as it is written, otherwise history is only sealed when archive is called
+ * @param bulkWriter overrides the writer picked for the database type (postgres gets COPY, everything else JDBC batches)
+ * @param partitioning if set (and the database is postgres) history is split into time partitions and trimmed by
+ *                     dropping whole partitions
+ * @param rollupTiers bucket widths rollups are kept for as history is written
+ * @param retentionMillis history older than this is dropped whenever we trim, with or without partitions
  */
-class SqlMeasurementStore(connectFunction: () => DbConnection, includeHistory: Boolean = true) extends MeasurementStore {
+class SqlMeasurementStore(
+    connectFunction: () => DbConnection,
+    includeHistory: Boolean = true,
+    chunkSize: Int = 0,
+    bulkWriter: Option[SqlBulkWriter] = None,
+    partitioning: Option[PartitionSettings] = None,
+    rollupTiers: Seq[RollupTier] = RollupTier.defaults,
+    retentionMillis: Long = 0) extends MeasurementStore {
+
+  private val partitions = partitioning.map { new SqlHistoryPartitions(_) }
+  private val fills = new ChunkFills
 
   override val supportsTrim = true
 
@@ -43,18 +92,29 @@ class SqlMeasurementStore(connectFunction: () => DbConnection, includeHistory: B
     dbConnectionOpt = None
   }
 
-  override def reset(): Boolean = attempt("Couldn't reset database")(SqlMeasurementStoreOperations.reset)
+  override def reset(): Boolean = {
+    fills.clear()
+    attempt("Couldn't reset database")(SqlMeasurementStoreOperations.reset)
+  }
 
-  override def trim(numPoints: Long): Long =
-    attempt("Couldn't trim database")(SqlMeasurementStoreOperations.trim(numPoints))
+  override def trim(numPoints: Long): Long = {
+    fills.clear()
+    attempt("Couldn't trim database")(SqlMeasurementStoreOperations.trim(numPoints, partitions, tiers = rollupTiers, retentionMillis = retentionMillis))
+  }
 
   override def points(): List[String] = attempt("Couldn't get list of points")(SqlMeasurementStoreOperations.points)
 
   def set(meas: Seq[Meas]) =
     if (meas.nonEmpty) attempt("Couldn't store measurements in measurement store") {
-      SqlMeasurementStoreOperations.set(meas, includeHistory)
+      SqlMeasurementStoreOperations.set(meas, includeHistory, chunkSize, bulkWriter.getOrElse(SqlBulkWriter.forCurrentSession(partitions)), rollupTiers, fills)
     }
 
+  override def archive(name: String, end: Long): Boolean = {
+    val size = if (chunkSize > 0) chunkSize else SqlMeasurementStore.defaultChunkSize
+    fills.clear()
+    attempt("Couldn't archive history for: " + name)(SqlMeasurementStoreOperations.archive(name, end, size))
+  }
+
   def get(names: Seq[String]): Map[String, Meas] = {
     if (names.size == 0) Map.empty[String, Meas]
     else attempt("Error getting current value for measurements")(SqlMeasurementStoreOperations.get(names))
@@ -63,17 +123,33 @@ class SqlMeasurementStore(connectFunction: () => DbConnection, includeHistory: B
   def numValues(meas_name: String): Int =
     attempt("Error retrieving number of values")(SqlMeasurementStoreOperations.numValues(meas_name))
 
-  def remove(names: Seq[String]): Unit =
+  def remove(names: Seq[String]): Unit = {
+    fills.clear()
     attempt("Couldn't remove points: " + names)(SqlMeasurementStoreOperations.remove(names))
+  }
 
   def getInRange(meas_name: String, begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Meas] =
-    attempt("Error retrieving history")(SqlMeasurementStoreOperations.getInRange(meas_name, begin, end, max, ascending))
+    attempt("Error retrieving history")(SqlMeasurementStoreOperations.getInRange(meas_name, begin, end, max, ascending, partitions))
+
+  override def getExtremesInRange(meas_name: String, begin: Long, end: Long, buckets: Int): Seq[Meas] =
+    attempt("Error retrieving history")(SqlMeasurementStoreOperations.getExtremesInRange(meas_name, begin, end, buckets))
+
+  override def getRollups(meas_name: String, begin: Long, end: Long, interval: Long): Seq[Rollup] =
+    attempt("Error retrieving rollups")(SqlMeasurementStoreOperations.getRollups(meas_name, begin, end, interval, rollupTiers))
+
+  override def rebuildRollups(name: String): Boolean =
+    attempt("Couldn't rebuild rollups for: " + name)(SqlMeasurementStoreOperations.rebuildRollups(name, rollupTiers))
 
   private def attempt[A](msg: String)(f: => A): A = {
     try {
       val dbConnection = dbConnectionOpt.getOrElse(throw new InternalServiceException("Not connected to measurement store database"))
       dbConnection.inTransaction(f)
-    } catch { case ex: Exception => throw new InternalServiceException(msg, ex) }
+    } catch {
+      case ex: Exception =>
+        // the transaction may have rolled back a partition we just created
+        partitions.foreach { _.invalidate() }
+        throw new InternalServiceException(msg, ex)
+    }
   }
 
 }
@@ -21,15 +21,64 @@ package org.totalgrid.reef.measurementstore.squeryl
 import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement => Meas }
 import org.squeryl.PrimitiveTypeMode._
 import scala.collection.mutable
+import org.totalgrid.reef.measurementstore.encoders.{ SimpleMeasEncoder, JavaZipping }
+import org.totalgrid.reef.measurementstore.{ ExtremesSampler, Rollup, RollupTier, Rollups }
+
+/**
+ * raw row counts of the points we have written history for so sealing doesn't need to count every point's
+ * rows on every set. A point is counted once, the first time we write to it, and forgotten whenever its
+ * rows are removed some other way (trim, archive, remove). If a count drifts we just seal late.
+ */
+final class ChunkFills {
+  private val counts = mutable.Map.empty[Long, Long]
+
+  def unknown(pointIds: Iterable[Long]): List[Long] = synchronized { pointIds.filterNot { counts.contains(_) }.toList }
+
+  def load(pointId: Long, rows: Long): Long = synchronized {
+    counts.put(pointId, rows)
+    rows
+  }
+
+  def add(pointId: Long, rows: Long): Long = synchronized {
+    val total = counts.getOrElse(pointId, 0L) + rows
+    counts.put(pointId, total)
+    total
+  }
+
+  def forget(pointId: Long): Unit = synchronized { counts.remove(pointId) }
+
+  def clear(): Unit = synchronized { counts.clear() }
+}
 
 /**
  * operations on the SqlMeasurementStoreSchema that implement the MeasurementStore interface. All operations
  * assume they are being run from inside a database transaction.
+ *
+ * History is written as one row per measurement into the updates table; blocks of those rows can then be
+ * sealed into compressed per-point chunks. Queries merge the chunks and the remaining raw rows so sealing is
+ * invisible to the callers, including for measurements inserted out of time order. Rollups of the numeric
+ * values are kept per tier as measurements are written, trim only drops the ones past their tier's retention.
  */
 trait SqlMeasurementStoreOperations {
 
   case class MeasId(var pointId: Long, meas: Meas)
 
+  /**
+   * a history entry tagged with where it came from so we can recreate the insertion order for
+   * measurements with the same time. Raw rows sort after the sealed chunks, chunks sort in the order they were sealed.
+   */
+  private case class HistoryEntry(time: Long, chunkId: Long, index: Long, meas: Meas)
+
+  private val insertionOrder = new Ordering[HistoryEntry] {
+    def compare(a: HistoryEntry, b: HistoryEntry) = {
+      if (a.time != b.time) a.time.compare(b.time)
+      else if (a.chunkId != b.chunkId) a.chunkId.compare(b.chunkId)
+      else a.index.compare(b.index)
+    }
+  }
+
+  private val encoder = new SimpleMeasEncoder with JavaZipping
+
   private def makeUpdate(m: Meas, pNameMap: mutable.Map[String, MeasId]): Measurement = {
     new Measurement(pNameMap.get(m.getName).get.pointId, m.getTime, m.toByteString.toByteArray)
   }
@@ -39,33 +88,178 @@ trait SqlMeasurementStoreOperations {
   }
 
   def reset(): Boolean = {
+    // any history partitions inherit from the history table so they have to go first
+    SqlHistoryPartitions.dropAll()
     SqlMeasurementStoreSchema.reset
     true
   }
 
   def totalValues(): Long = {
+    rawValues() + from(SqlMeasurementStoreSchema.chunks)(c => compute(sum(c.count))).head.measures.map { _.toLong }.getOrElse(0L)
+  }
+
+  private def rawValues(): Long = {
     from(SqlMeasurementStoreSchema.updates)(u => compute(count(u.id)))
   }
 
-  def trim(numPoints: Long): Long = {
+  /**
+   * history older than the retention window is dropped first, then with partitions whole partitions are
+   * dropped and rows are only deleted if that didn't get us under numPoints
+   * @param retentionMillis history older than this is always dropped, 0 to only trim by count
+   */
+  def trim(numPoints: Long, partitions: Option[SqlHistoryPartitions] = None, now: Long = System.currentTimeMillis,
+    tiers: Seq[RollupTier] = Nil, retentionMillis: Long = 0): Long = {
+    trimRollups(tiers)
+    val supported = partitions.filter { _.supported }
+    val expired = if (retentionMillis > 0) dropBefore(now - retentionMillis, supported) else 0
+    val dropped = supported.map { _.dropPartitions(numPoints, totalValues()) }.getOrElse(0L)
+    expired + dropped + trimRows(numPoints)
+  }
+
+  /**
+   * drops the partitions and chunks that ended before cutoff and then any raw rows that are still older
+   */
+  private def dropBefore(cutoff: Long, partitions: Option[SqlHistoryPartitions]): Long = {
+    val droppedPartitions = partitions.map { _.dropBefore(cutoff) }.getOrElse(0L)
+
+    val expired = from(SqlMeasurementStoreSchema.chunks)(c => where(c.endTime.~ < cutoff) compute (sum(c.count)))
+    val chunked = expired.head.measures.map { _.toLong }.getOrElse(0L)
+    if (chunked > 0) SqlMeasurementStoreSchema.chunks.deleteWhere(c => c.endTime.~ < cutoff)
+
+    val raw: Long = from(SqlMeasurementStoreSchema.updates)(u => where(u.measTime.~ < cutoff) compute (count(u.id)))
+    if (raw > 0) SqlMeasurementStoreSchema.updates.deleteWhere(u => u.measTime.~ < cutoff)
+
+    droppedPartitions + chunked + raw
+  }
+
+  private def trimRows(numPoints: Long): Long = {
     val counts = totalValues()
     if (numPoints < counts) {
-      // to trim to a specific # of points we can take advantage of the ID column being an auto-incremented value
-      // we use the currentValue table to get the most recently updated point (which should have highest id value)
-      val mostRecentUpdate = from(SqlMeasurementStoreSchema.updates)(n => select(n) orderBy (n.id.desc)).page(0, 1).head
-      // then delete all records with id less than the most recent update - numpoints we want in system
-      SqlMeasurementStoreSchema.updates.deleteWhere(u => u.id.~ <= mostRecentUpdate.id - numPoints)
+      trimOldest(counts - numPoints)
       counts - numPoints
     } else {
       0
     }
   }
 
+  /**
+   * removes the excess oldest measurements (by time) across every point. Chunks are taken in order of their
+   * newest measurement, the raw rows older than that go before each chunk. The first chunk that doesn't fit
+   * in the excess is re-sealed without its oldest measurements, otherwise we finish on the raw rows in
+   * (time, id) order.
+   */
+  private def trimOldest(excess: Long) {
+    var remaining = excess
+    // every raw row older than rowCutoff has already been counted against the excess
+    var rowCutoff = Long.MinValue
+    var dropped = List.empty[Long]
+    var partial = Option.empty[(Long, Int)]
+
+    var offset = 0
+    var headers = chunksByEnd(offset)
+    while (remaining > 0 && headers.nonEmpty) {
+      val (id, endTime, size) = headers.head
+      val olderRows = from(SqlMeasurementStoreSchema.updates)(u =>
+        where(u.measTime.~ >= rowCutoff and u.measTime.~ < endTime) compute (count(u.id))).head.measures
+      if (olderRows >= remaining) {
+        // the rest of the excess is all raw rows
+        headers = Nil
+      } else {
+        remaining -= olderRows
+        rowCutoff = endTime
+        if (size <= remaining) {
+          dropped ::= id
+          remaining -= size
+        } else {
+          partial = Some((id, remaining.toInt))
+          remaining = 0
+        }
+        headers = headers.tail
+        if (headers.isEmpty) {
+          offset += chunkPageSize
+          headers = chunksByEnd(offset)
+        }
+      }
+    }
+
+    dropped.grouped(chunkPageSize).foreach { ids => SqlMeasurementStoreSchema.chunks.deleteWhere(c => c.id in ids) }
+    partial.foreach { case (id, count) => dropOldestFromChunk(id, count) }
+
+    if (remaining > 0) {
+      nthOldestRow(rowCutoff, remaining).foreach {
+        case (time, id) =>
+          SqlMeasurementStoreSchema.updates.deleteWhere(u => u.measTime.~ < time or (u.measTime === time and u.id.~ <= id))
+      }
+    } else if (rowCutoff > Long.MinValue) {
+      SqlMeasurementStoreSchema.updates.deleteWhere(u => u.measTime.~ < rowCutoff)
+    }
+  }
+
+  private val chunkPageSize = 500
+
+  /**
+   * the (time, id) of the nth oldest raw row at or after start. No index leads with the time so rather than
+   * sorting the whole table we count through the (pointId, measTime) index, widening the window past the
+   * oldest row until it holds n rows and then narrowing it back down to the time of the nth row.
+   */
+  private def nthOldestRow(start: Long, n: Long): Option[(Long, Long)] = {
+    val pointGroups = from(SqlMeasurementStoreSchema.names)(p => select(p.id)).toList.grouped(chunkPageSize).toList
+
+    def rowsBetween(first: Long, last: Long): Long = pointGroups.map { ids =>
+      from(SqlMeasurementStoreSchema.updates)(u =>
+        where((u.pointId in ids) and u.measTime.~ >= first and u.measTime.~ <= last) compute (count(u.id))).head.measures.toLong
+    }.sum
+
+    val oldest = if (start > Long.MinValue) Some(start)
+    else {
+      val firsts = pointGroups.flatten.flatMap { id =>
+        from(SqlMeasurementStoreSchema.updates)(u => where(u.pointId === id) select (u.measTime) orderBy (u.measTime.asc)).page(0, 1).headOption
+      }
+      if (firsts.isEmpty) None else Some(firsts.min)
+    }
+
+    oldest.flatMap { first =>
+      var width = 1000L
+      while (width < Long.MaxValue / 4 && rowsBetween(first, first + width) < n) width *= 2
+      // low never holds n rows, high always does
+      var low = if (width > 1000L) first + width / 2 else first - 1
+      var high = first + width
+      if (rowsBetween(first, high) < n) None
+      else {
+        while (high - low > 1) {
+          val mid = low + (high - low) / 2
+          if (rowsBetween(first, mid) >= n) high = mid else low = mid
+        }
+        val before = rowsBetween(first, high - 1)
+        val atTime = pointGroups.flatMap { ids =>
+          from(SqlMeasurementStoreSchema.updates)(u => where((u.pointId in ids) and u.measTime === high) select (u.id)).toList
+        }.sorted
+        Some((high, atTime((n - before - 1).toInt)))
+      }
+    }
+  }
+
+  private def chunksByEnd(offset: Int): List[(Long, Long, Int)] = {
+    from(SqlMeasurementStoreSchema.chunks)(c =>
+      select((c.id, c.endTime, c.count)) orderBy (c.endTime.asc, c.id.asc)).page(offset, chunkPageSize).toList
+  }
+
+  /**
+   * re-seals a chunk without its count oldest measurements, the rest keep their insertion order
+   */
+  private def dropOldestFromChunk(id: Long, count: Int) {
+    val chunk = SqlMeasurementStoreSchema.chunks.lookup(id).get
+    val meases = encoder.decode(chunk.proto).zipWithIndex
+    val oldest = meases.sortBy { case (m, i) => (m.getTime, i) }.take(count).map { _._2 }.toSet
+    val kept = meases.filterNot { case (_, i) => oldest.contains(i) }.map { _._1 }
+    SqlMeasurementStoreSchema.chunks.update(makeChunk(chunk.pointId, kept, Some(id)))
+  }
+
   def points(): List[String] = {
     SqlMeasurementStoreSchema.names.where(t => true === true).toList.map { _.name }
   }
 
-  def set(meas: Seq[Meas], includeHistory: Boolean) {
+  def set(meas: Seq[Meas], includeHistory: Boolean, chunkSize: Int = 0, writer: SqlBulkWriter = SqlBulkWriter.forCurrentSession(), tiers: Seq[RollupTier] = Nil, fills: ChunkFills = new ChunkFills) {
     // setup list of all the points we are trying to find ids for
     val measToInsert = mutable.Map.empty[String, MeasId]
     meas.foreach { m => measToInsert.put(m.getName, MeasId(-1, m)) }
@@ -89,7 +283,10 @@ trait SqlMeasurementStoreOperations {
     if (includeHistory) {
       // create the list of measurements to upload
       val toInsert = meas.map { makeUpdate(_, measToInsert) }.toList
-      SqlMeasurementStoreSchema.updates.insert(toInsert)
+      writer.insertHistory(toInsert)
+
+      if (chunkSize > 0) sealFullChunks(toInsert.map { _.pointId }, chunkSize, fills)
+      if (tiers.nonEmpty) updateRollups(meas, measToInsert, tiers)
     }
 
     // something odd occurs with parellel writes and we get batch update exceptions
@@ -98,7 +295,7 @@ trait SqlMeasurementStoreOperations {
     // eliminate the "lazy" adding we are doing now.
     // TODO: refactor MeasurementStore to not allow "lazy adding of measurements"
     val toUpdate = updates.map { case (name, measId) => makeCurrentValue(measId) }.toList
-    SqlMeasurementStoreSchema.currentValues.forceUpdate(toUpdate)
+    writer.updateCurrentValues(toUpdate)
   }
 
   def get(names: Seq[String]): Map[String, Meas] = {
@@ -112,25 +309,341 @@ trait SqlMeasurementStoreOperations {
       (u, n) => where(u.pointId === n.id and n.name === meas_name) compute (count(u.id)))
     val q = m.head.measures
 
-    q.toInt
+    val c = from(SqlMeasurementStoreSchema.chunks, SqlMeasurementStoreSchema.names)(
+      (c, n) => where(c.pointId === n.id and n.name === meas_name) compute (sum(c.count)))
+    val archived = c.head.measures.map { _.toLong }.getOrElse(0L)
+
+    (q + archived).toInt
+  }
+
+  /**
+   * seals all of the raw history rows for a point with time before end into chunks
+   */
+  def archive(meas_name: String, end: Long, chunkSize: Int): Boolean = {
+    SqlMeasurementStoreSchema.names.where(n => n.name === meas_name).headOption.foreach { name =>
+      val rows = from(SqlMeasurementStoreSchema.updates)(u =>
+        where(u.pointId === name.id and u.measTime.~ <= end) select (u) orderBy (u.id.asc)).toList
+      seal(name.id, rows, chunkSize)
+    }
+    true
+  }
+
+  /**
+   * seal the oldest rows of any point that has at least chunkSize raw rows. Raw counts come from fills, only
+   * points it doesn't know yet are counted (after the insert, so the count includes this batch).
+   * @param inserted point id of every history row just written
+   */
+  private def sealFullChunks(inserted: Seq[Long], chunkSize: Int, fills: ChunkFills) {
+    val added = inserted.groupBy { id => id }.map { case (id, rows) => id -> rows.size }
+    val unknown = fills.unknown(added.keys)
+    val counted = if (unknown.isEmpty) Map.empty[Long, Long]
+    else from(SqlMeasurementStoreSchema.updates)(u =>
+      where(u.pointId in unknown) groupBy (u.pointId) compute (count(u.id))).toList.map { g => g.key -> g.measures.toLong }.toMap
+
+    added.foreach {
+      case (pointId, rowCount) =>
+        val raw = counted.get(pointId) match {
+          case Some(c) => fills.load(pointId, c)
+          case None => fills.add(pointId, rowCount)
+        }
+        if (raw >= chunkSize) {
+          val fullChunks = (raw / chunkSize).toInt
+          val rows = from(SqlMeasurementStoreSchema.updates)(u =>
+            where(u.pointId === pointId) select (u) orderBy (u.id.asc)).page(0, fullChunks * chunkSize).toList
+          // only whole chunks are sealed, if the count was off we recount next time
+          val sealable = rows.take(rows.size / chunkSize * chunkSize)
+          seal(pointId, sealable, chunkSize)
+          if (rows.size == fullChunks * chunkSize) fills.load(pointId, raw - sealable.size)
+          else fills.forget(pointId)
+        }
+    }
+  }
+
+  private def seal(pointId: Long, rows: List[Measurement], chunkSize: Int) {
+    if (rows.nonEmpty) {
+      val chunks = rows.grouped(chunkSize).map { block => makeChunk(pointId, block.map { r => Meas.parseFrom(r.proto) }) }
+      SqlMeasurementStoreSchema.chunks.insert(chunks.toList)
+      SqlMeasurementStoreSchema.updates.deleteWhere(u => u.id in rows.map { _.id })
+    }
+  }
+
+  private def makeChunk(pointId: Long, meas: Seq[Meas], id: Option[Long] = None): MeasurementChunk = {
+    val times = meas.map { _.getTime }
+    val chunk = new MeasurementChunk(pointId, times.min, times.max, meas.size, encoder.encode(meas))
+    id.foreach { chunk.id = _ }
+    chunk
   }
 
   def remove(names: Seq[String]): Unit = {
     val nameRows = SqlMeasurementStoreSchema.names.where(u => u.name in names).toList.map { _.id }
     if (nameRows.nonEmpty) {
       SqlMeasurementStoreSchema.updates.deleteWhere(u => u.pointId in nameRows)
+      SqlMeasurementStoreSchema.chunks.deleteWhere(c => c.pointId in nameRows)
+      SqlMeasurementStoreSchema.rollups.deleteWhere(r => r.pointId in nameRows)
       SqlMeasurementStoreSchema.names.deleteWhere(n => n.id in nameRows)
       SqlMeasurementStoreSchema.currentValues.deleteWhere(u => u.pointId in nameRows)
     }
   }
 
-  def getInRange(meas_name: String, begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Meas] = {
+  def getInRange(meas_name: String, begin: Long, end: Long, max: Int, ascending: Boolean, partitions: Option[SqlHistoryPartitions] = None): Seq[Meas] = {
+
+    SqlMeasurementStoreSchema.names.where(n => n.name === meas_name).headOption match {
+      case Some(name) =>
+        val meases = partitions.filter { _.supported } match {
+          case Some(p) => p.history(name.id, begin, end, max, ascending)
+          case None => getHistory(meas_name, begin, end, max, ascending)
+        }
+        val raw = meases.map(m => HistoryEntry(m.measTime, Long.MaxValue, m.id, Meas.parseFrom(m.proto)))
+        mergeChunks(name.id, raw, begin, end, max, ascending).map { _.meas }
+      case None => Nil
+    }
+  }
+
+  /**
+   * merges in the chunks that overlap the time range. Chunks are visited in the order of their nearest
+   * edge so we can stop as soon as the next chunk can't contain anything that would make the cut. Each
+   * chunk is sorted on its own and merged with the entries kept so far, which are already in order.
+   */
+  private def mergeChunks(pointId: Long, raw: Seq[HistoryEntry], begin: Long, end: Long, max: Int, ascending: Boolean): Seq[HistoryEntry] = {
+    val headers = from(SqlMeasurementStoreSchema.chunks)(c =>
+      where(c.pointId === pointId and c.startTime.~ <= end and c.endTime.~ >= begin)
+        select ((c.id, c.startTime, c.endTime))
+        orderBy (timeOrder(if (ascending) c.startTime else c.endTime, ascending))).toList
+
+    val ordering = if (ascending) insertionOrder else insertionOrder.reverse
+
+    def beyondCut(entries: Seq[HistoryEntry], start: Long, finish: Long) = {
+      entries.size >= max && {
+        val cut = entries(max - 1).time
+        if (ascending) cut < start else cut > finish
+      }
+    }
+
+    var entries = raw.toIndexedSeq.sorted(ordering).take(max)
+    val remaining = headers.iterator
+    var done = false
+    while (!done && remaining.hasNext) {
+      val (id, start, finish) = remaining.next()
+      if (beyondCut(entries, start, finish)) done = true
+      else {
+        val chunk = SqlMeasurementStoreSchema.chunks.lookup(id).get
+        val decoded = encoder.decode(chunk.proto).zipWithIndex.map {
+          case (m, i) => HistoryEntry(m.getTime, id, i, m)
+        }.filter { e => e.time >= begin && e.time <= end }
+        entries = mergeSorted(entries, decoded.toIndexedSeq.sorted(ordering), max, ordering)
+      }
+    }
+    entries
+  }
+
+  private def mergeSorted(a: IndexedSeq[HistoryEntry], b: IndexedSeq[HistoryEntry], max: Int, ordering: Ordering[HistoryEntry]): IndexedSeq[HistoryEntry] = {
+    val merged = Vector.newBuilder[HistoryEntry]
+    var i = 0
+    var j = 0
+    while (i + j < max && (i < a.size || j < b.size)) {
+      if (j >= b.size || (i < a.size && ordering.lteq(a(i), b(j)))) {
+        merged += a(i)
+        i += 1
+      } else {
+        merged += b(j)
+        j += 1
+      }
+    }
+    merged.result()
+  }
+
+  /**
+   * streams the range through an ExtremesSampler. Raw rows are sampled straight from their serialized bytes
+   * and only the kept rows are parsed, chunks are decoded one at a time. The bucket edges come from the
+   * times actually stored in the range so every store splits the same history the same way.
+   */
+  def getExtremesInRange(meas_name: String, begin: Long, end: Long, buckets: Int): Seq[Meas] = {
+
+    SqlMeasurementStoreSchema.names.where(n => n.name === meas_name).headOption match {
+      case Some(name) =>
+        val headers = chunkHeaders(name.id, begin, end)
+
+        // only chunks that straddle an edge of the range need decoding to find their first and last time in it
+        val straddling = headers.filter { case (_, start, finish) => start < begin || finish > end }.map {
+          case (id, _, _) => id -> decodeChunk(id).filter { m => m.getTime >= begin && m.getTime <= end }
+        }.toMap
+
+        val chunkTimes = headers.flatMap {
+          case (id, start, finish) => straddling.get(id) match {
+            case Some(inRange) => inRange.map { _.getTime }
+            case None => List(start, finish)
+          }
+        }
 
-    val meases = getHistory(meas_name, begin, end, max, ascending)
-    val list = meases.map(m => Meas.parseFrom(m.proto))
-    list
+        def rawTime(ascending: Boolean) = from(SqlMeasurementStoreSchema.updates)(u =>
+          where(u.pointId === name.id and u.measTime.~ >= begin and u.measTime.~ <= end)
+            select (u.measTime)
+            orderBy (timeOrder(u.measTime, ascending))).page(0, 1).headOption
+
+        val times = chunkTimes ++ rawTime(true) ++ rawTime(false)
+        if (times.isEmpty) Nil
+        else {
+          val sampler = new ExtremesSampler[Either[Array[Byte], Meas]](times.min, times.max, buckets)
+
+          scanRange(name.id, begin, end, headers, straddling)({ m =>
+            sampler.add(m.getTime, ExtremesSampler.value(m), Right(m))
+          }, { (time, proto) =>
+            sampler.add(time, ExtremesSampler.value(proto), Left(proto))
+          })
+
+          sampler.result.map {
+            case Left(proto) => Meas.parseFrom(proto)
+            case Right(m) => m
+          }
+        }
+      case None => Nil
+    }
   }
 
+  /**
+   * rollups come from the coarsest tier that divides the interval, if none does they are calculated from
+   * the raw history
+   */
+  def getRollups(meas_name: String, begin: Long, end: Long, interval: Long, tiers: Seq[RollupTier]): Seq[Rollup] = {
+
+    SqlMeasurementStoreSchema.names.where(n => n.name === meas_name).headOption match {
+      case Some(name) =>
+        val (rangeBegin, rangeEnd) = Rollups.coveredRange(begin, end, interval)
+        Rollups.tierFor(tiers, interval) match {
+          case Some(tier) =>
+            val rows = from(SqlMeasurementStoreSchema.rollups)(r =>
+              where(r.pointId === name.id and r.tier === tier.millis and r.startTime.~ >= rangeBegin and r.startTime.~ <= rangeEnd)
+                select (r)
+                orderBy (r.startTime.asc))
+            Rollups.combine(rows.iterator.map { toRollup }, interval)
+          case None =>
+            Rollups.accumulate(numericHistory(name.id, rangeBegin, rangeEnd).iterator, interval)
+        }
+      case None => Nil
+    }
+  }
+
+  /**
+   * recalculates the tiers of a point from the history we still have. Only buckets that start at or after the
+   * oldest stored measurement are replaced, older buckets cover history that has been trimmed.
+   */
+  def rebuildRollups(meas_name: String, tiers: Seq[RollupTier]): Boolean = {
+    SqlMeasurementStoreSchema.names.where(n => n.name === meas_name).headOption.foreach { name =>
+      oldestTime(name.id).foreach { oldest =>
+        val values = numericHistory(name.id, oldest, Long.MaxValue)
+        tiers.foreach { tier =>
+          val rebuildFrom = Rollups.firstBucketFrom(oldest, tier.millis)
+          SqlMeasurementStoreSchema.rollups.deleteWhere(r => r.pointId === name.id and r.tier === tier.millis and r.startTime.~ >= rebuildFrom)
+          val rows = Rollups.accumulate(values.iterator.filter { _._1 >= rebuildFrom }, tier.millis).map { makeRollup(name.id, tier.millis, _) }
+          if (rows.nonEmpty) SqlMeasurementStoreSchema.rollups.insert(rows)
+        }
+      }
+    }
+    true
+  }
+
+  private def oldestTime(pointId: Long): Option[Long] = {
+    val chunked = from(SqlMeasurementStoreSchema.chunks)(c => where(c.pointId === pointId) compute (min(c.startTime))).head.measures
+    val raw = from(SqlMeasurementStoreSchema.updates)(u => where(u.pointId === pointId) compute (min(u.measTime))).head.measures
+    (chunked.toList ++ raw.toList).reduceOption { _ min _ }
+  }
+
+  /**
+   * drops the rollups of each tier that are more than the tier's retention behind its newest bucket
+   */
+  private def trimRollups(tiers: Seq[RollupTier]) {
+    tiers.filter { _.retentionMillis > 0 }.foreach { tier =>
+      val newest = from(SqlMeasurementStoreSchema.rollups)(r => where(r.tier === tier.millis) compute (max(r.startTime))).head.measures
+      newest.foreach { n =>
+        val cutoff = n - tier.retentionMillis
+        SqlMeasurementStoreSchema.rollups.deleteWhere(r => r.tier === tier.millis and r.startTime.~ < cutoff)
+      }
+    }
+  }
+
+  /**
+   * folds a batch of measurements into the rollup tiers. Every bucket the batch touches, in every tier, is
+   * read in one query and written back in one batched update and one batched insert.
+   */
+  private def updateRollups(meas: Seq[Meas], ids: mutable.Map[String, MeasId], tiers: Seq[RollupTier]) {
+    val values = meas.map { m => (ids(m.getName).pointId, m.getTime, ExtremesSampler.value(m)) }.filter { !_._3.isNaN }
+    if (values.nonEmpty) {
+      val batch = tiers.flatMap { tier =>
+        values.groupBy { case (pointId, time, _) => (pointId, tier.millis, Rollups.bucketStart(time, tier.millis)) }.map {
+          case (key, entries) => key -> Rollups.accumulate(entries.iterator.map { e => (e._2, e._3) }, tier.millis).head
+        }
+      }.toMap
+      val pointIds = batch.keys.map { _._1 }.toList.distinct
+      val tierIds = tiers.map { _.millis }.toList
+      val starts = batch.keys.map { _._3 }.toList.distinct
+
+      // a start can belong to more than one tier so a few extra rows may come back, they are just ignored
+      val existing = from(SqlMeasurementStoreSchema.rollups)(r =>
+        where((r.pointId in pointIds) and (r.tier in tierIds) and (r.startTime in starts))
+          select (r)).toList.map { r => (r.pointId, r.tier, r.startTime) -> r }.toMap
+
+      val (updated, added) = batch.toList.partition { case (key, _) => existing.contains(key) }
+      if (updated.nonEmpty) SqlMeasurementStoreSchema.rollups.update(updated.map {
+        case (key, rollup) =>
+          val row = existing(key)
+          makeRollup(row.pointId, row.tier, toRollup(row).merge(rollup), Some(row.id))
+      })
+      if (added.nonEmpty) SqlMeasurementStoreSchema.rollups.insert(added.map { case ((pointId, tier, _), rollup) => makeRollup(pointId, tier, rollup) })
+    }
+  }
+
+  private def makeRollup(pointId: Long, tier: Long, r: Rollup, id: Option[Long] = None): MeasurementRollup = {
+    val row = new MeasurementRollup(pointId, tier, r.start, r.count, r.min, r.max, r.sum, r.firstTime, r.first, r.lastTime, r.last)
+    id.foreach { row.id = _ }
+    row
+  }
+
+  private def toRollup(r: MeasurementRollup): Rollup =
+    Rollup(r.startTime, r.count, r.minValue, r.maxValue, r.total, r.firstTime, r.firstValue, r.lastTime, r.lastValue)
+
+  /**
+   * (time, value) of everything stored for a point in [begin, end] in insertion order, measurements without
+   * a numeric value are NaN
+   */
+  private def numericHistory(pointId: Long, begin: Long, end: Long): Seq[(Long, Double)] = {
+    val values = new mutable.ArrayBuffer[(Long, Double)]
+    scanRange(pointId, begin, end, chunkHeaders(pointId, begin, end))({ m =>
+      values += ((m.getTime, ExtremesSampler.value(m)))
+    }, { (time, proto) =>
+      values += ((time, ExtremesSampler.value(proto)))
+    })
+    values
+  }
+
+  private def chunkHeaders(pointId: Long, begin: Long, end: Long): List[(Long, Long, Long)] = {
+    from(SqlMeasurementStoreSchema.chunks)(c =>
+      where(c.pointId === pointId and c.startTime.~ <= end and c.endTime.~ >= begin)
+        select ((c.id, c.startTime, c.endTime))
+        orderBy (c.id.asc)).toList
+  }
+
+  /**
+   * visits everything stored for a point in [begin, end]: the sealed chunks one at a time in the order they
+   * were sealed and then the raw rows in time order. Raw rows are passed still serialized so callers only
+   * parse the ones they need.
+   * @param decoded chunks the caller has already decoded (and filtered to the range)
+   */
+  private def scanRange(pointId: Long, begin: Long, end: Long, headers: List[(Long, Long, Long)], decoded: Map[Long, Seq[Meas]] = Map.empty)(onMeas: Meas => Unit, onRow: (Long, Array[Byte]) => Unit) {
+    headers.foreach {
+      case (id, _, _) =>
+        val meases = decoded.getOrElse(id, decodeChunk(id).filter { m => m.getTime >= begin && m.getTime <= end })
+        meases.foreach { onMeas }
+    }
+
+    val rows = from(SqlMeasurementStoreSchema.updates)(u =>
+      where(u.pointId === pointId and u.measTime.~ >= begin and u.measTime.~ <= end)
+        select ((u.measTime, u.proto))
+        orderBy (u.measTime.asc, u.id.asc))
+    rows.iterator.foreach { case (time, proto) => onRow(time, proto) }
+  }
+
+  private def decodeChunk(id: Long): Seq[Meas] = encoder.decode(SqlMeasurementStoreSchema.chunks.lookup(id).get.proto)
+
   private def getHistory(meas_name: String, begin: Long, end: Long, max: Int, ascending: Boolean): Seq[Measurement] = {
     // make start/end arguments optional
     val beginO = if (begin == 0) None else Some(begin)
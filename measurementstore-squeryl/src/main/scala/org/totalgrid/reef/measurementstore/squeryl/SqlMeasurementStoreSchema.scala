@@ -28,6 +28,37 @@ case class Measurement(
   var id: Long = 0
 }
 
+/**
+ * a sealed block of history for a single point, proto holds the measurements delta-encoded (in
+ * insertion order) and startTime/endTime are the earliest and latest measurement times in the block
+ */
+case class MeasurementChunk(
+    val pointId: Long,
+    val startTime: Long,
+    val endTime: Long,
+    val count: Int,
+    val proto: Array[Byte]) extends KeyedEntity[Long] {
+  var id: Long = 0
+}
+
+/**
+ * rollup of the numeric history of a point over one bucket of a tier, tier is the bucket width in milliseconds
+ */
+case class MeasurementRollup(
+    val pointId: Long,
+    val tier: Long,
+    val startTime: Long,
+    val count: Long,
+    val minValue: Double,
+    val maxValue: Double,
+    val total: Double,
+    val firstTime: Long,
+    val firstValue: Double,
+    val lastTime: Long,
+    val lastValue: Double) extends KeyedEntity[Long] {
+  var id: Long = 0
+}
+
 case class MeasName(
     val name: String) extends KeyedEntity[Long] {
   var id: Long = 0
@@ -43,10 +74,19 @@ object SqlMeasurementStoreSchema extends Schema {
   val updates = table[Measurement]
   val names = table[MeasName]
   val currentValues = table[CurrentValue]
+  val chunks = table[MeasurementChunk]
+  val rollups = table[MeasurementRollup]
 
   on(updates)(s => declare(
     columns(s.pointId, s.measTime.~) are (indexed)))
 
+  on(chunks)(s => declare(
+    columns(s.pointId, s.startTime.~) are (indexed),
+    columns(s.pointId, s.endTime.~) are (indexed)))
+
+  on(rollups)(s => declare(
+    columns(s.pointId, s.tier, s.startTime.~) are (indexed, unique)))
+
   on(names)(s => declare(
     columns(s.name) are (indexed, unique)))
 
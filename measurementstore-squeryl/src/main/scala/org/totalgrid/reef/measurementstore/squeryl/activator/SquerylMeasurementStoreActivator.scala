@@ -34,7 +34,13 @@ class SquerylMeasurementStoreActivator extends BundleActivator {
       val sql = new DbInfo(OsgiConfigReader.load(context, "org.totalgrid.reef.sql"))
       DbConnector.connect(sql, context)
     }
-    val historianMeasurementStore = MeasurementStoreProvider(new SqlMeasurementStore(connectFunction _, true))
+    val mstoreProps = OsgiConfigReader.load(context, "org.totalgrid.reef.mstore")
+    val partitioning = SqlMeasurementStore.loadPartitioning(mstoreProps)
+    val rollupTiers = SqlMeasurementStore.loadRollupTiers(mstoreProps)
+    val retention = SqlMeasurementStore.loadRetention(mstoreProps)
+
+    val historianMeasurementStore = MeasurementStoreProvider(new SqlMeasurementStore(connectFunction _, true,
+      partitioning = partitioning, rollupTiers = rollupTiers, retentionMillis = retention))
     val realtimeMeasurementStore = MeasurementStoreProvider(new SqlMeasurementStore(connectFunction _, false))
 
     val commonOptions = Map[String, Any]("impl" -> "squeryl", "realtime" -> true)
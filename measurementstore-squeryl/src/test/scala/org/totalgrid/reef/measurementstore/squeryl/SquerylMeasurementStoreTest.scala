@@ -24,13 +24,17 @@ import org.junit.runner.RunWith
 import org.totalgrid.reef.persistence.squeryl._
 import net.agileautomata.executor4s.testing._
 import org.totalgrid.reef.measurementstore._
+import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement, Quality }
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
 
 trait SqlMeasStoreTestFixture {
-  def connect(includeHistory: Boolean) = {
+  def connect(includeHistory: Boolean, chunkSize: Int = 0, bulkWriter: Option[SqlBulkWriter] = None,
+    partitioning: Option[PartitionSettings] = None, rollupTiers: Seq[RollupTier] = RollupTier.defaults, retentionMillis: Long = 0) = {
     val store = new SqlMeasurementStore({ () =>
       val conn_info = DbInfo.loadInfo("../org.totalgrid.reef.test.cfg")
       DbConnector.connect(conn_info)
-    }, includeHistory)
+    }, includeHistory, chunkSize, bulkWriter, partitioning, rollupTiers, retentionMillis)
     store.connect()
     store.reset()
     store
@@ -43,6 +47,91 @@ class SqlMeasTest extends MeasurementStoreTest with SqlMeasStoreTestFixture {
   lazy val cm = connect(true)
 }
 
+@RunWith(classOf[JUnitRunner])
+class SqlChunkedMeasTest extends MeasurementStoreTest with SqlMeasStoreTestFixture {
+
+  // small chunks so every test has history split between sealed chunks and raw rows
+  lazy val cm = connect(true, 3)
+}
+
+@RunWith(classOf[JUnitRunner])
+class SqlJdbcBatchMeasTest extends MeasurementStoreTest with SqlMeasStoreTestFixture {
+
+  // force the portable writer so it is covered even when testing against postgres
+  lazy val cm = connect(true, bulkWriter = Some(JdbcBatchWriter))
+}
+
+@RunWith(classOf[JUnitRunner])
+class SqlPartitionedMeasTest extends MeasurementStoreTest with SqlMeasStoreTestFixture {
+
+  // tiny partitions so the history in every test is spread over several of them
+  lazy val cm = connect(true, partitioning = Some(PartitionSettings(5)))
+}
+
+@RunWith(classOf[JUnitRunner])
+class SqlPartitionRetentionTest extends FunSuite with ShouldMatchers with SqlMeasStoreTestFixture {
+
+  val day = 24L * 60 * 60 * 1000
+
+  def getMeas(time: Long) = {
+    Measurement.newBuilder.setName("RetainedPoint").setType(Measurement.Type.INT).setIntVal(time)
+      .setQuality(Quality.newBuilder).setTime(time).build
+  }
+
+  test("Expired partitions are dropped") {
+    val cm = connect(true, partitioning = Some(PartitionSettings(day)), retentionMillis = 2 * day)
+
+    val now = System.currentTimeMillis
+    cm.set((4 to 0 by -1).map { d => getMeas(now - d * day) })
+    cm.numValues("RetainedPoint") should equal(5)
+
+    // only the partitions that ended more than 2 days ago are dropped
+    cm.trim(Long.MaxValue) should equal(2)
+    cm.numValues("RetainedPoint") should equal(3)
+    cm.getOldest("RetainedPoint").get.getTime should equal(now - 2 * day)
+    cm.getNewest("RetainedPoint").get.getTime should equal(now)
+  }
+
+  test("Expired history is dropped without partitions") {
+    // as raw rows and with the oldest two measurements sealed into a chunk
+    List(0, 2).foreach { chunkSize =>
+      val cm = connect(true, chunkSize = chunkSize, retentionMillis = 5 * day / 2)
+
+      val now = System.currentTimeMillis
+      cm.set((4 to 0 by -1).map { d => getMeas(now - d * day) })
+
+      cm.trim(Long.MaxValue) should equal(2)
+      cm.numValues("RetainedPoint") should equal(3)
+      cm.getOldest("RetainedPoint").get.getTime should equal(now - 2 * day)
+    }
+  }
+}
+
+@RunWith(classOf[JUnitRunner])
+class SqlRollupRetentionTest extends FunSuite with ShouldMatchers with SqlMeasStoreTestFixture {
+
+  val minute = 60L * 1000
+
+  def getMeas(time: Long) = {
+    Measurement.newBuilder.setName("RolledUpPoint").setType(Measurement.Type.INT).setIntVal(time)
+      .setQuality(Quality.newBuilder).setTime(time).build
+  }
+
+  test("Rollups past their tier's retention are trimmed") {
+    val tiers = List(RollupTier("1m", minute, 5 * minute), RollupTier("1h", 60 * minute))
+    val cm = connect(true, rollupTiers = tiers)
+
+    cm.set((0 until 20).map { i => getMeas(i * minute) })
+    cm.getRollups("RolledUpPoint", 0, Long.MaxValue, minute).size should equal(20)
+
+    cm.trim(Long.MaxValue)
+
+    // kept for 5 minutes behind the newest minute bucket, the hour tier has no retention
+    cm.getRollups("RolledUpPoint", 0, Long.MaxValue, minute).map { _.start } should equal((14 until 20).map { _ * minute })
+    cm.getRollups("RolledUpPoint", 0, Long.MaxValue, 60 * minute).head.count should equal(20)
+  }
+}
+
 @RunWith(classOf[JUnitRunner])
 class SqlMeasRTDatabaseReadPerformanceTest extends RTDatabaseReadPerformanceTestBase with SqlMeasStoreTestFixture {
 
@@ -80,6 +80,14 @@ class MemoryBrokerConnection(factory: MemoryBrokerConnectionFactory, exe: Execut
     sideEffects.execute()
   }
 
+  override def publishBatch(exchange: String, messages: Seq[(String, Array[Byte])]) = {
+    val sideEffects = new SideEffectHolder
+    state.factory.update { state =>
+      messages.foldLeft(state) { case (s, (key, b)) => s.publish(exchange, key, BrokerMessage(b, None), sideEffects) }
+    }
+    sideEffects.execute()
+  }
+
   class Subscription(queue: String) extends BrokerSubscription {
     def close() = factory.update(_.dropQueue(queue))
     def start(consumer: BrokerMessageConsumer): BrokerSubscription = {
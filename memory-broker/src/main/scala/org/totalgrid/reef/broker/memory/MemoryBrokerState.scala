@@ -43,6 +43,10 @@ object MemoryBrokerState {
     }
   }
 
+  /**
+   * reference implementation of the topic matching rules for a single binding, exchanges use the
+   * equivalent (but much cheaper with many bindings) TopicTrie
+   */
   def matches(routingKey: String, bindingKey: String): Boolean = {
     val r = routingKey.split('.')
     val b = bindingKey.split('.')
@@ -109,33 +113,23 @@ object MemoryBrokerState {
 
   }
 
-  case class Exchange(name: String, typ: String, bindings: List[Binding] = Nil) {
-
-    def getMatches(key: String): List[String] = {
-      bindings.flatMap(_.getMatch(key))
-    }
+  case class Exchange(name: String, typ: String, router: TopicTrie = TopicTrie.empty) {
 
-    def unbindQueue(queue: String, key: String): Exchange =
-      this.copy(bindings = bindings.filterNot(b => (b.key == key) && (b.queue == queue)))
+    def getMatches(key: String): Set[String] = router.matches(key)
 
-    def bindQueue(queue: String, key: String): Exchange = {
-      // remove the identical binding if it exists
-      val unBound = unbindQueue(queue, key)
-      unBound.copy(bindings = Binding(key, queue) :: unBound.bindings)
-    }
+    def bindings: List[Binding] = router.bindings.map { case (key, queue) => Binding(key, queue) }
 
-    def dropQueue(queue: String): Exchange = this.copy(bindings = bindings.filterNot(_.queue == queue))
+    def unbindQueue(queue: String, key: String): Exchange = this.copy(router = router.unbind(queue, key))
 
-  }
+    // binding the identical key to the same queue again is ignored
+    def bindQueue(queue: String, key: String): Exchange = this.copy(router = router.bind(queue, key))
 
-  case class Binding(key: String, queue: String) {
+    def dropQueue(queue: String): Exchange = this.copy(router = router.dropQueue(queue))
 
-    def getMatch(msgKey: String): Option[String] = {
-      if (matches(msgKey, key)) Some(queue)
-      else None
-    }
   }
 
+  case class Binding(key: String, queue: String)
+
   // each queue needs to use a seperate strand so messages arrive in the order they were sent
   case class Queue(name: String, exe: Strand, unread: ScalaQueue[BrokerMessage] = ScalaQueue.empty[BrokerMessage], consumers: List[BrokerMessageConsumer] = Nil) {
 
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.broker.memory
+
+import java.util.regex.Pattern
+
+/**
+ * Immutable trie of topic binding keys so a publish only walks the branches that can match its routing
+ * key instead of testing every binding on the exchange.
+ *
+ * Matching is identical to MemoryBrokerState.matches: keys are split on '.', a '*' inside a segment matches any
+ * characters in that segment, and everything from the first segment containing a '#' onwards is ignored. As with
+ * the original zip based comparison, a '#' binding also matches a routing key that runs out before the '#' if all
+ * of the segments the key does have match.
+ */
+object TopicTrie {
+
+  val empty = TopicTrie()
+
+  /**
+   * binding key segment that isn't a plain string, compiled once when the binding is added
+   */
+  case class WildcardSegment(segment: String) {
+    private val anything = segment == "*"
+    private val regex = Pattern.compile(segment.replaceAll("\\*", ".*"))
+
+    def matches(routingSegment: String) = anything || regex.matcher(routingSegment).matches()
+  }
+
+  case class Node(
+      literals: Map[String, Node] = Map.empty[String, Node],
+      wildcards: Map[WildcardSegment, Node] = Map.empty[WildcardSegment, Node],
+      queues: Map[String, Int] = Map.empty[String, Int],
+      hashQueues: Map[String, Int] = Map.empty[String, Int]) {
+
+    def isEmpty = literals.isEmpty && wildcards.isEmpty && queues.isEmpty && hashQueues.isEmpty
+
+    def add(path: List[String], queue: String, hash: Boolean): Node = path match {
+      case Nil =>
+        if (hash) this.copy(hashQueues = increment(hashQueues, queue))
+        else this.copy(queues = increment(queues, queue))
+      case segment :: tail =>
+        if (isLiteral(segment)) {
+          val child = literals.getOrElse(segment, Node()).add(tail, queue, hash)
+          this.copy(literals = literals + (segment -> child))
+        } else {
+          val w = WildcardSegment(segment)
+          val child = wildcards.getOrElse(w, Node()).add(tail, queue, hash)
+          this.copy(wildcards = wildcards + (w -> child))
+        }
+    }
+
+    def remove(path: List[String], queue: String, hash: Boolean): Node = path match {
+      case Nil =>
+        if (hash) this.copy(hashQueues = decrement(hashQueues, queue))
+        else this.copy(queues = decrement(queues, queue))
+      case segment :: tail =>
+        if (isLiteral(segment)) {
+          literals.get(segment) match {
+            case Some(child) =>
+              val updated = child.remove(tail, queue, hash)
+              this.copy(literals = if (updated.isEmpty) literals - segment else literals + (segment -> updated))
+            case None => this
+          }
+        } else {
+          val w = WildcardSegment(segment)
+          wildcards.get(w) match {
+            case Some(child) =>
+              val updated = child.remove(tail, queue, hash)
+              this.copy(wildcards = if (updated.isEmpty) wildcards - w else wildcards + (w -> updated))
+            case None => this
+          }
+        }
+    }
+
+    def collect(routing: Array[String], depth: Int, found: collection.mutable.Builder[String, Set[String]]) {
+      found ++= hashQueues.keys
+      if (depth == routing.length) {
+        found ++= queues.keys
+        // the routing key ran out, '#' bindings further down only get their leading segments compared
+        children.foreach(_.collectHashes(found))
+      } else {
+        val segment = routing(depth)
+        literals.get(segment).foreach(_.collect(routing, depth + 1, found))
+        wildcards.foreach { case (w, child) => if (w.matches(segment)) child.collect(routing, depth + 1, found) }
+      }
+    }
+
+    private def collectHashes(found: collection.mutable.Builder[String, Set[String]]) {
+      found ++= hashQueues.keys
+      children.foreach(_.collectHashes(found))
+    }
+
+    private def children = literals.values ++ wildcards.values
+  }
+
+  // different binding keys can end on the same node (a.# and a.#.b) so each queue is reference counted
+  private def increment(counts: Map[String, Int], queue: String) = counts + (queue -> (counts.getOrElse(queue, 0) + 1))
+  private def decrement(counts: Map[String, Int], queue: String) = counts.get(queue) match {
+    case Some(1) => counts - queue
+    case Some(c) => counts + (queue -> (c - 1))
+    case None => counts
+  }
+
+  // segments without wildcards or regex characters compare equal to a routing segment exactly when the regex would match
+  private val specialCharacters = "\\^$.|?*+()[]{}"
+  private def isLiteral(segment: String) = !segment.exists(specialCharacters.indexOf(_) != -1)
+
+  private def parse(bindingKey: String): (List[String], Boolean) =
+    (bindingKey.split('.').toList.takeWhile(!_.contains("#")), bindingKey.contains("#"))
+}
+
+/**
+ * @param queueKeys every binding key per queue so we can unbind whole queues and list the bindings
+ */
+case class TopicTrie(root: TopicTrie.Node = TopicTrie.Node(), queueKeys: Map[String, Set[String]] = Map.empty[String, Set[String]]) {
+
+  import TopicTrie._
+
+  def bind(queue: String, key: String): TopicTrie = {
+    val keys = queueKeys.getOrElse(queue, Set.empty[String])
+    if (keys.contains(key)) this
+    else {
+      val (path, hash) = parse(key)
+      TopicTrie(root.add(path, queue, hash), queueKeys + (queue -> (keys + key)))
+    }
+  }
+
+  def unbind(queue: String, key: String): TopicTrie = {
+    val keys = queueKeys.getOrElse(queue, Set.empty[String])
+    if (!keys.contains(key)) this
+    else {
+      val (path, hash) = parse(key)
+      val remaining = keys - key
+      TopicTrie(root.remove(path, queue, hash), if (remaining.isEmpty) queueKeys - queue else queueKeys + (queue -> remaining))
+    }
+  }
+
+  def dropQueue(queue: String): TopicTrie =
+    queueKeys.getOrElse(queue, Set.empty[String]).foldLeft(this)((trie, key) => trie.unbind(queue, key))
+
+  /**
+   * the names of all queues with at least one binding matching the routing key, each listed once
+   */
+  def matches(routingKey: String): Set[String] = {
+    val found = Set.newBuilder[String]
+    root.collect(routingKey.split('.'), 0, found)
+    found.result()
+  }
+
+  def bindings: List[(String, String)] = queueKeys.toList.flatMap { case (queue, keys) => keys.toList.map(k => (k, queue)) }
+}
@@ -62,8 +62,48 @@ class MemoryBrokerStateTest extends FunSuite with ShouldMatchers {
   }
 
   test("Exchange can match queues") {
-    val ex = Exchange("ex", "topic", List(Binding("#", "q1")))
-    ex.getMatches("all") should equal(List("q1"))
+    val ex = Exchange("ex", "topic").bindQueue("q1", "#")
+    ex.getMatches("all") should equal(Set("q1"))
+  }
+
+  test("Topic trie matches the same bindings as the reference matcher") {
+    val bindingKeys = List("#", "*", "a", "a.b", "a.*", "*.b", "a.#", "a.b.#", "a.*.c", "a*.b", "*b.*", "a.b.c.d",
+      "a.#.c", "x.y", "", "a.b*", "a.(b|c)")
+    val routingKeys = List("a", "b", "a.b", "a.c", "ab.b", "a.b.c", "a.x.c", "a.b.c.d", "x.y", "x.y.z", "", "a.bb",
+      "a.+", "a.aa", "ba.cb")
+
+    val trie = bindingKeys.foldLeft(TopicTrie.empty)((t, key) => t.bind(key, key))
+
+    routingKeys.foreach { routingKey =>
+      val expected = bindingKeys.filter(matches(routingKey, _)).toSet
+      (routingKey, trie.matches(routingKey)) should equal((routingKey, expected))
+    }
+  }
+
+  test("Topic trie routes measurement subscriptions like the reference matcher") {
+    def pointName(i: Int) = "Substation" + (i % 50) + ".Device" + i + ".Value"
+    val bindingKeys = (0 until 1000).map { i =>
+      if (i % 100 == 0) "Substation" + (i % 50) + ".*.Value"
+      else if (i % 250 == 1) "#"
+      else pointName(i)
+    }.toList
+
+    val trie = bindingKeys.zipWithIndex.foldLeft(TopicTrie.empty) { case (t, (key, i)) => t.bind("q" + i, key) }
+
+    (0 until 2000).map { i => pointName(i * 7) }.foreach { routingKey =>
+      val expected = bindingKeys.zipWithIndex.collect { case (key, i) if matches(routingKey, key) => "q" + i }.toSet
+      (routingKey, trie.matches(routingKey)) should equal((routingKey, expected))
+    }
+  }
+
+  test("Topic trie unbinds keys that share a path") {
+    val trie = TopicTrie.empty.bind("q", "a.#").bind("q", "a.#.b").bind("q2", "a.b")
+
+    trie.matches("a.b") should equal(Set("q", "q2"))
+    trie.unbind("q", "a.#").matches("a.b") should equal(Set("q", "q2"))
+    trie.unbind("q", "a.#").unbind("q", "a.#.b").matches("a.b") should equal(Set("q2"))
+    trie.dropQueue("q").matches("a.c") should equal(Set.empty[String])
+    trie.dropQueue("q").dropQueue("q2") should equal(TopicTrie.empty)
   }
 
   test("Broker state declares exchanges") {
@@ -20,11 +20,16 @@ package org.totalgrid.reef.persistence
 
 import scala.collection.immutable
 
+/**
+ * reads are lock free, writes are serialized so concurrent writers (like the measurement processor's
+ * shards) don't lose each others updates
+ */
 class InMemoryObjectCache[A] extends ObjectCache[A] {
+  @volatile
   protected var map = immutable.Map.empty[String, A]
   def getMap = map
 
-  def put(name: String, obj: A) = { map += (name -> obj) }
+  def put(name: String, obj: A) = synchronized { map += (name -> obj) }
   def get(name: String): Option[A] = map.get(name)
-  def delete(name: String) = { map -= name }
+  def delete(name: String) = synchronized { map -= name }
 }
\ No newline at end of file
@@ -18,14 +18,13 @@
  */
 package org.totalgrid.reef.measproc
 
-import org.totalgrid.reef.client.service.proto.Model.ReefUUID
-import processing.MeasurementWhiteList
+import org.totalgrid.reef.client.service.proto.Model.{ Point, ReefUUID }
 import org.totalgrid.reef.client.operations.scl.Event
 import scala.collection.JavaConversions._
 import com.typesafe.scalalogging.slf4j.Logging
 import org.totalgrid.reef.client.proto.Envelope.SubscriptionEventType
 
-class EndpointConnectionWatcher(client: MeasurementProcessorServices, endpointUuid: ReefUUID, cache: LastMeasurementCacheManager, whiteList: MeasurementWhiteList) extends Logging {
+class EndpointConnectionWatcher(client: MeasurementProcessorServices, endpointUuid: ReefUUID, cache: LastMeasurementCacheManager, updatePointList: List[Point] => Unit) extends Logging {
 
   import org.totalgrid.reef.client.operations.scl.ScalaSubscription._
 
@@ -52,7 +51,7 @@ class EndpointConnectionWatcher(client: MeasurementProcessorServices, endpointUu
     val expectedPoints = endpoint.getOwnerships.getPointsList.toList
     val points = client.getPointsByNames(expectedPoints).await
 
-    whiteList.updatePointList(points)
+    updatePointList(points)
   }
 
   def cancel() {
@@ -25,7 +25,7 @@ import com.typesafe.scalalogging.slf4j.Logging
 
 object LastMeasurementCacheManager {
   class ResettableInMemoryObjectCache[A] extends InMemoryObjectCache[A] {
-    def reset() {
+    def reset() = synchronized {
       this.map = immutable.Map.empty[String, A]
     }
   }
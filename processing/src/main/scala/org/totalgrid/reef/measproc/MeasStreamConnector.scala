@@ -18,16 +18,24 @@
  */
 package org.totalgrid.reef.measproc
 
-import org.totalgrid.reef.measurementstore.{ MeasurementStoreToMeasurementCacheAdapter, MeasurementStore }
+import org.totalgrid.reef.measurementstore.{ MeasurementStoreToMeasurementCacheAdapter, MeasurementStore, MeasSinkMetrics }
+import org.totalgrid.reef.jmx.MetricsManager
 import org.totalgrid.reef.persistence.InMemoryObjectCache
 import org.totalgrid.reef.client.service.proto.Measurements.Measurement
 import org.totalgrid.reef.client.service.proto.Processing.MeasurementProcessingConnection
-import net.agileautomata.executor4s.Cancelable
+import net.agileautomata.executor4s.{ Executor, Cancelable }
 
-class MeasStreamConnector(newClient: => MeasurementProcessorServices, measStore: MeasurementStore, instanceName: String) {
+/**
+ * @param shards  number of pipelines each endpoint's points are split across, run in parallel on exe
+ */
+class MeasStreamConnector(newClient: => MeasurementProcessorServices, measStore: MeasurementStore, instanceName: String, shards: Int = 1, exe: Option[Executor] = None) {
+
+  private val metricsMgr = MetricsManager("org.totalgrid.reef.measproc", instanceName)
 
   // caches used to store measurements and overrides
-  val measCache = new MeasurementStoreToMeasurementCacheAdapter(measStore)
+  val measCache = new MeasurementStoreToMeasurementCacheAdapter(measStore, new MeasSinkMetrics(measStore, metricsMgr.metrics("MeasStore")))
+
+  metricsMgr.register()
 
   // FUTURE: make override caches configurable like measurement store
 
@@ -41,7 +49,7 @@ class MeasStreamConnector(newClient: => MeasurementProcessorServices, measStore:
     // get a new client for each stream processor so service requests will actually be handled in parallel
     val client = newClient
 
-    val streamHandler = new MeasurementStreamProcessingNode(client, caches, streamConfig)
+    val streamHandler = new MeasurementStreamProcessingNode(client, caches, streamConfig, shards, exe)
     new Cancelable {
       def cancel() {
         streamHandler.cancel()
@@ -42,7 +42,7 @@ trait MeasurementProcessorServices extends AllScadaServiceImpl {
 
   def subscribeToOverridesForConnection(conn: MeasurementProcessingConnection): Promise[SubscriptionResult[List[MeasOverride], MeasOverride]]
 
-  def publishIndividualMeasurementAsEvent(meas: Measurement)
+  def publishMeasurementsAsEvents(meas: List[Measurement])
 
   def bindMeasurementProcessingNode(handler: MeasBatchProcessor, conn: MeasurementProcessingConnection): Promise[SubscriptionBinding]
 
@@ -89,8 +89,9 @@ class MeasurementProcessorServicesImpl(client: Client, eventPub: EventPublisher)
     }
   }
 
-  override def publishIndividualMeasurementAsEvent(meas: Measurement) {
-    eventPub.publishEvent(Envelope.SubscriptionEventType.MODIFIED, meas, meas.getName)
+  override def publishMeasurementsAsEvents(meas: List[Measurement]) {
+    import scala.collection.JavaConversions._
+    eventPub.publishEvents[Measurement](Envelope.SubscriptionEventType.MODIFIED, meas, meas.map { _.getName })
   }
 
   override def setMeasurementProcessingConnectionReadyTime(conn: MeasurementProcessingConnection, time: Long) = {
@@ -26,16 +26,20 @@ import org.totalgrid.reef.client.service.proto.Events.Event
 import org.totalgrid.reef.client.exception.ReefServiceException
 
 import org.totalgrid.reef.client.service.proto.Measurements.Measurement
-import org.totalgrid.reef.measproc.pipeline.MeasProcessingPipeline
+import org.totalgrid.reef.measproc.pipeline.{ EndpointPipeline, ShardedMeasProcessingPipeline, MeasProcessingPipeline }
+import net.agileautomata.executor4s.Executor
 /**
  * This class encapsulates all of the objects and functionality to process a stream of measurements from one endpoint.
  * A measurement processor node may have many processing nodes, some or all of the passed in resources can be shared
- * across some or all of those nodes.
+ * across some or all of those nodes. With more than one shard the endpoint's points are split across that many
+ * pipelines that run in parallel on exe.
  */
 class MeasurementStreamProcessingNode(
   client: MeasurementProcessorServices,
   caches: MeasProcObjectCaches,
-  connection: MeasurementProcessingConnection)
+  connection: MeasurementProcessingConnection,
+  shards: Int = 1,
+  exe: Option[Executor] = None)
     extends Logging {
 
   def publishEvent(event: Event.Builder) = try {
@@ -47,12 +51,15 @@ class MeasurementStreamProcessingNode(
       logger.warn("Couldn't publish event: " + rse.getMessage, rse)
   }
 
-  def measSink(meas: Measurement) {
-    try {
-      client.publishIndividualMeasurementAsEvent(meas)
-    } catch {
-      case rse: ReefServiceException =>
-        logger.warn("Couldn't publish measurement: " + meas.getName + " message: " + rse.getMessage, rse)
+  // each flush is published as a small number of bounded broker batches rather than one publish per measurement
+  def measSink(meas: List[Measurement]) {
+    meas.grouped(MeasurementStreamProcessingNode.maxPublishBatchSize).foreach { batch =>
+      try {
+        client.publishMeasurementsAsEvents(batch)
+      } catch {
+        case rse: ReefServiceException =>
+          logger.warn("Couldn't publish " + batch.size + " measurements starting with: " + batch.head.getName + " message: " + rse.getMessage, rse)
+      }
     }
   }
 
@@ -60,15 +67,20 @@ class MeasurementStreamProcessingNode(
   val expectedPoints = endpoint.getOwnerships.getPointsList.toList
   val points = client.getPointsByNames(expectedPoints).await
 
-  val processingPipeline = new MeasProcessingPipeline(caches, measSink _, publishEvent _, points, endpoint.getName)
+  val processingPipeline: EndpointPipeline = exe match {
+    case Some(executor) if shards > 1 =>
+      logger.info("Processing endpoint: " + endpoint.getName + " with " + shards + " shards")
+      new ShardedMeasProcessingPipeline(caches, measSink _, publishEvent _, points, endpoint.getName, shards, executor)
+    case _ => new MeasProcessingPipeline(caches, measSink _, publishEvent _, points, endpoint.getName)
+  }
 
-  val connectionWatcher = new EndpointConnectionWatcher(client, endpoint.getUuid, processingPipeline.lastCacheManager, processingPipeline.measWhiteList)
+  val connectionWatcher = new EndpointConnectionWatcher(client, endpoint.getUuid, processingPipeline.lastCacheManager, processingPipeline.updatePointList _)
 
   val overrideResult = client.subscribeToOverridesForConnection(connection).await
-  val overrideSub = processingPipeline.overProc.setSubscription(overrideResult)
+  val overrideSub = processingPipeline.overrideContext.setSubscription(overrideResult)
 
   val triggerResult = client.subscribeToTriggerSetsForConnection(connection).await
-  val triggerSub = processingPipeline.triggerProc.setSubscription(triggerResult)
+  val triggerSub = processingPipeline.triggerContext.setSubscription(triggerResult)
 
   val binding = client.bindMeasurementProcessingNode(processingPipeline, connection).await
 
@@ -85,3 +97,6 @@ class MeasurementStreamProcessingNode(
   }
 }
 
+object MeasurementStreamProcessingNode {
+  val maxPublishBatchSize = 1000
+}
@@ -26,7 +26,11 @@ import org.totalgrid.reef.measproc.{ ProcessingNodeMap, MeasStreamConnector, Mea
 import com.typesafe.scalalogging.slf4j.Logging
 import org.totalgrid.reef.client.registration.EventPublisher
 
-class MeasurementProcessorConnectedApplication(measStore: MeasurementStore) extends ConnectedApplication with Logging {
+/**
+ * @param shards  number of parallel pipelines each endpoint is processed with, 1 processes each endpoint in order on
+ *                a single pipeline
+ */
+class MeasurementProcessorConnectedApplication(measStore: MeasurementStore, shards: Int = 1) extends ConnectedApplication with Logging {
 
   var measProc = Option.empty[FullProcessor]
 
@@ -57,7 +61,7 @@ class MeasurementProcessorConnectedApplication(measStore: MeasurementStore) exte
 
     measStore.connect()
 
-    val connector = new MeasStreamConnector(perStreamService, measStore, appConfig.getInstanceName)
+    val connector = new MeasStreamConnector(perStreamService, measStore, appConfig.getInstanceName, shards, Some(client.getInternal.getExecutor))
     val connectionHandler = new ProcessingNodeMap(connector)
 
     val services = new MeasurementProcessorServicesImpl(client, eventPub)
@@ -24,12 +24,16 @@ import org.totalgrid.reef.measurementstore.MeasurementStoreFinder
 import org.totalgrid.reef.app.whiteboard.ConnectedApplicationBundleActivator
 import org.totalgrid.reef.app.{ ConnectedApplicationManager, ConnectionProvider }
 import net.agileautomata.executor4s.Executor
+import org.totalgrid.reef.osgi.OsgiConfigReader
+import org.totalgrid.reef.client.settings.util.PropertyLoading
 
 class ProcessingActivator extends ConnectedApplicationBundleActivator {
 
   def addApplication(context: BundleContext, connectionManager: ConnectionProvider, appManager: ConnectedApplicationManager, executor: Executor) = {
     val measStore = MeasurementStoreFinder.getInstance(context)
-    val app = new MeasurementProcessorConnectedApplication(measStore)
+    val properties = OsgiConfigReader.load(context, "org.totalgrid.reef.measproc")
+    val shards = PropertyLoading.getInt("org.totalgrid.reef.measproc.shards", properties, 1)
+    val app = new MeasurementProcessorConnectedApplication(measStore, shards)
 
     appManager.addConnectedApplication(app)
   }
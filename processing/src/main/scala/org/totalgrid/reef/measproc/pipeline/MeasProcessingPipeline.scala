@@ -22,36 +22,48 @@ import org.totalgrid.reef.client.service.proto.Events
 import org.totalgrid.reef.client.service.proto.Measurements.{ MeasurementBatch, Measurement }
 import org.totalgrid.reef.measproc._
 import org.totalgrid.reef.client.service.proto.Model.Point
+import org.totalgrid.reef.client.service.proto.Processing.{ TriggerSet, MeasOverride }
 import org.totalgrid.reef.jmx.MetricsManager
 
+/**
+ * what a processing node needs from the pipeline(s) processing its endpoint's measurements
+ */
+trait EndpointPipeline extends MeasBatchProcessor {
+  def lastCacheManager: LastMeasurementCacheManager
+  def triggerContext: MeasProcServiceContext[TriggerSet]
+  def overrideContext: MeasProcServiceContext[MeasOverride]
+  def updatePointList(points: List[Point])
+  def close()
+}
+
 class MeasProcessingPipeline(
     caches: MeasProcObjectCaches,
-    publish: Measurement => Unit,
+    publish: List[Measurement] => Unit,
     eventSink: Events.Event.Builder => Unit,
     points: List[Point],
-    endpointName: String) extends MeasBatchProcessor {
+    endpointName: String,
+    val lastCacheManager: LastMeasurementCacheManager = new LastMeasurementCacheManager) extends EndpointPipeline {
 
   val metricsMgr = MetricsManager("org.totalgrid.reef.measproc", endpointName)
 
   // pipeline ends up being defined backwards, output from each step is wired into input of previous step
   // basicProcessingNode -> overrideProc -> triggerProc -> batchOutput
-
-  val lastCacheManager = new LastMeasurementCacheManager
+  // each measurement is carried through as a WorkingMeasurement and only built by batchOutput
 
   val batchOutput = new ProcessedMeasBatchOutputCache(publish, eventSink, caches.measCache)
 
   val triggerFactory = new processing.TriggerProcessingFactory(batchOutput.delayedEventSink, lastCacheManager.cache)
   val triggerProc = new processing.TriggerProcessor(batchOutput.pubMeas, triggerFactory, caches.stateCache, metricsMgr.metrics("Triggers"))
   val overProc = new processing.OverrideProcessor(overrideProcess, caches.overCache, caches.measCache.get, metricsMgr.metrics("Overrides"))
-  val measWhiteList = new processing.MeasurementWhiteList(overProc.process, points, metricsMgr.metrics("WhiteList"))
+  val measWhiteList = new processing.MeasurementWhiteList(overProc.process(_: processing.WorkingMeasurement), points, metricsMgr.metrics("WhiteList"))
 
   // start the pipeline
-  val processor = new MeasPipelinePump(measWhiteList.process, batchOutput.flushCache, metricsMgr.metrics("Pipeline"))
+  val processor = new MeasPipelinePump(measWhiteList.process(_: processing.WorkingMeasurement), batchOutput.flushCache, metricsMgr.metrics("Pipeline"))
 
   metricsMgr.register()
 
   // Each MeasOverride add/remove is processed seperatley (not in a meas batch)
-  def overrideProcess(m: Measurement, flushNow: Boolean) {
+  def overrideProcess(m: processing.WorkingMeasurement, flushNow: Boolean) {
 
     triggerProc.process(m)
     if (flushNow) batchOutput.flushCache()
@@ -61,6 +73,13 @@ class MeasProcessingPipeline(
     processor.process(b)
   }
 
+  def triggerContext = triggerProc
+  def overrideContext = overProc
+
+  def updatePointList(points: List[Point]) {
+    measWhiteList.updatePointList(points)
+  }
+
   def close() {
     metricsMgr.unregister()
   }
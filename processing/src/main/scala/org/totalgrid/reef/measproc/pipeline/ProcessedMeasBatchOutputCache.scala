@@ -22,14 +22,15 @@ import org.totalgrid.reef.client.service.proto.Measurements.Measurement
 import org.totalgrid.reef.client.service.proto.Events
 import org.totalgrid.reef.persistence.ObjectCache
 import org.totalgrid.reef.persistence.KeyValue
+import org.totalgrid.reef.measproc.processing.WorkingMeasurement
 
 class ProcessedMeasBatchOutputCache(
-    measPublish: Measurement => Unit,
+    measPublish: List[Measurement] => Unit,
     eventSink: Events.Event.Builder => Unit,
     measCache: ObjectCache[Measurement]) {
 
-  // List of measurements that get built during a batch process
-  var list: List[Measurement] = Nil
+  // measurements that get built during a batch process, reused between batches
+  private val pending = new java.util.ArrayList[Measurement]()
   var eventList: List[Events.Event.Builder] = Nil
 
   def delayedEventSink(e: Events.Event.Builder) {
@@ -37,21 +38,32 @@ class ProcessedMeasBatchOutputCache(
     eventList = e :: eventList
   }
 
-  // function that builds the list and publishes to the bus
-  def pubMeas(m: Measurement) = {
-    list = m :: list
+  // the output boundary, where the working measurement is built (once) with every stage's edits
+  def pubMeas(m: WorkingMeasurement) = {
+    pending.add(m.measurement)
   }
 
-  // flushes the list to the measurement cache
-  def flushCache() = {
-    val measurements = list.reverse
-    val measurementCacheUpdates = measurements.map { m => KeyValue(m.getName, m) }
+  // flushes the list to the measurement cache and publishes it as a single batch, returns number of measurements published
+  def flushCache(): Int = {
+    // build the published list and cache updates in one pass from the back so neither needs reversing
+    var measurements: List[Measurement] = Nil
+    var measurementCacheUpdates: List[KeyValue[Measurement]] = Nil
+    var i = pending.size - 1
+    while (i >= 0) {
+      val m = pending.get(i)
+      measurements = m :: measurements
+      measurementCacheUpdates = KeyValue(m.getName, m) :: measurementCacheUpdates
+      i -= 1
+    }
+    val count = pending.size
+    pending.clear()
+
     val pubEvents = eventList.reverse
     eventList = Nil
-    list = Nil
     measCache.put(measurementCacheUpdates)
-    measurements.foreach(measPublish(_))
+    if (count > 0) measPublish(measurements)
     pubEvents.foreach(eventSink(_))
+    count
   }
 
 }
\ No newline at end of file
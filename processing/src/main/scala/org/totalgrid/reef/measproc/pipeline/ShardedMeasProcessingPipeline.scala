@@ -0,0 +1,139 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measproc.pipeline
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicReference
+import net.agileautomata.executor4s.{ Executor, Strand }
+
+import org.totalgrid.reef.client.service.proto.Events
+import org.totalgrid.reef.client.service.proto.Measurements.{ MeasurementBatch, Measurement }
+import org.totalgrid.reef.client.service.proto.Model.Point
+import org.totalgrid.reef.client.service.proto.Processing.{ TriggerSet, MeasOverride }
+import org.totalgrid.reef.measproc._
+
+object ShardedMeasProcessingPipeline {
+
+  /**
+   * stable hash of the point name (String.hashCode is specified so every process agrees on it)
+   */
+  def shardOf(pointName: String, shards: Int): Int = (pointName.hashCode & Int.MaxValue) % shards
+
+  /**
+   * forwards service context updates to the shard that owns the point, on that shard's strand so
+   * they never run concurrently with its measurement processing
+   */
+  class ShardedServiceContext[A](pointName: A => String, shards: IndexedSeq[(Strand, MeasProcServiceContext[A])])
+      extends MeasProcServiceContext[A] {
+
+    private def shard(obj: A) = shards(shardOf(pointName(obj), shards.size))
+
+    def add(obj: A) {
+      val (strand, context) = shard(obj)
+      strand.execute(context.add(obj))
+    }
+
+    def remove(obj: A) {
+      val (strand, context) = shard(obj)
+      strand.execute(context.remove(obj))
+    }
+
+    def clear() {
+      shards.foreach { case (strand, context) => strand.execute(context.clear()) }
+    }
+  }
+}
+
+/**
+ * Splits an endpoint's points across shardCount pipelines by a stable hash of the point name, each
+ * pipeline only ever runs on its own strand. A point always maps to the same shard and a batch
+ * isn't acknowledged until every shard has processed its part, so measurements for a point are
+ * still processed in order while a large endpoint can use more than one core.
+ *
+ * The shards share the endpoint's last measurement cache and the processor's object caches, all
+ * keyed by point so two shards never write the same entry.
+ */
+class ShardedMeasProcessingPipeline(
+    caches: MeasProcObjectCaches,
+    publish: List[Measurement] => Unit,
+    eventSink: Events.Event.Builder => Unit,
+    points: List[Point],
+    endpointName: String,
+    shardCount: Int,
+    exe: Executor) extends EndpointPipeline {
+
+  import ShardedMeasProcessingPipeline._
+
+  val lastCacheManager = new LastMeasurementCacheManager
+
+  private def pointsFor(shard: Int, points: List[Point]) = points.filter(p => shardOf(p.getName, shardCount) == shard)
+
+  val shards: IndexedSeq[(Strand, MeasProcessingPipeline)] = (0 until shardCount).map { i =>
+    val pipeline = new MeasProcessingPipeline(caches, publish, eventSink, pointsFor(i, points), endpointName + ".shard" + i, lastCacheManager)
+    (Strand(exe), pipeline)
+  }
+
+  val triggerContext = new ShardedServiceContext[TriggerSet](_.getPoint.getName, shards.map { case (s, p) => (s, p.triggerProc) })
+  val overrideContext = new ShardedServiceContext[MeasOverride](_.getPoint.getName, shards.map { case (s, p) => (s, p.overProc) })
+
+  override def process(b: MeasurementBatch) {
+    val split = Array.fill(shardCount)(MeasurementBatch.newBuilder.setWallTime(b.getWallTime))
+    val count = b.getMeasCount
+    var i = 0
+    while (i < count) {
+      val m = b.getMeas(i)
+      split(shardOf(m.getName, shardCount)).addMeas(m)
+      i += 1
+    }
+
+    val batches = split.zipWithIndex.filter(_._1.getMeasCount > 0)
+    val done = new CountDownLatch(batches.size)
+    val failure = new AtomicReference[Throwable]()
+    batches.foreach {
+      case (batch, shard) =>
+        val (strand, pipeline) = shards(shard)
+        strand.execute {
+          try {
+            pipeline.process(batch.build)
+          } catch {
+            case ex: Throwable => failure.compareAndSet(null, ex)
+          } finally {
+            done.countDown()
+          }
+        }
+    }
+    done.await()
+
+    // surface a shard's failure to the batch service the same way an unsharded pipeline would
+    val ex = failure.get
+    if (ex != null) throw ex
+  }
+
+  def updatePointList(points: List[Point]) {
+    shards.zipWithIndex.foreach {
+      case ((strand, pipeline), i) =>
+        val shardPoints = pointsFor(i, points)
+        strand.execute(pipeline.updatePointList(shardPoints))
+    }
+  }
+
+  def close() {
+    shards.foreach { case (strand, pipeline) => pipeline.close() }
+  }
+}
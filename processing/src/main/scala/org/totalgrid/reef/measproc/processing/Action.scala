@@ -23,6 +23,30 @@ import org.totalgrid.reef.client.service.proto.Measurements._
 object Action {
   type Evaluation = (Measurement) => Measurement
 
+  /**
+   * Evaluation that edits the working measurement in place. The built in actions all are, so any
+   * number of them cost a single build when the measurement leaves the pipeline.
+   */
+  trait WorkingEvaluation extends Evaluation {
+    def apply(m: WorkingMeasurement)
+
+    def apply(m: Measurement): Measurement = {
+      val working = new WorkingMeasurement().reset(m)
+      apply(working)
+      working.measurement
+    }
+  }
+
+  /**
+   * plain evaluations still work on the working measurement, they just need it built first
+   */
+  def working(eval: Evaluation): WorkingEvaluation = eval match {
+    case w: WorkingEvaluation => w
+    case _ => new WorkingEvaluation {
+      def apply(m: WorkingMeasurement) { m.reset(eval(m.measurement)) }
+    }
+  }
+
   sealed abstract class ActivationType {
     def apply(state: Boolean, prev: Boolean) = activated(state, prev)
     def activated(state: Boolean, prev: Boolean): Boolean
@@ -66,6 +90,21 @@ trait Action {
    */
   def process(m: Measurement, state: Boolean, prev: Boolean): Option[Measurement]
 
+  /**
+   * Same as process but edits the working measurement in place, so the trigger index can evaluate
+   * actions without building the measurement or allocating an Option for each one.
+   *
+   * @return          false if the measurement was suppressed
+   */
+  def process(m: WorkingMeasurement, state: Boolean, prev: Boolean): Boolean = {
+    process(m.measurement, state, prev) match {
+      case Some(result) =>
+        m.reset(result)
+        true
+      case None => false
+    }
+  }
+
   override def toString = name
 }
 
@@ -75,12 +114,19 @@ trait Action {
 class BasicAction(val name: String, disabled: Boolean, activation: Action.ActivationType, eval: Action.Evaluation)
     extends Action {
 
+  private val inPlace = Action.working(eval)
+
   def process(m: Measurement, state: Boolean, prev: Boolean): Option[Measurement] = {
     if (!disabled && activation(state, prev))
       Some(eval(m))
     else
       Some(m)
   }
+
+  override def process(m: WorkingMeasurement, state: Boolean, prev: Boolean): Boolean = {
+    if (!disabled && activation(state, prev)) inPlace(m)
+    true
+  }
 }
 
 class SuppressAction(val name: String, disabled: Boolean, activation: Action.ActivationType) extends Action {
@@ -91,5 +137,9 @@ class SuppressAction(val name: String, disabled: Boolean, activation: Action.Act
     else
       Some(m)
   }
+
+  override def process(m: WorkingMeasurement, state: Boolean, prev: Boolean): Boolean = {
+    disabled || !activation(state, prev)
+  }
 }
 
@@ -90,58 +90,58 @@ trait ActionFactory { self: ProcessingResources =>
 
 object Actions {
 
-  class AnnotateQuality(qual: Quality) extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
-      Measurement.newBuilder(m).setQuality(Quality.newBuilder(m.getQuality).mergeFrom(qual)).build
+  // the evaluations all edit the working measurement in place, see Action.WorkingEvaluation
+
+  class AnnotateQuality(qual: Quality) extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
+      m.edit.setQuality(Quality.newBuilder(m.getQuality).mergeFrom(qual))
     }
   }
-  class StripValue extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
-      Measurement.newBuilder(m)
+  class StripValue extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
+      m.edit
         .clearDoubleVal
         .clearIntVal
         .clearStringVal
         .clearBoolVal
         .setType(Measurement.Type.NONE)
-        .build
     }
   }
-  class SetBool(b: Boolean) extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
-      Measurement.newBuilder(m)
+  class SetBool(b: Boolean) extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
+      m.edit
         .clearDoubleVal
         .clearIntVal
         .clearStringVal
         .setBoolVal(b)
         .setType(Measurement.Type.BOOL)
-        .build
     }
   }
-  class SetUnit(unit: String) extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
-      Measurement.newBuilder(m).setUnit(unit).build
+  class SetUnit(unit: String) extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
+      m.edit.setUnit(unit)
     }
   }
-  class LinearTransform(scale: Double, offset: Double, forceToDouble: Boolean) extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
+  class LinearTransform(scale: Double, offset: Double, forceToDouble: Boolean) extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
       m.getType match {
         case Measurement.Type.DOUBLE =>
-          if (m.hasDoubleVal) Measurement.newBuilder(m).setDoubleVal(m.getDoubleVal * scale + offset).build else m
+          if (m.hasDoubleVal) m.edit.setDoubleVal(m.getDoubleVal * scale + offset)
         case Measurement.Type.INT =>
           if (m.hasIntVal) {
             val scaledValue = m.getIntVal * scale + offset
-            if (!forceToDouble) Measurement.newBuilder(m).setIntVal(scaledValue.toLong).build
-            else Measurement.newBuilder(m).setDoubleVal(scaledValue).setType(Measurement.Type.DOUBLE).build
-          } else m
-        case _ => m
+            if (!forceToDouble) m.edit.setIntVal(scaledValue.toLong)
+            else m.edit.setDoubleVal(scaledValue).setType(Measurement.Type.DOUBLE)
+          }
+        case _ =>
       }
     }
   }
 
   class EventGenerator(out: Event.Builder => Unit, eventType: String)
-      extends Action.Evaluation {
+      extends Action.WorkingEvaluation {
 
-    def apply(m: Measurement): Measurement = {
+    def apply(m: WorkingMeasurement) {
 
       val alist = new AttributeList
       alist += ("validity" -> AttributeString(m.getQuality.getValidity.toString))
@@ -162,34 +162,28 @@ object Actions {
         .setArgs(alist.toProto)
       if (m.getIsDeviceTime) builder.setDeviceTime(m.getTime)
       out(builder)
-      m
     }
   }
 
-  class BoolEnumTransformer(falseString: String, trueString: String) extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
-      if (!m.hasBoolVal) {
-        // TODO: handle non boolean measurements in enum transform
-        m
-      } else {
-        m.toBuilder.setType(Measurement.Type.STRING)
-          .setStringVal(if (m.getBoolVal) trueString else falseString).build
+  class BoolEnumTransformer(falseString: String, trueString: String) extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
+      // TODO: handle non boolean measurements in enum transform
+      if (m.hasBoolVal) {
+        m.edit.setType(Measurement.Type.STRING)
+          .setStringVal(if (m.getBoolVal) trueString else falseString)
       }
     }
   }
 
   // integer as in "not floating point", not integer as in 2^32, values on measurements are actually Longs
-  class IntegerEnumTransformer(mapping: Map[Long, String]) extends Action.Evaluation {
-    def apply(m: Measurement): Measurement = {
-      if (!m.hasIntVal) {
-        // TODO: handle non int measurements in int transform
-        m
-      } else {
+  class IntegerEnumTransformer(mapping: Map[Long, String]) extends Action.WorkingEvaluation {
+    def apply(m: WorkingMeasurement) {
+      // TODO: handle non int measurements in int transform
+      if (m.hasIntVal) {
         mapping.get(m.getIntVal) match {
-          case Some(s) => m.toBuilder.setStringVal(s).setType(Measurement.Type.STRING).build
-          case None => m // TODO: how to handle unknown states in int transform?
+          case Some(s) => m.edit.setStringVal(s).setType(Measurement.Type.STRING)
+          case None => // TODO: how to handle unknown states in int transform?
         }
-
       }
     }
   }
@@ -35,20 +35,23 @@ object FilterTrigger {
   }
 
   sealed trait Filter {
-    def allow(m: Measurement, current: Measurement): Boolean
+    def allow(m: WorkingMeasurement, current: Measurement): Boolean
   }
 
+  // an optional field differs if only one side has it set or both do with different values
+  private def differs(aSet: Boolean, bSet: Boolean, equal: => Boolean) = aSet != bSet || (aSet && !equal)
+
   class NoDuplicates extends Filter {
-    def allow(m: Measurement, current: Measurement) = {
-      m.intVal != current.intVal ||
-        m.doubleVal != current.doubleVal ||
-        m.boolVal != current.boolVal ||
-        m.stringVal != current.stringVal
+    def allow(m: WorkingMeasurement, current: Measurement) = {
+      differs(m.hasIntVal, current.hasIntVal, m.getIntVal == current.getIntVal) ||
+        differs(m.hasDoubleVal, current.hasDoubleVal, m.getDoubleVal == current.getDoubleVal) ||
+        differs(m.hasBoolVal, current.hasBoolVal, m.getBoolVal == current.getBoolVal) ||
+        differs(m.hasStringVal, current.hasStringVal, m.getStringVal == current.getStringVal)
     }
   }
 
   class Deadband(band: Double) extends Filter {
-    def allow(m: Measurement, current: Measurement) = {
+    def allow(m: WorkingMeasurement, current: Measurement) = {
       if (m.hasDoubleVal && current.hasDoubleVal) {
         math.abs(m.getDoubleVal - current.getDoubleVal) > band
       } else if (m.hasIntVal && current.hasIntVal) {
@@ -75,18 +78,21 @@ object FilterTrigger {
   }
 }
 
-class FilterTrigger(cache: ObjectCache[Measurement], band: FilterTrigger.Filter) extends Trigger.Condition {
-  import FilterTrigger.sameQuality
+/**
+ * the measurements that pass are kept to compare against, only those get built at this stage
+ */
+class FilterTrigger(cache: ObjectCache[Measurement], band: FilterTrigger.Filter) extends Trigger.WorkingCondition {
+  import FilterTrigger.{ differs, sameQuality }
 
-  def apply(m: Measurement, prev: Boolean): Boolean = {
+  def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
     cache.get(m.getName) match {
       case None => {
-        cache.put(m.getName, m)
+        cache.put(m.getName, m.measurement)
         true
       }
       case Some(current) => {
-        if ((m.unit != current.unit) || !sameQuality(m.getQuality, current.getQuality) || band.allow(m, current)) {
-          cache.put(m.getName, m)
+        if (differs(m.hasUnit, current.hasUnit, m.getUnit == current.getUnit) || !sameQuality(m.getQuality, current.getQuality) || band.allow(m, current)) {
+          cache.put(m.getName, m.measurement)
           true
         } else {
           false
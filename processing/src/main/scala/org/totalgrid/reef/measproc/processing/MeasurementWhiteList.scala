@@ -27,30 +27,49 @@ import org.totalgrid.reef.jmx.Metrics
  * checks to see if the measurements are on the whitelist provided with the endpoint and filters
  * out the unexpected measurements and adds a log message indicating what is being ignored.
  */
-class MeasurementWhiteList(protected val next: Measurement => Unit, expectedPoints: List[Point], metrics: Metrics)
+class MeasurementWhiteList(protected val next: WorkingMeasurement => Unit, expectedPoints: List[Point], metrics: Metrics)
     extends Logging {
 
-  private var allowedPointNamesLookup: Map[String, Point] = expectedPoints.map { p => p.getName -> p }.toMap
+  // looked up for every measurement, a java map so the lookup doesn't allocate an Option
+  @volatile
+  private var allowedPointNamesLookup = lookup(expectedPoints)
   private var ignored = Map.empty[String, Boolean]
 
   private val ignoredMeasurements = metrics.counter("ignoredMeasurements")
 
   def process(meas: Measurement) {
-    allowedPointNamesLookup.get(meas.getName) match {
-      case Some(p) => next(meas.toBuilder.setPointUuid(p.getUuid).build)
-      case None =>
-        ignoredMeasurements(1)
-        ignored.get(meas.getName) match {
-          case Some(_) =>
-          case None =>
-            ignored += meas.getName -> false
-            logger.info("Ignoring unexpected measurement: " + meas.getName)
-        }
+    process(new WorkingMeasurement().reset(meas))
+  }
+
+  /**
+   * stamps the point uuid onto the working measurement (only edited if it isn't already carrying
+   * that uuid) and hands it on unbuilt
+   */
+  def process(meas: WorkingMeasurement) {
+    val name = meas.name
+    val point = allowedPointNamesLookup.get(name)
+    if (point != null) {
+      meas.setPointUuid(point.getUuid)
+      next(meas)
+    } else {
+      ignoredMeasurements(1)
+      ignored.get(name) match {
+        case Some(_) =>
+        case None =>
+          ignored += name -> false
+          logger.info("Ignoring unexpected measurement: " + name)
+      }
     }
   }
 
   def updatePointList(expectedPoints: List[Point]) {
-    allowedPointNamesLookup = expectedPoints.map { p => p.getName -> p }.toMap
+    allowedPointNamesLookup = lookup(expectedPoints)
     ignored = Map.empty[String, Boolean]
   }
+
+  private def lookup(points: List[Point]) = {
+    val map = new java.util.HashMap[String, Point]()
+    points.foreach { p => map.put(p.getName, p) }
+    map
+  }
 }
\ No newline at end of file
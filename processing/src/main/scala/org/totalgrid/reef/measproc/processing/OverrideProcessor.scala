@@ -42,7 +42,7 @@ object OverrideProcessor {
 }
 
 // TODO: OLD should not be set until a new field measurement comes in (61850-7-3).
-class OverrideProcessor(publish: (Measurement, Boolean) => Unit, cache: ObjectCache[Measurement], current: String => Option[Measurement], metrics: Metrics)
+class OverrideProcessor(publish: (WorkingMeasurement, Boolean) => Unit, cache: ObjectCache[Measurement], current: String => Option[Measurement], metrics: Metrics)
     extends MeasProcServiceContext[MeasOverride] with Logging {
 
   import OverrideProcessor._
@@ -55,11 +55,23 @@ class OverrideProcessor(publish: (Measurement, Boolean) => Unit, cache: ObjectCa
   private val overridesActive = metrics.gauge("overridesActive")
 
   def process(m: Measurement) {
+    process(new WorkingMeasurement().reset(m))
+  }
+
+  /**
+   * measurements on overridden points are built to be cached, the rest are passed on unbuilt
+   */
+  def process(m: WorkingMeasurement) {
     if (map.contains(m.getName)) {
       measSupressed(1)
-      cache.put(m.getName, m)
+      cache.put(m.getName, m.measurement)
     } else publish(m, false)
   }
+
+  // overrides are published one at a time, outside of any batch
+  private def publishOverride(m: Measurement) {
+    publish(new WorkingMeasurement().reset(m), true)
+  }
   /* --- Implement service context ---- */
   def add(over: MeasOverride) {
     val name = over.getPoint.getName
@@ -74,14 +86,14 @@ class OverrideProcessor(publish: (Measurement, Boolean) => Unit, cache: ObjectCa
       case (false, None) => {
         val curr = cacheCurrent(name) getOrElse { throw new Exception("No current value associated with NIS point: " + over) }
         map += (name -> None)
-        publish(transformNIS(curr), true)
+        publishOverride(transformNIS(curr))
       }
 
       // new NIS request, replace specified
       case (false, Some(repl)) => {
         cacheCurrent(name)
         map += (name -> replaceMeas)
-        publish(transformSubstituted(repl), true)
+        publishOverride(transformSubstituted(repl))
       }
 
       // point already NIS, no replace specified
@@ -90,7 +102,7 @@ class OverrideProcessor(publish: (Measurement, Boolean) => Unit, cache: ObjectCa
       // point already NIS, replace specified, treat as simple replace
       case (true, Some(repl)) => {
         map += (name -> replaceMeas)
-        publish(transformSubstituted(repl), true)
+        publishOverride(transformSubstituted(repl))
       }
     }
 
@@ -109,7 +121,7 @@ class OverrideProcessor(publish: (Measurement, Boolean) => Unit, cache: ObjectCa
       case Some(cached) => {
         val now = System.currentTimeMillis
         val updatedMeasurement = Measurement.newBuilder(cached).setTime(now).setSystemTime(now).build()
-        publish(updatedMeasurement, true)
+        publishOverride(updatedMeasurement)
         cache.delete(name)
       }
     }
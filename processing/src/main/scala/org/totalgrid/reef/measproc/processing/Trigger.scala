@@ -30,6 +30,26 @@ object Trigger extends Logging {
    */
   type Condition = (Measurement, Boolean) => Boolean
 
+  /**
+   * Condition that reads the working measurement, so it sees edits made by earlier actions without
+   * the measurement being built. The built in conditions all are.
+   */
+  trait WorkingCondition extends Condition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean
+
+    def apply(m: Measurement, prev: Boolean): Boolean = apply(new WorkingMeasurement().reset(m), prev)
+  }
+
+  /**
+   * plain conditions still work on the working measurement, they just need it built first
+   */
+  def working(cond: Condition): WorkingCondition = cond match {
+    case w: WorkingCondition => w
+    case _ => new WorkingCondition {
+      def apply(m: WorkingMeasurement, prev: Boolean): Boolean = cond(m.measurement, prev)
+    }
+  }
+
   /**
    * Helper function to extract analog values from measurements
    * @param m   Measurement
@@ -40,6 +60,14 @@ object Trigger extends Logging {
       (m.hasIntVal ? m.getIntVal.asInstanceOf[Double])
   }
 
+  /**
+   * Unboxed form of analogValue for the limit conditions, only valid when isAnalog(m)
+   */
+  def isAnalog(m: WorkingMeasurement): Boolean = m.hasDoubleVal || m.hasIntVal
+  def analogDouble(m: WorkingMeasurement): Double = {
+    if (m.hasDoubleVal) m.getDoubleVal else m.getIntVal.asInstanceOf[Double]
+  }
+
   /**
    * Evaluates a list of triggers against a measurement
    * @param m           Measurement input
@@ -90,10 +118,10 @@ trait Trigger {
  * given state.
  */
 class BasicTrigger(
-  cacheID: String,
-  conditions: List[Trigger.Condition],
-  actions: List[Action],
-  stopProcessing: Option[Action.ActivationType])
+  val cacheID: String,
+  val conditions: List[Trigger.Condition],
+  val actions: List[Action],
+  val stopProcessing: Option[Action.ActivationType])
     extends Trigger with Logging {
 
   def process(m: Measurement, cache: ObjectCache[Boolean]): Option[(Measurement, Boolean)] = {
@@ -102,98 +102,112 @@ trait TriggerFactory { self: ActionFactory with ProcessingResources =>
  * Implementations of corresponding proto Trigger types (see Triggers.proto)
  */
 object Triggers {
-  class BoolValue(b: Boolean) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
+  class BoolValue(b: Boolean) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
       (m.getType == Measurement.Type.BOOL) &&
         (m.getBoolVal == b)
     }
   }
 
   // integer as in "not floating point", not integer as in 2^32, values on measurements are actually Longs
-  class IntegerValue(i: Long) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
+  class IntegerValue(i: Long) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
       (m.getType == Measurement.Type.INT) &&
         (m.getIntVal == i)
     }
   }
 
-  class StringValue(s: String) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
+  class StringValue(s: String) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
       (m.getType == Measurement.Type.STRING) &&
         (m.getStringVal == s)
     }
   }
 
-  class RangeLimit(upper: Double, lower: Double) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
-      val x = Trigger.analogValue(m) getOrElse { return false }
+  class RangeLimit(upper: Double, lower: Double) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
+      if (!Trigger.isAnalog(m)) return false
+      val x = Trigger.analogDouble(m)
       x <= lower || x >= upper
     }
   }
 
-  class RangeLimitDeadband(upper: Double, lower: Double, deadband: Double) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
-      val x = Trigger.analogValue(m) getOrElse { return false }
+  class RangeLimitDeadband(upper: Double, lower: Double, deadband: Double) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
+      if (!Trigger.isAnalog(m)) return false
+      val x = Trigger.analogDouble(m)
       (prev && (x <= (lower + deadband) || x >= (upper - deadband))) || (!prev && (x <= lower || x >= upper))
     }
   }
 
-  class UpperLimitDeadband(limit: Double, deadband: Double) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
-      val x = Trigger.analogValue(m) getOrElse { return false }
+  class UpperLimitDeadband(limit: Double, deadband: Double) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
+      if (!Trigger.isAnalog(m)) return false
+      val x = Trigger.analogDouble(m)
       (prev && x >= (limit - deadband)) || (!prev && x >= limit)
     }
   }
-  class UpperLimit(limit: Double) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
-      val x = Trigger.analogValue(m) getOrElse { return false }
+  class UpperLimit(limit: Double) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
+      if (!Trigger.isAnalog(m)) return false
+      val x = Trigger.analogDouble(m)
       x >= limit
     }
   }
 
-  class LowerLimitDeadband(limit: Double, deadband: Double) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
-      val x = Trigger.analogValue(m) getOrElse { return false }
+  class LowerLimitDeadband(limit: Double, deadband: Double) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
+      if (!Trigger.isAnalog(m)) return false
+      val x = Trigger.analogDouble(m)
       (prev && x <= (limit + deadband)) || (!prev && x <= limit)
     }
   }
-  class LowerLimit(limit: Double) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
-      val x = Trigger.analogValue(m) getOrElse { return false }
+  class LowerLimit(limit: Double) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
+      if (!Trigger.isAnalog(m)) return false
+      val x = Trigger.analogDouble(m)
       x <= limit
     }
   }
 
+  /**
+   * compares optional fields the way comparing the OptionalProtos Options would (both unset or
+   * both set to the same value) without building the Options for every measurement
+   */
+  private def sameField(aSet: Boolean, bSet: Boolean, equal: Boolean) = aSet == bSet && (!aSet || equal)
+
   def qualityMatches(qual: Quality, q: Quality) = {
-    qual.validity == q.validity ||
-      qual.source == q.source ||
-      qual.test == q.test ||
-      qual.operatorBlocked == q.operatorBlocked ||
-      qual.detailQual.overflow == q.detailQual.overflow ||
-      qual.detailQual.outOfRange == q.detailQual.outOfRange ||
-      qual.detailQual.badReference == q.detailQual.badReference ||
-      qual.detailQual.oscillatory == q.detailQual.oscillatory ||
-      qual.detailQual.failure == q.detailQual.failure ||
-      qual.detailQual.oldData == q.detailQual.oldData ||
-      qual.detailQual.inconsistent == q.detailQual.inconsistent ||
-      qual.detailQual.inaccurate == q.detailQual.inaccurate
-  }
-
-  class QualityCondition(qual: Quality) extends Trigger.Condition {
-
-    def apply(m: Measurement, prev: Boolean): Boolean = {
+    val d1 = qual.getDetailQual
+    val d2 = q.getDetailQual
+    sameField(qual.hasValidity, q.hasValidity, qual.getValidity == q.getValidity) ||
+      sameField(qual.hasSource, q.hasSource, qual.getSource == q.getSource) ||
+      sameField(qual.hasTest, q.hasTest, qual.getTest == q.getTest) ||
+      sameField(qual.hasOperatorBlocked, q.hasOperatorBlocked, qual.getOperatorBlocked == q.getOperatorBlocked) ||
+      sameField(d1.hasOverflow, d2.hasOverflow, d1.getOverflow == d2.getOverflow) ||
+      sameField(d1.hasOutOfRange, d2.hasOutOfRange, d1.getOutOfRange == d2.getOutOfRange) ||
+      sameField(d1.hasBadReference, d2.hasBadReference, d1.getBadReference == d2.getBadReference) ||
+      sameField(d1.hasOscillatory, d2.hasOscillatory, d1.getOscillatory == d2.getOscillatory) ||
+      sameField(d1.hasFailure, d2.hasFailure, d1.getFailure == d2.getFailure) ||
+      sameField(d1.hasOldData, d2.hasOldData, d1.getOldData == d2.getOldData) ||
+      sameField(d1.hasInconsistent, d2.hasInconsistent, d1.getInconsistent == d2.getInconsistent) ||
+      sameField(d1.hasInaccurate, d2.hasInaccurate, d1.getInaccurate == d2.getInaccurate)
+  }
+
+  class QualityCondition(qual: Quality) extends Trigger.WorkingCondition {
+
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
       qualityMatches(qual, m.getQuality)
     }
   }
 
-  class UnitCondition(unit: String) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
+  class UnitCondition(unit: String) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
       (m.hasUnit && m.getUnit == unit)
     }
   }
 
-  class TypeCondition(typ: Measurement.Type) extends Trigger.Condition {
-    def apply(m: Measurement, prev: Boolean): Boolean = {
+  class TypeCondition(typ: Measurement.Type) extends Trigger.WorkingCondition {
+    def apply(m: WorkingMeasurement, prev: Boolean): Boolean = {
       (m.getType == typ)
     }
   }
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measproc.processing
+
+import org.totalgrid.reef.persistence.ObjectCache
+
+object TriggerIndex {
+
+  /**
+   * The triggers for a single point with their previous states held in a primitive array. States
+   * are loaded from the state cache when the set is compiled and written back when they change (or
+   * the first time a trigger without a cached state is evaluated), so the cache ends up holding the
+   * same values it would if every evaluation were written through.
+   */
+  abstract class PointTriggers {
+    /**
+     * evaluates the triggers against the working measurement, actions edit it in place
+     * @return false if an action suppressed the measurement
+     */
+    def process(m: WorkingMeasurement, cache: ObjectCache[Boolean]): Boolean
+  }
+
+  final class CompiledTriggers(triggers: Array[BasicTrigger], initialStates: ObjectCache[Boolean]) extends PointTriggers {
+
+    // triggers that share a cacheID share a state slot, like they share the cache entry
+    private val ids = triggers.map(_.cacheID).distinct
+    private val slots = triggers.map(t => ids.indexOf(t.cacheID))
+
+    private val conditions = triggers.map(_.conditions.map(Trigger.working(_)).toArray)
+    private val actions = triggers.map(_.actions.toArray)
+    private val stopProcessing = triggers.map(_.stopProcessing.orNull)
+
+    private val states = new Array[Boolean](ids.length)
+    private val persisted = new Array[Boolean](ids.length)
+
+    ids.indices.foreach { i =>
+      initialStates.get(ids(i)).foreach { s =>
+        states(i) = s
+        persisted(i) = true
+      }
+    }
+
+    def process(meas: WorkingMeasurement, cache: ObjectCache[Boolean]): Boolean = {
+      var t = 0
+      while (t < triggers.length) {
+        val slot = slots(t)
+        val prev = states(slot)
+
+        val conds = conditions(t)
+        var state = true
+        var c = 0
+        while (state && c < conds.length) {
+          state = conds(c)(meas, prev)
+          c += 1
+        }
+
+        states(slot) = state
+        if (!persisted(slot) || state != prev) {
+          cache.put(ids(slot), state)
+          persisted(slot) = true
+        }
+
+        val acts = actions(t)
+        var a = 0
+        while (a < acts.length) {
+          if (!acts(a).process(meas, state, prev)) return false
+          a += 1
+        }
+
+        val stop = stopProcessing(t)
+        if (stop != null && stop(state, prev)) return true
+        t += 1
+      }
+      true
+    }
+  }
+
+  /**
+   * used for trigger implementations the index doesn't know how to compile
+   */
+  final class GenericTriggers(triggers: List[Trigger]) extends PointTriggers {
+    def process(m: WorkingMeasurement, cache: ObjectCache[Boolean]): Boolean = {
+      Trigger.processAll(m.measurement, cache, triggers) match {
+        case Some(result) =>
+          m.reset(result)
+          true
+        case None => false
+      }
+    }
+  }
+
+  def compile(triggers: List[Trigger], cache: ObjectCache[Boolean]): PointTriggers = {
+    if (triggers.forall(_.isInstanceOf[BasicTrigger])) {
+      new CompiledTriggers(triggers.map(_.asInstanceOf[BasicTrigger]).toArray, cache)
+    } else {
+      new GenericTriggers(triggers)
+    }
+  }
+}
+
+/**
+ * Trigger sets addressed by an interned point index. Point names are given an index the first time
+ * we see a trigger set for them (kept if the set is removed so a re-added set reuses it) and the
+ * compiled sets are stored in an array, so processing a measurement is a single name lookup and
+ * array reads with no per measurement allocation. Sets are replaced copy on write so processing
+ * never needs to lock.
+ */
+class TriggerIndex {
+  import TriggerIndex._
+
+  private val pointIndex = new java.util.concurrent.ConcurrentHashMap[String, Integer]()
+
+  @volatile
+  private var sets = new Array[PointTriggers](0)
+
+  @volatile
+  private var setCount = 0
+
+  def get(pointName: String): PointTriggers = {
+    val index = pointIndex.get(pointName)
+    if (index == null) null
+    else {
+      val current = sets
+      val i = index.intValue
+      if (i < current.length) current(i) else null
+    }
+  }
+
+  def put(pointName: String, triggers: PointTriggers) = synchronized {
+    val existing = pointIndex.get(pointName)
+    val index = if (existing != null) existing.intValue else {
+      val created = pointIndex.size
+      pointIndex.put(pointName, created)
+      created
+    }
+    val updated = java.util.Arrays.copyOf(sets, math.max(sets.length, index + 1))
+    if (updated(index) == null) setCount += 1
+    updated(index) = triggers
+    sets = updated
+  }
+
+  def remove(pointName: String) = synchronized {
+    val existing = pointIndex.get(pointName)
+    val index = if (existing != null) existing.intValue else -1
+    if (index >= 0 && index < sets.length && sets(index) != null) {
+      val updated = sets.clone
+      updated(index) = null
+      setCount -= 1
+      sets = updated
+    }
+  }
+
+  def clear() = synchronized {
+    sets = new Array[PointTriggers](sets.length)
+    setCount = 0
+  }
+
+  def size = setCount
+}
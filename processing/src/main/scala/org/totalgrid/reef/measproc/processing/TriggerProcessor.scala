@@ -19,7 +19,6 @@
 package org.totalgrid.reef.measproc.processing
 
 import collection.JavaConversions._
-import collection.immutable
 
 import org.totalgrid.reef.persistence.ObjectCache
 import com.typesafe.scalalogging.slf4j.Logging
@@ -29,28 +28,33 @@ import org.totalgrid.reef.client.service.proto.Measurements.Measurement
 import org.totalgrid.reef.client.service.proto.Processing.TriggerSet
 import org.totalgrid.reef.jmx.Metrics
 
-class TriggerProcessor(protected val next: Measurement => Unit,
+class TriggerProcessor(protected val next: WorkingMeasurement => Unit,
   protected val factory: TriggerFactory,
   protected val stateCache: ObjectCache[Boolean],
   metrics: Metrics)
     extends MeasProcServiceContext[TriggerSet]
     with Logging {
 
-  protected var map = immutable.Map[String, List[Trigger]]()
+  protected val index = new TriggerIndex
 
   private val triggersActive = metrics.gauge("triggersActive")
 
   def process(m: Measurement) {
-    val triggerList = map.get(m.getName)
+    process(new WorkingMeasurement().reset(m))
+  }
+
+  /**
+   * actions edit the working measurement in place, it is handed on unbuilt
+   */
+  def process(m: WorkingMeasurement) {
+    val triggers = index.get(m.getName)
 
-    triggerList match {
-      case Some(list) =>
-        logger.debug("Applying triggers: " + list.size + " to meas: " + m)
-        val res = Trigger.processAll(m, stateCache, list)
-        logger.debug("Trigger result: " + res)
-        res.foreach(next(_))
-      case None =>
-        next(m)
+    if (triggers == null) next(m)
+    else {
+      logger.debug("Applying triggers to meas: " + m.getName)
+      val passed = triggers.process(m, stateCache)
+      logger.debug("Trigger result: " + passed)
+      if (passed) next(m)
     }
   }
 
@@ -58,22 +62,22 @@ class TriggerProcessor(protected val next: Measurement => Unit,
     logger.debug("TriggerSet received: " + set)
     val pointName = set.getPoint.getName
     val trigList = set.getTriggersList.toList.map(proto => factory.buildTrigger(proto, pointName))
-    map += (pointName -> trigList)
+    index.put(pointName, TriggerIndex.compile(trigList, stateCache))
     updateMetrics()
   }
 
   def remove(set: TriggerSet) {
     logger.debug("TriggerSet removed: " + set)
-    map -= set.getPoint.getName
+    index.remove(set.getPoint.getName)
     updateMetrics()
   }
 
   def clear() {
-    map = immutable.Map[String, List[Trigger]]()
+    index.clear()
     updateMetrics()
   }
 
   private def updateMetrics() {
-    triggersActive(map.size)
+    triggersActive(index.size)
   }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measproc.processing
+
+import org.totalgrid.reef.client.service.proto.Measurements.{ Quality, Measurement }
+import org.totalgrid.reef.client.service.proto.Model.ReefUUID
+
+/**
+ * Mutable, reusable holder for a measurement while it moves through the pipeline. Every stage (the
+ * pump's default timestamps, the whitelist's point uuid, trigger conditions and actions) reads and
+ * edits it here instead of rebuilding the protobuf, edits collect on a single builder that is only
+ * built when the measurement leaves the pipeline (or a stage needs to keep a copy of it), and not at
+ * all if nothing was edited.
+ *
+ * Not thread safe, each pipeline reuses a single instance.
+ */
+final class WorkingMeasurement {
+
+  private var meas: Measurement = null
+  private var builder: Measurement.Builder = null
+
+  def reset(m: Measurement): WorkingMeasurement = {
+    meas = m
+    builder = null
+    this
+  }
+
+  /**
+   * builder the edits are made on, created from the current measurement on the first edit
+   */
+  def edit: Measurement.Builder = {
+    if (builder == null) builder = meas.toBuilder
+    builder
+  }
+
+  /**
+   * fill in the timestamps the measurement arrived without
+   */
+  def defaultTimes(systemTime: Long, time: Long) {
+    if (!hasSystemTime) edit.setSystemTime(systemTime)
+    if (!hasTime) edit.setTime(time)
+  }
+
+  def setPointUuid(uuid: ReefUUID) {
+    if (!hasPointUuid || getPointUuid != uuid) edit.setPointUuid(uuid)
+  }
+
+  /**
+   * the measurement with all of the edits applied, built at most once for any number of edits
+   */
+  def measurement: Measurement = {
+    if (builder != null) reset(builder.build)
+    meas
+  }
+
+  def name: String = getName
+
+  // reads see the edits made so far without building
+  def getName: String = if (builder != null) builder.getName else meas.getName
+  def getType: Measurement.Type = if (builder != null) builder.getType else meas.getType
+  def hasDoubleVal: Boolean = if (builder != null) builder.hasDoubleVal else meas.hasDoubleVal
+  def getDoubleVal: Double = if (builder != null) builder.getDoubleVal else meas.getDoubleVal
+  def hasIntVal: Boolean = if (builder != null) builder.hasIntVal else meas.hasIntVal
+  def getIntVal: Long = if (builder != null) builder.getIntVal else meas.getIntVal
+  def hasBoolVal: Boolean = if (builder != null) builder.hasBoolVal else meas.hasBoolVal
+  def getBoolVal: Boolean = if (builder != null) builder.getBoolVal else meas.getBoolVal
+  def hasStringVal: Boolean = if (builder != null) builder.hasStringVal else meas.hasStringVal
+  def getStringVal: String = if (builder != null) builder.getStringVal else meas.getStringVal
+  def hasUnit: Boolean = if (builder != null) builder.hasUnit else meas.hasUnit
+  def getUnit: String = if (builder != null) builder.getUnit else meas.getUnit
+  def getQuality: Quality = if (builder != null) builder.getQuality else meas.getQuality
+  def hasTime: Boolean = if (builder != null) builder.hasTime else meas.hasTime
+  def getTime: Long = if (builder != null) builder.getTime else meas.getTime
+  def hasSystemTime: Boolean = if (builder != null) builder.hasSystemTime else meas.hasSystemTime
+  def getIsDeviceTime: Boolean = if (builder != null) builder.getIsDeviceTime else meas.getIsDeviceTime
+  def hasPointUuid: Boolean = if (builder != null) builder.hasPointUuid else meas.hasPointUuid
+  def getPointUuid: ReefUUID = if (builder != null) builder.getPointUuid else meas.getPointUuid
+}
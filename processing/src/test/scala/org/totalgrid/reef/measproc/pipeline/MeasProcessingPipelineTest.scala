@@ -36,8 +36,9 @@ class MeasProcessingPipelineTest extends Suite with ShouldMatchers {
 
   def makePoint(name: String) = Point.newBuilder.setName(name).setUuid(ReefUUID.newBuilder.setValue(name)).build
 
-  class TestRig {
+  class TestRig(pointNames: List[String] = List("meas01")) {
     val measQueue = mutable.Queue[Measurement]()
+    val publishQueue = mutable.Queue[List[Measurement]]()
     val eventQueue = mutable.Queue[Event]()
     val measCache = new MockObjectCache[Measurement]
     val overCache = new MockObjectCache[Measurement]
@@ -45,9 +46,9 @@ class MeasProcessingPipelineTest extends Suite with ShouldMatchers {
 
     val proc = new MeasProcessingPipeline(
       MeasProcObjectCaches(measCache, overCache, stateCache),
-      measQueue.enqueue(_),
+      { ms => publishQueue.enqueue(ms); ms.foreach(measQueue.enqueue(_)) },
       { b => eventQueue.enqueue(b.build) },
-      List(makePoint("meas01")), "endpoint01")
+      pointNames.map(makePoint(_)), "endpoint01")
 
     def process(m: Measurement) {
       proc.process(MeasurementBatch.newBuilder.setWallTime(0).addMeas(m).build)
@@ -74,6 +75,19 @@ class MeasProcessingPipelineTest extends Suite with ShouldMatchers {
     r.stateCache.putQueue.dequeue should equal(("meas01.trans", true))
   }
 
+  def testBatchPublishedOnce {
+    val r = new TestRig(List("meas01", "meas02"))
+
+    r.proc.process(makeBatch(List(makeAnalog("meas01", 5.3, 0), makeAnalog("meas02", 5.3, 0), makeAnalog("meas01", 6.3, 0))))
+
+    r.publishQueue.length should equal(1)
+    r.publishQueue.dequeue.map { _.getName } should equal(List("meas01", "meas02", "meas01"))
+
+    // empty flushes don't publish anything
+    r.proc.process(makeBatch(Nil))
+    r.publishQueue.length should equal(0)
+  }
+
   def testFailure {
     val r = new TestRig
     r.proc.triggerProc.add(triggerSet)
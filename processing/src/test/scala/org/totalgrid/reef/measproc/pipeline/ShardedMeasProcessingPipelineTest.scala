@@ -0,0 +1,98 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measproc.pipeline
+
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import org.scalatest.junit.JUnitRunner
+import org.junit.runner.RunWith
+
+import scala.collection.mutable
+import net.agileautomata.executor4s._
+
+import org.totalgrid.reef.client.service.proto.Measurements.{ MeasurementBatch, Measurement }
+import org.totalgrid.reef.client.service.proto.Model.{ ReefUUID, Point }
+import org.totalgrid.reef.persistence.InMemoryObjectCache
+import org.totalgrid.reef.measproc.{ MeasProcObjectCaches, ProtoHelper }
+
+@RunWith(classOf[JUnitRunner])
+class ShardedMeasProcessingPipelineTest extends FunSuite with ShouldMatchers {
+  import ProtoHelper._
+  import ShardedMeasProcessingPipeline.shardOf
+
+  def makePoint(name: String) = Point.newBuilder.setName(name).setUuid(ReefUUID.newBuilder.setValue(name)).build
+
+  val pointNames = "meas01" :: (0 until 99).map("point" + _).toList
+
+  def withPipeline(shards: Int)(test: (ShardedMeasProcessingPipeline, mutable.Queue[Measurement]) => Unit) {
+    val exe = Executors.newResizingThreadPool(5.minutes)
+    val published = mutable.Queue.empty[Measurement]
+    val caches = MeasProcObjectCaches(new InMemoryObjectCache[Measurement], new InMemoryObjectCache[Measurement], new InMemoryObjectCache[Boolean])
+    val proc = new ShardedMeasProcessingPipeline(caches, { ms => published.synchronized(published ++= ms) }, { e => },
+      pointNames.map(makePoint(_)), "endpoint01", shards, exe)
+    try {
+      test(proc, published)
+    } finally {
+      proc.close()
+      exe.terminate()
+    }
+  }
+
+  test("Shards are stable and in range") {
+    pointNames.foreach { name =>
+      val shard = shardOf(name, 4)
+      shard should (be >= 0 and be < 4)
+      shardOf(name, 4) should equal(shard)
+    }
+    // a name with a negative hashCode still lands on a shard
+    shardOf("polygenelubricants", 4) should (be >= 0 and be < 4)
+    pointNames.map(shardOf(_, 4)).distinct.size should equal(4)
+  }
+
+  test("Measurements for a point stay in order") {
+    withPipeline(4) { (proc, published) =>
+      (0 until 20).foreach { round =>
+        val batch = MeasurementBatch.newBuilder.setWallTime(0)
+        pointNames.foreach { name => batch.addMeas(makeAnalog(name, round, round)) }
+        proc.process(batch.build)
+      }
+
+      // every batch was completely processed before process returned
+      published.size should equal(20 * pointNames.size)
+      published.groupBy(_.getName).foreach {
+        case (name, meases) =>
+          meases.map(_.getDoubleVal).toList should equal((0 until 20).map(_.toDouble).toList)
+          meases.foreach { _.getPointUuid.getValue should equal(name) }
+      }
+    }
+  }
+
+  test("Triggers are applied by the owning shard") {
+    withPipeline(4) { (proc, published) =>
+      proc.triggerContext.add(triggerSet)
+
+      proc.process(makeBatch(List(makeAnalog("meas01", 5.3, 0), makeAnalog("point1", 5.3, 0))))
+
+      val results = published.map(m => m.getName -> m).toMap
+      results("meas01").getUnit should equal("V")
+      results("meas01").getDoubleVal should equal(5.3 * 10 + 50000)
+      results("point1").getUnit should equal("raw")
+    }
+  }
+}
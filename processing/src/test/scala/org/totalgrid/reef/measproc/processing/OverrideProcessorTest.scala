@@ -45,7 +45,7 @@ class OverrideProcessorTest extends Suite with ShouldMatchers {
 
     val metrics = Metrics(MetricsContainer())
 
-    val proc = new OverrideProcessor((m, b) => measQueue.enqueue(m), overCache, measCache.get(_), metrics)
+    val proc = new OverrideProcessor((m, b) => measQueue.enqueue(m.measurement), overCache, measCache.get(_), metrics)
 
     def configure(config: List[MeasOverride]) {
       proc.subscribed(config)
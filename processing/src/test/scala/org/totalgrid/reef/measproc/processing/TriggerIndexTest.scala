@@ -0,0 +1,134 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.measproc.processing
+
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import org.scalatest.junit.JUnitRunner
+import org.junit.runner.RunWith
+
+import org.totalgrid.reef.client.service.proto.Measurements.Measurement
+import org.totalgrid.reef.measproc.{ ProtoHelper, MockObjectCache }
+
+@RunWith(classOf[JUnitRunner])
+class TriggerIndexTest extends FunSuite with ShouldMatchers {
+
+  import ProtoHelper._
+
+  def setUnit(unit: String) = new Actions.SetUnit(unit)
+
+  def triggers: List[Trigger] = List(
+    new BasicTrigger("meas01.high", List(new Triggers.UpperLimitDeadband(10, 2)), List(new BasicAction("high", false, Action.Rising, setUnit("high"))), None),
+    new BasicTrigger("meas01.drop", List(new Triggers.LowerLimit(-5)), List(new SuppressAction("drop", false, Action.High)), None),
+    new BasicTrigger("meas01.stop", List(new Triggers.UpperLimit(50)), Nil, Some(Action.High)),
+    new BasicTrigger("meas01.high", List(new Triggers.LowerLimit(0), new Triggers.LowerLimit(-2)), List(new BasicAction("neg", false, Action.Transition, setUnit("neg"))), None),
+    new BasicTrigger("meas01.last", Nil, List(new BasicAction("last", false, Action.High, (m: Measurement) => setUnit(m.getUnit + "!")(m))), None))
+
+  val values = List(5.0, 11, 9, 7, -1, -6, 60, 3, -1, 12, 0.5, 55, 8, -10)
+
+  def checkEquivalent(preload: Map[String, Boolean]) {
+    val expectedCache = new MockObjectCache[Boolean]
+    val compiledCache = new MockObjectCache[Boolean]
+    preload.foreach { case (k, v) => expectedCache.update(k, v); compiledCache.update(k, v) }
+
+    val compiled = TriggerIndex.compile(triggers, compiledCache)
+    compiled.isInstanceOf[TriggerIndex.CompiledTriggers] should equal(true)
+
+    values.zipWithIndex.foreach {
+      case (v, i) =>
+        val m = makeAnalog("meas01", v, i)
+        val expected = Trigger.processAll(m, expectedCache, triggers)
+        val working = new WorkingMeasurement().reset(m)
+        val passed = compiled.process(working, compiledCache)
+        (if (passed) Some(working.measurement) else None) should equal(expected)
+        compiledCache.map should equal(expectedCache.map)
+    }
+
+    // we only write states that changed
+    compiledCache.putQueue.size should be < expectedCache.putQueue.size
+  }
+
+  test("Compiled triggers match trigger processing") {
+    checkEquivalent(Map.empty)
+  }
+
+  test("Compiled triggers start from cached states") {
+    checkEquivalent(Map("meas01.high" -> true, "meas01.stop" -> true, "meas01.last" -> false))
+  }
+
+  test("Actions edit the working measurement in place") {
+    val cache = new MockObjectCache[Boolean]
+    val compiled = TriggerIndex.compile(List(
+      new BasicTrigger("meas01.neg", List(new Triggers.LowerLimit(0)), List(new BasicAction("neg", false, Action.High, setUnit("neg"))), None),
+      new BasicTrigger("meas01.big", List(new Triggers.LowerLimit(-5)), List(new BasicAction("big", false, Action.High, new Actions.LinearTransform(10, 0, false))), None)), cache)
+
+    val working = new WorkingMeasurement
+
+    // nothing fired so the measurement isn't rebuilt
+    val unchanged = makeAnalog("meas01", 5)
+    compiled.process(working.reset(unchanged), cache) should equal(true)
+    working.measurement should be theSameInstanceAs (unchanged)
+
+    // edits can be read back before anything is built
+    compiled.process(working.reset(makeAnalog("meas01", -1)), cache) should equal(true)
+    working.getUnit should equal("neg")
+    working.getDoubleVal should equal(-1)
+    val built = working.measurement
+    built.getUnit should equal("neg")
+    built.getDoubleVal should equal(-1)
+
+    compiled.process(working.reset(makeAnalog("meas01", -6)), cache) should equal(true)
+    working.measurement.getDoubleVal should equal(-60)
+  }
+
+  test("Unknown triggers use generic processing") {
+    val custom = new Trigger {
+      def process(m: Measurement, cache: org.totalgrid.reef.persistence.ObjectCache[Boolean]) = None
+    }
+    val compiled = TriggerIndex.compile(custom :: triggers, new MockObjectCache[Boolean])
+    compiled.isInstanceOf[TriggerIndex.GenericTriggers] should equal(true)
+    compiled.process(new WorkingMeasurement().reset(makeAnalog("meas01", 5)), new MockObjectCache[Boolean]) should equal(false)
+  }
+
+  test("Index add remove and clear") {
+    val index = new TriggerIndex
+    val cache = new MockObjectCache[Boolean]
+    val a = TriggerIndex.compile(triggers, cache)
+    val b = TriggerIndex.compile(triggers, cache)
+
+    index.get("meas01") should equal(null)
+    index.put("meas01", a)
+    index.put("meas02", b)
+    index.size should equal(2)
+    index.get("meas01") should equal(a)
+    index.get("meas02") should equal(b)
+
+    index.remove("meas01")
+    index.get("meas01") should equal(null)
+    index.size should equal(1)
+
+    index.put("meas01", b)
+    index.get("meas01") should equal(b)
+    index.size should equal(2)
+
+    index.clear()
+    index.get("meas02") should equal(null)
+    index.size should equal(0)
+  }
+}
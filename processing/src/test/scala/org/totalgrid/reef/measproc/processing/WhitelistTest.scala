@@ -33,7 +33,7 @@ import org.totalgrid.reef.jmx.{ MetricsContainer, Metrics }
 class WhitelistTest extends FunSuite with ShouldMatchers {
   test("Ignores meases") {
     val queue = mutable.Queue.empty[String]
-    val enqueue = { m: Measurement => queue.enqueue(m.getName) }
+    val enqueue = { m: WorkingMeasurement => queue.enqueue(m.getName) }
     val metrics = Metrics(MetricsContainer())
 
     def makePoint(name: String) = Point.newBuilder.setName(name).setUuid(ReefUUID.newBuilder.setValue(name)).build
@@ -50,4 +50,26 @@ class WhitelistTest extends FunSuite with ShouldMatchers {
 
     queue.toList should equal(List("ok1", "ok2", "ok1"))
   }
+
+  test("Measurements are only rebuilt when edited") {
+    val queue = mutable.Queue.empty[Measurement]
+    val metrics = Metrics(MetricsContainer())
+
+    def makePoint(name: String) = Point.newBuilder.setName(name).setUuid(ReefUUID.newBuilder.setValue(name + "-uuid")).build
+    val filter = new MeasurementWhiteList(m => queue.enqueue(m.measurement), List(makePoint("ok1")), metrics)
+    val working = new WorkingMeasurement
+
+    val complete = makeAnalog("ok1", 100).toBuilder.setPointUuid(ReefUUID.newBuilder.setValue("ok1-uuid")).build
+    filter.process(working.reset(complete))
+    queue.dequeue should be theSameInstanceAs (complete)
+
+    val partial = makeAnalog("ok1", 100).toBuilder.clearSystemTime.clearTime.build
+    working.reset(partial).defaultTimes(10, 20)
+    filter.process(working)
+    val stamped = queue.dequeue
+    stamped.getSystemTime should equal(10)
+    stamped.getTime should equal(20)
+    stamped.getPointUuid.getValue should equal("ok1-uuid")
+    stamped.getDoubleVal should equal(100)
+  }
 }
\ No newline at end of file
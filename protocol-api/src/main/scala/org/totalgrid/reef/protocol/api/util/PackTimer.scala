@@ -19,8 +19,10 @@
 package org.totalgrid.reef.protocol.api.util
 
 import net.agileautomata.executor4s._
-import scala.collection.mutable.ArrayBuffer
-import org.totalgrid.reef.util.concurrent.AtomicReference
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.{ AtomicInteger, AtomicLong, AtomicReference }
+import org.totalgrid.reef.jmx.Metrics
 
 /**
  * provides a connivance class to marshall disparate small events into a joined up list of
@@ -28,90 +30,137 @@ import org.totalgrid.reef.util.concurrent.AtomicReference
  * queued. When events are ready to be published the pubFunc function _will_ be called using
  * the publishingStrand thread. There is no guarente that the publish calls will be exactly
  * maxEntries long, it may be longer if a large batch has been added.
+ *
+ * If metrics are passed we record the number of flushes, their size and how long the oldest
+ * entry in each flush waited (in milliseconds).
  */
-class PackTimer[A](maxTimeMS: Long, maxEntries: Long, pubFunc: List[A] => Unit, publishingStrand: Strand) {
+class PackTimer[A](maxTimeMS: Long, maxEntries: Long, pubFunc: List[A] => Unit, publishingStrand: Strand, metrics: Option[Metrics] = None) {
 
   /*
-   * Threading: We use multiple levels of synchronization so that we are never holding a lock
-   * the scheduled publisher will need to complete (so cancel can't deadlock). We protect the
-   * creation and consumption of the entries by syncying on buffer. We synchronize on the timer
-   * as whole to make sure we only scheduling one publish event at a time. Lastly we use an atomic
-   * so once we have completed the publishing the publishing thread can notify the producers without
-   * locking on the object as a whole.
+   * Threading: producers never take a lock. Entries go onto a concurrent queue and queued counts
+   * how many of them have been fully added, a flush only takes that many so addEntries never
+   * races its own count. There is at most one pending publish timer, held in pending, producers
+   * swap it with a compare and set; a delayed timer is replaced by an immediate one when the
+   * batch fills up. A timer that fires only publishes if it is still the pending one, so a timer
+   * that was replaced but couldn't be canceled in time does nothing. cancel waits for a publish
+   * that is already running to complete (unless called from inside pubFunc).
    */
 
-  private val batch = ArrayBuffer.empty[A]
-  private val queuedEvent = new AtomicReference[Cancelable](None)
-  private var publishingFullBatch = false
-  private var canceled = false
+  private final class Pending(val immediate: Boolean) {
+    @volatile private var timer = Option.empty[Cancelable]
+    @volatile private var replaced = false
+    val done = new CountDownLatch(1)
+
+    def start() {
+      val delay = if (immediate) 0 else maxTimeMS
+      timer = Some(publishingStrand.schedule(delay.milliseconds)(fire(this)))
+      // we may have been replaced before the timer was stored
+      if (replaced) timer.foreach { _.cancel() }
+    }
+
+    def cancel() {
+      replaced = true
+      timer.foreach { _.cancel() }
+    }
+  }
+
+  private val queue = new ConcurrentLinkedQueue[A]
+  private val queued = new AtomicInteger(0)
+  private val pending = new AtomicReference[Pending](null)
+  @volatile private var lastFired: Pending = null
+  @volatile private var publishingThread: Thread = null
+  @volatile private var canceled = false
+
+  private val oldestQueued = new AtomicLong(0)
+  private val flushMetrics = metrics.map { m => (m.counter("flushes"), m.average("flushSize"), m.average("flushLatency")) }
 
   def addEntry(entry: A) {
-    val size = batch.synchronized {
-      batch.append(entry)
-      batch.size
+    if (!canceled) {
+      queue.add(entry)
+      entriesAdded(queued.incrementAndGet())
     }
-    updateTimer()
   }
+
   def addEntries(entries: Seq[A]) {
-    val size = batch.synchronized {
-      entries.foreach { batch.append(_) }
-      batch.size
+    if (!canceled && !entries.isEmpty) {
+      entries.foreach { queue.add(_) }
+      entriesAdded(queued.addAndGet(entries.size))
     }
-    updateTimer()
   }
 
-  private def updateTimer() {
-    this.synchronized {
-      if (!canceled) {
-        publishingStrand.execute(
-          this.synchronized {
-            if (!canceled) {
-              possiblySchedulePublish()
-            }
-          })
-      }
-    }
+  private def entriesAdded(size: Int) {
+    if (flushMetrics.isDefined && oldestQueued.get == 0) oldestQueued.compareAndSet(0, System.currentTimeMillis)
+    requestPublish(size >= maxEntries)
   }
 
-  private def possiblySchedulePublish() {
-
-    def reschedulePublish(delay: Long) {
-      queuedEvent.getOption.foreach { _.cancel }
-      // once cancel has completed we have either published (and cleared queuedEvent) or
-      // stopped the execution from happening and events should still be queued
-      queuedEvent.set(Some(publishingStrand.schedule(delay.milliseconds) {
-        publishQueuedEntries()
-        queuedEvent.set(None)
-        updateTimer()
-      }))
+  private def requestPublish(full: Boolean) {
+    var done = false
+    while (!done && !canceled) {
+      val current = pending.get
+      if (current != null && (current.immediate || !full)) {
+        // the pending timer will publish soon enough
+        done = true
+      } else {
+        val next = new Pending(full)
+        if (pending.compareAndSet(current, next)) {
+          if (current != null) current.cancel()
+          next.start()
+          done = true
+        }
+      }
     }
+  }
 
-    val size = batch.synchronized { batch.size }
-    val isScheduled = !queuedEvent.getOption.isEmpty
-    if (isScheduled && publishingFullBatch) {
-      // publishing as fast as we can already
-    } else if (size >= maxEntries && (!isScheduled || !publishingFullBatch)) {
-      reschedulePublish(0)
-      publishingFullBatch = true
-    } else if (!isScheduled && size > 0) {
-      reschedulePublish(maxTimeMS)
-      publishingFullBatch = false
+  private def fire(p: Pending) {
+    if (pending.compareAndSet(p, null)) {
+      lastFired = p
+      publishingThread = Thread.currentThread
+      try {
+        if (!canceled) {
+          publishQueuedEntries()
+          val remaining = queued.get
+          if (remaining > 0) requestPublish(remaining >= maxEntries)
+        }
+      } finally {
+        publishingThread = null
+        p.done.countDown()
+      }
     }
   }
 
   private def publishQueuedEntries() {
-    val publishableEntries = batch.synchronized {
-      val temp = batch.toList
-      batch.clear
-      temp
+    val started = oldestQueued.getAndSet(0)
+    val count = queued.get
+    if (count > 0) {
+      val entries = List.newBuilder[A]
+      var i = 0
+      while (i < count) {
+        entries += queue.poll()
+        i += 1
+      }
+      queued.addAndGet(-count)
+      pubFunc(entries.result)
+
+      flushMetrics.foreach {
+        case (flushes, flushSize, flushLatency) =>
+          flushes(1)
+          flushSize(count)
+          if (started > 0) flushLatency((System.currentTimeMillis - started).toInt)
+      }
     }
-    pubFunc(publishableEntries)
   }
 
+  /**
+   * stops all future publishing, entries that haven't been published yet are dropped. If a publish
+   * is in progress we block until it has completed.
+   */
   def cancel() {
-    this.synchronized {
-      canceled = false
+    canceled = true
+    Option(pending.getAndSet(null)).foreach { _.cancel() }
+    Option(lastFired).foreach { p =>
+      if (publishingThread != Thread.currentThread) p.done.await()
     }
-    queuedEvent.getOption.foreach { _.cancel }
+    queue.clear()
+    queued.set(0)
   }
-}
\ No newline at end of file
+}
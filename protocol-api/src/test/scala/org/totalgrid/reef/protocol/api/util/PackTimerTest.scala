@@ -26,6 +26,7 @@ import net.agileautomata.executor4s.testing.MockExecutor
 import net.agileautomata.executor4s._
 import scala.util.Random
 import net.agileautomata.commons.testing.{ SynchronizedVariable, SynchronizedList }
+import org.totalgrid.reef.jmx.{ Metrics, MetricsContainer }
 
 @RunWith(classOf[JUnitRunner])
 class PackTimerTest extends FunSuite with ShouldMatchers {
@@ -94,6 +95,63 @@ class PackTimerTest extends FunSuite with ShouldMatchers {
     exe.numQueuedTimers should equal(0)
   }
 
+  test("Only one timer pending") {
+
+    var pubbed = List.empty[List[TestObject]]
+    val pubFunc = (l: List[TestObject]) => pubbed ::= l
+    val exe = new MockExecutor
+
+    val packTimer = new PackTimer(10, 100, pubFunc, Strand(exe))
+
+    (0 to 50).foreach { i =>
+      packTimer.addEntry(TestObject(i))
+      exe.numQueuedTimers should equal(1)
+    }
+    packTimer.addEntries((51 to 100).map { TestObject(_) })
+    exe.numQueuedTimers should equal(1)
+
+    exe.tick(0.milliseconds)
+    exe.numQueuedTimers should equal(0)
+    pubbed should equal(List((0 to 100).map { TestObject(_) }.toList))
+  }
+
+  test("Cancel stops publishing") {
+
+    var pubbed = List.empty[List[TestObject]]
+    val pubFunc = (l: List[TestObject]) => pubbed ::= l
+    val exe = new MockExecutor
+
+    val packTimer = new PackTimer(10, 10, pubFunc, Strand(exe))
+
+    packTimer.addEntry(TestObject(0))
+    exe.numQueuedTimers should equal(1)
+
+    packTimer.cancel()
+    exe.tick(100.milliseconds)
+    pubbed should equal(Nil)
+
+    packTimer.addEntries((0 to 20).map { TestObject(_) })
+    exe.numQueuedTimers should equal(0)
+    exe.tick(100.milliseconds)
+    pubbed should equal(Nil)
+  }
+
+  test("Flush metrics") {
+
+    val exe = new MockExecutor
+    val container = MetricsContainer()
+
+    val packTimer = new PackTimer[Int](10, 10, (l: List[Int]) => {}, Strand(exe), Some(Metrics(container)))
+
+    packTimer.addEntries(0 to 2)
+    exe.tick(100.milliseconds)
+    packTimer.addEntries(0 to 14)
+    exe.tick(0.milliseconds)
+
+    container.get("flushes").value should equal(2)
+    container.get("flushSize").value should equal(9.0)
+  }
+
   test("Threading stress test (single producer)") {
 
     val exe = Executors.newResizingThreadPool(7.seconds)
@@ -62,4 +62,7 @@ trait QpidBrokerChannelPool extends BrokerConnection {
   def publish(exchange: String, key: String, bytes: Array[Byte], replyTo: Option[BrokerDestination] = None) =
     execute(_.publish(exchange, key, bytes, replyTo))
 
+  override def publishBatch(exchange: String, messages: Seq[(String, Array[Byte])]) =
+    if (!messages.isEmpty) execute(_.publishBatch(exchange, messages))
+
 }
\ No newline at end of file
@@ -23,19 +23,39 @@ import org.apache.qpid.transport._
 import com.typesafe.scalalogging.slf4j.Logging
 import org.totalgrid.reef.client.exception.ServiceIOException
 
-final class QpidBrokerConnection(conn: Connection, ttlMilliseconds: Int) extends QpidBrokerChannelPool with ConnectionListener with Logging {
+/**
+ * @param publishWindow if greater than 0 publishAsync is pipelined, syncing with the broker once every publishWindow
+ *                      messages (or on flushPublishes) instead of after every message
+ */
+final class QpidBrokerConnection(conn: Connection, ttlMilliseconds: Int, publishWindow: Int = 0) extends QpidBrokerChannelPool with ConnectionListener with Logging {
 
   private var disconnected = false
   private var closed = false
   private var sessions = Set.empty[Session]
 
+  private val pipelinedPublisher = if (publishWindow > 0) Some(new QpidPipelinedPublisher(getSession _, this, publishWindow, ttlMilliseconds)) else None
+
   conn.addConnectionListener(this)
 
   override def isConnected() = !disconnected
 
   override def newChannel() = new QpidWorkerChannel(getSession(), this, ttlMilliseconds)
 
-  override def disconnect(): Boolean = mutex.synchronized {
+  override def publishAsync(exchange: String, key: String, bytes: Array[Byte], replyTo: Option[BrokerDestination] = None) = pipelinedPublisher match {
+    case Some(p) => p.publish(exchange, key, bytes, replyTo)
+    case None => super.publishAsync(exchange, key, bytes, replyTo)
+  }
+
+  override def flushPublishes() = pipelinedPublisher.foreach(_.sync())
+
+  override def disconnect(): Boolean = {
+    // give outstanding pipelined publishes a chance to be confirmed before we tear down the sessions, done
+    // outside of the mutex since the publisher grabs it when opening and detaching its session
+    if (isConnected) pipelinedPublisher.foreach(_.close())
+    closeConnection()
+  }
+
+  private def closeConnection(): Boolean = mutex.synchronized {
     if (!disconnected) {
       disconnected = true
       closeSessions()
@@ -75,6 +95,10 @@ final class QpidBrokerConnection(conn: Connection, ttlMilliseconds: Int) extends
       temp
     }
 
+    // fail anything still waiting on a sync before telling clients, an orderly disconnect has already
+    // synced so this only matters when the connection was dropped
+    pipelinedPublisher.foreach(_.connectionLost(new ChannelClosedException))
+
     try {
       this.onDisconnect(expected)
     } catch {
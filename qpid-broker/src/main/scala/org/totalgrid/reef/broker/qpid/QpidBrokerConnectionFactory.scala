@@ -85,7 +85,13 @@ object QpidBrokerConnectionFactory {
 
 }
 
-class QpidBrokerConnectionFactory(config: AmqpSettings) extends BrokerConnectionFactory {
+/**
+ * @param publishWindow number of publishAsync messages each connection may have in flight before syncing with the
+ *                      broker, 0 keeps every publish synchronous. Defaults to the settings' publishWindow.
+ */
+class QpidBrokerConnectionFactory(config: AmqpSettings, publishWindow: Int) extends BrokerConnectionFactory {
+
+  def this(config: AmqpSettings) = this(config, config.getPublishWindow)
 
   private def makeSettings = {
     // need to manually create the ConnectionSettings object because there is no overload that
@@ -109,7 +115,7 @@ class QpidBrokerConnectionFactory(config: AmqpSettings) extends BrokerConnection
       QpidBrokerConnectionFactory.loadssl(config, settings)
       val conn = new Connection
       conn.setConnectionDelegate(new ClientConnectionDelegate(settings, new QpidBrokerConnectionFactory.SimpleUrl(settings.getUsername, settings.getPassword)))
-      val broker = new QpidBrokerConnection(conn, config.getTtlMilliseconds())
+      val broker = new QpidBrokerConnection(conn, config.getTtlMilliseconds(), publishWindow)
       conn.connect(settings)
       broker
     } catch {
@@ -101,17 +101,49 @@ object QpidChannelOperations extends Logging {
   def publish(session: Session, exchange: String, key: String, b: Array[Byte], replyTo: ScalaOption[BrokerDestination], ttlMilliseconds: Int) = {
     rewrap("publishing to exchange: " + exchange + " key: " + key + " replyTo: " + replyTo) {
       if (session.isClosing) throw new ChannelClosedException
-      val dev_props = new DeliveryProperties
-      val msg_props = new MessageProperties
-      dev_props.setRoutingKey(key)
-      if (ttlMilliseconds > 0) dev_props.setTtl(ttlMilliseconds)
-      replyTo.foreach(r => msg_props.setReplyTo(new ReplyTo(r.exchange, r.key)))
-      val hdr = new Header(dev_props, msg_props)
-      session.messageTransfer(exchange, MessageAcceptMode.NONE, MessageAcquireMode.PRE_ACQUIRED, hdr, b)
+      transfer(session, exchange, key, b, replyTo, ttlMilliseconds)
       session.sync()
     }
   }
 
+  /**
+   * transfers all of the messages before syncing so the whole batch only costs a single round trip to the broker
+   */
+  def publishBatch(session: Session, exchange: String, messages: Seq[(String, Array[Byte])], ttlMilliseconds: Int) = {
+    rewrap("publishing batch of " + messages.size + " to exchange: " + exchange) {
+      if (session.isClosing) throw new ChannelClosedException
+      messages.foreach { case (key, b) => transfer(session, exchange, key, b, None, ttlMilliseconds) }
+      session.sync()
+    }
+  }
+
+  /**
+   * transfers a message without waiting for the broker, errors will only be reported by the next sync
+   */
+  def publishNoSync(session: Session, exchange: String, key: String, b: Array[Byte], replyTo: ScalaOption[BrokerDestination], ttlMilliseconds: Int) = {
+    rewrap("publishing to exchange: " + exchange + " key: " + key + " replyTo: " + replyTo) {
+      if (session.isClosing) throw new ChannelClosedException
+      transfer(session, exchange, key, b, replyTo, ttlMilliseconds)
+    }
+  }
+
+  def sync(session: Session) = {
+    rewrap("syncing session") {
+      if (session.isClosing) throw new ChannelClosedException
+      session.sync()
+    }
+  }
+
+  private def transfer(session: Session, exchange: String, key: String, b: Array[Byte], replyTo: ScalaOption[BrokerDestination], ttlMilliseconds: Int) {
+    val dev_props = new DeliveryProperties
+    val msg_props = new MessageProperties
+    dev_props.setRoutingKey(key)
+    if (ttlMilliseconds > 0) dev_props.setTtl(ttlMilliseconds)
+    replyTo.foreach(r => msg_props.setReplyTo(new ReplyTo(r.exchange, r.key)))
+    val hdr = new Header(dev_props, msg_props)
+    session.messageTransfer(exchange, MessageAcceptMode.NONE, MessageAcquireMode.PRE_ACQUIRED, hdr, b)
+  }
+
   def describeBinding(queue: String, exchange: String, key: String): String =
     "queue " + queue + " to exchange " + exchange + " w/ key " + key
 
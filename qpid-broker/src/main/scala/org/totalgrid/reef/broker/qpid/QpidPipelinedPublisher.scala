@@ -0,0 +1,106 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.broker.qpid
+
+import scala.{ Option => ScalaOption }
+
+import org.apache.qpid.transport._
+
+import com.typesafe.scalalogging.slf4j.Logging
+
+import org.totalgrid.reef.broker._
+
+/**
+ * Publishes on a dedicated session without syncing after every message. Up to window messages are
+ * transferred before we sync, a failed sync fails every completion in that window. If the broker killed
+ * the session we open a new one for the next publish.
+ */
+final class QpidPipelinedPublisher(newSession: () => Session, connection: QpidBrokerConnection, window: Int, ttlMilliseconds: Int) extends Logging {
+
+  private var session = Option.empty[Session]
+  private var inFlight = List.empty[PublishCompletion]
+
+  def publish(exchange: String, key: String, b: Array[Byte], replyTo: ScalaOption[BrokerDestination]): PublishCompletion = synchronized {
+    val completion = new PublishCompletion
+    try {
+      QpidChannelOperations.publishNoSync(currentSession, exchange, key, b, replyTo, ttlMilliseconds)
+      inFlight ::= completion
+      if (inFlight.size >= window) sync()
+    } catch {
+      case ex: Exception =>
+        // the transfer itself failed so anything still in flight is suspect as well
+        failInFlight(ex)
+        completion.failure(ex)
+    }
+    completion
+  }
+
+  def sync(): Unit = synchronized {
+    if (!inFlight.isEmpty) {
+      try {
+        session.foreach(QpidChannelOperations.sync(_))
+        val completed = inFlight.reverse
+        inFlight = Nil
+        completed.foreach(_.success())
+      } catch {
+        case ex: Exception =>
+          logger.warn("Pipelined publish failed: " + ex.getMessage)
+          failInFlight(ex)
+      }
+    }
+  }
+
+  def close(): Unit = synchronized {
+    sync()
+    session.foreach { s =>
+      QpidChannelOperations.close(s)
+      connection.detachSession(s)
+    }
+    session = None
+  }
+
+  /**
+   * the connection dropped underneath us, nothing in flight can be confirmed anymore so fail it now
+   * rather than leaving callers waiting for a publish or sync that may never come
+   */
+  def connectionLost(ex: Exception): Unit = synchronized {
+    failInFlight(ex)
+  }
+
+  private def failInFlight(ex: Exception) {
+    val failed = inFlight.reverse
+    inFlight = Nil
+    failed.foreach(_.failure(ex))
+    session.foreach { s =>
+      QpidChannelOperations.close(s)
+      connection.detachSession(s)
+    }
+    session = None
+  }
+
+  private def currentSession: Session = {
+    // anything transferred on a session the broker has since closed can't be confirmed
+    if (session.exists(_.isClosing)) failInFlight(new ChannelClosedException)
+    session.getOrElse {
+      val s = newSession()
+      session = Some(s)
+      s
+    }
+  }
+}
@@ -56,6 +56,9 @@ final class QpidWorkerChannel(val session: Session, connection: QpidBrokerConnec
   def publish(exchange: String, key: String, b: Array[Byte], replyTo: ScalaOption[BrokerDestination]) =
     QpidChannelOperations.publish(session, exchange, key, b, replyTo, ttlMilliseconds)
 
+  def publishBatch(exchange: String, messages: Seq[(String, Array[Byte])]) =
+    QpidChannelOperations.publishBatch(session, exchange, messages, ttlMilliseconds)
+
   def close() {
     QpidChannelOperations.close(session)
     connection.detachSession(session)
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.broker.qpid
+
+import org.scalatest.junit.JUnitRunner
+import org.junit.runner.RunWith
+
+import org.totalgrid.reef.broker._
+import org.totalgrid.reef.client.settings.AmqpSettings
+import org.totalgrid.reef.client.settings.util.PropertyReader
+import org.apache.qpid.transport.{ Connection, ConnectionSettings }
+import org.apache.qpid.client.transport.ClientConnectionDelegate
+import net.agileautomata.commons.testing.SynchronizedList
+
+/**
+ * runs the broker contract against connections with pipelined publishing enabled
+ */
+@RunWith(classOf[JUnitRunner])
+class QpidPipelinedBrokerConnectionTest extends BrokerConnectionTestBase {
+
+  val defaults = new AmqpSettings(PropertyReader.readFromFile("../org.totalgrid.reef.test.cfg"));
+
+  def testConnection(test: BrokerConnection => Unit) {
+    val factory = new QpidBrokerConnectionFactory(defaults, 10)
+    val conn = factory.connect
+    try {
+      test(conn)
+    } finally {
+      conn.disconnect()
+    }
+  }
+
+  test("Unsynced publishes are confirmed on disconnect") {
+    val factory = new QpidBrokerConnectionFactory(defaults, 100)
+    val conn = factory.connect
+    conn.declareExchange("test6")
+    val completions = (1 to 5).map { i => conn.publishAsync("test6", "hi", i.toString.getBytes) }
+    completions.exists(_.isComplete) should equal(false)
+    conn.disconnect()
+    completions.foreach(_.await())
+  }
+
+  test("Unsynced publishes fail when the connection drops") {
+    // build the qpid connection ourselves so we can drop it out from under the broker connection
+    val settings = new ConnectionSettings()
+    settings.setHost(defaults.getHost)
+    settings.setPort(defaults.getPort)
+    settings.setVhost(defaults.getVirtualHost)
+    settings.setUsername(defaults.getUser)
+    settings.setPassword(defaults.getPassword)
+    settings.setSaslMechs("PLAIN")
+    val qpid = new Connection
+    qpid.setConnectionDelegate(new ClientConnectionDelegate(settings, new QpidBrokerConnectionFactory.SimpleUrl(settings.getUsername, settings.getPassword)))
+    val conn = new QpidBrokerConnection(qpid, defaults.getTtlMilliseconds(), 100)
+    qpid.connect(settings)
+
+    val disconnects = new SynchronizedList[Boolean]
+    conn.addListener(new BrokerConnectionListener {
+      def onDisconnect(expected: Boolean) = disconnects.append(expected)
+    })
+
+    conn.declareExchange("test7")
+    val completions = (1 to 5).map { i => conn.publishAsync("test7", "hi", i.toString.getBytes) }
+    completions.exists(_.isComplete) should equal(false)
+
+    qpid.close()
+
+    // would block forever if the completions were left waiting for a sync
+    completions.foreach { c => intercept[ChannelClosedException](c.await()) }
+    disconnects shouldBecome (List(false)) within 5000
+  }
+}
@@ -399,6 +399,12 @@ object OptionalProtos {
     val stringVal = optionally(_.hasStringVal, _.getStringVal)
     val quality = new OptMeasurementsQuality(optionally(_.hasQuality, _.getQuality))
     val time = optionally(_.getTime)
+    val name = optionally(_.hasName, _.getName)
+    val pointUuid = new OptModelReefUUID(optionally(_.hasPointUuid, _.getPointUuid))
+    val unit = optionally(_.hasUnit, _.getUnit)
+    val isDeviceTime = optionally(_.hasIsDeviceTime, _.getIsDeviceTime)
+    val systemTime = optionally(_.hasSystemTime, _.getSystemTime)
+    val absentFields = optionally(_.hasAbsentFields, _.getAbsentFields)
   }
   implicit def proto2OptMeasurementsMeasArchive(a: org.totalgrid.reef.client.service.proto.Measurements.MeasArchive): OptMeasurementsMeasArchive = new OptMeasurementsMeasArchive(Some(a))
   class OptMeasurementsMeasArchive(real: Option[org.totalgrid.reef.client.service.proto.Measurements.MeasArchive]) extends OptionalStruct(real) {
@@ -410,6 +416,19 @@ object OptionalProtos {
     val pointNames = optionally(_.getPointNamesList.toList)
     val measurements = optionally(_.getMeasurementsList.toList.map { i => new OptMeasurementsMeasurement(Some(i)) })
   }
+  implicit def proto2OptMeasurementsMeasurementRollup(a: org.totalgrid.reef.client.service.proto.Measurements.MeasurementRollup): OptMeasurementsMeasurementRollup = new OptMeasurementsMeasurementRollup(Some(a))
+  class OptMeasurementsMeasurementRollup(real: Option[org.totalgrid.reef.client.service.proto.Measurements.MeasurementRollup]) extends OptionalStruct(real) {
+    val startTime = optionally(_.hasStartTime, _.getStartTime)
+    val endTime = optionally(_.hasEndTime, _.getEndTime)
+    val count = optionally(_.hasCount, _.getCount)
+    val min = optionally(_.hasMin, _.getMin)
+    val max = optionally(_.hasMax, _.getMax)
+    val mean = optionally(_.hasMean, _.getMean)
+    val firstTime = optionally(_.hasFirstTime, _.getFirstTime)
+    val first = optionally(_.hasFirst, _.getFirst)
+    val lastTime = optionally(_.hasLastTime, _.getLastTime)
+    val last = optionally(_.hasLast, _.getLast)
+  }
   implicit def proto2OptMeasurementsMeasurementHistory(a: org.totalgrid.reef.client.service.proto.Measurements.MeasurementHistory): OptMeasurementsMeasurementHistory = new OptMeasurementsMeasurementHistory(Some(a))
   class OptMeasurementsMeasurementHistory(real: Option[org.totalgrid.reef.client.service.proto.Measurements.MeasurementHistory]) extends OptionalStruct(real) {
     val point = new OptModelPoint(optionally(_.hasPoint, _.getPoint))
@@ -420,6 +439,9 @@ object OptionalProtos {
     val keepNewest = optionally(_.hasKeepNewest, _.getKeepNewest)
     val sampling = optionally(_.hasSampling, _.getSampling)
     val measurements = optionally(_.getMeasurementsList.toList.map { i => new OptMeasurementsMeasurement(Some(i)) })
+    val continuationToken = optionally(_.hasContinuationToken, _.getContinuationToken)
+    val rollupInterval = optionally(_.hasRollupInterval, _.getRollupInterval)
+    val rollups = optionally(_.getRollupsList.toList.map { i => new OptMeasurementsMeasurementRollup(Some(i)) })
   }
   implicit def proto2OptMeasurementsMeasurementStatistics(a: org.totalgrid.reef.client.service.proto.Measurements.MeasurementStatistics): OptMeasurementsMeasurementStatistics = new OptMeasurementsMeasurementStatistics(Some(a))
   class OptMeasurementsMeasurementStatistics(real: Option[org.totalgrid.reef.client.service.proto.Measurements.MeasurementStatistics]) extends OptionalStruct(real) {
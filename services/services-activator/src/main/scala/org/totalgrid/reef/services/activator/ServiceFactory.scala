@@ -20,7 +20,8 @@ package org.totalgrid.reef.services.activator
 
 import org.totalgrid.reef.client.settings.{ NodeSettings, UserSettings }
 import org.totalgrid.reef.app.ConnectionConsumer
-import org.totalgrid.reef.services.authz.SqlAuthzService
+import org.totalgrid.reef.services.authz.{ AuthTokenCache, SqlAuthzService }
+import org.totalgrid.reef.authz.{ AuthzFiltering, EntityIndex, ResourceSpecificFilter }
 import org.totalgrid.reef.services.{ ServiceContext, ServiceProviders, ServiceBootstrap }
 import org.totalgrid.reef.services.settings.ServiceOptions
 import org.totalgrid.reef.util.LifecycleManager
@@ -30,6 +31,9 @@ import org.totalgrid.reef.procstatus.ProcessHeartbeatActor
 import org.totalgrid.reef.client.sapi.rpc.AllScadaService
 import org.totalgrid.reef.persistence.squeryl.DbConnection
 import org.totalgrid.reef.client.Connection
+import org.totalgrid.reef.models.EntityGraph
+import org.totalgrid.reef.services.core.{ EventPropertiesCache, MeasurementRouting }
+import org.totalgrid.reef.services.coordinators.LoadAwareAssignment
 
 /**
  * gets other modules used by the services so can implemented via OSGI or directly
@@ -59,8 +63,29 @@ object ServiceFactory {
         val client = connection.createClient(authToken)
         val services = client.getService(classOf[AllScadaService])
         val heartbeater = new ProcessHeartbeatActor(services, appConfig.getHeartbeatCfg, exe)
+        val tokenCache = if (serviceOptions.authTokenCacheSeconds > 0) {
+          Some(new AuthTokenCache(serviceOptions.authTokenCacheSeconds * 1000L))
+        } else None
+        val entityIndex = if (serviceOptions.authzEntityIndexSeconds > 0) {
+          Some(new EntityIndex(serviceOptions.authzEntityIndexSeconds * 1000L))
+        } else None
+        val filtering = new AuthzFiltering(new ResourceSpecificFilter(entityIndex))
+
+        if (serviceOptions.entityGraphSeconds > 0) EntityGraph.enable(serviceOptions.entityGraphSeconds * 1000L)
+        else EntityGraph.disable()
+
+        if (serviceOptions.measurementRoutingCacheSeconds > 0) MeasurementRouting.enable(serviceOptions.measurementRoutingCacheSeconds * 1000L)
+        else MeasurementRouting.disable()
+
+        if (serviceOptions.eventConfigCacheSeconds > 0) EventPropertiesCache.enable(serviceOptions.eventConfigCacheSeconds * 1000L)
+        else EventPropertiesCache.disable()
+
+        if (serviceOptions.loadAwareAssignment) LoadAwareAssignment.enable(serviceOptions.assignmentRebalanceMaxMoves,
+          serviceOptions.assignmentRebalancePeriodSeconds * 1000L)
+        else LoadAwareAssignment.disable()
+
         val providers = new ServiceProviders(dbConnection, connection, measStore, serviceOptions,
-          new SqlAuthzService(), authToken, exe)
+          new SqlAuthzService(filtering, tokenCache), authToken, exe)
 
         val serviceContext = new ServiceContext(connection, exe)
 
@@ -77,6 +102,10 @@ object ServiceFactory {
             client.logout()
 
             providers.close()
+            EntityGraph.disable()
+            MeasurementRouting.disable()
+            EventPropertiesCache.disable()
+            LoadAwareAssignment.disable()
             mgr.stop()
             heartbeater.stop()
 
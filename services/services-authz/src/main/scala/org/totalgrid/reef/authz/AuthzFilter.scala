@@ -60,6 +60,13 @@ class AuthzFiltering(resourceFilter: ResourceSpecificFiltering) extends AuthzFil
 
   def visibilityMap(permissions: => List[Permission]) = new VisibilityMapImpl(permissions)
 
+  def entitiesChanged(uuids: List[UUID]) = resourceFilter.entitiesChanged(uuids)
+
+  override lazy val withoutIndex: AuthzFilteringService = {
+    val direct = resourceFilter.withoutIndex
+    if (direct eq resourceFilter) this else new AuthzFiltering(direct)
+  }
+
   private def unmatchedServiceAction(service: String, action: String, length: Long) = {
     Permission.denyAllPermission("No permission (" + length + ") matched " + service + ":" + action + ". Assuming deny *")
   }
@@ -41,6 +41,17 @@ trait AuthzFilteringService {
   def filter[A](permissions: => List[Permission], service: String, action: String, payloads: List[A], uuids: => List[List[UUID]]): List[FilteredResult[A]]
 
   def visibilityMap(permissions: => List[Permission]): VisibilityMap
+
+  /**
+   * tell the filter that entities (or their types or edges) have changed
+   */
+  def entitiesChanged(uuids: List[UUID])
+
+  /**
+   * filter for requests that have changed entities themselves, it must not use (or fill) anything shared
+   * with other requests since it would see changes that may still be rolled back
+   */
+  def withoutIndex: AuthzFilteringService = this
 }
 
 trait VisibilityMap {
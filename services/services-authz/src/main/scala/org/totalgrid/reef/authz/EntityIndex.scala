@@ -0,0 +1,197 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.authz
+
+import java.util.{ BitSet, UUID }
+import scala.collection.mutable
+import org.squeryl.PrimitiveTypeMode._
+import org.totalgrid.reef.models.ApplicationSchema
+import com.typesafe.scalalogging.slf4j.Logging
+
+/**
+ * in memory copy of the parts of the entity model the resource selectors look at: names, types and
+ * "owns" parents. Each entity is interned to a small integer so a selector compiles down to a BitSet
+ * that can answer includes() without going back to the database.
+ *
+ * Entities reported through entitiesChanged are reloaded the next time the index is used, uuids the
+ * index has never seen are loaded on demand. The whole index is reloaded after maxAge milliseconds
+ * to pick up changes made by other services nodes. All lookups must be made inside a transaction that
+ * hasn't changed any entities, otherwise uncommitted (and possibly rolled back) state would be loaded
+ * into the index; those requests use the filter's withoutIndex instead.
+ */
+class EntityIndex(maxAge: Long, now: () => Long = () => System.currentTimeMillis) extends Logging {
+
+  private val slots = mutable.Map.empty[UUID, Int]
+  // name is null for entities we have interned but not loaded (or that have been deleted)
+  private val names = mutable.ArrayBuffer.empty[String]
+  private val types = mutable.ArrayBuffer.empty[List[String]]
+  private val parents = mutable.ArrayBuffer.empty[List[Int]]
+
+  private val byName = mutable.Map.empty[String, BitSet]
+  private val byType = mutable.Map.empty[String, BitSet]
+  private val children = mutable.Map.empty[Int, BitSet]
+
+  private val compiled = mutable.Map.empty[(String, List[String]), BitSet]
+
+  private val dirty = mutable.Set.empty[UUID]
+  private var loadedAt: Option[Long] = None
+
+  def entitiesWithTypes(entityTypes: List[String], entities: List[UUID]) = includes("type", entityTypes, entities)
+
+  def entitiesWithNames(entityNames: List[String], entities: List[UUID]) = includes("name", entityNames, entities)
+
+  def entitiesOwnedBy(parentNames: List[String], entities: List[UUID]) = includes("parent", parentNames, entities)
+
+  def getUuidsToNames(entities: List[UUID]): List[(UUID, String)] = synchronized {
+    prepare(entities)
+    entities.flatMap { uuid => slots.get(uuid).flatMap(slot => Option(names(slot))).map(uuid -> _) }
+  }
+
+  /**
+   * mark entities as needing to be reloaded, should only be called once the change has been committed
+   */
+  def entitiesChanged(entities: List[UUID]) = synchronized {
+    dirty ++= entities
+  }
+
+  /**
+   * throw away everything, the index will be reloaded on next use
+   */
+  def clear() = synchronized {
+    loadedAt = None
+  }
+
+  private def includes(style: String, args: List[String], entities: List[UUID]): List[Option[Boolean]] = synchronized {
+    prepare(entities)
+    val set = compiled.getOrElseUpdate((style, args), compile(style, args))
+    entities.map { uuid =>
+      slots.get(uuid) match {
+        case Some(slot) if set.get(slot) => Some(true)
+        case _ => None
+      }
+    }
+  }
+
+  private def compile(style: String, args: List[String]): BitSet = {
+    def union(map: mutable.Map[String, BitSet], keys: List[String]) = {
+      val set = new BitSet
+      keys.foreach { k => map.get(k).foreach(set.or(_)) }
+      set
+    }
+    style match {
+      case "type" => union(byType, args)
+      case "name" => union(byName, args)
+      case "parent" =>
+        val set = union(byName, args)
+        val named = set.clone.asInstanceOf[BitSet]
+        var p = named.nextSetBit(0)
+        while (p >= 0) {
+          children.get(p).foreach(set.or(_))
+          p = named.nextSetBit(p + 1)
+        }
+        set
+    }
+  }
+
+  private def prepare(entities: List[UUID]) {
+    if (loadedAt.map(_ + maxAge <= now()).getOrElse(true)) loadAll()
+
+    val unknown = entities.filter(uuid => slots.get(uuid).map(names(_) == null).getOrElse(true))
+    if (!dirty.isEmpty || !unknown.isEmpty) {
+      val toLoad = (dirty.toList ::: unknown).distinct
+      dirty.clear()
+      reload(toLoad)
+    }
+  }
+
+  private def loadAll() {
+    slots.clear(); names.clear(); types.clear(); parents.clear()
+    byName.clear(); byType.clear(); children.clear(); dirty.clear()
+
+    import ApplicationSchema.{ entities, entityTypes, edges }
+    val loaded = from(entities)(e => select(e.id, e.name)).toList
+    val typeList = from(entityTypes)(t => select(t.entityId, t.entType)).toList
+    val owners = from(edges)(e => where(e.relationship === "owns") select (e.childId, e.parentId)).toList
+
+    apply(loaded, typeList, owners)
+    loadedAt = Some(now())
+    logger.info("Loaded entity index with: " + loaded.size + " entities")
+  }
+
+  private def reload(toLoad: List[UUID]) {
+    import ApplicationSchema.{ entities, entityTypes, edges }
+
+    toLoad.flatMap(slots.get).foreach(unlink)
+
+    val loaded = from(entities)(e => where(e.id in toLoad) select (e.id, e.name)).toList
+    val typeList = from(entityTypes)(t => where(t.entityId in toLoad) select (t.entityId, t.entType)).toList
+    val owners = from(edges)(e => where(e.relationship === "owns" and (e.childId in toLoad)) select (e.childId, e.parentId)).toList
+
+    apply(loaded, typeList, owners)
+
+    // parents that are new to us (added on another node) need to be loaded so we know their names
+    val missingParents = owners.map(_._2).distinct.filter(uuid => names(slots(uuid)) == null).diff(toLoad)
+    if (!missingParents.isEmpty) reload(missingParents)
+  }
+
+  private def apply(loaded: List[(UUID, String)], typeList: List[(UUID, String)], owners: List[(UUID, UUID)]) {
+    compiled.clear()
+    loaded.foreach {
+      case (uuid, name) =>
+        val slot = intern(uuid)
+        names(slot) = name
+        addTo(byName, name, slot)
+    }
+    typeList.groupBy(_._1).foreach {
+      case (uuid, joins) =>
+        val slot = intern(uuid)
+        types(slot) = joins.map(_._2)
+        types(slot).foreach(addTo(byType, _, slot))
+    }
+    owners.groupBy(_._1).foreach {
+      case (uuid, links) =>
+        val slot = intern(uuid)
+        parents(slot) = links.map(l => intern(l._2))
+        parents(slot).foreach { p => children.getOrElseUpdate(p, new BitSet).set(slot) }
+    }
+  }
+
+  private def unlink(slot: Int) {
+    compiled.clear()
+    Option(names(slot)).foreach { n => byName.get(n).foreach(_.clear(slot)) }
+    types(slot).foreach { t => byType.get(t).foreach(_.clear(slot)) }
+    parents(slot).foreach { p => children.get(p).foreach(_.clear(slot)) }
+    names(slot) = null
+    types(slot) = Nil
+    parents(slot) = Nil
+  }
+
+  private def intern(uuid: UUID): Int = {
+    slots.getOrElseUpdate(uuid, {
+      names += null
+      types += Nil
+      parents += Nil
+      names.size - 1
+    })
+  }
+
+  private def addTo(map: mutable.Map[String, BitSet], key: String, slot: Int) {
+    map.getOrElseUpdate(key, new BitSet).set(slot)
+  }
+}
@@ -66,13 +66,13 @@ class Permission(val allow: Boolean, services: List[String], actions: List[Strin
 
   def reason = toString
 
-  def checkMatches[A](toBeMatched: List[SelectState[A]]): List[SelectState[A]] = {
+  def checkMatches[A](toBeMatched: List[SelectState[A]], index: Option[EntityIndex] = None): List[SelectState[A]] = {
 
     toBeMatched.map {
       case state: SelectState[A] =>
         if (state.filteredResult.isDefined) state
         else {
-          val matched = matcher.includes(state.uuids)
+          val matched = index.map(matcher.includes(state.uuids, _)).getOrElse(matcher.includes(state.uuids))
 
           def getResult = allow match {
             case true => Some(Allowed[A](state.payload, this))
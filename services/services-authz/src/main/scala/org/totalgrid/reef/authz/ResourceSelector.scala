@@ -25,6 +25,11 @@ import java.util.UUID
 sealed trait ResourceSelector {
   def includes(uuids: List[UUID]): List[Option[Boolean]]
 
+  /**
+   * same answer as includes but using the compiled sets in the index rather than a query
+   */
+  def includes(uuids: List[UUID], index: EntityIndex): List[Option[Boolean]] = includes(uuids)
+
   def allow: Boolean
 
   def resourceDependent: Boolean
@@ -65,6 +70,8 @@ class EntityTypeIncludes(types: List[String]) extends ResourceSelector {
       }
     }
   }
+  override def includes(uuids: List[UUID], index: EntityIndex) = index.entitiesWithTypes(types, uuids)
+
   override def toString() = "entity.types include " + types.mkString("(", ",", ")")
 
   override def selector() = {
@@ -91,6 +98,8 @@ class EntityHasName(names: List[String]) extends ResourceSelector {
     }
   }
 
+  override def includes(uuids: List[UUID], index: EntityIndex) = index.entitiesWithNames(names, uuids)
+
   override def toString() = "entity.name is " + names.mkString("(", ",", ")")
 
   override def selector() = {
@@ -121,6 +130,8 @@ class EntityParentIncludes(parentNames: List[String]) extends ResourceSelector {
       }
     }
   }
+  override def includes(uuids: List[UUID], index: EntityIndex) = index.entitiesOwnedBy(parentNames, uuids)
+
   override def toString() = "entity.parents include " + parentNames.mkString("(", ",", ")")
 
   override def selector() = {
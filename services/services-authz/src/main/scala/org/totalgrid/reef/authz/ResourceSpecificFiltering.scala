@@ -26,16 +26,32 @@ trait ResourceSpecificFiltering {
    * return a denied object for each entry
    */
   def resourceSpecificFiltering[A](applicablePermissions: List[Permission], service: String, action: String, pairs: List[(A, List[UUID])]): List[FilteredResult[A]]
+
+  /**
+   * called after entities (or their types or edges) have been changed
+   */
+  def entitiesChanged(uuids: List[UUID])
+
+  /**
+   * filtering that checks each selector against the database, for requests with uncommitted entity changes
+   */
+  def withoutIndex: ResourceSpecificFiltering = this
 }
 
-object ResourceSpecificFilter extends ResourceSpecificFiltering {
+object ResourceSpecificFilter extends ResourceSpecificFilter(None)
+
+/**
+ * if an index is provided the selectors are checked against its compiled entity sets, otherwise each
+ * permission check is a query.
+ */
+class ResourceSpecificFilter(index: Option[EntityIndex]) extends ResourceSpecificFiltering {
 
   def resourceSpecificFiltering[A](applicablePermissions: List[Permission], service: String, action: String, pairs: List[(A, List[UUID])]): List[FilteredResult[A]] = {
     val originalStates = pairs.map { case (payload, uuids) => SelectState[A](payload, uuids, None) }
 
     val finalStates = applicablePermissions.foldLeft(originalStates) {
       case (states, permission) =>
-        permission.checkMatches(states)
+        permission.checkMatches(states, index)
     }
 
     // we will only make the defaultRule with helpful (and expensive) string if something didn't match any permission
@@ -45,8 +61,15 @@ object ResourceSpecificFilter extends ResourceSpecificFiltering {
     finalStates.map { state => state.filteredResult.getOrElse(ruleCreator(state.payload)) }
   }
 
+  def entitiesChanged(uuids: List[UUID]) = index.foreach(_.entitiesChanged(uuids))
+
+  override def withoutIndex: ResourceSpecificFiltering = if (index.isDefined) ResourceSpecificFilter else this
+
   private def unmatchedNameMap[A](unmatched: List[SelectState[A]]): Map[A, String] = {
-    lazy val uuidsToNames = EntityHelpers.getUuidsToNames(unmatched.map { _.uuids }.flatten).toMap
+    lazy val uuidsToNames = {
+      val uuids = unmatched.map { _.uuids }.flatten
+      index.map(_.getUuidsToNames(uuids)).getOrElse(EntityHelpers.getUuidsToNames(uuids)).toMap
+    }
     unmatched.map { s =>
       s.payload -> s.uuids.map { uuidsToNames.get(_) }.flatten.mkString("(", ",", ")")
     }.toMap
@@ -36,6 +36,8 @@ class AuthzFilteringTest extends AuthzTestBase {
         usedResourceFilter = true
         pairs.map { x => Allowed[A](x._1, applicablePermissions.head) }
       }
+
+      def entitiesChanged(uuids: List[UUID]) {}
     }
     (new AuthzFiltering(mock), mock)
   }
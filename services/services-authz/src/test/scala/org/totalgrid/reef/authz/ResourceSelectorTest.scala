@@ -21,7 +21,7 @@ package org.totalgrid.reef.authz
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 import java.util.UUID
-import org.totalgrid.reef.models.{ ApplicationSchema, EntityEdge }
+import org.totalgrid.reef.models.{ ApplicationSchema, EntityEdge, EntityToTypeJoins }
 
 @RunWith(classOf[JUnitRunner])
 class ResourceSelectorTest extends AuthzTestBase {
@@ -138,6 +138,63 @@ class ResourceSelectorTest extends AuthzTestBase {
     checkSelector(matcher3, uuids, List(None, None, None, None))
   }
 
+  test("EntityIndex picks up changes") {
+
+    val index = new EntityIndex(60000)
+    val uuids = prepareEntities()
+
+    val typeMatcher = new EntityTypeIncludes(List("something"))
+    val parentMatcher = new EntityParentIncludes(List("object1"))
+
+    typeMatcher.includes(uuids, index) should equal(List(Some(true), None, None, Some(true)))
+    parentMatcher.includes(uuids, index) should equal(List(Some(true), None, None, None))
+
+    // entities the index has never seen are loaded on demand
+    val added = defineEntities(List(TestEntity("object5", List("something"))))
+    typeMatcher.includes(added, index) should equal(List(Some(true)))
+
+    // changes to known entities are only seen after they are reported
+    ApplicationSchema.entityTypes.insert(new EntityToTypeJoins(uuids(1), "something"))
+    defineEdges(List(new EntityEdge(uuids(0), uuids(2), "owns", 1)))
+
+    typeMatcher.includes(uuids, index) should equal(List(Some(true), None, None, Some(true)))
+    parentMatcher.includes(uuids, index) should equal(List(Some(true), None, None, None))
+
+    index.entitiesChanged(List(uuids(1), uuids(2)))
+
+    typeMatcher.includes(uuids, index) should equal(List(Some(true), Some(true), None, Some(true)))
+    parentMatcher.includes(uuids, index) should equal(List(Some(true), None, Some(true), None))
+
+    index.getUuidsToNames(uuids.take(2)) should equal(List(uuids(0) -> "object1", uuids(1) -> "object2"))
+  }
+
+  test("EntityIndex never sees entities from a rolled back request") {
+
+    val index = new EntityIndex(60000)
+    val filter = new AuthzFiltering(new ResourceSpecificFilter(Some(index)))
+    val permissions = List(new Permission(true, List("entity"), List("read"), new EntityTypeIncludes(List("something"))))
+
+    def allowed(filtering: AuthzFilteringService, uuids: List[UUID]) = {
+      filtering.filter(permissions, "entity", "read", uuids, uuids.map(List(_))).map(_.isAllowed)
+    }
+
+    val uuids = prepareEntities()
+    allowed(filter, uuids) should equal(List(true, false, false, true))
+
+    val created = TestEntity("created", List("something"))
+    intercept[TransactionAbortException] {
+      dbConnection.transaction {
+        defineEntities(List(created))
+        // the request that made the entity checks it against the database, not the shared index
+        allowed(filter.withoutIndex, List(created.uuid)) should equal(List(true))
+        throw new TransactionAbortException
+      }
+    }
+
+    allowed(filter, List(created.uuid)) should equal(List(false))
+    index.getUuidsToNames(List(created.uuid)) should equal(Nil)
+  }
+
   import org.squeryl.PrimitiveTypeMode._
   private def checkSelector(matcher: ResourceSelector, uuids: List[UUID], expected: List[Option[Boolean]]) = {
 
@@ -145,6 +202,9 @@ class ResourceSelectorTest extends AuthzTestBase {
 
     matches should equal(expected)
 
+    // the compiled form must give exactly the same answers
+    matcher.includes(uuids, new EntityIndex(60000)) should equal(expected)
+
     matcher.selector().foreach { subQuery =>
 
       val selectorGeneratedUuids: List[UUID] =
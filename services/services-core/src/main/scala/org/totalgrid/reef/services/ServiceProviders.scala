@@ -110,12 +110,13 @@ class ServiceProviders(
   private val metrics = new MetricsServiceWrapper(metricsMgr, serviceConfiguration)
   private val metricWrapped = serviceProviders.map { s => metrics.instrumentCallback(s) }
 
-  private val allServices = (metrics.instrumentCallback(new BatchServiceRequestService(metricWrapped)) :: metricWrapped)
+  private val allServices = (metrics.instrumentCallback(new BatchServiceRequestService(metricWrapped, Some(executor), serviceConfiguration.batchParallelism)) :: metricWrapped)
   val services = allServices.map { s => new ServiceMiddleware(contextSource, s) }
 
   val coordinators = List(
     new ProcessStatusCoordinator(modelFac.procStatus, contextSource),
-    new HistoryTrimmer(cm, serviceConfiguration.trimPeriodMinutes * 1000 * 60, serviceConfiguration.maxMeasurements))
+    new HistoryTrimmer(cm, serviceConfiguration.trimPeriodMinutes * 1000 * 60, serviceConfiguration.maxMeasurements),
+    new AssignmentRebalancer(modelFac.coordinator))
 
   metricsMgr.register()
 
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.coordinators
+
+/**
+ * Load aware assignment of endpoints to applications (FEPs or measurement processors). Kept free of
+ * the database so the decisions can be tested against simulated applications and endpoints.
+ */
+object AssignmentBalancer {
+
+  /**
+   * the load an endpoint puts on the application it is assigned to. Endpoints that were manually
+   * assigned count against their application but are never moved.
+   */
+  case class EndpointLoad(endpointId: Long, pointCount: Long, measRate: Double, movable: Boolean = true)
+
+  case class AppLoad(appId: Long, name: String, endpoints: List[EndpointLoad]) {
+    lazy val load = endpoints.map(weight(_)).sum
+  }
+
+  case class Move(endpointId: Long, fromApp: Long, toApp: Long)
+
+  /**
+   * every endpoint costs something (a connection, subscriptions) even with no points or traffic,
+   * 100 points or 10 measurements a second cost as much as another endpoint
+   */
+  val endpointCost = 1.0
+  val pointCost = 0.01
+  val measRateCost = 0.1
+
+  def weight(e: EndpointLoad): Double = endpointCost + e.pointCount * pointCost + e.measRate * measRateCost
+
+  /**
+   * least loaded application, ties broken by name to keep results stable
+   */
+  def leastLoaded(apps: List[AppLoad]): Option[AppLoad] = {
+    if (apps.isEmpty) None
+    else Some(apps.minBy(a => (a.load, a.name)))
+  }
+
+  /**
+   * Plans at most maxMoves endpoint migrations off of overloaded applications. An application is
+   * overloaded when its load is more than tolerance above the average, each move goes to the least
+   * loaded application that can run the endpoint and must narrow the gap between the two so we
+   * never just trade which application is overloaded. No endpoint is moved twice in one pass.
+   *
+   * @param canRun  whether the application (by id) can take over the endpoint (protocol, network etc.)
+   */
+  def rebalance(apps: List[AppLoad], maxMoves: Int, tolerance: Double = 0.2)(canRun: (EndpointLoad, Long) => Boolean = (e, a) => true): List[Move] = {
+    if (apps.size < 2 || maxMoves <= 0) return Nil
+
+    var current = apps.map(a => a.appId -> a).toMap
+    var moved = Set.empty[Long]
+    var moves = List.empty[Move]
+    val average = apps.map(_.load).sum / apps.size
+
+    def bestMove(heavy: AppLoad): Option[(EndpointLoad, AppLoad, Double)] = {
+      val candidates = for {
+        e <- heavy.endpoints if e.movable && !moved.contains(e.endpointId)
+        target <- leastLoaded(current.values.toList.filter(t => t.appId != heavy.appId && canRun(e, t.appId)))
+        gap = heavy.load - target.load
+        w = weight(e) if w < gap
+      } yield (e, target, math.abs(gap / 2 - w))
+      // the move that comes closest to splitting the difference between the two applications
+      if (candidates.isEmpty) None else Some(candidates.minBy(c => (c._3, c._1.endpointId)))
+    }
+
+    var done = false
+    while (!done && moves.size < maxMoves) {
+      val heavy = current.values.maxBy(a => (a.load, a.name))
+      if (heavy.load <= average * (1 + tolerance)) done = true
+      else bestMove(heavy) match {
+        case None => done = true
+        case Some((e, target, _)) =>
+          current += heavy.appId -> heavy.copy(endpoints = heavy.endpoints.filterNot(_ == e))
+          current += target.appId -> target.copy(endpoints = e :: target.endpoints)
+          moved += e.endpointId
+          moves ::= Move(e.endpointId, heavy.appId, target.appId)
+      }
+    }
+    moves.reverse
+  }
+}
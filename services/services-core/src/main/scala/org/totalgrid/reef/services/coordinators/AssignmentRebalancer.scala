@@ -0,0 +1,50 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.coordinators
+
+import com.typesafe.scalalogging.slf4j.Logging
+
+import org.totalgrid.reef.services.framework.ServerSideProcess
+import net.agileautomata.executor4s._
+
+/**
+ * Periodically moves endpoints off of applications that have become overloaded since they were
+ * assigned. Only runs when load aware assignment is enabled with both a move limit and a period.
+ */
+class AssignmentRebalancer(coordinator: SingleThreadedMeasurementStreamCoordinator) extends ServerSideProcess with Logging {
+
+  var repeater = Option.empty[Timer]
+
+  def startProcess(exe: Executor) {
+    LoadAwareAssignment.current.filter { s => s.rebalanceMaxMoves > 0 && s.rebalancePeriodMs > 0 }.foreach { s =>
+      repeater = Some(exe.scheduleWithFixedOffset(s.rebalancePeriodMs.milliseconds)(doRebalance()))
+    }
+  }
+  def stopProcess() {
+    repeater.foreach(_.cancel)
+  }
+
+  private def doRebalance() {
+    try {
+      coordinator.rebalance()
+    } catch {
+      case e: Exception => logger.error("Error rebalancing endpoint assignments", e)
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.coordinators
+
+import org.totalgrid.reef.models.{ ApplicationSchema, CommunicationEndpoint }
+import org.totalgrid.reef.measurementstore.{ RollupTier, MeasurementStore }
+import org.squeryl.PrimitiveTypeMode._
+import AssignmentBalancer.EndpointLoad
+
+/**
+ * Opt-in load aware assignment, when disabled endpoints are assigned to the application with the
+ * fewest endpoints and never moved once assigned.
+ */
+object LoadAwareAssignment {
+
+  /**
+   * @param rebalanceMaxMoves  most endpoints moved off of overloaded applications when an
+   *                           application comes online or in each periodic pass, 0 never moves assigned endpoints
+   * @param rebalancePeriodMs  how often to look for applications that have become overloaded as their
+   *                           traffic grew, 0 only rebalances when an application comes online
+   */
+  case class Settings(rebalanceMaxMoves: Int, rebalancePeriodMs: Long)
+
+  @volatile private var instance: Option[Settings] = None
+
+  def current = instance
+
+  def enable(rebalanceMaxMoves: Int, rebalancePeriodMs: Long = 0) {
+    instance = Some(Settings(rebalanceMaxMoves, rebalancePeriodMs))
+  }
+
+  def disable() {
+    instance = None
+  }
+}
+
+trait EndpointLoadSource {
+  def load(ce: CommunicationEndpoint, movable: Boolean): EndpointLoad
+
+  def endpointRemoved(endpointId: Long)
+}
+
+/**
+ * Point counts come from the model, measurement rates are estimated by counting how many
+ * measurements a sample of the endpoint's points stored in the last rateWindowMs (read from the
+ * minute rollups when the store keeps them). Each endpoint is sampled at most once per
+ * sampleIntervalMs, so comparing applications only reads endpoints whose sample has gone stale.
+ * The reads are made outside of the lock, two callers may both sample an endpoint and the last
+ * one wins.
+ */
+class SquerylEndpointLoadSource(measurementStore: MeasurementStore, sampleSize: Int = 10, sampleIntervalMs: Long = 60000,
+  rateWindowMs: Long = 5 * 60000, now: () => Long = System.currentTimeMillis _)
+    extends EndpointLoadSource {
+
+  private case class Sample(time: Long, points: Long, rate: Double)
+
+  private var samples = Map.empty[Long, Sample]
+
+  def endpointRemoved(endpointId: Long) = synchronized {
+    samples -= endpointId
+  }
+
+  def load(ce: CommunicationEndpoint, movable: Boolean) = {
+    val time = now()
+    val sample = synchronized { samples.get(ce.id) }.filter { time - _.time < sampleIntervalMs }.getOrElse {
+      val fresh = takeSample(ce, time)
+      synchronized { samples += ce.id -> fresh }
+      fresh
+    }
+    EndpointLoad(ce.id, sample.points, sample.rate, movable)
+  }
+
+  private def pointCount(ce: CommunicationEndpoint): Long = {
+    from(ApplicationSchema.edges, ApplicationSchema.points)((edge, p) =>
+      where((edge.parentId === ce.entityId) and (edge.relationship === ce.relationship) and (edge.distance === 1) and (edge.childId === p.entityId))
+        compute (count)).toLong
+  }
+
+  private def samplePointNames(ce: CommunicationEndpoint): List[String] = {
+    from(ApplicationSchema.edges, ApplicationSchema.entities)((edge, ent) =>
+      where((edge.parentId === ce.entityId) and (edge.relationship === ce.relationship) and (edge.distance === 1) and
+        (edge.childId === ent.id) and (ent.id in from(ApplicationSchema.points)(p => select(p.entityId))))
+        select (ent.name) orderBy (ent.name)).page(0, sampleSize).toList
+  }
+
+  private def takeSample(ce: CommunicationEndpoint, time: Long): Sample = {
+    val points = pointCount(ce)
+    val names = samplePointNames(ce)
+    // only whole minutes, the current one is still filling
+    val interval = RollupTier.minute.millis
+    val end = time - time % interval
+    val begin = end - rateWindowMs
+    val stored = names.map { measurementStore.getRollups(_, begin, end - 1, interval).map(_.count).sum }.sum
+    Sample(time, points, stored * 1000.0 / rateWindowMs * points / math.max(names.size, 1))
+  }
+}
@@ -24,8 +24,14 @@ import org.squeryl.{ Query, Schema, Table, KeyedEntity }
 import org.squeryl.PrimitiveTypeMode._
 
 import org.totalgrid.reef.util.Conversion._
+import AssignmentBalancer.AppLoad
 
 trait MeasurementCoordinationQueries {
+
+  /**
+   * when defined apps are compared by the weighted load of their endpoints rather than how many they have
+   */
+  protected def endpointLoads: Option[EndpointLoadSource] = None
   def availableApps(processType: String) = {
     from(ApplicationSchema.apps, ApplicationSchema.capabilities)((a, c) =>
       where(c.capability === processType and (a.id === c.applicationId))
@@ -66,23 +72,57 @@ trait MeasurementCoordinationQueries {
     minimalApps.head._1
   }
 
-  def getLeastLoadedFrontEnd(possibleApps: Query[ApplicationInstance]): ApplicationInstance = {
-    getLeastLoadedXXX(possibleApps)(fep =>
-      from(ApplicationSchema.frontEndAssignments)(a =>
-        where(a.applicationId === fep.id)
-          compute (count)).toLong)
+  def frontEndLoad(source: EndpointLoadSource, fep: ApplicationInstance): AppLoad = {
+    val assigned = from(ApplicationSchema.frontEndAssignments, ApplicationSchema.endpoints)((a, ce) =>
+      where((a.applicationId === fep.id) and (a.active === true) and (a.endpointId === ce.id))
+        select (a, ce)).toList
+    AppLoad(fep.id, fep.instanceName, assigned.map { case (a, ce) => source.load(ce, ce.autoAssigned && a.enabled) })
+  }
+
+  def measProcLoad(source: EndpointLoadSource, measProc: ApplicationInstance): AppLoad = {
+    val assigned = from(ApplicationSchema.measProcAssignments, ApplicationSchema.endpoints)((a, ce) =>
+      where((a.applicationId === measProc.id) and (a.endpointId === ce.id))
+        select (ce)).toList
+    AppLoad(measProc.id, measProc.instanceName, assigned.map { source.load(_, true) })
+  }
+
+  private def getLeastLoadedByWeight(possibleApps: Query[ApplicationInstance])(loadFun: ApplicationInstance => AppLoad): ApplicationInstance = {
+    val apps = possibleApps.toList
+    val leastLoaded = AssignmentBalancer.leastLoaded(apps.map(loadFun)).get
+    apps.find(_.id == leastLoaded.appId).get
+  }
+
+  def getLeastLoadedFrontEnd(possibleApps: Query[ApplicationInstance]): ApplicationInstance = endpointLoads match {
+    case Some(source) => getLeastLoadedByWeight(possibleApps)(frontEndLoad(source, _))
+    case None =>
+      getLeastLoadedXXX(possibleApps)(fep =>
+        from(ApplicationSchema.frontEndAssignments)(a =>
+          where(a.applicationId === fep.id)
+            compute (count)).toLong)
   }
 
-  def getLeastLoadedMeasProc(possibleApps: Query[ApplicationInstance]): ApplicationInstance = {
-    getLeastLoadedXXX(possibleApps)(fep =>
-      from(ApplicationSchema.measProcAssignments)(a =>
-        where(a.applicationId === fep.id)
-          compute (count)).toLong)
+  def getLeastLoadedMeasProc(possibleApps: Query[ApplicationInstance]): ApplicationInstance = endpointLoads match {
+    case Some(source) => getLeastLoadedByWeight(possibleApps)(measProcLoad(source, _))
+    case None =>
+      getLeastLoadedXXX(possibleApps)(fep =>
+        from(ApplicationSchema.measProcAssignments)(a =>
+          where(a.applicationId === fep.id)
+            compute (count)).toLong)
   }
 
   def getFep(e: CommunicationEndpoint): Option[ApplicationInstance] = {
 
-    val possibleFeps = e.port.value match {
+    val possibleFeps = compatibleFeps(e)
+
+    if (possibleFeps.size == 0) None
+    else Some(getLeastLoadedFrontEnd(possibleFeps))
+  }
+
+  /**
+   * running FEPs that speak the endpoint's protocol and can reach its port
+   */
+  def compatibleFeps(e: CommunicationEndpoint): Query[ApplicationInstance] = {
+    e.port.value match {
       case Some(port) => {
         if (port.location.isDefined) {
           from(availableFeps(e.protocol))(a =>
@@ -98,9 +138,6 @@ trait MeasurementCoordinationQueries {
         availableFeps(e.protocol)
       }
     }
-
-    if (possibleFeps.size == 0) None
-    else Some(getLeastLoadedFrontEnd(possibleFeps))
   }
 
   def getMeasProc(): Option[ApplicationInstance] = {
@@ -63,6 +63,12 @@ class SingleThreadedMeasurementStreamCoordinator(real: SquerylBackedMeasurementS
   def onEndpointCreated(context: RequestContext, ce: CommunicationEndpoint) =
     handle(context) { (r, c) => r.onEndpointCreated(c, reloadCe(ce)) }
 
+  def rebalance() = contextSource.transaction { c =>
+    this.synchronized {
+      real.rebalance(c)
+    }
+  }
+
   import org.totalgrid.reef.client.exception.InternalServiceException
   import org.squeryl.PrimitiveTypeMode._
   private def reloadApp(ce: ApplicationInstance): ApplicationInstance = ApplicationSchema.apps.lookup(ce.id).getOrElse(throw new InternalServiceException("row deleted!"))
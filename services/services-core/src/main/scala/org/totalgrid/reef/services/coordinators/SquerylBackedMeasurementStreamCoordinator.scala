@@ -26,6 +26,7 @@ import org.totalgrid.reef.models._
 import org.squeryl.PrimitiveTypeMode._
 import org.totalgrid.reef.services.framework.{ RequestContext, LinkedBufferedEvaluation }
 import org.totalgrid.reef.persistence.squeryl.ExclusiveAccess.ExclusiveAccessException
+import AssignmentBalancer.EndpointLoad
 
 class SquerylBackedMeasurementStreamCoordinator(
   measProcModel: MeasurementProcessingConnectionServiceModel,
@@ -42,6 +43,11 @@ class SquerylBackedMeasurementStreamCoordinator(
   val measProcTable = ApplicationSchema.measProcAssignments
   val fepAssignmentTable = ApplicationSchema.frontEndAssignments
 
+  private lazy val loadSource = new SquerylEndpointLoadSource(measurementStore)
+  override protected def endpointLoads = LoadAwareAssignment.current.map { x => loadSource }
+
+  private def rebalanceMaxMoves = LoadAwareAssignment.current.map { _.rebalanceMaxMoves }.getOrElse(0)
+
   def onEndpointCreated(context: RequestContext, ce: CommunicationEndpoint) {
     val now = System.currentTimeMillis
 
@@ -66,6 +72,8 @@ class SquerylBackedMeasurementStreamCoordinator(
     fepConnection.delete(context, fepProcAssignment)
 
     // then either assign the endpoint to a compatible FEP or no FEP
+    // the point count may have changed
+    loadSource.endpointRemoved(ce.id)
     val assigned = determineFepAssignment(context, fepProcAssignment.copy(applicationId = None), ce)
     lazy val defaultFep = new FrontEndAssignment(ce.id, initialConnectionState, fepProcAssignment.enabled, measProcAssignment.serviceRoutingKey, None, None, Some(System.currentTimeMillis), None, true)
     fepConnection.create(context, assigned.getOrElse(defaultFep))
@@ -78,6 +86,8 @@ class SquerylBackedMeasurementStreamCoordinator(
     val assignedFep = getAssignedFep(ce)
     fepConnection.delete(context, assignedFep)
     fepConnection.deleteAllAssignmentsForEndpoint(ce)
+
+    loadSource.endpointRemoved(ce.id)
   }
 
   def onFepAppChanged(context: RequestContext, app: ApplicationInstance, added: Boolean) {
@@ -89,6 +99,51 @@ class SquerylBackedMeasurementStreamCoordinator(
     }
     logger.info("FEP: " + app.instanceName + " added: " + added + " rechecking: " + rechecks.map { _.endpoint.value.get.entityName })
     rechecks.foreach { a => checkFepAssignment(context, a, a.endpoint.value.get) }
+    if (added) rebalanceFeps(context)
+  }
+
+  /**
+   * periodic pass that catches applications that have become overloaded as their endpoints' traffic
+   * grew, each side moves at most rebalanceMaxMoves endpoints
+   */
+  def rebalance(context: RequestContext) {
+    rebalanceFeps(context)
+    rebalanceMeasProcs(context)
+  }
+
+  /**
+   * moves a bounded number of auto assigned endpoints off of overloaded FEPs (usually onto one that
+   * just came online), only ever to an FEP that could have been picked for the endpoint originally
+   */
+  private def rebalanceFeps(context: RequestContext) {
+    if (rebalanceMaxMoves > 0) endpointLoads.foreach { source =>
+      val loads = runningApps("FEP").toList.map(frontEndLoad(source, _))
+
+      val compatible = scala.collection.mutable.Map.empty[Long, Set[Long]]
+      def canRun(e: EndpointLoad, appId: Long) = compatible.getOrElseUpdate(e.endpointId, {
+        ApplicationSchema.endpoints.lookup(e.endpointId).map { ce => compatibleFeps(ce).map { _.id }.toSet }.getOrElse(Set.empty[Long])
+      }).contains(appId)
+
+      AssignmentBalancer.rebalance(loads, rebalanceMaxMoves)(canRun _).foreach { move =>
+        val assign = fepAssignmentTable.where(fep => (fep.endpointId === move.endpointId) and (fep.active === true)).single
+        val ce = assign.endpoint.value.get
+        logger.info("Rebalancing: " + ce.entityName + " from FEP: " + move.fromApp + " to FEP: " + move.toApp)
+
+        val now = System.currentTimeMillis
+        markOffline(ce, context)
+        val newAssign = assign.copy(
+          applicationId = Some(move.toApp),
+          assignedTime = Some(now),
+          offlineTime = Some(now),
+          onlineTime = None)
+        try {
+          exclusiveUpdateFep(context, assign, newAssign)
+        } catch {
+          case ex: ExclusiveAccessException =>
+            logger.warn("Lost race to rebalance fep assignment for: " + ce.entityName + ", leaving it in place")
+        }
+      }
+    }
   }
 
   /**
@@ -193,6 +248,22 @@ class SquerylBackedMeasurementStreamCoordinator(
     }
     logger.info("Meas Proc: " + app.instanceName + " added: " + added + " rechecking: " + rechecks.map { _.endpoint.value.get.entityName })
     rechecks.foreach { checkMeasProcAssignment(context, _) }
+    if (added) rebalanceMeasProcs(context)
+  }
+
+  /**
+   * moves a bounded number of endpoints off of overloaded meas procs, usually onto one that just came online
+   */
+  private def rebalanceMeasProcs(context: RequestContext) {
+    if (rebalanceMaxMoves > 0) endpointLoads.foreach { source =>
+      val loads = runningApps("Processing").toList.map(measProcLoad(source, _))
+
+      AssignmentBalancer.rebalance(loads, rebalanceMaxMoves)().foreach { move =>
+        val assign = measProcTable.where(measProc => measProc.endpointId === move.endpointId).single
+        logger.info("Rebalancing: " + assign.endpoint.value.get.entityName + " from MeasProc: " + move.fromApp + " to MeasProc: " + move.toApp)
+        assignMeasProc(context, assign, Some(move.toApp))
+      }
+    }
   }
 
   /**
@@ -201,6 +272,10 @@ class SquerylBackedMeasurementStreamCoordinator(
   private def checkMeasProcAssignment(context: RequestContext, assign: MeasProcAssignment) {
     val applicationId = getMeasProc().map { _.id }
     logger.info(assign.endpoint.value.get.entityName + " assigned MeasProc: " + applicationId)
+    assignMeasProc(context, assign, applicationId)
+  }
+
+  private def assignMeasProc(context: RequestContext, assign: MeasProcAssignment, applicationId: Option[Long]) {
     val assignedTime = applicationId.map { x => System.currentTimeMillis }
     val serviceRoutingKey = applicationId.map { x => "meas_batch_" + assign.endpoint.value.get.entityName }
     if (assign.applicationId != applicationId) {
@@ -32,6 +32,7 @@ import org.totalgrid.reef.models.{ SaltedPasswordHelper, ApplicationSchema, Agen
 
 import org.totalgrid.reef.models.UUIDConversions._
 import org.totalgrid.reef.authz.VisibilityMap
+import org.totalgrid.reef.services.authz.AgentChanged
 import org.squeryl.Query
 import java.util.UUID
 
@@ -109,6 +110,7 @@ class AgentServiceModel
       added.foreach { p => ApplicationSchema.agentSetJoins.insert(new AgentPermissionSetJoin(p.id, existing.id)) }
       ApplicationSchema.agentSetJoins.deleteWhere(join => join.permissionSetId in removed.map { _.id } and join.agentId === existing.id)
 
+      context.auth.invalidate(context, AgentChanged(existing.id))
       onUpdated(context, existing)
       (existing, true)
     } else {
@@ -125,6 +127,7 @@ class AgentServiceModel
     if (entry.authTokens.value.size > 0) {
       ApplicationSchema.authTokens.deleteWhere(at => at.id in entry.authTokens.value.map(_.id))
     }
+    context.auth.invalidate(context, AgentChanged(entry.id))
   }
 
   override def postDelete(context: RequestContext, entry: AgentModel) {
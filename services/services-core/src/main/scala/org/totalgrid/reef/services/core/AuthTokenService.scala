@@ -32,6 +32,7 @@ import org.totalgrid.reef.event.EventType
 import org.squeryl.Query
 import java.util.UUID
 import org.totalgrid.reef.authz.VisibilityMap
+import org.totalgrid.reef.services.authz.AuthTokenChanged
 import org.totalgrid.reef.models.{ Agent, UUIDConversions, ApplicationSchema, AuthToken => AuthTokenModel, AuthTokenPermissionSetJoin }
 import org.squeryl.dsl.ast.LogicalBoolean
 
@@ -199,6 +200,7 @@ class AuthTokenServiceModel
 
     postSystemEvent(context, EventType.System.UserLogout, userId = Some(entry.agent.value.entityName))
 
+    context.auth.invalidate(context, AuthTokenChanged(entry.token))
     onUpdated(context, entry)
     postDelete(context, entry)
     entry
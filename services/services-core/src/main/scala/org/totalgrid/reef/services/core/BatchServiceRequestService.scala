@@ -32,8 +32,15 @@ import org.totalgrid.reef.services.framework._
 import org.totalgrid.reef.client.registration.ServiceResponseCallback
 import org.totalgrid.reef.client.operations.Response
 import org.totalgrid.reef.client.operations.scl.ScalaResponse
+import net.agileautomata.executor4s.Executor
+import java.util.concurrent.Semaphore
 
-class BatchServiceRequestService(services: List[ServiceEntryPoint[_ <: AnyRef]])
+/**
+ * runs a list of service requests in a single transaction so they all succeed or fail together.
+ * Requests that are marked as not atomic can be run concurrently (up to parallelism at a time)
+ * each in its own transaction, failures are reported per request.
+ */
+class BatchServiceRequestService(services: List[ServiceEntryPoint[_ <: AnyRef]], executor: Option[Executor] = None, parallelism: Int = 1)
     extends ServiceEntryPoint[BatchServiceRequest] {
 
   private val serviceMap: Map[String, ServiceEntryPoint[_ <: AnyRef]] = services.map { x => x.descriptor.id() -> x }.toMap
@@ -41,7 +48,16 @@ class BatchServiceRequestService(services: List[ServiceEntryPoint[_ <: AnyRef]])
   override val descriptor = BuiltInDescriptors.batchServiceRequest
 
   override def postAsync(contextSource: RequestContextSource, req: BatchServiceRequest)(callback: Response[BatchServiceRequest] => Unit) {
-    val responses = contextSource.transaction { context =>
+    val responses = executor match {
+      case Some(exe) if !req.getAtomic && parallelism > 1 => concurrentRequests(contextSource, req, exe)
+      case _ => atomicRequests(contextSource, req)
+    }
+
+    callback(buildResponse(responses))
+  }
+
+  private def atomicRequests(contextSource: RequestContextSource, req: BatchServiceRequest): List[ServiceResponse] = {
+    contextSource.transaction { context =>
 
       val source = new RequestContextSource { def transaction[A](f: (RequestContext) => A) = f(context) }
 
@@ -57,8 +73,37 @@ class BatchServiceRequestService(services: List[ServiceEntryPoint[_ <: AnyRef]])
         }
       }
     }
+  }
+
+  private def concurrentRequests(contextSource: RequestContextSource, req: BatchServiceRequest, exe: Executor): List[ServiceResponse] = {
+    val permits = new Semaphore(parallelism)
+
+    // responses are collected in request order no matter what order they complete in
+    val results = req.getRequestsList.toList.map { request =>
+      val result = new SynchronizedResult[ServiceResponse]
+      permits.acquire()
+      exe.execute {
+        try {
+          result.set(independentRequest(contextSource, request))
+        } finally {
+          permits.release()
+        }
+      }
+      result
+    }
+    results.map { _.await }
+  }
 
-    callback(buildResponse(responses))
+  private def independentRequest(contextSource: RequestContextSource, request: SelfIdentityingServiceRequest): ServiceResponse = {
+    val id = request.getRequest.getId
+    try {
+      serviceMap.get(request.getExchange) match {
+        case Some(service) => handleRequest(contextSource, service, request.getRequest, service.descriptor.getKlass)
+        case None => ServiceHelpers.getFailure(id, Envelope.Status.BAD_REQUEST, "No known service for exchange: " + request.getExchange)
+      }
+    } catch {
+      case x: Exception => ServiceHelpers.getFailure(id, Envelope.Status.INTERNAL_ERROR, x.getMessage)
+    }
   }
 
   private def buildResponse(responses: List[Envelope.ServiceResponse]) = {
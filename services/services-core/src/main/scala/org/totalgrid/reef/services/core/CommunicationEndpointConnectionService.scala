@@ -139,6 +139,20 @@ class CommunicationEndpointConnectionServiceModel
     }
   }
 
+  // the active assignment carries the routing key measurement batches are sent to
+  override protected def onCreated(context: RequestContext, entry: FrontEndAssignment) {
+    MeasurementRouting.routesChanged(context)
+    super.onCreated(context, entry)
+  }
+  override protected def onUpdated(context: RequestContext, entry: FrontEndAssignment) {
+    MeasurementRouting.routesChanged(context)
+    super.onUpdated(context, entry)
+  }
+  override protected def onDeleted(context: RequestContext, entry: FrontEndAssignment) {
+    MeasurementRouting.routesChanged(context)
+    super.onDeleted(context, entry)
+  }
+
   override def postUpdate(context: RequestContext, sql: FrontEndAssignment, existing: FrontEndAssignment) {
     logger.info("EndpointConnection UPDATED: " + sql.endpoint.value.map { _.entityName } + " id " + existing.id + " e: " + sql.enabled + " s: " + ConnProto.State.valueOf(sql.state) + " fep: " + sql.applicationId)
     coordinator.onFepConnectionChange(context, sql, existing)
@@ -163,6 +163,15 @@ class EntityEdgeServiceModel
     false
   }
 
+  override protected def onCreated(context: RequestContext, entry: EntityEdge) {
+    EntityService.entitiesChanged(context, List(entry.parentId, entry.childId))
+    super.onCreated(context, entry)
+  }
+  override protected def onDeleted(context: RequestContext, entry: EntityEdge) {
+    EntityService.entitiesChanged(context, List(entry.parentId, entry.childId))
+    super.onDeleted(context, entry)
+  }
+
   override protected def postDelete(context: RequestContext, previous: EntityEdge) {
 
     val derivedIds = ApplicationSchema.derivedEdges.where(_.edgeId === previous.id).map(_.parentEdgeId)
@@ -30,6 +30,7 @@ import org.totalgrid.reef.models._
 import org.totalgrid.reef.client.exception.{ ReefServiceException, BadRequestException }
 import org.squeryl.dsl.ast.{ RightHandSideOfIn, BinaryOperatorNodeLogicalBoolean, ExpressionNode }
 import org.totalgrid.reef.client.operations.scl.ScalaRequestHeaders._
+import org.totalgrid.reef.services.authz.EntitiesChanged
 
 object EntityService {
   def seed() {
@@ -60,6 +61,29 @@ object EntityService {
   val wellKnownTypes = List("Site", "Region", "Equipment", "EquipmentGroup", "Root")
 
   val allKnownTypes = builtInTypes ::: wellKnownTypes
+
+  private val graphBypass = "entity_graph_bypass"
+
+  /**
+   * tree queries can use the entity graph unless this request has already changed entities, the
+   * graph only sees committed changes
+   */
+  def entityGraph(context: RequestContext): Option[EntityGraph] = {
+    if (context.get[Boolean](graphBypass).getOrElse(false)) None else EntityGraph.current
+  }
+
+  /**
+   * names, types and edges feed the authz entity index, the entity graph and the measurement
+   * routing table, they all need to know when they change
+   */
+  def entitiesChanged(context: RequestContext, uuids: List[UUID]) {
+    context.auth.invalidate(context, EntitiesChanged(uuids))
+    MeasurementRouting.routesChanged(context)
+    EntityGraph.current.foreach { graph =>
+      context.set(graphBypass, java.lang.Boolean.TRUE)
+      context.operationBuffer.queuePostTransaction { graph.entitiesChanged(uuids) }
+    }
+  }
 }
 
 class EntityService(protected val model: EntityServiceModel)
@@ -145,7 +169,7 @@ class EntityServiceModel
         where(selector(ent.id))
           select (ent)).toList
     } else {
-      EntityTreeQuery.protoTreeQuery(req, selector).map { resultNode =>
+      EntityTreeQuery.protoTreeQuery(req, selector, EntityService.entityGraph(context)).map { resultNode =>
         resultNode.ent.resultNode = Some(resultNode)
         resultNode.ent
       }
@@ -265,6 +289,19 @@ class EntityServiceModel
       entry.types.value.diff(previous.types.value) == Nil
   }
 
+  override protected def onCreated(context: RequestContext, entry: Entity) {
+    EntityService.entitiesChanged(context, List(entry.id))
+    super.onCreated(context, entry)
+  }
+  override protected def onUpdated(context: RequestContext, entry: Entity) {
+    EntityService.entitiesChanged(context, List(entry.id))
+    super.onUpdated(context, entry)
+  }
+  override protected def onDeleted(context: RequestContext, entry: Entity) {
+    EntityService.entitiesChanged(context, List(entry.id))
+    super.onDeleted(context, entry)
+  }
+
   override protected def postDelete(context: RequestContext, previous: Entity) {
 
     val edges = ApplicationSchema.edges.where(e => (e.parentId === previous.id) or (e.childId === previous.id)).toList
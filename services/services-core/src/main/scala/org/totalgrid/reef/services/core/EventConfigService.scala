@@ -88,6 +88,13 @@ object EventConfigService {
 
     ApplicationSchema.eventConfigs.insert(toInsert)
   }
+
+  /**
+   * (severity, designation, alarmState, resource)
+   */
+  type EventProperties = (Int, Int, Int, String)
+
+  val cacheBypass = "event_config_cache_bypass"
 }
 
 class EventConfigService(protected val model: EventConfigServiceModel)
@@ -132,14 +139,45 @@ class EventConfigServiceModel
     with SimpleModelEntryCreation[EventConfig, EventConfigStore]
     with EventConfigConversion {
 
-  def getProperties(eventType: String) = {
-    val result = from(table)(cfg =>
-      where(cfg.eventType === eventType)
-        select ((cfg.severity, cfg.designation, cfg.alarmState, cfg.resource))).toList
+  import EventConfigService._
+
+  def getProperties(context: RequestContext, eventType: String): EventProperties = {
+    // every created event needs its configuration, during event storms that lookup dominates so
+    // we use the cache when enabled. It only sees committed changes, if this request has changed
+    // a config go to the database
+    val bypass = context.get[Boolean](cacheBypass).getOrElse(false)
+    val result = EventPropertiesCache.current match {
+      case Some(cache) if !bypass => cache.getOrLoad(eventType)(loadProperties(eventType))
+      case _ => loadProperties(eventType)
+    }
 
     // If the EventType exists in the config database, return it;
     // otherwise we have to assume it's an alarm.
-    result.headOption getOrElse (1, EventConfig.Designation.ALARM.getNumber, Alarm.State.UNACK_SILENT.getNumber, "")
+    result getOrElse (1, EventConfig.Designation.ALARM.getNumber, Alarm.State.UNACK_SILENT.getNumber, "")
+  }
+
+  private def loadProperties(eventType: String): Option[EventProperties] = {
+    from(table)(cfg =>
+      where(cfg.eventType === eventType)
+        select ((cfg.severity, cfg.designation, cfg.alarmState, cfg.resource))).toList.headOption
+  }
+
+  private def configChanged(context: RequestContext, entry: EventConfigStore) {
+    context.set(cacheBypass, java.lang.Boolean.TRUE)
+    EventPropertiesCache.configChanged(context, entry.eventType)
+  }
+
+  override protected def onCreated(context: RequestContext, entry: EventConfigStore) {
+    configChanged(context, entry)
+    super.onCreated(context, entry)
+  }
+  override protected def onUpdated(context: RequestContext, entry: EventConfigStore) {
+    configChanged(context, entry)
+    super.onUpdated(context, entry)
+  }
+  override protected def onDeleted(context: RequestContext, entry: EventConfigStore) {
+    configChanged(context, entry)
+    super.onDeleted(context, entry)
   }
 
   override def updateModelEntry(context: RequestContext, proto: EventConfig, existing: EventConfigStore): EventConfigStore = {
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.core
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.JavaConversions._
+
+import org.totalgrid.reef.services.framework.RequestContext
+import EventConfigService.EventProperties
+
+object EventPropertiesCache {
+
+  private case class Cached(properties: EventProperties, deadline: Long)
+
+  // event types are only ever a few hundred rows, this stops a flood of odd requests growing the cache
+  val defaultMaxEntries = 1000
+
+  @volatile private var instance: Option[EventPropertiesCache] = None
+
+  def current = instance
+
+  def enable(maxAge: Long) {
+    instance = Some(new EventPropertiesCache(maxAge, defaultMaxEntries))
+  }
+
+  def disable() {
+    instance = None
+  }
+
+  /**
+   * drops the cached properties for eventType once the changing transaction has been committed
+   */
+  def configChanged(context: RequestContext, eventType: String) {
+    instance.foreach { cache =>
+      context.operationBuffer.queuePostTransaction { cache.remove(eventType) }
+    }
+  }
+}
+
+/**
+ * keeps the configured properties of each event type so creating an event doesn't need to read
+ * its configuration. Only event types that have a configuration are kept, unknown types are
+ * read every time. Changes made through this services instance drop the entry as soon as they
+ * are committed, maxAge bounds how long a change made by another services node can go unnoticed.
+ */
+class EventPropertiesCache(maxAge: Long, maxEntries: Int, now: () => Long = () => System.currentTimeMillis) {
+
+  import EventPropertiesCache._
+
+  private val entries = new ConcurrentHashMap[String, Cached]
+  private val generation = new AtomicLong
+
+  def size = entries.size
+
+  def getOrLoad(eventType: String)(load: => Option[EventProperties]): Option[EventProperties] = {
+    val time = now()
+    entries.get(eventType) match {
+      case c: Cached if c.deadline > time => Some(c.properties)
+      case stale =>
+        if (stale != null) entries.remove(eventType, stale)
+        val loadedGeneration = generation.get
+        val loaded = load
+        loaded.foreach { properties =>
+          if (entries.size >= maxEntries) removeExpired(time)
+          if (entries.size < maxEntries) {
+            entries.put(eventType, Cached(properties, time + maxAge))
+            // a change committed while we were loading, what we read may already be stale
+            if (generation.get != loadedGeneration) entries.remove(eventType)
+          }
+        }
+        loaded
+    }
+  }
+
+  def remove(eventType: String) {
+    generation.incrementAndGet
+    entries.remove(eventType)
+  }
+
+  private def removeExpired(time: Long) {
+    entries.entrySet.toList.foreach { e => if (e.getValue.deadline <= time) entries.remove(e.getKey, e.getValue) }
+  }
+}
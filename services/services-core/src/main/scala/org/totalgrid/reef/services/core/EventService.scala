@@ -33,6 +33,8 @@ import java.util.UUID
 import org.squeryl.Query
 import org.totalgrid.reef.authz.VisibilityMap
 import org.totalgrid.reef.models._
+import org.totalgrid.reef.client.service.proto.Model.{ Entity => EntityProto }
+import scala.collection.mutable
 
 //import org.totalgrid.reef.services.framework.ProtoSerializer._
 import org.squeryl.PrimitiveTypeMode._
@@ -131,16 +133,36 @@ class EventServiceModel(eventConfig: EventConfigServiceModel, alarmServiceModel:
       request.getUserId
     }
 
-    val (severity, designation, alarmState, resource) = eventConfig.getProperties(request.getEventType)
+    val (severity, designation, alarmState, resource) = eventConfig.getProperties(context, request.getEventType)
     val renderedMessage = renderEventMessage(request, resource)
 
     // if the raw event had the entity filled out try to find that entity
-    val entity = request.entity.map(EntityQuery.findEntity(_)).getOrElse(None)
+    val entity = request.entity.map(findEventEntity(context, _)).getOrElse(None)
 
     val (eventStore, alarmOption) = makeEvent(context, designation, request, severity, entity, renderedMessage, userId, alarmState)
     eventStore
   }
 
+  /**
+   * batches of events (usually from a misbehaving endpoint) tend to reference the same few entities
+   * so we only look each one up once per request, misses aren't kept since the same request may go on
+   * to create the entity
+   */
+  private def findEventEntity(context: RequestContext, proto: EntityProto): Option[Entity] = {
+    val found = context.get[mutable.Map[EntityProto, Entity]](eventEntitiesKey).getOrElse {
+      val map = mutable.Map.empty[EntityProto, Entity]
+      context.set(eventEntitiesKey, map)
+      map
+    }
+    found.get(proto).orElse {
+      val entity = EntityQuery.findEntity(proto)
+      entity.foreach(found.put(proto, _))
+      entity
+    }
+  }
+
+  private val eventEntitiesKey = "event_entities"
+
   def log(event: EventStore) {
     val eventStringParts = "severity: " :: event.severity ::
       ", type: " :: event.eventType ::
@@ -23,8 +23,8 @@ import org.totalgrid.reef.client.service.proto.Descriptors
 import org.totalgrid.reef.client.service.proto.Measurements.MeasurementBatch
 
 import scala.collection.JavaConversions._
+import scala.collection.mutable
 
-import org.totalgrid.reef.models.{ CommunicationEndpoint, Point }
 import org.totalgrid.reef.services.framework.{ RequestContextSource, ServiceEntryPoint }
 
 import org.totalgrid.reef.client.{ RequestHeaders, AddressableDestination }
@@ -49,35 +49,21 @@ class MeasurementBatchService
 
     val future = contextSource.transaction { context =>
 
-      // TODO: load all endpoints efficiently
       val names = req.getMeasList().toList.map(_.getName).distinct
-      val points = Point.findByNames(names).toList
+      //fails with exception if any point can't be routed
+      val routes = MeasurementRouting.current.map { _.routesFor(names) }.getOrElse(MeasurementRouting.load(names))
 
-      if (names.size != points.size) {
-        val missingPoints = names.diff(points.map { _.entityName })
-        throw new BadRequestException("Trying to publish on unknown points: " + missingPoints.mkString(","))
-      }
-
-      val pointsWithoutEndpoints = points.filter(_.endpoint.value.isEmpty)
-
-      if (!pointsWithoutEndpoints.isEmpty) {
-        throw new BadRequestException("No endpoint set for points: " + pointsWithoutEndpoints.map { _.entityName })
-      }
-
-      val commEndpoints = points.groupBy(_.endpoint.value.get)
-
-      context.auth.authorize(context, componentId, "create", points.map { _.entityId })
+      context.auth.authorize(context, componentId, "create", routes.values.map { _.entityId }.toList)
 
       val headers = BasicRequestHeaders.empty
       val commonHeaders = context.getHeaders.timeout.map { headers.setTimeout(_) }.getOrElse(headers)
 
-      val requests = commEndpoints.size match {
-        //fails with exception if any batch can't be routed
+      val requests = routes.values.map { _.endpoint }.toSet.size match {
         case 0 => throw new BadRequestException("No Logical Nodes on points: ")
         case 1 =>
-          val addressedHeaders = commonHeaders.setDestination(convertEndpointToDestination(commEndpoints.head._1))
+          val addressedHeaders = commonHeaders.setDestination(new AddressableDestination(routes.values.head.destination))
           Request(Envelope.Verb.PUT, req, addressedHeaders) :: Nil
-        case _ => getRequests(req, commonHeaders, commEndpoints)
+        case _ => getRequests(req, commonHeaders, routes)
       }
 
       val exe = context.client.getInternal.getExecutor
@@ -103,26 +89,20 @@ class MeasurementBatchService
     }
   }
 
-  private def convertEndpointToDestination(ce: CommunicationEndpoint) = ce.frontEndAssignment.value.serviceRoutingKey match {
-    case Some(key) => new AddressableDestination(key)
-    case None => throw new BadRequestException("No measurement stream assignment for endpoint: " + ce.entityName)
-  }
-
-  private def getRequests(req: MeasurementBatch, commonHeaders: RequestHeaders, commEndpoints: Map[CommunicationEndpoint, List[Point]]): List[Request[MeasurementBatch]] = {
-    val measList = req.getMeasList().toList
-
-    // TODO: more efficient creation of measurement batches
-    commEndpoints.foldLeft(Nil: List[Request[MeasurementBatch]]) {
-      case (sum, (ce, points)) =>
+  private def getRequests(req: MeasurementBatch, commonHeaders: RequestHeaders, routes: Map[String, MeasurementRouting.Route]): List[Request[MeasurementBatch]] = {
 
-        val batch = MeasurementBatch.newBuilder
-        batch.setWallTime(req.getWallTime)
-        points.foreach { p =>
-          batch.addMeas(measList.find(_.getName == p.entityName).get)
-        }
-        val headers = commonHeaders.setDestination(convertEndpointToDestination(ce))
-        Request(Envelope.Verb.PUT, batch.build, headers) :: sum
+    // single pass over the measurements, keeping their original order inside each endpoint batch
+    val batches = mutable.LinkedHashMap.empty[String, (MeasurementRouting.Route, MeasurementBatch.Builder)]
+    req.getMeasList().foreach { meas =>
+      val route = routes(meas.getName)
+      val (_, batch) = batches.getOrElseUpdate(route.endpoint, (route, MeasurementBatch.newBuilder.setWallTime(req.getWallTime)))
+      batch.addMeas(meas)
     }
 
+    batches.values.toList.map {
+      case (route, batch) =>
+        val headers = commonHeaders.setDestination(new AddressableDestination(route.destination))
+        Request(Envelope.Verb.PUT, batch.build, headers)
+    }
   }
 }
\ No newline at end of file
@@ -19,12 +19,12 @@
 package org.totalgrid.reef.services.core
 
 import org.totalgrid.reef.client.service.proto.Descriptors
-import org.totalgrid.reef.measurementstore.Historian
+import org.totalgrid.reef.measurementstore.{ Rollup, HistoryCursor, Historian }
 import org.totalgrid.reef.services.framework.SimpleServiceBehaviors.SimpleReadAndSubscribe
 import org.totalgrid.reef.client.exception.BadRequestException
 
 import org.totalgrid.reef.services.framework.{ RequestContext, ServiceEntryPoint }
-import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement, MeasurementHistory }
+import org.totalgrid.reef.client.service.proto.Measurements.{ Measurement, MeasurementRollup, MeasurementHistory }
 
 class MeasurementHistoryService(cm: Historian)
     extends ServiceEntryPoint[MeasurementHistory]
@@ -40,6 +40,7 @@ class MeasurementHistoryService(cm: Historian)
     if (req.hasEndTime) throw new BadRequestException("Cannot subscribe to measurement when endTime has been set.")
     if (req.hasSampling && req.getSampling != MeasurementHistory.Sampling.NONE)
       throw new BadRequestException("Cannot subscribe to \"sampled\" data stream, leave sampling field blank or NONE")
+    if (req.getRollupInterval > 0) throw new BadRequestException("Cannot subscribe to rollups.")
     List(pointName)
   }
 
@@ -68,46 +69,69 @@ class MeasurementHistoryService(cm: Historian)
     val keepNewest = req.getKeepNewest()
     val begin = req.getStartTime()
     val end = if (req.getEndTime() == 0) Long.MaxValue else req.getEndTime()
-    val limit = if (req.getSampling() == MeasurementHistory.Sampling.NONE) {
-      if (req.getLimit() == 0) HISTORY_LIMIT else req.getLimit()
-    } else {
-      HISTORY_LIMIT
-    }
+    val limit = if (req.getLimit() == 0) HISTORY_LIMIT else req.getLimit()
 
     if (limit > HISTORY_LIMIT)
       throw new BadRequestException("Maximum number of measurements available through this interface is " + HISTORY_LIMIT + ". Reduce limit parameter.")
 
-    // read values out of the historian
-    var history = cm.getInRange(pointName, begin, end, limit, !keepNewest)
-
-    // begin == 0 only when asking for all measurements
-    if (begin != 0 && history.size != limit) {
-      val previousValues = cm.getInRange(pointName, 0, begin, 1, false)
-      if (!previousValues.isEmpty) {
-        // TODO: make this more effecient
-        history = (previousValues(0) :: history.toList.reverse).reverse
-      }
+    if (req.getRollupInterval > 0) {
+      if (req.getSampling() != MeasurementHistory.Sampling.NONE || req.hasContinuationToken)
+        throw new BadRequestException("Rollups cannot be sampled or continued.")
+      rollupResult(req, pointName, cm.getRollups(pointName, begin, end, req.getRollupInterval), keepNewest, limit)
+    } else {
+      measurementResult(req, pointName, begin, end, keepNewest, limit)
     }
+  }
+
+  private def measurementResult(req: ServiceType, pointName: String, begin: Long, end: Long, keepNewest: Boolean, limit: Int) = {
+    val cursor = if (req.hasContinuationToken) {
+      if (req.getSampling() != MeasurementHistory.Sampling.NONE)
+        throw new BadRequestException("Cannot continue a sampled history request.")
+      Some(HistoryCursor.parse(req.getContinuationToken).getOrElse(throw new BadRequestException("Invalid continuation token: " + req.getContinuationToken)))
+    } else None
+
+    var next = Option.empty[HistoryCursor]
 
-    req.getSampling() match {
+    // read values out of the historian, history is always in ascending order after this
+    var history = req.getSampling() match {
       case MeasurementHistory.Sampling.NONE =>
+        val page = cm.getPage(pointName, begin, end, limit, !keepNewest, cursor)
+        next = page.next
+        // we need to flip the data, since we always return the data in ascending order
+        if (keepNewest) page.meases.reverse else page.meases
       case MeasurementHistory.Sampling.EXTREMES =>
-        history = sampleExtremes(history)
+        // each bucket returns its min and max so we use half as many buckets as the limit
+        cm.getExtremesInRange(pointName, begin, end, (limit / 2).max(1)).take(limit)
     }
 
-    // we need to flip the data, since we always return the data in ascending order
-    history = if (keepNewest) history.reverse else history
+    // begin == 0 only when asking for all measurements, continued pages already had the previous value
+    if (begin != 0 && history.size != limit && cursor.isEmpty) {
+      val previousValues = cm.getInRange(pointName, 0, begin, 1, false)
+      if (!previousValues.isEmpty) {
+        history = previousValues(0) +: history
+      }
+    }
 
     val b = MeasurementHistory.newBuilder(req)
     history.foreach { m => b.addMeasurements(m) }
+    b.clearContinuationToken()
+    next.foreach { c => b.setContinuationToken(c.token) }
     // allways set point_name (was required field before 0.4.8), remove in 0.5.0
     b.setPointName(pointName)
 
     b.build
   }
 
-  private def sampleExtremes(meases: Seq[Measurement]): Seq[Measurement] = {
-    // TODO: implement sampling routine
-    meases
+  private def rollupResult(req: ServiceType, pointName: String, rollups: Seq[Rollup], keepNewest: Boolean, limit: Int) = {
+    val kept = if (keepNewest) rollups.takeRight(limit) else rollups.take(limit)
+
+    val b = MeasurementHistory.newBuilder(req)
+    kept.foreach { r =>
+      b.addRollups(MeasurementRollup.newBuilder.setStartTime(r.start).setEndTime(r.start + req.getRollupInterval)
+        .setCount(r.count).setMin(r.min).setMax(r.max).setMean(r.mean)
+        .setFirstTime(r.firstTime).setFirst(r.first).setLastTime(r.lastTime).setLast(r.last))
+    }
+    b.setPointName(pointName)
+    b.build
   }
 }
\ No newline at end of file
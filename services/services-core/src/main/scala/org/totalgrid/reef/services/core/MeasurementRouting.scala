@@ -0,0 +1,132 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.core
+
+import org.totalgrid.reef.models.Point
+import org.totalgrid.reef.client.exception.BadRequestException
+import org.totalgrid.reef.services.framework.RequestContext
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+import org.squeryl.PrimitiveTypeMode._
+
+object MeasurementRouting {
+
+  /**
+   * where measurements for a point need to be sent, endpoint is used to split batches so each
+   * request only carries measurements for a single endpoint
+   */
+  case class Route(pointName: String, entityId: UUID, endpoint: String, destination: String)
+
+  @volatile private var instance: Option[MeasurementRouting] = None
+
+  def current = instance
+
+  def enable(maxAge: Long) {
+    instance = Some(new MeasurementRouting(maxAge))
+  }
+
+  def disable() {
+    instance = None
+  }
+
+  /**
+   * points, endpoints and their fep assignments all feed the routing table, models call this
+   * whenever they change one of them
+   */
+  def routesChanged(context: RequestContext) {
+    instance.foreach { routing =>
+      context.operationBuffer.queuePostTransaction { routing.clear() }
+    }
+  }
+
+  /**
+   * look up the routes for the named points, fails if any of the points can't currently be routed
+   */
+  def load(names: List[String]): Map[String, Route] = {
+    val points = Point.findByNames(names).toList
+
+    if (names.size != points.size) {
+      val missingPoints = names.diff(points.map { _.entityName })
+      throw new BadRequestException("Trying to publish on unknown points: " + missingPoints.mkString(","))
+    }
+
+    val pointsWithoutEndpoints = points.filter(_.endpoint.value.isEmpty)
+
+    if (!pointsWithoutEndpoints.isEmpty) {
+      throw new BadRequestException("No endpoint set for points: " + pointsWithoutEndpoints.map { _.entityName })
+    }
+
+    points.groupBy(_.endpoint.value.get).flatMap {
+      case (ce, endpointPoints) =>
+        val destination = ce.frontEndAssignment.value.serviceRoutingKey.getOrElse {
+          throw new BadRequestException("No measurement stream assignment for endpoint: " + ce.entityName)
+        }
+        endpointPoints.map { p => p.entityName -> Route(p.entityName, p.entityId, ce.entityName, destination) }
+    }
+  }
+}
+
+/**
+ * keeps the routes for points we have already published to so steady state measurement batches
+ * don't need any database access. The whole table is dropped after any routing related change made
+ * through this services instance is committed, those changes are rare compared to measurements. Each
+ * route is also reloaded maxAge milliseconds after it was read, which bounds how long a point move or
+ * reassignment handled by another services node can go unnoticed.
+ */
+class MeasurementRouting(maxAge: Long, now: () => Long = () => System.currentTimeMillis) {
+
+  import MeasurementRouting._
+
+  private case class Cached(route: Route, deadline: Long)
+
+  private val routes = new ConcurrentHashMap[String, Cached]
+  private val generation = new AtomicLong
+
+  def size = routes.size
+
+  def routesFor(names: List[String]): Map[String, Route] = {
+    val time = now()
+    val cached = names.flatMap { n =>
+      routes.get(n) match {
+        case null => None
+        case c if c.deadline > time => Some(c.route)
+        case expired =>
+          routes.remove(n, expired)
+          None
+      }
+    }.map { r => r.pointName -> r }.toMap
+
+    if (cached.size == names.size) cached
+    else {
+      val loadedGeneration = generation.get
+      val loaded = load(names.filterNot(cached.contains))
+      loaded.foreach { case (name, route) => routes.put(name, Cached(route, time + maxAge)) }
+      // a routing change committed while we were loading, don't keep what we read
+      if (generation.get != loadedGeneration) loaded.keys.foreach(routes.remove(_))
+      cached ++ loaded
+    }
+  }
+
+  def clear() {
+    generation.incrementAndGet
+    routes.clear()
+  }
+}
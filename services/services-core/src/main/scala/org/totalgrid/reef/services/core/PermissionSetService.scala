@@ -30,6 +30,7 @@ import org.totalgrid.reef.client.exception.BadRequestException
 
 import org.totalgrid.reef.models._
 import org.totalgrid.reef.authz.VisibilityMap
+import org.totalgrid.reef.services.authz.PermissionSetChanged
 import org.totalgrid.reef.client.service.proto.Auth.{ Permission, PermissionSet => PermissionSetProto }
 
 class PermissionSetService(protected val model: PermissionSetServiceModel)
@@ -77,6 +78,7 @@ class PermissionSetServiceModel
     val previousProto = existing.proto
 
     if (previousProto != req) {
+      context.auth.invalidate(context, PermissionSetChanged(existing.id))
       update(context, existing.copy(protoData = req.toByteArray), existing)
     } else {
       (existing, false)
@@ -88,6 +90,7 @@ class PermissionSetServiceModel
   }
 
   override def postDelete(context: RequestContext, existing: PermissionSet) {
+    context.auth.invalidate(context, PermissionSetChanged(existing.id))
     entityModel.delete(context, existing.entity.value)
   }
 
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.coordinators
+
+import org.scalatest.FunSuite
+import org.scalatest.matchers.ShouldMatchers
+import org.scalatest.junit.JUnitRunner
+import org.junit.runner.RunWith
+
+import AssignmentBalancer._
+
+@RunWith(classOf[JUnitRunner])
+class AssignmentBalancerTest extends FunSuite with ShouldMatchers {
+
+  private var nextId = 0L
+  private def endpoints(count: Int, points: Long = 0, rate: Double = 0, movable: Boolean = true) = {
+    (1 to count).map { i =>
+      nextId += 1
+      EndpointLoad(nextId, points, rate, movable)
+    }.toList
+  }
+
+  private def app(id: Long, eps: List[EndpointLoad]) = AppLoad(id, "app" + id, eps)
+
+  test("Weight counts endpoints, points and rate") {
+    weight(EndpointLoad(1, 0, 0)) should equal(endpointCost)
+    weight(EndpointLoad(1, 100, 10)) should equal(endpointCost + 100 * pointCost + 10 * measRateCost)
+  }
+
+  test("Least loaded uses weight not endpoint count") {
+    val big = app(1, endpoints(1, points = 1000))
+    val many = app(2, endpoints(3))
+
+    leastLoaded(List(big, many)).map(_.appId) should equal(Some(2))
+    leastLoaded(Nil) should equal(None)
+  }
+
+  test("Least loaded ties broken by name") {
+    val b = AppLoad(1, "b", endpoints(2))
+    val a = AppLoad(2, "a", endpoints(2))
+
+    leastLoaded(List(b, a)).map(_.name) should equal(Some("a"))
+    leastLoaded(List(a, b)).map(_.name) should equal(Some("a"))
+  }
+
+  test("Balanced applications aren't touched") {
+    val apps = List(app(1, endpoints(3)), app(2, endpoints(3)))
+    rebalance(apps, 10)() should equal(Nil)
+  }
+
+  test("Overloaded application is evened out") {
+    val apps = List(app(1, endpoints(6)), app(2, Nil))
+    val moves = rebalance(apps, 10)()
+
+    moves.size should equal(3)
+    moves.foreach { m =>
+      m.fromApp should equal(1)
+      m.toApp should equal(2)
+    }
+  }
+
+  test("Moves bounded by maxMoves") {
+    val apps = List(app(1, endpoints(6)), app(2, Nil))
+
+    rebalance(apps, 2)().size should equal(2)
+    rebalance(apps, 0)() should equal(Nil)
+  }
+
+  test("Load within tolerance isn't moved") {
+    val apps = List(app(1, endpoints(4)), app(2, endpoints(2)))
+
+    rebalance(apps, 10)().size should equal(1)
+    rebalance(apps, 10, 0.5)() should equal(Nil)
+  }
+
+  test("Manually assigned endpoints are never moved") {
+    val fixed = endpoints(6, movable = false)
+    val apps = List(app(1, fixed ::: endpoints(1)), app(2, Nil))
+    val moves = rebalance(apps, 10)()
+
+    moves.size should equal(1)
+    fixed.map(_.endpointId).contains(moves.head.endpointId) should equal(false)
+  }
+
+  test("Only compatible applications take endpoints") {
+    val apps = List(app(1, endpoints(6)), app(2, Nil), app(3, Nil))
+    val moves = rebalance(apps, 10)((e, appId) => appId == 3)
+
+    moves.size should equal(3)
+    moves.map(_.toApp).distinct should equal(List(3))
+  }
+
+  test("Move that would just shift the overload isn't made") {
+    val apps = List(app(1, endpoints(1, points = 1000)), app(2, endpoints(1)))
+    rebalance(apps, 10)() should equal(Nil)
+  }
+
+  test("No endpoint moved twice") {
+    val apps = List(app(1, endpoints(2, points = 400) ::: endpoints(8)), app(2, Nil), app(3, endpoints(1, rate = 50)))
+    val moves = rebalance(apps, 20)()
+
+    moves.isEmpty should equal(false)
+    moves.map(_.endpointId).distinct.size should equal(moves.size)
+  }
+
+  test("Rebalance lowers the heaviest load") {
+    val apps = List(app(1, endpoints(2, points = 400) ::: endpoints(8)), app(2, Nil), app(3, endpoints(1, rate = 50)))
+    val moves = rebalance(apps, 20)()
+
+    val byId = apps.flatMap(_.endpoints).map(e => e.endpointId -> e).toMap
+    val after = apps.map { a =>
+      val out = moves.filter(_.fromApp == a.appId).map(_.endpointId).toSet
+      val in = moves.filter(_.toApp == a.appId).map(m => byId(m.endpointId))
+      a.copy(endpoints = a.endpoints.filterNot(e => out.contains(e.endpointId)) ::: in)
+    }
+    after.map(_.load).max should be < (apps.map(_.load).max)
+  }
+}
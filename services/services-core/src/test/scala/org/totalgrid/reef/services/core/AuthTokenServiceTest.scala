@@ -30,7 +30,8 @@ import scala.collection.JavaConversions._
 import org.scalatest.junit.JUnitRunner
 import org.junit.runner.RunWith
 
-import org.totalgrid.reef.services.authz.SqlAuthzService
+import org.totalgrid.reef.services.authz.{ AuthTokenCache, AuthzService, SqlAuthzService }
+import org.totalgrid.reef.authz.AuthzFilter
 import org.totalgrid.reef.client.sapi.service.ServiceTypeIs
 import org.totalgrid.reef.client.exception.{ UnauthorizedException, ReefServiceException }
 import org.totalgrid.reef.services.framework.{ RequestContextSource, RequestContext }
@@ -354,22 +355,21 @@ class AuthTokenQueryingTest extends AuthSystemTestBase {
 @RunWith(classOf[JUnitRunner])
 class AuthTokenVerifierTest extends AuthSystemTestBase {
 
-  class AuthRequestContext extends RequestContext with HeadersContext {
+  class AuthRequestContext(val auth: AuthzService) extends RequestContext with HeadersContext {
 
     def client = throw new Exception
     def serviceRegistration = throw new Exception
     def eventSink = throw new Exception
     def operationBuffer = throw new Exception
     def eventPublisher = throw new Exception
-    val auth = new SqlAuthzService()
   }
 
-  class AuthTester extends ServiceTypeIs[Verb] {
+  class AuthTester(auth: AuthzService = new SqlAuthzService()) extends ServiceTypeIs[Verb] {
 
     val componentId = "auth_tester"
 
     def request(verb: Verb, authToken: Option[String]) = {
-      val context = new AuthRequestContext
+      val context = new AuthRequestContext(auth)
       authToken.map { token => context.modifyHeaders { _.setAuthToken(token) } }
       context.auth.prepare(context)
       verb match {
@@ -386,6 +386,16 @@ class AuthTokenVerifierTest extends AuthSystemTestBase {
 
   }
 
+  class CachedAuthFixture(val cache: AuthTokenCache = new AuthTokenCache(60000)) extends Fixture {
+    val test = new AuthTester(new SqlAuthzService(AuthzFilter, Some(cache)))
+
+    // the services are using the queueing authz, replay what they reported into our cache
+    def applyInvalidations() {
+      contextSource.invalidations.foreach { cache.invalidate(_) }
+      contextSource.invalidations.clear()
+    }
+  }
+
   test("No AuthToken Attached => BadRequest") {
     val fix = new AuthFixture
 
@@ -439,4 +449,58 @@ class AuthTokenVerifierTest extends AuthSystemTestBase {
   //    fix.test.request(Verb.PUT, List(authToken1.getToken, authToken2.getToken))
   //  }
 
-}
\ No newline at end of file
+  test("Cached AuthToken is reused") {
+    val fix = new CachedAuthFixture
+    val authToken = fix.login("guest", "guest")
+
+    fix.test.request(Verb.GET, Some(authToken.getToken))
+    fix.test.request(Verb.GET, Some(authToken.getToken))
+
+    fix.cache.misses should equal(1)
+    fix.cache.hits should equal(1)
+    fix.cache.size should equal(1)
+  }
+
+  test("Unknown AuthTokens are not cached") {
+    val fix = new CachedAuthFixture
+
+    intercept[UnauthorizedException] {
+      fix.test.request(Verb.GET, Some("fake-token"))
+    }
+    intercept[UnauthorizedException] {
+      fix.test.request(Verb.GET, Some("fake-token"))
+    }
+    fix.cache.misses should equal(2)
+    fix.cache.size should equal(0)
+  }
+
+  test("Revoking cached AuthToken => Unauthorized") {
+    val fix = new CachedAuthFixture
+
+    val authToken = fix.login("guest", "guest")
+    fix.test.request(Verb.GET, Some(authToken.getToken))
+
+    fix.authService.delete(authToken).expectOne()
+    fix.applyInvalidations()
+
+    fix.cache.size should equal(0)
+    intercept[UnauthorizedException] {
+      fix.test.request(Verb.GET, Some(authToken.getToken))
+    }
+  }
+
+  test("Cached AuthToken honors expiration time") {
+    var now = System.currentTimeMillis
+    val cache = new AuthTokenCache(60000, () => now)
+    val fix = new CachedAuthFixture(cache)
+
+    val authToken = fix.login("guest", "guest", timeoutAt = Some(now + 5000))
+    fix.test.request(Verb.GET, Some(authToken.getToken))
+    cache.size should equal(1)
+
+    now += 10000
+    cache.get(authToken.getToken) should equal(None)
+    cache.size should equal(0)
+  }
+
+}
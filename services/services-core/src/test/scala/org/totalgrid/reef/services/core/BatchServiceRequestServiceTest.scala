@@ -36,6 +36,7 @@ import scala.collection.JavaConversions._
 import org.totalgrid.reef.client.exception.BadRequestException
 import org.totalgrid.reef.models.{ CoreServicesSchema, DatabaseUsingTestNotTransactionSafe }
 import org.totalgrid.reef.client.sapi.client.Expectations._
+import net.agileautomata.executor4s._
 
 @RunWith(classOf[JUnitRunner])
 class BatchServiceRequestServiceTest extends DatabaseUsingTestNotTransactionSafe {
@@ -54,6 +55,14 @@ class BatchServiceRequestServiceTest extends DatabaseUsingTestNotTransactionSafe
 
   val service = new SyncService(new BatchServiceRequestService(services), contextSource)
 
+  val exe = Executors.newResizingThreadPool(5.minutes)
+  val parallelService = new SyncService(new BatchServiceRequestService(services, Some(exe), 4), contextSource)
+
+  override def afterAll() {
+    exe.terminate()
+    super.afterAll()
+  }
+
   test("Put and Get works") {
     val putAndGet = getStatuses(makeBatch(command(), command(GET)), OK)
     putAndGet should equal(List(CREATED, OK))
@@ -72,6 +81,31 @@ class BatchServiceRequestServiceTest extends DatabaseUsingTestNotTransactionSafe
     }
   }
 
+  test("Non atomic batch runs requests independently") {
+    val commands = (1 to 10).map { i => command(commandName = "cmd" + i) }.toList
+    val requests = commands.take(5) ::: List(commandAccess(PUT, "fakeCommand")) ::: commands.drop(5)
+    val batch = makeBatch(requests: _*).toBuilder.setAtomic(false).build
+
+    val response = parallelService.post(batch).expectOne(OK)
+    val responses = response.getRequestsList.toList.map { _.getResponse }
+
+    // responses come back in request order with only the bad request failing
+    responses.map { _.getId } should equal(requests.map { _.getRequest.getId })
+    responses.map { _.getStatus } should equal(List.fill(5)(CREATED) ::: List(BAD_REQUEST) ::: List.fill(5)(CREATED))
+
+    getStatuses(makeBatch(commands.map { c => command(GET, Command.parseFrom(c.getRequest.getPayload).getName) }: _*), OK) should equal(List.fill(10)(OK))
+  }
+
+  test("Atomic batch ignores parallelism") {
+    intercept[BadRequestException] {
+      parallelService.post(makeBatch(command(), commandAccess(PUT, "fakeCommand"))).expectOne
+    }
+
+    intercept[BadRequestException] {
+      parallelService.post(makeBatch(commandAccess(PUT))).expectOne
+    }
+  }
+
   def getStatuses(batch: BatchServiceRequest, status: Envelope.Status) = {
     val response = service.post(batch).expectOne(status)
 
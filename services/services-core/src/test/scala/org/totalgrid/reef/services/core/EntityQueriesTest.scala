@@ -31,7 +31,7 @@ import org.totalgrid.reef.client.service.entity.EntityRelation
 import org.totalgrid.reef.client.sapi.rpc.impl.builders.EntityRequestBuilders
 import org.totalgrid.reef.services.SilentRequestContext
 import org.totalgrid.reef.models._
-import org.squeryl.dsl.ast.ExpressionNode
+import org.squeryl.dsl.ast.{ RightHandSideOfIn, BinaryOperatorNodeLogicalBoolean, ExpressionNode }
 
 object EntityTestSeed {
 
@@ -622,4 +622,63 @@ class EntityQueriesTest extends DatabaseUsingTestNotTransactionSafe with RunTest
     EntityTreeQuery.protoTreeQuery(request)
   }
 
+  // canonical form of a result tree, children and types sorted so sql and graph ordering don't matter
+  def normalize(node: ResultNode): String = {
+    val subs = node.subNodes.toList.map {
+      case (rel, nodes) => rel.toString + nodes.map(normalize).sorted.mkString("[", ",", "]")
+    }.sorted
+    node.name + node.types.sorted.mkString("(", ",", ")") + subs.mkString("{", ",", "}")
+  }
+  def normalize(results: List[ResultNode]): List[String] = results.map(normalize).sorted
+
+  def graphRequests = {
+    def rel(name: String, descendant: Boolean, dist: Option[Int], ents: EntityProto.Builder*) = {
+      val r = Relationship.newBuilder.setRelationship(name).setDescendantOf(descendant)
+      dist.foreach(r.setDistance(_))
+      ents.foreach(r.addEntities(_))
+      r
+    }
+    EntityProto.newBuilder.setName("RegA").addRelations(rel("owns", true, None, EntityProto.newBuilder.addTypes("Point"))) ::
+      EntityProto.newBuilder.addTypes("Substation").addRelations(rel("owns", true, Some(1),
+        EntityProto.newBuilder.addTypes("Line").addRelations(rel("refs", true, Some(1))),
+        EntityProto.newBuilder.addTypes("Breaker").addRelations(rel("owns", true, Some(1))))) ::
+      EntityProto.newBuilder.addTypes("Point").addRelations(rel("owns", false, None, EntityProto.newBuilder.addTypes("Region"))) ::
+      EntityProto.newBuilder.setName("RegA-SubA-DeviceA").addRelations(rel("owns", false, Some(1),
+        EntityProto.newBuilder.addRelations(rel("owns", true, Some(1), EntityProto.newBuilder.addTypes("Equipment"))))) ::
+      EntityProto.newBuilder.addTypes("Region").addRelations(rel("owns", true, Some(2))) ::
+      Nil
+  }
+
+  test("Entity graph matches sql queries") {
+    val hidden = from(ApplicationSchema.entities)(e => where(e.name like "%DeviceB%") select (e.id))
+    val restricted = { uuid: ExpressionNode => new BinaryOperatorNodeLogicalBoolean(uuid, new RightHandSideOfIn(hidden), "not in", true) }
+
+    val graph = new EntityGraph(60000)
+    graphRequests.foreach { req =>
+      List(allEntitySelector, restricted).foreach { selector =>
+        val sql = normalize(protoTreeQuery(req.build, selector))
+        sql.isEmpty should equal(false)
+        normalize(protoTreeQuery(req.build, selector, Some(graph))) should equal(sql)
+      }
+    }
+  }
+
+  test("Entity graph reloads dirty entities") {
+    val graph = new EntityGraph(60000)
+    val req = EntityProto.newBuilder.setName("RegA-SubA").addRelations(
+      Relationship.newBuilder.setRelationship("owns").setDescendantOf(true).setDistance(1))
+
+    normalize(protoTreeQuery(req.build, allEntitySelector, Some(graph))) should equal(normalize(protoTreeQuery(req.build)))
+
+    val sub = from(ApplicationSchema.entities)(e => where(e.name === "RegA-SubA") select (e)).single
+    val dev = EntityTestSeed.addEntity("RegA-SubA-DeviceD", "Line" :: "Equipment" :: Nil)
+    EntityTestSeed.edgeModel.addEdge(EntityTestSeed.context, sub, dev, "owns")
+
+    val sql = normalize(protoTreeQuery(req.build))
+    normalize(protoTreeQuery(req.build, allEntitySelector, Some(graph))) should not equal (sql)
+
+    graph.entitiesChanged(List(sub.id, dev.id))
+    normalize(protoTreeQuery(req.build, allEntitySelector, Some(graph))) should equal(sql)
+  }
+
 }
\ No newline at end of file
@@ -32,6 +32,7 @@ import org.totalgrid.reef.services.ServiceDependencies
 import org.totalgrid.reef.client.exception.{ ReefServiceException, BadRequestException }
 
 import org.totalgrid.reef.client.sapi.client.Expectations._
+import org.totalgrid.reef.client.proto.Envelope
 
 @RunWith(classOf[JUnitRunner])
 class EventServiceTest extends DatabaseUsingTestBase with SystemEventCreator {
@@ -185,6 +186,61 @@ class EventServiceTest extends DatabaseUsingTestBase with SystemEventCreator {
     fix.updateAlarm(makeAlarm(alarm, Alarm.State.ACKNOWLEDGED))
   }
 
+  test("Event config changes reach new events") {
+    val fix = new Fixture
+    EventPropertiesCache.enable(60000)
+    try {
+      // unknown event types are treated as alarms and aren't cached
+      fix.publishEvent(createSystemEvent("Test.Event", "FEP").build).alarm.get should be(true)
+      EventPropertiesCache.current.get.size should equal(0)
+
+      fix.createConfig(makeEc(Some("Test.Event"), Some(7), Some(EventConfig.Designation.EVENT), Some("Test Event")))
+      val event = fix.publishEvent(createSystemEvent("Test.Event", "FEP").build)
+      event.alarm.get should be(false)
+      event.severity.get should be(7)
+      fix.publishEvent(createSystemEvent("Test.Event", "FEP").build).severity.get should be(7)
+      EventPropertiesCache.current.get.size should equal(1)
+
+      fix.createConfig(makeEc(Some("Test.Event"), Some(4), Some(EventConfig.Designation.EVENT), Some("Updated Event")))
+      val updated = fix.publishEvent(createSystemEvent("Test.Event", "FEP").build)
+      updated.severity.get should be(4)
+      updated.rendered.get should be("Updated Event")
+
+      fix.eventConfigService.delete(makeEc(Some("Test.Event"))).expectOne(Envelope.Status.DELETED)
+      fix.publishEvent(createSystemEvent("Test.Event", "FEP").build).alarm.get should be(true)
+    } finally {
+      EventPropertiesCache.disable()
+    }
+  }
+
+  test("Event config cache expires and is bounded") {
+    var time = 0L
+    val cache = new EventPropertiesCache(1000, 2, () => time)
+    var loads = 0
+    def get(eventType: String) = cache.getOrLoad(eventType) { loads += 1; Some((1, 2, 3, eventType)) }
+
+    get("A") should equal(Some((1, 2, 3, "A")))
+    get("A")
+    loads should equal(1)
+
+    // full caches don't take new entries until the old ones expire
+    get("B")
+    get("C")
+    get("C")
+    loads should equal(4)
+    cache.size should equal(2)
+
+    time = 1000
+    get("A")
+    get("C")
+    get("C")
+    loads should equal(6)
+    cache.size should equal(2)
+
+    cache.getOrLoad("Missing")(None) should equal(None)
+    cache.size should equal(2)
+  }
+
   ////////////////////////////////////////////////////////
   // Utilities
 
@@ -22,6 +22,8 @@ import org.totalgrid.reef.services.ConnectionFixture
 import org.totalgrid.reef.client.Connection
 import org.totalgrid.reef.client.exception.ReefServiceException
 
+import scala.collection.JavaConversions._
+
 import org.scalatest.junit.JUnitRunner
 import org.junit.runner.RunWith
 
@@ -112,4 +114,39 @@ class MeasurementBatchServiceTest extends EndpointRelatedTestBase {
     }
   }
 
+  test("Cached routes are dropped on entity changes") {
+    MeasurementRouting.enable(60000)
+    try {
+      ConnectionFixture.mock() { amqp =>
+        val coord = new BatchFixture(amqp)
+        val routing = MeasurementRouting.current.get
+
+        coord.addDevice("dev1")
+        coord.addDevice("dev2")
+        coord.addFepAndMeasProc()
+
+        val mb = coord.listenForMeasurements("meas")
+
+        coord.publishMeas(makeBatch(makeInt("dev1.test_point", 10)))
+        mb.waitFor({ _.size == 1 }, 1000)
+        routing.size should equal(1)
+
+        coord.addDevice("dev3")
+        routing.size should equal(0)
+
+        val batch = makeBatch(makeInt("dev1.test_point", 10) :: makeInt("dev2.test_point", 10) :: makeInt("dev1.test_point", 11) :: Nil)
+        coord.publishMeas(batch)
+        mb.waitFor({ _.size == 3 }, 1000)
+        routing.size should equal(2)
+
+        // both dev1 measurements end up in the same batch, in order
+        val combined = mb.current.map { _._2 }.filter(_.getMeasCount == 2)
+        combined.size should equal(1)
+        combined.head.getMeasList.toList.map { _.getIntVal } should equal(List(10L, 11L))
+      }
+    } finally {
+      MeasurementRouting.disable()
+    }
+  }
+
 }
\ No newline at end of file
@@ -31,6 +31,7 @@ import org.totalgrid.reef.client.service.proto.Model.{ PointType, Point }
 import org.totalgrid.reef.client.exception.BadRequestException
 
 import org.totalgrid.reef.client.sapi.client.Expectations._
+import scala.collection.JavaConversions._
 
 class FakeHistorian(measStore: Historian) extends Historian {
   var begin: Long = -1
@@ -156,4 +157,62 @@ class MeasurementHistoryServiceTest extends DatabaseUsingTestBase with SyncServi
     getMeas1.getMeasurements(0).getIntVal should equal(111)
 
   }
-}
\ No newline at end of file
+
+  test("History Service extremes sampling") {
+    val f = new Fixture
+
+    val sampled = f.service.get(MeasurementHistory.newBuilder.setPointName("meas2").setLimit(2)
+      .setSampling(MeasurementHistory.Sampling.EXTREMES).build).expectOne()
+    sampled.getMeasurementsList.toList.map { _.getTime } should equal(List(100, 300))
+    sampled.getMeasurementsList.toList.map { _.getIntVal } should equal(List(1, 3))
+
+    val all = f.service.get(MeasurementHistory.newBuilder.setPointName("meas3")
+      .setSampling(MeasurementHistory.Sampling.EXTREMES).build).expectOne()
+    all.getMeasurementsList.toList.map { _.getTime } should equal(List(1, 6, 15))
+  }
+
+  test("History Service continuation tokens") {
+    val f = new Fixture
+
+    def request(keepNewest: Boolean) = MeasurementHistory.newBuilder.setPointName("meas2").setLimit(2).setKeepNewest(keepNewest)
+
+    val first = f.service.get(request(false).build).expectOne()
+    first.getMeasurementsList.toList.map { _.getTime } should equal(List(100, 200))
+    first.hasContinuationToken should equal(true)
+
+    val second = f.service.get(request(false).setContinuationToken(first.getContinuationToken).build).expectOne()
+    second.getMeasurementsList.toList.map { _.getTime } should equal(List(300))
+    second.hasContinuationToken should equal(false)
+
+    val newest = f.service.get(request(true).build).expectOne()
+    newest.getMeasurementsList.toList.map { _.getTime } should equal(List(200, 300))
+
+    val older = f.service.get(request(true).setContinuationToken(newest.getContinuationToken).build).expectOne()
+    older.getMeasurementsList.toList.map { _.getTime } should equal(List(100))
+
+    intercept[BadRequestException] {
+      f.service.get(request(true).setContinuationToken("garbage").build).expectOne()
+    }
+  }
+
+  test("History Service rollups") {
+    val f = new Fixture
+
+    val rolled = f.service.get(MeasurementHistory.newBuilder.setPointName("meas2").setRollupInterval(200).build).expectOne()
+    rolled.getMeasurementsCount should equal(0)
+    rolled.getRollupsList.toList.map { r => (r.getStartTime, r.getEndTime, r.getCount) } should equal(List((0L, 200L, 1L), (200L, 400L, 2L)))
+    rolled.getRollups(1).getMin should equal(2.0)
+    rolled.getRollups(1).getMax should equal(3.0)
+    rolled.getRollups(1).getMean should equal(2.5)
+    rolled.getRollups(1).getFirstTime should equal(200)
+    rolled.getRollups(1).getLast should equal(3.0)
+
+    val newest = f.service.get(MeasurementHistory.newBuilder.setPointName("meas2").setRollupInterval(200).setLimit(1).build).expectOne()
+    newest.getRollupsList.toList.map { _.getStartTime } should equal(List(200))
+
+    intercept[BadRequestException] {
+      f.service.get(MeasurementHistory.newBuilder.setPointName("meas2").setRollupInterval(200)
+        .setSampling(MeasurementHistory.Sampling.EXTREMES).build).expectOne()
+    }
+  }
+}
@@ -48,6 +48,11 @@ class ProcessStatusCoordinatorTest extends DatabaseUsingTestBase {
       count.update(count.current + 1)
     }
 
+    def publishEvents[A](typ: Envelope.SubscriptionEventType, resps: java.util.List[A], keys: java.util.List[String]) {
+      import scala.collection.JavaConversions._
+      resps.zip(keys).foreach { case (resp, key) => publishEvent(typ, resp, key) }
+    }
+
     def waitForNEvents(n: Int): Boolean = {
       if (count.current == n) return true
       count.waitUntil(n)
@@ -23,7 +23,7 @@ import org.totalgrid.reef.services.HeadersContext
 import org.totalgrid.reef.event.SilentEventSink
 import org.totalgrid.reef.services.framework._
 import org.totalgrid.reef.persistence.squeryl.DbConnection
-import org.totalgrid.reef.services.authz.{ AuthzService, NullAuthzService }
+import org.totalgrid.reef.services.authz.{ AuthzChange, AuthzService, NullAuthzService }
 import java.util.UUID
 import org.totalgrid.reef.models.{ ApplicationSchema, Entity }
 import org.squeryl.PrimitiveTypeMode._
@@ -75,6 +75,11 @@ object SubscriptionTools {
       received ::= SubEvent(typ, value.asInstanceOf[AnyRef], key)
     }
 
+    def publishEvents[A](typ: SubscriptionEventType, values: java.util.List[A], keys: java.util.List[String]) {
+      import scala.collection.JavaConversions._
+      values.zip(keys).foreach { case (value, key) => publishEvent(typ, value, key) }
+    }
+
     def bindQueueByClass[A](subQueue: String, key: String, klass: Class[A]) {}
   }
 
@@ -101,6 +106,7 @@ object SubscriptionTools {
     def authQueue = auth.queue
     def filterRequests = auth.filterRequestQueue
     def filterResponses = auth.filterResponseQueue
+    def invalidations = auth.invalidationQueue
 
     def transaction[A](f: (RequestContext) => A): A = {
       val context = new QueueingRequestContext(subHandler, auth)
@@ -121,6 +127,8 @@ object SubscriptionTools {
     val filterRequestQueue = new scala.collection.mutable.Queue[FilterRequest[_]]
     val filterResponseQueue = new scala.collection.mutable.Queue[List[FilteredResult[_]]]
 
+    val invalidationQueue = new scala.collection.mutable.Queue[AuthzChange]
+
     var filterOn = false
 
     // called by (actual) services
@@ -142,6 +150,8 @@ object SubscriptionTools {
 
     def visibilityMap(context: RequestContext) = VisibilityMap.empty
 
+    def entitiesChanged(uuids: List[UUID]) {}
+
     def authorize(context: RequestContext, componentId: String, action: String, uuids: => List[UUID]) {
 
       val names = uuids.map { ApplicationSchema.entities.lookup(_).get.name }
@@ -153,6 +163,10 @@ object SubscriptionTools {
       context.set(AuthzService.filterService, this)
     }
 
+    def invalidate(context: RequestContext, change: AuthzChange) {
+      invalidationQueue.enqueue(change)
+    }
+
   }
 
 }
\ No newline at end of file
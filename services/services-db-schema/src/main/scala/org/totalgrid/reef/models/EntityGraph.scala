@@ -0,0 +1,163 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.models
+
+import java.util.UUID
+import scala.collection.mutable
+import org.squeryl.PrimitiveTypeMode._
+import com.typesafe.scalalogging.slf4j.Logging
+
+object EntityGraph {
+
+  @volatile private var instance: Option[EntityGraph] = None
+
+  /**
+   * graph that tree queries may use instead of walking the edges table, None if disabled
+   */
+  def current = instance
+
+  def enable(maxAge: Long) {
+    instance = Some(new EntityGraph(maxAge))
+  }
+
+  def disable() {
+    instance = None
+  }
+}
+
+/**
+ * in memory adjacency lists of the entities, their types and edges so entity tree queries can be
+ * answered without a query per level and relationship.
+ *
+ * Entities reported through entitiesChanged (including both ends of any added or removed edge) are
+ * reloaded the next time the graph is used. The whole graph is reloaded after maxAge milliseconds to
+ * pick up changes made by other services nodes. All lookups must be made inside a transaction.
+ */
+class EntityGraph(maxAge: Long, now: () => Long = () => System.currentTimeMillis) extends Logging {
+
+  private val names = mutable.Map.empty[UUID, String]
+  private val types = mutable.Map.empty[UUID, List[String]]
+  // edges keyed by parent and by child, each keyed by edge id so they can be removed cheaply
+  private val down = mutable.Map.empty[UUID, mutable.LinkedHashMap[Long, EntityEdge]]
+  private val up = mutable.Map.empty[UUID, mutable.LinkedHashMap[Long, EntityEdge]]
+
+  private val dirty = mutable.Set.empty[UUID]
+  private var loadedAt: Option[Long] = None
+
+  /**
+   * mark entities as needing to be reloaded, should only be called once the change has been committed
+   */
+  def entitiesChanged(uuids: List[UUID]) = synchronized {
+    dirty ++= uuids
+  }
+
+  def clear() = synchronized {
+    loadedAt = None
+  }
+
+  /**
+   * the (lower entity, edge) pairs linked to the upper entities, same as joining against the edges table
+   * with (child = lower and parent in upper) or (parent = lower and child in upper)
+   */
+  def neighbours(upperIds: List[UUID], descendantOf: Option[Boolean]): List[(UUID, EntityEdge)] = synchronized {
+    prepare()
+    upperIds.distinct.flatMap { id =>
+      val children = if (descendantOf != Some(false)) edgesOf(down, id).map(e => (e.childId, e)) else Nil
+      val parents = if (descendantOf != Some(true)) edgesOf(up, id).map(e => (e.parentId, e)) else Nil
+      children ::: parents
+    }.filter(n => names.contains(n._1))
+  }
+
+  def nameOf(id: UUID): Option[String] = synchronized {
+    prepare()
+    names.get(id)
+  }
+
+  def typesOf(id: UUID): List[String] = synchronized {
+    prepare()
+    types.getOrElse(id, Nil)
+  }
+
+  /**
+   * a new Entity for each call so lazy fields are never shared between requests
+   */
+  def entity(id: UUID): Entity = synchronized {
+    prepare()
+    val ent = new Entity(names(id))
+    ent.id = id
+    ent.types.value = types.getOrElse(id, Nil)
+    ent
+  }
+
+  private def prepare() {
+    if (loadedAt.map(_ + maxAge <= now()).getOrElse(true)) loadAll()
+    if (!dirty.isEmpty) {
+      val toLoad = dirty.toList
+      dirty.clear()
+      reload(toLoad)
+    }
+  }
+
+  private def loadAll() {
+    names.clear(); types.clear(); down.clear(); up.clear(); dirty.clear()
+
+    import ApplicationSchema.{ entities, entityTypes, edges }
+    val loaded = from(entities)(e => select(e.id, e.name)).toList
+    val typeList = from(entityTypes)(t => select(t.entityId, t.entType)).toList
+    val edgeList = from(edges)(e => select(e)).toList
+
+    apply(loaded, typeList, edgeList)
+    loadedAt = Some(now())
+    logger.info("Loaded entity graph with: " + loaded.size + " entities and " + edgeList.size + " edges")
+  }
+
+  private def reload(toLoad: List[UUID]) {
+    import ApplicationSchema.{ entities, entityTypes, edges }
+
+    toLoad.foreach { id =>
+      names -= id
+      types -= id
+      down.remove(id).foreach(_.values.foreach(e => up.get(e.childId).foreach(_ -= e.id)))
+      up.remove(id).foreach(_.values.foreach(e => down.get(e.parentId).foreach(_ -= e.id)))
+    }
+
+    val loaded = from(entities)(e => where(e.id in toLoad) select (e.id, e.name)).toList
+    val typeList = from(entityTypes)(t => where(t.entityId in toLoad) select (t.entityId, t.entType)).toList
+    val edgeList = edges.where(e => (e.parentId in toLoad) or (e.childId in toLoad)).toList
+
+    apply(loaded, typeList, edgeList)
+
+    // the other end of an edge may be an entity added on another node that we haven't seen yet
+    val missing = edgeList.flatMap(e => e.parentId :: e.childId :: Nil).distinct.filterNot(names.contains).diff(toLoad)
+    if (!missing.isEmpty) reload(missing)
+  }
+
+  private def apply(loaded: List[(UUID, String)], typeList: List[(UUID, String)], edgeList: List[EntityEdge]) {
+    loaded.foreach { case (id, name) => names.put(id, name) }
+    typeList.groupBy(_._1).foreach { case (id, joins) => types.put(id, joins.map(_._2).sorted) }
+    edgeList.foreach { e =>
+      down.getOrElseUpdate(e.parentId, mutable.LinkedHashMap.empty) += (e.id -> e)
+      up.getOrElseUpdate(e.childId, mutable.LinkedHashMap.empty) += (e.id -> e)
+    }
+  }
+
+  private def edgesOf(map: mutable.Map[UUID, mutable.LinkedHashMap[Long, EntityEdge]], id: UUID): List[EntityEdge] = {
+    map.get(id).map(_.values.toList).getOrElse(Nil)
+  }
+}
@@ -140,6 +140,14 @@ object EntityTreeQuery {
 
     def id = ent.id
     def build: ResultNode = ResultNode(ent, subs.mapValues(_.map(_.build)))
+
+    /**
+     * drop sub nodes (and everything below them) that fail the check
+     */
+    def prune(keep: ResultNodeBuilder => Boolean) {
+      subs = subs.map { case (rel, nodes) => (rel, nodes.filter(keep)) }.filter(!_._2.isEmpty)
+      subs.values.foreach(_.foreach(_.prune(keep)))
+    }
   }
 
   /**
@@ -187,6 +195,38 @@ object EntityTreeQuery {
       subQueries.foreach(sub => sub.fillChildren(entsOnlyQuery, nodes))
     }
 
+    /**
+     * Same as fillChildren but walks the in memory graph instead of querying each level. The
+     * visibility selector can't be checked in memory so every created node is returned along
+     * with the selector it still needs to pass.
+     */
+    def fillChildren(graph: EntityGraph, upperNodes: List[ResultNodeBuilder]): List[(ResultNodeBuilder, ExpressionNode => LogicalBoolean)] = {
+
+      if (upperNodes.isEmpty) Nil
+      else {
+        val upperIdMap = upperNodes.map(n => (n.id, n)).toMap
+
+        val entEdges = graph.neighbours(upperNodes.map(_.id), descendantOf).filter {
+          case (entId, edge) =>
+            name.forall(n => graph.nameOf(entId) == Some(n)) &&
+              (types.isEmpty || graph.typesOf(entId).exists(types.contains(_))) &&
+              rel.forall(_ == edge.relationship) &&
+              dist.forall(_ == edge.distance)
+        }
+
+        val nodes = entEdges.map {
+          case (entId, edge) =>
+            val rel = Relate(edge.relationship, edge.childId == entId, edge.distance)
+            val upperId = if (edge.childId == entId) edge.parentId else edge.childId
+            val node = new ResultNodeBuilder(graph.entity(entId))
+            upperIdMap(upperId).addSubNode(rel, node)
+            node
+        }
+
+        nodes.map((_, selector)) ::: subQueries.flatMap(_.fillChildren(graph, nodes))
+      }
+    }
+
     protected def lowerQuery(upperIds: List[UUID]) = {
       from(entities, edges)((lowEnt, edge) =>
         where(expressionForThisNode(lowEnt, edge, upperIds))
@@ -227,20 +267,46 @@ object EntityTreeQuery {
     resultsForQuery(queries, rootSelect.toList, rootSelect)
   }
 
+  def resultsForQuery(queries: List[QueryNode], rootSelect: Query[Entity], graph: Option[EntityGraph]): List[ResultNode] = {
+    resultsForQuery(queries, rootSelect.toList, rootSelect, graph)
+  }
+
   /**
    * Executes a recursive search to go from a set of query trees to a set of result trees.
    *
    * @param queries Query tree root nodes
    * @param rootSet Entities from root query
    * @param rootSelect Squeryl/sql select that represents the root set
+   * @param graph in memory graph to walk instead of querying each level
    * @return Result tree root nodes (maps to rootSet) filled out by query
    */
-  def resultsForQuery(queries: List[QueryNode], rootSet: List[Entity], rootSelect: Query[Entity]): List[ResultNode] = {
+  def resultsForQuery(queries: List[QueryNode], rootSet: List[Entity], rootSelect: Query[Entity], graph: Option[EntityGraph] = None): List[ResultNode] = {
     val results = rootSet.map(new ResultNodeBuilder(_)).toList
-    queries.foreach(_.fillChildren(rootSelect, results))
+    graph match {
+      case None => queries.foreach(_.fillChildren(rootSelect, results))
+      case Some(g) =>
+        rootSet.foreach { ent => ent.types.value = g.typesOf(ent.id) }
+        val visible = visibleNodes(queries.flatMap(_.fillChildren(g, results)))
+        results.foreach(_.prune(visible.contains))
+    }
     results.map(_.build)
   }
 
+  /**
+   * checks the nodes found by walking the graph against their selectors, every node normally shares
+   * the same selector so this is a single query
+   */
+  private def visibleNodes(candidates: List[(ResultNodeBuilder, ExpressionNode => LogicalBoolean)]): Set[ResultNodeBuilder] = {
+    if (candidates.isEmpty) Set.empty[ResultNodeBuilder]
+    else {
+      val selector = candidates.head._2
+      val (same, rest) = candidates.partition(_._2 eq selector)
+      val ids = same.map(_._1.id).distinct
+      val allowed = from(entities)(ent => where((ent.id in ids) and selector(ent.id)) select (ent.id)).toList.toSet
+      same.map(_._1).filter(n => allowed.contains(n.id)).toSet ++ visibleNodes(rest)
+    }
+  }
+
   /**
    * Translates a proto entity tree query to the internal, useful
    * representation.
@@ -270,7 +336,7 @@ object EntityTreeQuery {
    * @param proto Proto representation of a entity tree query
    * @return List of root nodes representing result trees.
    */
-  def protoTreeQuery(proto: EntityProto, selector: ExpressionNode => LogicalBoolean): List[ResultNode] = {
+  def protoTreeQuery(proto: EntityProto, selector: ExpressionNode => LogicalBoolean, graph: Option[EntityGraph] = None): List[ResultNode] = {
 
     // For the moment not allowing a root set of everything
     if (proto.uuid.value == None && proto.name == None && proto.getTypesCount == 0)
@@ -299,7 +365,7 @@ object EntityTreeQuery {
 
     // Execute query (unless root set is nil)
     if (rootQuery.size == 0) Nil
-    else resultsForQuery(protoToQuery(proto, selector), rootQuery)
+    else resultsForQuery(protoToQuery(proto, selector), rootQuery, graph)
   }
 
   private val allEntitySelector = { uuid: ExpressionNode => true === true }
@@ -315,14 +381,14 @@ object EntityTreeQuery {
    * @param typ Entity type to return ids of
    * @return List of entity ids from entity query of specified type
    */
-  def typeIdsFromProtoQuery(proto: EntityProto, typ: String): List[UUID] = {
-    protoTreeQuery(proto, allEntitySelector).flatMap(_.idsForType(typ))
+  def typeIdsFromProtoQuery(proto: EntityProto, typ: String, graph: Option[EntityGraph] = None): List[UUID] = {
+    protoTreeQuery(proto, allEntitySelector, graph).flatMap(_.idsForType(typ))
   }
 
   /**
    * Return a list of descendants of the entity aUUID with this entity.
    */
-  def idsFromProtoQuery(proto: EntityProto): List[UUID] = {
-    protoTreeQuery(proto, allEntitySelector).flatMap(_.flatIds())
+  def idsFromProtoQuery(proto: EntityProto, graph: Option[EntityGraph] = None): List[UUID] = {
+    protoTreeQuery(proto, allEntitySelector, graph).flatMap(_.flatIds())
   }
 }
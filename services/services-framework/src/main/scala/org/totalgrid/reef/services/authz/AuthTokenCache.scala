@@ -0,0 +1,136 @@
+/**
+ * Copyright 2011 Green Energy Corp.
+ *
+ * Licensed to Green Energy Corp (www.greenenergycorp.com) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. Green Energy
+ * Corp licenses this file to you under the GNU Affero General Public License
+ * Version 3.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.gnu.org/licenses/agpl.html
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.totalgrid.reef.services.authz
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.JavaConversions._
+
+import org.totalgrid.reef.authz.Permission
+import org.totalgrid.reef.models.Agent
+import org.totalgrid.reef.jmx.{ Timer, Metrics }
+
+object AuthTokenCache {
+
+  /**
+   * fully resolved auth token, expirationTime is the token's own expiration
+   */
+  case class Entry(agent: Agent, permissions: List[Permission], permissionSetIds: Set[Long], expirationTime: Long)
+
+  private case class Cached(entry: Entry, deadline: Long)
+
+  // we hand out a fresh agent each time so the lazy relations are loaded in the caller's transaction
+  def copyAgent(agent: Agent): Agent = {
+    val copy = new Agent(agent.entityId, agent.digest, agent.salt)
+    copy.id = agent.id
+    copy.entity.value = agent.entity.value
+    copy
+  }
+}
+
+/**
+ * in-process cache of resolved auth tokens. An entry is dropped at the earlier of the token's
+ * expiration time or maxAge milliseconds after it was loaded. Changes made through this services
+ * instance invalidate entries as soon as they are committed, maxAge bounds how long a change made
+ * by another services node can go unnoticed.
+ */
+class AuthTokenCache(maxAge: Long, now: () => Long = () => System.currentTimeMillis) {
+  import AuthTokenCache._
+
+  private val entries = new ConcurrentHashMap[String, Cached]
+  private val generationCounter = new AtomicLong(0)
+
+  private val hitCount = new AtomicLong(0)
+  private val missCount = new AtomicLong(0)
+
+  @volatile private var hitMetric: (Int) => Unit = { x => }
+  @volatile private var missMetric: (Int) => Unit = { x => }
+  @volatile private var sizeMetric: (Int) => Unit = { x => }
+  @volatile private var lookupTimer: Timer = new Timer { def apply[A](f: => A) = f }
+
+  def instrument(metrics: Metrics) {
+    hitMetric = metrics.counter("TokenCacheHits")
+    missMetric = metrics.counter("TokenCacheMisses")
+    sizeMetric = metrics.gauge("TokenCacheSize")
+    lookupTimer = metrics.timer("TokenLookupTime")
+  }
+
+  def hits = hitCount.get
+  def misses = missCount.get
+  def size = entries.size
+
+  /**
+   * incremented by every invalidation, a load started before an invalidation must not be cached
+   */
+  def generation = generationCounter.get
+
+  def get(token: String): Option[Entry] = {
+    val cached = entries.get(token)
+    if (cached != null && cached.deadline > now()) {
+      hitCount.incrementAndGet
+      hitMetric(1)
+      Some(cached.entry)
+    } else {
+      if (cached != null) remove(token, cached)
+      missCount.incrementAndGet
+      missMetric(1)
+      None
+    }
+  }
+
+  /**
+   * times the database lookup made on a miss
+   */
+  def timeLookup[A](fun: => A): A = lookupTimer(fun)
+
+  def put(token: String, entry: Entry, loadedGeneration: Long) {
+    val cached = Cached(entry, math.min(entry.expirationTime, now() + maxAge))
+    if (generationCounter.get == loadedGeneration) {
+      entries.put(token, cached)
+      // an invalidation may have slipped in between the check and the put
+      if (generationCounter.get != loadedGeneration) remove(token, cached)
+      sizeMetric(entries.size)
+    }
+  }
+
+  def invalidate(change: AuthzChange) {
+    generationCounter.incrementAndGet
+    change match {
+      case AuthTokenChanged(token) => entries.remove(token)
+      case AgentChanged(agentId) => removeWhere(_.agent.id == agentId)
+      case PermissionSetChanged(setId) => removeWhere(_.permissionSetIds.contains(setId))
+      case EntitiesChanged(_) =>
+    }
+    sizeMetric(entries.size)
+  }
+
+  def clear() {
+    generationCounter.incrementAndGet
+    entries.clear()
+    sizeMetric(0)
+  }
+
+  private def removeWhere(fun: Entry => Boolean) {
+    entries.entrySet.toList.foreach { e => if (fun(e.getValue.entry)) remove(e.getKey, e.getValue) }
+  }
+
+  private def remove(token: String, cached: Cached) {
+    entries.remove(token, cached)
+  }
+}
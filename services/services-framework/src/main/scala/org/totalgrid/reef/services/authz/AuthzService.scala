@@ -33,7 +33,17 @@ object AuthzService {
   def permissions = "permissions"
   def filterService = "filterService"
   def authError = "auth_error"
+  def indexBypass = "authz_index_bypass"
 }
+/**
+ * changes to the model that may make cached authorization state stale
+ */
+sealed trait AuthzChange
+case class AuthTokenChanged(token: String) extends AuthzChange
+case class AgentChanged(agentId: Long) extends AuthzChange
+case class PermissionSetChanged(permissionSetId: Long) extends AuthzChange
+case class EntitiesChanged(uuids: List[UUID]) extends AuthzChange
+
 trait AuthzService {
 
   def filter[A](context: RequestContext, componentId: String, action: String, payload: List[A], uuids: => List[List[UUID]]): List[FilteredResult[A]]
@@ -44,6 +54,9 @@ trait AuthzService {
 
   // load up the permissions sets
   def prepare(context: RequestContext)
+
+  // tell the authz system that an agent, permission set or token has changed
+  def invalidate(context: RequestContext, change: AuthzChange)
 }
 
 class NullAuthzService extends AuthzService {
@@ -53,12 +66,13 @@ class NullAuthzService extends AuthzService {
   def authorize(context: RequestContext, componentId: String, action: String, uuids: => List[UUID]) {}
   def visibilityMap(context: RequestContext) = VisibilityMap.empty
   def prepare(context: RequestContext) {}
+  def invalidate(context: RequestContext, change: AuthzChange) {}
 }
 
 object SqlAuthzService {
   import org.squeryl.PrimitiveTypeMode._
 
-  case class AuthLookup(agent: Agent, permissionSets: List[PermissionSet])
+  case class AuthLookup(agent: Agent, permissionSets: List[PermissionSet], permissionSetIds: List[Long], expirationTime: Long)
 
   def lookupTokens(tokenList: List[String]): Option[AuthLookup] = {
     val now = System.currentTimeMillis
@@ -74,17 +88,19 @@ object SqlAuthzService {
 
     if (!results.isEmpty) {
       val agent = results.head._1.agent.value
-      val permissions = results.flatMap(_._2.map(p => p.proto))
-      Some(AuthLookup(agent, permissions))
+      val sets = results.flatMap(_._2)
+      val expirationTime = results.map(_._1.expirationTime).min
+      Some(AuthLookup(agent, sets.map(_.proto), sets.map(_.id), expirationTime))
     } else {
       None
     }
   }
 }
 
-class SqlAuthzService(filteringService: AuthzFilteringService) extends AuthzService with Logging {
+class SqlAuthzService(filteringService: AuthzFilteringService, val tokenCache: Option[AuthTokenCache]) extends AuthzService with Logging {
   import SqlAuthzService._
 
+  def this(filteringService: AuthzFilteringService) = this(filteringService, None)
   def this() = this(AuthzFilter)
 
   private def getContextPermissions(context: RequestContext) = {
@@ -96,7 +112,7 @@ class SqlAuthzService(filteringService: AuthzFilteringService) extends AuthzServ
 
     val permissions = getContextPermissions(context)
 
-    filteringService.filter(permissions, componentId, action, payload, uuids)
+    filtering(context).filter(permissions, componentId, action, payload, uuids)
   }
 
   def authorize(context: RequestContext, componentId: String, action: String, uuids: => List[UUID]) {
@@ -104,7 +120,7 @@ class SqlAuthzService(filteringService: AuthzFilteringService) extends AuthzServ
     val permissions = getContextPermissions(context)
 
     // just pass in a single boolean value, if it gets filtered we know we are not auhorized
-    val filtered = filteringService.filter(permissions, componentId, action, List(true), List(uuids))
+    val filtered = filtering(context).filter(permissions, componentId, action, List(true), List(uuids))
 
     filtered.find(!_.isAllowed) match {
       case Some(filterResult) => throw new UnauthorizedException(filterResult.toString)
@@ -112,6 +128,15 @@ class SqlAuthzService(filteringService: AuthzFilteringService) extends AuthzServ
     }
   }
 
+  /**
+   * once a request has changed entities its checks can't go through the entity index, the index only
+   * sees committed changes and must not be loaded from this request's transaction
+   */
+  private def filtering(context: RequestContext) = {
+    if (context.get[Boolean](AuthzService.indexBypass).getOrElse(false)) filteringService.withoutIndex
+    else filteringService
+  }
+
   def visibilityMap(context: RequestContext) = {
     // TODO: this is optional only to support bootstrap code
     val permissions = context.get[List[Permission]](AuthzService.permissions)
@@ -131,13 +156,45 @@ class SqlAuthzService(filteringService: AuthzFilteringService) extends AuthzServ
       context.set(AuthzService.authError, "No auth tokens in envelope header")
     } else {
 
-      lookupTokens(List(context.getHeaders.getAuthToken)) match {
+      resolveToken(context.getHeaders.getAuthToken) match {
         case None => context.set(AuthzService.authError, "All tokens unknown or expired")
-        case Some(AuthLookup(agent, permSets)) =>
-          context.set(AuthzService.agent, agent)
-          context.set(AuthzService.permissions, permSets.flatMap { Permission.fromProto(_, agent.entityName) })
+        case Some(entry) =>
+          context.set(AuthzService.agent, AuthTokenCache.copyAgent(entry.agent))
+          context.set(AuthzService.permissions, entry.permissions)
       }
     }
   }
 
+  private def resolveToken(token: String): Option[AuthTokenCache.Entry] = {
+    tokenCache match {
+      case None => loadToken(token)
+      case Some(cache) =>
+        cache.get(token).orElse {
+          val generation = cache.generation
+          val loaded = cache.timeLookup { loadToken(token) }
+          loaded.foreach { cache.put(token, _, generation) }
+          loaded
+        }
+    }
+  }
+
+  private def loadToken(token: String): Option[AuthTokenCache.Entry] = {
+    lookupTokens(List(token)).map {
+      case AuthLookup(agent, permSets, setIds, expirationTime) =>
+        val permissions = permSets.flatMap { Permission.fromProto(_, agent.entityName) }
+        AuthTokenCache.Entry(agent, permissions, setIds.toSet, expirationTime)
+    }
+  }
+
+  def invalidate(context: RequestContext, change: AuthzChange) {
+    // evict once the change is visible to other transactions, otherwise a concurrent load
+    // could put the old values straight back into the cache
+    change match {
+      case EntitiesChanged(uuids) =>
+        context.set(AuthzService.indexBypass, java.lang.Boolean.TRUE)
+        context.operationBuffer.queuePostTransaction { filteringService.entitiesChanged(uuids) }
+      case _ => tokenCache.foreach { cache => context.operationBuffer.queuePostTransaction { cache.invalidate(change) } }
+    }
+  }
+
 }
\ No newline at end of file
@@ -26,4 +26,6 @@ class SilentServiceSubscriptionHandler extends EventPublisher {
   def bindQueueByClass[A](subQueue: String, key: String, klass: Class[A]) {}
 
   def publishEvent[A](typ: SubscriptionEventType, value: A, key: String) {}
+
+  def publishEvents[A](typ: SubscriptionEventType, values: java.util.List[A], keys: java.util.List[String]) {}
 }
\ No newline at end of file
@@ -19,7 +19,7 @@
 package org.totalgrid.reef.services.metrics
 
 import org.totalgrid.reef.services.framework.RequestContext
-import org.totalgrid.reef.services.authz.AuthzService
+import org.totalgrid.reef.services.authz.{ AuthzChange, SqlAuthzService, AuthzService }
 import java.util.UUID
 import org.totalgrid.reef.jmx.Metrics
 
@@ -31,6 +31,11 @@ class AuthzServiceMetricsWrapper(authz: AuthzService, metrics: Metrics) extends
   private val filterCount = metrics.counter("FilterCount")
   private val filterTime = metrics.timer("FilterTime")
 
+  authz match {
+    case sql: SqlAuthzService => sql.tokenCache.foreach { _.instrument(metrics) }
+    case _ =>
+  }
+
   override def filter[A](context: RequestContext, componentId: String, action: String, payload: List[A], uuids: => List[List[UUID]]) = {
     filterCount(1)
     filterTime {
@@ -53,4 +58,6 @@ class AuthzServiceMetricsWrapper(authz: AuthzService, metrics: Metrics) extends
       authz.prepare(context)
     }
   }
-}
\ No newline at end of file
+
+  def invalidate(context: RequestContext, change: AuthzChange) = authz.invalidate(context, change)
+}
@@ -36,7 +36,25 @@ case class ServiceOptions(
     /// maximum # of measurements to allow in the history table
     maxMeasurements: Long,
     /// how often to clean excess measurements from history table
-    trimPeriodMinutes: Long) {
+    trimPeriodMinutes: Long,
+    /// how long a resolved auth token can be reused before rechecking the database (0 => no caching)
+    authTokenCacheSeconds: Int,
+    /// how long the in memory entity index used by authz is trusted before a full reload (0 => query per check)
+    authzEntityIndexSeconds: Int,
+    /// how long the in memory entity graph used for tree queries is trusted before a full reload (0 => query per level)
+    entityGraphSeconds: Int,
+    /// how long measurement batch routes are kept in memory before being read again (0 => query per batch)
+    measurementRoutingCacheSeconds: Int,
+    /// how long event configurations are kept in memory before being read again (0 => query per event)
+    eventConfigCacheSeconds: Int,
+    /// how many requests from a non-atomic batch can run at once (1 => one after another in a single transaction)
+    batchParallelism: Int,
+    /// assign endpoints by the point count and measurement rate of each app's endpoints (false => fewest endpoints)
+    loadAwareAssignment: Boolean,
+    /// most endpoints moved off of overloaded apps when an fep or meas proc comes online (0 => never move endpoints)
+    assignmentRebalanceMaxMoves: Int,
+    /// how often to move endpoints off of apps that have become overloaded (0 => only when an app comes online)
+    assignmentRebalancePeriodSeconds: Int) {
 
   def this(props: Dictionary[Object, Object]) = this(
     PropertyLoading.getBoolean("org.totalgrid.reef.services.metrics", props),
@@ -45,6 +63,15 @@ case class ServiceOptions(
     PropertyLoading.getInt("org.totalgrid.reef.services.slowQueryThresholdMs", props),
     PropertyLoading.getInt("org.totalgrid.reef.services.chattyTransactionThreshold", props, 100),
     PropertyLoading.getLong("org.totalgrid.reef.services.maxMeasurements", props),
-    PropertyLoading.getInt("org.totalgrid.reef.services.trimPeriodMinutes", props))
+    PropertyLoading.getInt("org.totalgrid.reef.services.trimPeriodMinutes", props),
+    PropertyLoading.getInt("org.totalgrid.reef.services.authTokenCacheSeconds", props, 30),
+    PropertyLoading.getInt("org.totalgrid.reef.services.authzEntityIndexSeconds", props, 0),
+    PropertyLoading.getInt("org.totalgrid.reef.services.entityGraphSeconds", props, 0),
+    PropertyLoading.getInt("org.totalgrid.reef.services.measurementRoutingCacheSeconds", props, 0),
+    PropertyLoading.getInt("org.totalgrid.reef.services.eventConfigCacheSeconds", props, 0),
+    PropertyLoading.getInt("org.totalgrid.reef.services.batchParallelism", props, 1),
+    PropertyLoading.getBoolean("org.totalgrid.reef.services.loadAwareAssignment", props, false),
+    PropertyLoading.getInt("org.totalgrid.reef.services.assignmentRebalanceMaxMoves", props, 0),
+    PropertyLoading.getInt("org.totalgrid.reef.services.assignmentRebalancePeriodSeconds", props, 0))
 }
 
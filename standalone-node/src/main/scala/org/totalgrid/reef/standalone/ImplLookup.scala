@@ -50,7 +50,7 @@ object ImplLookup extends Logging {
         simProtocol.addPluginFactory(simFactory)
         simProtocol
       case "calculator" =>
-        new CalculatorProtocol()
+        CalculatorProtocol(properties)
     }
     val protocolNames = PropertyLoading.getString("org.totalgrid.reef.protocols", properties, "benchmark,calculator")
     protocolNames.split(",").toList.map { getProtocolImpl(_) }
@@ -71,7 +71,10 @@ object ImplLookup extends Logging {
     val currentValueType = PropertyLoading.getString("org.totalgrid.reef.mstore.currentValueImpl", properties)
 
     def getMeasImpl(typ: String) = typ match {
-      case "squeryl" => new SqlMeasurementStore({ () => DbConnector.connect(new DbInfo(properties)) })
+      case "squeryl" => new SqlMeasurementStore({ () => DbConnector.connect(new DbInfo(properties)) },
+        partitioning = SqlMeasurementStore.loadPartitioning(properties),
+        rollupTiers = SqlMeasurementStore.loadRollupTiers(properties),
+        retentionMillis = SqlMeasurementStore.loadRetention(properties))
       case "memory" => new InMemoryMeasurementStore()
     }
     logger.info("MeasStore historian: " + historianType + " realtime: " + currentValueType)
@@ -81,7 +81,8 @@ class IntegratedSystem(exe: Executor, configFile: String, resetFirst: Boolean) e
 
     manager.addConsumer(ServiceFactory.create(options, userSettings, nodeSettings, modules))
 
-    applicationManager.addConnectedApplication(new MeasurementProcessorConnectedApplication(measurementStore))
+    val measProcShards = PropertyLoading.getInt("org.totalgrid.reef.measproc.shards", properties, 1)
+    applicationManager.addConnectedApplication(new MeasurementProcessorConnectedApplication(measurementStore, measProcShards))
 
     // we need to load the protocol separately for each node
     loadProtocols(properties, exe).foreach { protocol =>